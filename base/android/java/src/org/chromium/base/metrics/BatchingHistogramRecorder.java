@@ -0,0 +1,154 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.base.metrics;
+
+import org.chromium.base.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Records samples of a single count histogram in batches. Samples are accumulated in a primitive
+ * array and only handed to {@link RecordHistogram} when the batch is full or {@link #flush} is
+ * called, so recording a sample doesn't cross JNI. Intended for hot paths, like per-frame timings,
+ * that record many samples of the same histogram and can flush at a less critical time.
+ *
+ * Samples that haven't been flushed yet are not visible in the histogram; callers should flush at
+ * natural boundaries, like the end of a scroll or of a tab switch. This class is thread-safe, and
+ * expects the native library to be loaded when a batch is flushed.
+ */
+public class BatchingHistogramRecorder {
+    /** Default number of samples in a batch. */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final String mName;
+    private final int mMin;
+    private final int mMax;
+    private final int mNumBuckets;
+    private final int mBatchSize;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private int[] mSamples;
+    @GuardedBy("mLock")
+    private int mCount;
+
+    /**
+     * A batch that isn't in use, taken when the current batch is handed to native. It's only
+     * missing while another thread is flushing, in which case a new batch is allocated.
+     */
+    @GuardedBy("mLock")
+    private int[] mSpareSamples;
+
+    /**
+     * Creates a recorder for the histogram recorded by
+     * {@link RecordHistogram#recordCustomCountHistogram} with the same arguments.
+     * @param name name of the histogram
+     * @param min lower bound for expected sample values. It must be >= 1
+     * @param max upper bounds for expected sample values
+     * @param numBuckets the number of buckets
+     * @param batchSize the number of samples after which a batch is flushed
+     */
+    public BatchingHistogramRecorder(
+            String name, int min, int max, int numBuckets, int batchSize) {
+        assert batchSize > 0;
+        mName = name;
+        mMin = min;
+        mMax = max;
+        mNumBuckets = numBuckets;
+        mBatchSize = batchSize;
+        mSamples = new int[batchSize];
+        mSpareSamples = new int[batchSize];
+    }
+
+    /**
+     * Creates a recorder for the histogram recorded by {@link RecordHistogram#recordTimesHistogram}
+     * with the same name, flushing every {@link #DEFAULT_BATCH_SIZE} samples. Durations are
+     * recorded in milliseconds.
+     */
+    public static BatchingHistogramRecorder forTimesHistogram(String name) {
+        return new BatchingHistogramRecorder(
+                name, 1, (int) TimeUnit.SECONDS.toMillis(10), 50, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a recorder for the histogram recorded by {@link RecordHistogram#recordCountHistogram}
+     * with the same name, flushing every {@link #DEFAULT_BATCH_SIZE} samples.
+     */
+    public static BatchingHistogramRecorder forCountHistogram(String name) {
+        return new BatchingHistogramRecorder(name, 1, 1000000, 50, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Adds a sample to the current batch, and flushes it if it is full.
+     * @param sample sample to be recorded, at least |min| and at most |max| - 1
+     */
+    public void record(int sample) {
+        int[] fullBatch;
+        synchronized (mLock) {
+            mSamples[mCount++] = sample;
+            if (mCount < mBatchSize) return;
+            fullBatch = takeBatchLocked();
+        }
+        commitBatch(fullBatch, mBatchSize);
+    }
+
+    /**
+     * Adds a duration to the current batch, and flushes it if it is full.
+     * @param duration duration to be recorded
+     * @param timeUnit the unit of the duration argument (must be >= MILLISECONDS)
+     */
+    public void recordTime(long duration, TimeUnit timeUnit) {
+        RecordHistogram.assertTimesHistogramSupportsUnit(timeUnit);
+        record(RecordHistogram.clampToInt(timeUnit.toMillis(duration)));
+    }
+
+    /**
+     * Records all the samples of the current batch.
+     */
+    public void flush() {
+        int[] batch;
+        int count;
+        synchronized (mLock) {
+            count = mCount;
+            if (count == 0) return;
+            batch = takeBatchLocked();
+        }
+        commitBatch(batch, count);
+    }
+
+    /**
+     * Returns the number of samples waiting to be flushed.
+     */
+    @VisibleForTesting
+    int getPendingSampleCount() {
+        synchronized (mLock) {
+            return mCount;
+        }
+    }
+
+    /**
+     * Replaces the current batch with an empty one, and returns it. Must be called while holding
+     * |mLock|.
+     */
+    private int[] takeBatchLocked() {
+        int[] batch = mSamples;
+        mSamples = mSpareSamples != null ? mSpareSamples : new int[mBatchSize];
+        mSpareSamples = null;
+        mCount = 0;
+        return batch;
+    }
+
+    private void commitBatch(int[] batch, int count) {
+        // Done outside of the lock, so that other threads can keep recording during the JNI calls.
+        RecordHistogram.recordCustomCountHistogramSamples(
+                mName, batch, count, mMin, mMax, mNumBuckets);
+        synchronized (mLock) {
+            if (mSpareSamples == null) mSpareSamples = batch;
+        }
+    }
+}
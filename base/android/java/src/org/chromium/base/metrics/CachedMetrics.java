@@ -4,6 +4,7 @@
 
 package org.chromium.base.metrics;
 
+import org.chromium.base.VisibleForTesting;
 import org.chromium.base.library_loader.LibraryLoader;
 
 import java.util.ArrayList;
@@ -14,8 +15,24 @@ import java.util.concurrent.TimeUnit;
  * Utility classes for recording UMA metrics before the native library
  * may have been loaded.  Metrics are cached until the library is known
  * to be loaded, then committed to the MetricsService all at once.
+ *
+ * Histogram samples are cached in primitive ring buffers holding at most
+ * {@link #setMaxCachedSamples} samples per metric. Once a buffer is full, the oldest samples are
+ * dropped; the number of dropped samples is recorded when the cached metrics are committed.
  */
 public class CachedMetrics {
+    /** Default number of samples cached per histogram before the native library is loaded. */
+    public static final int DEFAULT_MAX_CACHED_SAMPLES = 256;
+
+    /** Histogram recording the number of samples dropped because a cache was full. */
+    @VisibleForTesting
+    static final String DROPPED_SAMPLES_HISTOGRAM = "UMA.CachedMetrics.DroppedSamples";
+
+    /**
+     * Maximum number of samples cached per histogram. Guarded by the sMetrics lock.
+     */
+    private static int sMaxCachedSamples = DEFAULT_MAX_CACHED_SAMPLES;
+
     /**
      * Base class for cached metric objects. Subclasses are expected to call
      * addToCache() when some metric state gets recorded that requires a later
@@ -53,6 +70,118 @@ public class CachedMetrics {
          * Must be called while holding the synchronized(sMetrics) lock.
          */
         protected abstract void commitAndClear();
+
+        /**
+         * Returns the number of samples that were dropped because the cache was full.
+         * Must be called while holding the synchronized(sMetrics) lock.
+         */
+        protected int getDroppedSampleCount() {
+            return 0;
+        }
+    }
+
+    /**
+     * Ring buffer of primitive samples. It grows as needed up to sMaxCachedSamples samples, after
+     * which each new sample replaces the oldest one. If the limit is lowered, the oldest samples
+     * over the new limit are dropped when the next sample is added. Must only be used while
+     * holding the synchronized(sMetrics) lock.
+     */
+    private static final class SampleBuffer {
+        private static final int MIN_CAPACITY = 8;
+        private static final long[] EMPTY = new long[0];
+
+        private long[] mSamples = EMPTY;
+        /** Index of the oldest sample in |mSamples|. */
+        private int mStart;
+        private int mSize;
+        private int mDropped;
+
+        void add(long sample) {
+            int maxSize = sMaxCachedSamples;
+            while (mSize > 0 && mSize >= maxSize) {
+                // Drops the oldest sample to make room.
+                mStart = (mStart + 1) % mSamples.length;
+                mSize--;
+                mDropped++;
+            }
+            if (maxSize == 0) {
+                mDropped++;
+                return;
+            }
+            if (mSize == mSamples.length) {
+                grow(Math.min(maxSize, Math.max(MIN_CAPACITY, mSize * 2)));
+            }
+            mSamples[(mStart + mSize) % mSamples.length] = sample;
+            mSize++;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        /** Returns the |index|-th oldest sample. */
+        long get(int index) {
+            return mSamples[(mStart + index) % mSamples.length];
+        }
+
+        int getDroppedCount() {
+            return mDropped;
+        }
+
+        /** Removes all the samples and releases the storage. */
+        void clear() {
+            mSamples = EMPTY;
+            mStart = 0;
+            mSize = 0;
+            mDropped = 0;
+        }
+
+        private void grow(int capacity) {
+            long[] samples = new long[capacity];
+            for (int i = 0; i < mSize; i++) {
+                samples[i] = get(i);
+            }
+            mSamples = samples;
+            mStart = 0;
+        }
+    }
+
+    /**
+     * Base class for cached histograms, whose samples are kept in a {@link SampleBuffer} until
+     * they are committed.
+     */
+    private abstract static class CachedHistogram extends CachedMetric {
+        private final SampleBuffer mSamples = new SampleBuffer();
+
+        protected CachedHistogram(String name) {
+            super(name);
+        }
+
+        /**
+         * Caches |sample|. Must be called while holding the synchronized(sMetrics) lock.
+         */
+        protected final void cacheSample(long sample) {
+            mSamples.add(sample);
+            addToCache();
+        }
+
+        /**
+         * Records a cached sample with native.
+         */
+        protected abstract void commitSample(long sample);
+
+        @Override
+        protected final void commitAndClear() {
+            for (int i = 0; i < mSamples.size(); i++) {
+                commitSample(mSamples.get(i));
+            }
+            mSamples.clear();
+        }
+
+        @Override
+        protected int getDroppedSampleCount() {
+            return mSamples.getDroppedCount();
+        }
     }
 
     /**
@@ -90,9 +219,7 @@ public class CachedMetrics {
     }
 
     /** Caches a set of integer histogram samples. */
-    public static class SparseHistogramSample extends CachedMetric {
-        private final List<Integer> mSamples = new ArrayList<Integer>();
-
+    public static class SparseHistogramSample extends CachedHistogram {
         public SparseHistogramSample(String histogramName) {
             super(histogramName);
         }
@@ -102,8 +229,7 @@ public class CachedMetrics {
                 if (LibraryLoader.getInstance().isInitialized()) {
                     recordWithNative(sample);
                 } else {
-                    mSamples.add(sample);
-                    addToCache();
+                    cacheSample(sample);
                 }
             }
         }
@@ -113,17 +239,13 @@ public class CachedMetrics {
         }
 
         @Override
-        protected void commitAndClear() {
-            for (Integer sample : mSamples) {
-                recordWithNative(sample);
-            }
-            mSamples.clear();
+        protected void commitSample(long sample) {
+            recordWithNative((int) sample);
         }
     }
 
     /** Caches a set of enumerated histogram samples. */
-    public static class EnumeratedHistogramSample extends CachedMetric {
-        private final List<Integer> mSamples = new ArrayList<Integer>();
+    public static class EnumeratedHistogramSample extends CachedHistogram {
         private final int mMaxValue;
 
         public EnumeratedHistogramSample(String histogramName, int maxValue) {
@@ -136,8 +258,7 @@ public class CachedMetrics {
                 if (LibraryLoader.getInstance().isInitialized()) {
                     recordWithNative(sample);
                 } else {
-                    mSamples.add(sample);
-                    addToCache();
+                    cacheSample(sample);
                 }
             }
         }
@@ -147,17 +268,13 @@ public class CachedMetrics {
         }
 
         @Override
-        protected void commitAndClear() {
-            for (Integer sample : mSamples) {
-                recordWithNative(sample);
-            }
-            mSamples.clear();
+        protected void commitSample(long sample) {
+            recordWithNative((int) sample);
         }
     }
 
     /** Caches a set of times histogram samples. */
-    public static class TimesHistogramSample extends CachedMetric {
-        private final List<Long> mSamples = new ArrayList<Long>();
+    public static class TimesHistogramSample extends CachedHistogram {
         protected final TimeUnit mTimeUnit;
 
         public TimesHistogramSample(String histogramName, TimeUnit timeUnit) {
@@ -171,8 +288,7 @@ public class CachedMetrics {
                 if (LibraryLoader.getInstance().isInitialized()) {
                     recordWithNative(sample);
                 } else {
-                    mSamples.add(sample);
-                    addToCache();
+                    cacheSample(sample);
                 }
             }
         }
@@ -182,11 +298,8 @@ public class CachedMetrics {
         }
 
         @Override
-        protected void commitAndClear() {
-            for (Long sample : mSamples) {
-                recordWithNative(sample);
-            }
-            mSamples.clear();
+        protected void commitSample(long sample) {
+            recordWithNative(sample);
         }
     }
 
@@ -206,9 +319,7 @@ public class CachedMetrics {
     }
 
     /** Caches a set of boolean histogram samples. */
-    public static class BooleanHistogramSample extends CachedMetric {
-        private final List<Boolean> mSamples = new ArrayList<Boolean>();
-
+    public static class BooleanHistogramSample extends CachedHistogram {
         public BooleanHistogramSample(String histogramName) {
             super(histogramName);
         }
@@ -218,8 +329,7 @@ public class CachedMetrics {
                 if (LibraryLoader.getInstance().isInitialized()) {
                     recordWithNative(sample);
                 } else {
-                    mSamples.add(sample);
-                    addToCache();
+                    cacheSample(sample ? 1 : 0);
                 }
             }
         }
@@ -229,11 +339,8 @@ public class CachedMetrics {
         }
 
         @Override
-        protected void commitAndClear() {
-            for (Boolean sample : mSamples) {
-                recordWithNative(sample);
-            }
-            mSamples.clear();
+        protected void commitSample(long sample) {
+            recordWithNative(sample != 0);
         }
     }
 
@@ -241,8 +348,7 @@ public class CachedMetrics {
      * Caches a set of custom count histogram samples.
      * Corresponds to UMA_HISTOGRAM_CUSTOM_COUNTS C++ macro.
      */
-    public static class CustomCountHistogramSample extends CachedMetric {
-        private final List<Integer> mSamples = new ArrayList<Integer>();
+    public static class CustomCountHistogramSample extends CachedHistogram {
         private final int mMin;
         private final int mMax;
         private final int mNumBuckets;
@@ -259,8 +365,7 @@ public class CachedMetrics {
                 if (LibraryLoader.getInstance().isInitialized()) {
                     recordWithNative(sample);
                 } else {
-                    mSamples.add(sample);
-                    addToCache();
+                    cacheSample(sample);
                 }
             }
         }
@@ -270,11 +375,8 @@ public class CachedMetrics {
         }
 
         @Override
-        protected void commitAndClear() {
-            for (Integer sample : mSamples) {
-                recordWithNative(sample);
-            }
-            mSamples.clear();
+        protected void commitSample(long sample) {
+            recordWithNative((int) sample);
         }
     }
 
@@ -308,14 +410,34 @@ public class CachedMetrics {
         }
     }
 
+    /**
+     * Sets the maximum number of samples cached per histogram before the native library is
+     * loaded. Histograms already caching more samples drop their oldest ones once they record
+     * again.
+     */
+    public static void setMaxCachedSamples(int maxCachedSamples) {
+        assert maxCachedSamples >= 0;
+        synchronized (CachedMetric.sMetrics) {
+            sMaxCachedSamples = maxCachedSamples;
+        }
+    }
+
     /**
      * Calls out to native code to commit any cached histograms and events.
      * Should be called once the native library has been loaded.
      */
     public static void commitCachedMetrics() {
         synchronized (CachedMetric.sMetrics) {
+            int droppedSamples = 0;
             for (CachedMetric metric : CachedMetric.sMetrics) {
+                droppedSamples += metric.getDroppedSampleCount();
                 metric.commitAndClear();
+                // The metric is added back if it caches something again.
+                metric.mCached = false;
+            }
+            CachedMetric.sMetrics.clear();
+            if (droppedSamples > 0) {
+                RecordHistogram.recordCountHistogram(DROPPED_SAMPLES_HISTOGRAM, droppedSamples);
             }
         }
     }
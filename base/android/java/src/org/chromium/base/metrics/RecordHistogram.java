@@ -8,9 +8,8 @@ import org.chromium.base.VisibleForTesting;
 import org.chromium.base.annotations.JNINamespace;
 import org.chromium.base.annotations.MainDex;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -21,15 +20,17 @@ import java.util.concurrent.TimeUnit;
  * are never freed. Caching them on the Java side prevents needing to do costly
  * Java String to C++ string conversions on the C++ side during lookup.
  *
+ * The cache is a concurrent map, so that threads recording samples don't contend on a lock.
+ *
  * Note: the JNI calls are relatively costly - avoid calling these methods in performance-critical
- * code.
+ * code. Code that records many samples of a histogram on a hot path can use a
+ * {@link BatchingHistogramRecorder} to defer the JNI calls to a less critical time.
  */
 @JNINamespace("base::android")
 @MainDex
 public class RecordHistogram {
     private static Throwable sDisabledBy;
-    private static Map<String, Long> sCache =
-            Collections.synchronizedMap(new HashMap<String, Long>());
+    private static final Map<String, Long> sCache = new ConcurrentHashMap<String, Long>();
 
     /**
      * Tests may not have native initialized, so they may need to disable metrics. The value should
@@ -132,6 +133,24 @@ public class RecordHistogram {
         if (result != key) sCache.put(name, result);
     }
 
+    /**
+     * Records the first |count| samples of |samples| in a count histogram, by calling
+     * {@link #recordCustomCountHistogram} for each of them.
+     * @param name name of the histogram
+     * @param samples samples to be recorded, each at least |min| and at most |max| - 1
+     * @param count number of samples to record
+     * @param min lower bound for expected sample values. It must be >= 1
+     * @param max upper bounds for expected sample values
+     * @param numBuckets the number of buckets
+     */
+    static void recordCustomCountHistogramSamples(
+            String name, int[] samples, int count, int min, int max, int numBuckets) {
+        assert count <= samples.length;
+        for (int i = 0; i < count; ++i) {
+            recordCustomCountHistogram(name, samples[i], min, max, numBuckets);
+        }
+    }
+
     /**
      * Records a sample in a linear histogram. This is the Java equivalent for using
      * base::LinearHistogram.
@@ -273,7 +292,7 @@ public class RecordHistogram {
                            + "Consider using CountHistogram instead.";
     }
 
-    private static int clampToInt(long value) {
+    /* package */ static int clampToInt(long value) {
         if (value > Integer.MAX_VALUE) return Integer.MAX_VALUE;
         // Note: Clamping to MIN_VALUE rather than 0, to let base/ histograms code
         // do its own handling of negative values in the future.
@@ -13,8 +13,9 @@ import java.util.WeakHashMap;
 
 /**
  * Java interface to the native chromium scheduler.  Note tasks can be posted before native
- * initialization, but task prioritization is extremely limited. Once the native scheduler
- * is ready, tasks will be migrated over.
+ * initialization, in which case they run on the {@link PreNativeScheduler}, which honors
+ * task priorities but nothing else. Once the native scheduler is ready, tasks will be migrated
+ * over.
  */
 @JNINamespace("base")
 public class PostTask {
@@ -22,6 +23,9 @@ public class PostTask {
     private static Set<TaskRunner> sPreNativeTaskRunners =
             Collections.newSetFromMap(new WeakHashMap<TaskRunner, Boolean>());
 
+    // Lets postTask() skip |sLock|, which is only needed to track task runners.
+    private static volatile boolean sNativeSchedulerReady;
+
     private static final TaskExecutor sTaskExecutors[] = getInitialTaskExecutors();
 
     private static TaskExecutor[] getInitialTaskExecutors() {
@@ -87,14 +91,12 @@ public class PostTask {
      * @param task The task to be run with the specified traits.
      */
     public static void postTask(TaskTraits taskTraits, Runnable task) {
-        synchronized (sLock) {
-            if (sPreNativeTaskRunners != null) {
-                getTaskExecutorForTraits(taskTraits).postTask(taskTraits, task);
-            } else {
-                nativePostTask(taskTraits.mPrioritySetExplicitly, taskTraits.mPriority,
-                        taskTraits.mMayBlock, taskTraits.mExtensionId, taskTraits.mExtensionData,
-                        task);
-            }
+        if (!sNativeSchedulerReady) {
+            getTaskExecutorForTraits(taskTraits).postTask(taskTraits, task);
+        } else {
+            nativePostTask(taskTraits.mPrioritySetExplicitly, taskTraits.mPriority,
+                    taskTraits.mMayBlock, taskTraits.mExtensionId, taskTraits.mExtensionData,
+                    task);
         }
     }
 
@@ -124,6 +126,7 @@ public class PostTask {
                 taskRunner.initNativeTaskRunner();
             }
             sPreNativeTaskRunners = null;
+            sNativeSchedulerReady = true;
         }
     }
 
@@ -131,6 +134,7 @@ public class PostTask {
     @CalledByNative
     private static void onNativeTaskSchedulerShutdown() {
         synchronized (sLock) {
+            sNativeSchedulerReady = false;
             sPreNativeTaskRunners =
                     Collections.newSetFromMap(new WeakHashMap<TaskRunner, Boolean>());
         }
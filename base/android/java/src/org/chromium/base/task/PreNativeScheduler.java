@@ -0,0 +1,202 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.base.task;
+
+import org.chromium.base.VisibleForTesting;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread pool running the tasks of {@link TaskRunnerImpl} and {@link SequencedTaskRunnerImpl}
+ * until the native scheduler is ready.
+ *
+ * Tasks are queued by {@link TaskPriority}, and workers always run the highest priority task
+ * available. Queues are lock-free: posting a task never blocks on another poster or on a worker.
+ * Tasks posted from a worker go to a queue local to that worker, which other workers steal from
+ * when they run out of work, so that tasks spawning tasks don't all contend on the shared queues.
+ * Workers are started on demand and exit after being idle for a while, so the pool goes away on
+ * its own once the task runners have migrated to native.
+ */
+final class PreNativeScheduler {
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    // Matches the core pool size of the AsyncTask thread pool.
+    private static final int WORKER_COUNT = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+    private static final long KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int PRIORITY_COUNT = TaskPriority.HIGHEST + 1;
+
+    private static final PreNativeScheduler sInstance =
+            new PreNativeScheduler(WORKER_COUNT, KEEP_ALIVE_NANOS);
+
+    private final long mKeepAliveNanos;
+
+    /** Tasks posted from threads which are not workers, by priority. */
+    private final ConcurrentLinkedQueue<Runnable>[] mQueues = createQueues();
+
+    /** Running workers, by index. A null slot is a worker that can be started. */
+    private final AtomicReferenceArray<Worker> mWorkers;
+
+    static PreNativeScheduler getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PreNativeScheduler(int workerCount, long keepAliveNanos) {
+        mWorkers = new AtomicReferenceArray<Worker>(workerCount);
+        mKeepAliveNanos = keepAliveNanos;
+    }
+
+    /**
+     * Runs |task| on a worker, after any queued task of a higher priority.
+     * @param priority The {@link TaskPriority} of |task|.
+     */
+    void postTask(int priority, Runnable task) {
+        int index = Math.max(0, Math.min(PRIORITY_COUNT - 1, priority));
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker && ((Worker) thread).mScheduler == this) {
+            ((Worker) thread).mLocalQueues[index].offer(task);
+        } else {
+            mQueues[index].offer(task);
+        }
+        signalWork();
+    }
+
+    /**
+     * Wakes up an idle worker, or starts a new one if none is idle. If all the workers are busy,
+     * one of them picks the work up when it's done with its current task.
+     */
+    private void signalWork() {
+        for (int i = 0; i < mWorkers.length(); i++) {
+            Worker worker = mWorkers.get(i);
+            if (worker != null && worker.unparkIfParked()) return;
+        }
+        for (int i = 0; i < mWorkers.length(); i++) {
+            if (mWorkers.get(i) != null) continue;
+            Worker worker = new Worker(this, i);
+            if (mWorkers.compareAndSet(i, null, worker)) {
+                worker.start();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the highest priority task available to |worker|, or null if there is none. For a
+     * given priority, the worker's own queue comes first, then the shared queue, then the queues
+     * of the other workers.
+     */
+    private Runnable findTask(Worker worker) {
+        for (int priority = PRIORITY_COUNT - 1; priority >= 0; priority--) {
+            Runnable task = worker.mLocalQueues[priority].poll();
+            if (task == null) task = mQueues[priority].poll();
+            if (task == null) task = steal(worker, priority);
+            if (task != null) return task;
+        }
+        return null;
+    }
+
+    private Runnable steal(Worker thief, int priority) {
+        int workerCount = mWorkers.length();
+        for (int i = 1; i < workerCount; i++) {
+            Worker victim = mWorkers.get((thief.mIndex + i) % workerCount);
+            if (victim == null) continue;
+            Runnable task = victim.mLocalQueues[priority].poll();
+            if (task != null) return task;
+        }
+        return null;
+    }
+
+    private boolean hasQueuedTasks() {
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            if (!mQueues[priority].isEmpty()) return true;
+            for (int i = 0; i < mWorkers.length(); i++) {
+                Worker worker = mWorkers.get(i);
+                if (worker != null && !worker.mLocalQueues[priority].isEmpty()) return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentLinkedQueue<Runnable>[] createQueues() {
+        ConcurrentLinkedQueue<Runnable>[] queues = new ConcurrentLinkedQueue[PRIORITY_COUNT];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<Runnable>();
+        }
+        return queues;
+    }
+
+    private static class Worker extends Thread {
+        final PreNativeScheduler mScheduler;
+        final int mIndex;
+
+        /** Tasks posted from this worker, by priority. */
+        final ConcurrentLinkedQueue<Runnable>[] mLocalQueues = createQueues();
+
+        /**
+         * Whether the worker is parked waiting for work. Whoever flips it back to false is
+         * responsible for the worker: a poster unparks it, the worker itself exits.
+         */
+        private final AtomicBoolean mParked = new AtomicBoolean();
+
+        Worker(PreNativeScheduler scheduler, int index) {
+            super("CrPreNativeTask #" + (index + 1));
+            mScheduler = scheduler;
+            mIndex = index;
+        }
+
+        boolean unparkIfParked() {
+            if (!mParked.compareAndSet(true, false)) return false;
+            LockSupport.unpark(this);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable task = mScheduler.findTask(this);
+                    if (task != null) {
+                        task.run();
+                        continue;
+                    }
+                    if (!waitForWork()) return;
+                }
+            } finally {
+                mScheduler.mWorkers.compareAndSet(mIndex, this, null);
+                // A task may have been posted after the last check, while this worker still
+                // looked busy to the poster.
+                if (mScheduler.hasQueuedTasks()) mScheduler.signalWork();
+            }
+        }
+
+        /**
+         * Parks until work is signaled or the keep alive delay expires. Returns false if the
+         * worker should exit.
+         */
+        private boolean waitForWork() {
+            mParked.set(true);
+            // Tasks posted before |mParked| was set didn't wake this worker up.
+            if (mScheduler.hasQueuedTasks()) {
+                mParked.set(false);
+                return true;
+            }
+            long deadline = System.nanoTime() + mScheduler.mKeepAliveNanos;
+            while (mParked.get()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    // Losing this race means a poster is waking this worker up.
+                    return !mParked.compareAndSet(true, false);
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return true;
+        }
+    }
+}
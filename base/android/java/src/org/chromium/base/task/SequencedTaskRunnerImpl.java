@@ -9,8 +9,8 @@ import org.chromium.base.annotations.JNINamespace;
 import javax.annotation.Nullable;
 
 /**
- * Implementation of the abstract class {@link SequencedTaskRunner}. Uses AsyncTasks until
- * native APIs are available.
+ * Implementation of the abstract class {@link SequencedTaskRunner}. Uses the
+ * {@link PreNativeScheduler} until native APIs are available.
  */
 @JNINamespace("base")
 public class SequencedTaskRunnerImpl implements SequencedTaskRunner {
@@ -65,7 +65,7 @@ public class SequencedTaskRunnerImpl implements SequencedTaskRunner {
 
         @Override
         protected void scheduleNext() {
-            AsyncTask.THREAD_POOL_EXECUTOR.execute(this);
+            PreNativeScheduler.getInstance().postTask(mTaskTraits.mPriority, this);
         }
 
         @Override
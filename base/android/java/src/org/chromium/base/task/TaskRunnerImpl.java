@@ -7,14 +7,14 @@ package org.chromium.base.task;
 import org.chromium.base.TraceEvent;
 import org.chromium.base.annotations.JNINamespace;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
 /**
- * Implementation of the abstract class {@link TaskRunnerImpl}. Uses AsyncTasks until
- * native APIs are available.
+ * Implementation of the abstract class {@link TaskRunnerImpl}. Uses the
+ * {@link PreNativeScheduler} until native APIs are available.
  */
 @JNINamespace("base")
 public class TaskRunnerImpl implements TaskRunner {
@@ -23,8 +23,9 @@ public class TaskRunnerImpl implements TaskRunner {
     private final Object mLock = new Object();
     private long mNativeTaskRunnerAndroid;
 
+    // Kept in posting order, so that tasks which haven't run yet migrate to native in order.
     @Nullable
-    private List<PreNativeTask> mPreNativeTasks = new ArrayList<>();
+    private Set<PreNativeTask> mPreNativeTasks = new LinkedHashSet<>();
 
     /**
      * @param traits The TaskTraits associated with this TaskRunnerImpl.
@@ -49,7 +50,7 @@ public class TaskRunnerImpl implements TaskRunner {
             // We don't expect a whole lot of these, if that changes consider pooling them.
             PreNativeTask preNativeTask = new PreNativeTask(task);
             mPreNativeTasks.add(preNativeTask);
-            AsyncTask.THREAD_POOL_EXECUTOR.execute(preNativeTask);
+            PreNativeScheduler.getInstance().postTask(mTaskTraits.mPriority, preNativeTask);
         }
     }
 
@@ -198,4 +198,39 @@ public class RecordHistogramTest {
         Assert.assertEquals(0, oneCount.getDelta());
         Assert.assertEquals(1, twoCount.getDelta());
     }
+
+    /**
+     * Tests recording of count histograms through a {@link BatchingHistogramRecorder}.
+     */
+    @Test
+    @SmallTest
+    public void testBatchingHistogramRecorder() {
+        String histogram = "HelloWorld.BatchedCountMetric";
+        HistogramDelta oneCount = new HistogramDelta(histogram, 1);
+        HistogramDelta twoCount = new HistogramDelta(histogram, 2);
+        BatchingHistogramRecorder recorder =
+                new BatchingHistogramRecorder(histogram, 1, 100, 100, 3);
+
+        recorder.record(1);
+        recorder.record(2);
+        Assert.assertEquals(2, recorder.getPendingSampleCount());
+        Assert.assertEquals(0, oneCount.getDelta());
+        Assert.assertEquals(0, twoCount.getDelta());
+
+        // Filling the batch flushes it.
+        recorder.record(2);
+        Assert.assertEquals(0, recorder.getPendingSampleCount());
+        Assert.assertEquals(1, oneCount.getDelta());
+        Assert.assertEquals(2, twoCount.getDelta());
+
+        recorder.record(1);
+        recorder.flush();
+        Assert.assertEquals(0, recorder.getPendingSampleCount());
+        Assert.assertEquals(2, oneCount.getDelta());
+        Assert.assertEquals(2, twoCount.getDelta());
+
+        // The batching recorder and RecordHistogram record to the same histogram.
+        RecordHistogram.recordCustomCountHistogram(histogram, 2, 1, 100, 100);
+        Assert.assertEquals(3, twoCount.getDelta());
+    }
 }
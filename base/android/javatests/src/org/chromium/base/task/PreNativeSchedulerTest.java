@@ -0,0 +1,122 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.base.task;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for {@link PreNativeScheduler}.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class PreNativeSchedulerTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static Runnable recordOrderTask(final List<Integer> orderList, final int order) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                orderList.add(order);
+            }
+        };
+    }
+
+    @Test
+    @SmallTest
+    public void testHigherPriorityTasksRunFirst() throws Exception {
+        PreNativeScheduler scheduler = new PreNativeScheduler(1, TimeUnit.SECONDS.toNanos(1));
+        final CountDownLatch blockerStarted = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        List<Integer> orderList = Collections.synchronizedList(new ArrayList<Integer>());
+
+        // Keep the only worker busy while the other tasks are queued.
+        scheduler.postTask(TaskPriority.HIGHEST, new Runnable() {
+            @Override
+            public void run() {
+                blockerStarted.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(blockerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.postTask(TaskPriority.LOWEST, recordOrderTask(orderList, 3));
+        scheduler.postTask(TaskPriority.USER_VISIBLE, recordOrderTask(orderList, 2));
+        scheduler.postTask(TaskPriority.HIGHEST, recordOrderTask(orderList, 1));
+        scheduler.postTask(TaskPriority.LOWEST, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        unblock.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertThat(orderList, contains(1, 2, 3));
+    }
+
+    @Test
+    @SmallTest
+    public void testTasksPostedFromWorkersAllRun() throws Exception {
+        final PreNativeScheduler scheduler =
+                new PreNativeScheduler(4, TimeUnit.SECONDS.toNanos(1));
+        final int parentCount = 8;
+        final int childCount = 100;
+        final CountDownLatch done = new CountDownLatch(parentCount * childCount);
+        final Runnable child = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < parentCount; i++) {
+            scheduler.postTask(TaskPriority.USER_VISIBLE, new Runnable() {
+                @Override
+                public void run() {
+                    // These go to the worker's own queue, and may be stolen by the others.
+                    for (int j = 0; j < childCount; j++) {
+                        scheduler.postTask(TaskPriority.USER_VISIBLE, child);
+                    }
+                }
+            });
+        }
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @SmallTest
+    public void testWorkersRestartAfterIdleTimeout() throws Exception {
+        PreNativeScheduler scheduler = new PreNativeScheduler(2, TimeUnit.MILLISECONDS.toNanos(1));
+        for (int i = 0; i < 3; i++) {
+            final CountDownLatch done = new CountDownLatch(1);
+            scheduler.postTask(TaskPriority.USER_VISIBLE, new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            // Let the workers time out.
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.base.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import org.chromium.base.metrics.test.ShadowRecordHistogram;
+import org.chromium.base.test.BaseRobolectricTestRunner;
+
+/**
+ * Tests for {@link CachedMetrics}, with the native library not loaded.
+ */
+@RunWith(BaseRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, shadows = {ShadowRecordHistogram.class})
+public class CachedMetricsTest {
+    private static final String HISTOGRAM = "CachedMetricsTest.Histogram";
+
+    @After
+    public void tearDown() {
+        CachedMetrics.commitCachedMetrics();
+        CachedMetrics.setMaxCachedSamples(CachedMetrics.DEFAULT_MAX_CACHED_SAMPLES);
+        ShadowRecordHistogram.reset();
+    }
+
+    private static int getCount(String name, int sample) {
+        return ShadowRecordHistogram.getHistogramValueCountForTesting(name, sample);
+    }
+
+    @Test
+    public void testSamplesAreCommitted() {
+        CachedMetrics.CustomCountHistogramSample metric =
+                new CachedMetrics.CustomCountHistogramSample(HISTOGRAM, 1, 100, 50);
+        metric.record(1);
+        metric.record(2);
+        metric.record(2);
+
+        // Getting a count from the shadow commits the cached metrics.
+        Assert.assertEquals(1, getCount(HISTOGRAM, 1));
+        Assert.assertEquals(2, getCount(HISTOGRAM, 2));
+
+        // Committing again doesn't record the samples twice.
+        CachedMetrics.commitCachedMetrics();
+        Assert.assertEquals(2, getCount(HISTOGRAM, 2));
+        Assert.assertEquals(0, getCount(CachedMetrics.DROPPED_SAMPLES_HISTOGRAM, 0));
+    }
+
+    @Test
+    public void testOldestSamplesAreDroppedWhenFull() {
+        CachedMetrics.setMaxCachedSamples(3);
+        CachedMetrics.EnumeratedHistogramSample metric =
+                new CachedMetrics.EnumeratedHistogramSample(HISTOGRAM, 10);
+        for (int i = 0; i < 5; i++) {
+            metric.record(i);
+        }
+        CachedMetrics.commitCachedMetrics();
+
+        Assert.assertEquals(0, getCount(HISTOGRAM, 0));
+        Assert.assertEquals(0, getCount(HISTOGRAM, 1));
+        for (int i = 2; i < 5; i++) {
+            Assert.assertEquals(1, getCount(HISTOGRAM, i));
+        }
+        Assert.assertEquals(1, getCount(CachedMetrics.DROPPED_SAMPLES_HISTOGRAM, 2));
+    }
+
+    @Test
+    public void testLoweringCapOnPartlyFilledCache() {
+        CachedMetrics.EnumeratedHistogramSample metric =
+                new CachedMetrics.EnumeratedHistogramSample(HISTOGRAM, 10);
+        for (int i = 0; i < 5; i++) {
+            metric.record(i);
+        }
+        // The cache holds 5 samples but has room for more, so it isn't a full ring.
+        CachedMetrics.setMaxCachedSamples(3);
+        metric.record(5);
+        metric.record(6);
+        CachedMetrics.commitCachedMetrics();
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(0, getCount(HISTOGRAM, i));
+        }
+        for (int i = 4; i < 7; i++) {
+            Assert.assertEquals(1, getCount(HISTOGRAM, i));
+        }
+        Assert.assertEquals(1, getCount(CachedMetrics.DROPPED_SAMPLES_HISTOGRAM, 4));
+    }
+
+    @Test
+    public void testNothingIsCachedWithZeroCap() {
+        CachedMetrics.setMaxCachedSamples(0);
+        CachedMetrics.CustomCountHistogramSample metric =
+                new CachedMetrics.CustomCountHistogramSample(HISTOGRAM, 1, 100, 50);
+        metric.record(1);
+        metric.record(1);
+        CachedMetrics.commitCachedMetrics();
+
+        Assert.assertEquals(0, getCount(HISTOGRAM, 1));
+        Assert.assertEquals(1, getCount(CachedMetrics.DROPPED_SAMPLES_HISTOGRAM, 2));
+    }
+}
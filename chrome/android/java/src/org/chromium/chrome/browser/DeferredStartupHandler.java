@@ -8,19 +8,31 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.os.Looper;
 import android.os.SystemClock;
+import android.support.annotation.IntDef;
 
 import org.chromium.base.ContextUtils;
 import org.chromium.base.ThreadUtils;
 import org.chromium.base.VisibleForTesting;
 import org.chromium.base.metrics.RecordHistogram;
+import org.chromium.base.task.AsyncTask;
 import org.chromium.chrome.browser.metrics.UmaUtils;
 
-import java.util.LinkedList;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Handler for application level tasks to be completed on deferred startup.
+ *
+ * Tasks are run by priority, and in the order they were added within a priority. Each time the UI
+ * thread becomes idle, tasks are run until {@link #IDLE_SLICE_BUDGET_MS} is spent, so that several
+ * short tasks don't wait for one idle period each, while long tasks still leave room for frames.
+ * Tasks that don't touch views can be run on a background thread instead, in the same order.
  */
 public class DeferredStartupHandler {
     private static class Holder {
@@ -28,12 +40,42 @@ public class DeferredStartupHandler {
         private static final DeferredStartupHandler INSTANCE = new DeferredStartupHandler();
     }
 
+    /** Priorities of deferred tasks, from the first to the last to run. */
+    @IntDef({TaskPriority.HIGH, TaskPriority.NORMAL, TaskPriority.LOW})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface TaskPriority {
+        int HIGH = 0;
+        int NORMAL = 1;
+        int LOW = 2;
+        int NUM_ENTRIES = 3;
+    }
+
+    /** Time that can be spent running tasks each time the UI thread becomes idle. */
+    @VisibleForTesting
+    static final long IDLE_SLICE_BUDGET_MS = 8;
+
+    /** A deferred task, and the thread to run it on. */
+    private static class DeferredTask {
+        final Runnable mRunnable;
+        final boolean mRunOnBackgroundThread;
+
+        DeferredTask(Runnable runnable, boolean runOnBackgroundThread) {
+            mRunnable = runnable;
+            mRunOnBackgroundThread = runOnBackgroundThread;
+        }
+    }
+
     private boolean mDeferredStartupCompletedForApp;
-    private long mDeferredStartupDuration;
-    private long mMaxTaskDuration;
     private final Context mAppContext;
 
-    private final Queue<Runnable> mDeferredTasks;
+    // Pending tasks, indexed by priority.
+    private final List<Queue<DeferredTask>> mDeferredTasks;
+
+    // Runs the background tasks, one at a time.
+    private Executor mBackgroundExecutor = AsyncTask.SERIAL_EXECUTOR;
+
+    // Number of tasks handed to the background executor that have not finished yet.
+    private int mPendingBackgroundTaskCount;
 
     /**
      * This class is an application specific object that handles the deferred startup.
@@ -53,7 +95,8 @@ public class DeferredStartupHandler {
 
     protected DeferredStartupHandler() {
         mAppContext = ContextUtils.getApplicationContext();
-        mDeferredTasks = new LinkedList<>();
+        mDeferredTasks = new ArrayList<>(TaskPriority.NUM_ENTRIES);
+        for (int i = 0; i < TaskPriority.NUM_ENTRIES; i++) mDeferredTasks.add(new ArrayDeque<>());
     }
 
     /**
@@ -62,35 +105,77 @@ public class DeferredStartupHandler {
      * tasks.
      */
     public void queueDeferredTasksOnIdleHandler() {
-        mMaxTaskDuration = 0;
-        mDeferredStartupDuration = 0;
-        Looper.myQueue().addIdleHandler(() -> {
-            Runnable currentTask = mDeferredTasks.poll();
-            if (currentTask == null) {
-                if (!mDeferredStartupCompletedForApp) {
-                    mDeferredStartupCompletedForApp = true;
-                    recordDeferredStartupStats();
-                }
-                return false;
+        Looper.myQueue().addIdleHandler(this::runIdleSlice);
+    }
+
+    /**
+     * Runs deferred tasks until they are all done or {@link #IDLE_SLICE_BUDGET_MS} is spent. At
+     * least one task is run on the UI thread, if any is left.
+     * @return Whether tasks remain to be run.
+     */
+    @VisibleForTesting
+    boolean runIdleSlice() {
+        long sliceStartTime = SystemClock.uptimeMillis();
+        boolean ranUiThreadTask = false;
+        Queue<DeferredTask> queue;
+        while ((queue = getNextQueue()) != null) {
+            DeferredTask task = queue.peek();
+            if (!task.mRunOnBackgroundThread && ranUiThreadTask
+                    && SystemClock.uptimeMillis() - sliceStartTime >= IDLE_SLICE_BUDGET_MS) {
+                // The budget is spent, leave the task to the next idle slice.
+                return true;
             }
+            queue.poll();
+            if (task.mRunOnBackgroundThread) {
+                runOnBackgroundThread(task.mRunnable);
+            } else {
+                runTask(task.mRunnable, "Android.DeferredStartup.TaskDuration.UiThread");
+                ranUiThreadTask = true;
+            }
+        }
+        maybeCompleteDeferredStartup();
+        return false;
+    }
 
-            long startTime = SystemClock.uptimeMillis();
-            currentTask.run();
-            long timeTaken = SystemClock.uptimeMillis() - startTime;
+    /** @return The queue of the highest priority that has pending tasks, or null. */
+    private Queue<DeferredTask> getNextQueue() {
+        for (Queue<DeferredTask> queue : mDeferredTasks) {
+            if (!queue.isEmpty()) return queue;
+        }
+        return null;
+    }
 
-            mMaxTaskDuration = Math.max(mMaxTaskDuration, timeTaken);
-            mDeferredStartupDuration += timeTaken;
-            return true;
+    private void runOnBackgroundThread(final Runnable task) {
+        mPendingBackgroundTaskCount++;
+        mBackgroundExecutor.execute(() -> {
+            try {
+                runTask(task, "Android.DeferredStartup.TaskDuration.BackgroundThread");
+            } finally {
+                ThreadUtils.postOnUiThread(() -> {
+                    mPendingBackgroundTaskCount--;
+                    maybeCompleteDeferredStartup();
+                });
+            }
         });
     }
 
+    private static void runTask(Runnable task, String histogramName) {
+        long startTime = SystemClock.uptimeMillis();
+        task.run();
+        RecordHistogram.recordMediumTimesHistogram(
+                histogramName, SystemClock.uptimeMillis() - startTime, TimeUnit.MILLISECONDS);
+    }
+
+    private void maybeCompleteDeferredStartup() {
+        if (mDeferredStartupCompletedForApp || mPendingBackgroundTaskCount > 0
+                || getNextQueue() != null) {
+            return;
+        }
+        mDeferredStartupCompletedForApp = true;
+        recordDeferredStartupStats();
+    }
+
     private void recordDeferredStartupStats() {
-        RecordHistogram.recordLongTimesHistogram(
-                "UMA.Debug.EnableCrashUpload.DeferredStartUpDuration", mDeferredStartupDuration,
-                TimeUnit.MILLISECONDS);
-        RecordHistogram.recordLongTimesHistogram(
-                "UMA.Debug.EnableCrashUpload.DeferredStartUpMaxTaskDuration", mMaxTaskDuration,
-                TimeUnit.MILLISECONDS);
         if (UmaUtils.hasComeToForeground()) {
             RecordHistogram.recordLongTimesHistogram(
                     "UMA.Debug.EnableCrashUpload.DeferredStartUpCompleteTime",
@@ -99,15 +184,36 @@ public class DeferredStartupHandler {
         }
     }
 
+    /**
+     * Adds a single deferred task to the queue, with {@link TaskPriority#NORMAL} priority, to be
+     * run on the UI thread. The caller is responsible for calling queueDeferredTasksOnIdleHandler
+     * after adding tasks.
+     *
+     * @param deferredTask The tasks to be run.
+     */
+    public void addDeferredTask(Runnable deferredTask) {
+        addDeferredTask(deferredTask, TaskPriority.NORMAL, false);
+    }
+
     /**
      * Adds a single deferred task to the queue. The caller is responsible for calling
      * queueDeferredTasksOnIdleHandler after adding tasks.
      *
      * @param deferredTask The tasks to be run.
+     * @param priority The priority of the task. Tasks of the same priority run in order.
+     * @param runOnBackgroundThread Whether the task should run on a background thread when its
+     *         turn comes. Such a task must not touch views. Background tasks run one at a time, in
+     *         order, but may still be running when the next UI thread tasks start.
      */
-    public void addDeferredTask(Runnable deferredTask) {
+    public void addDeferredTask(
+            Runnable deferredTask, @TaskPriority int priority, boolean runOnBackgroundThread) {
         ThreadUtils.assertOnUiThread();
-        mDeferredTasks.add(deferredTask);
+        mDeferredTasks.get(priority).add(new DeferredTask(deferredTask, runOnBackgroundThread));
+    }
+
+    @VisibleForTesting
+    void setBackgroundExecutorForTesting(Executor executor) {
+        mBackgroundExecutor = executor;
     }
 
     /**
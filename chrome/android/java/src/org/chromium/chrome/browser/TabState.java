@@ -21,6 +21,7 @@ import org.chromium.chrome.browser.util.ColorUtils;
 import org.chromium.content_public.browser.WebContents;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -32,9 +33,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.security.GeneralSecurityException;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
 
 /**
@@ -252,99 +253,146 @@ public class TabState {
      * @return TabState that has been restored, or null if it failed.
      */
     private static TabState readState(FileInputStream input, boolean encrypted) throws IOException {
-        DataInputStream stream = null;
-        if (encrypted) {
-            Cipher cipher = CipherFactory.getInstance().getCipher(Cipher.DECRYPT_MODE);
-            if (cipher != null) {
-                stream = new DataInputStream(new CipherInputStream(input, cipher));
-            }
+        if (encrypted) return readEncryptedState(input);
+        if (TabStateJournal.hasJournalHeader(input.getChannel())) {
+            return TabStateJournal.readState(input.getChannel());
         }
-        if (stream == null) stream = new DataInputStream(input);
+
+        DataInputStream stream = new DataInputStream(input);
         try {
-            if (encrypted && stream.readLong() != KEY_CHECKER) {
-                // Got the wrong key, skip the file
-                return null;
-            }
             TabState tabState = new TabState();
             tabState.timestampMillis = stream.readLong();
             int size = stream.readInt();
-            if (encrypted) {
-                // If it's encrypted, we have to read the stream normally to apply the cipher.
-                byte[] state = new byte[size];
-                stream.readFully(state);
-                tabState.contentsState = new WebContentsState(ByteBuffer.allocateDirect(size));
-                tabState.contentsState.buffer().put(state);
-            } else {
-                // If not, we can mmap the file directly, saving time and copies into the java heap.
-                FileChannel channel = input.getChannel();
-                tabState.contentsState = new WebContentsState(
-                        channel.map(MapMode.READ_ONLY, channel.position(), size));
-                // Skip ahead to avoid re-reading data that mmap'd.
-                long skipped = input.skip(size);
-                if (skipped != size) {
-                    Log.e(TAG, "Only skipped " + skipped + " bytes when " + size + " should've "
-                            + "been skipped. Tab restore may fail.");
-                }
-            }
-            tabState.parentId = stream.readInt();
-            try {
-                tabState.openerAppId = stream.readUTF();
-                if ("".equals(tabState.openerAppId)) tabState.openerAppId = null;
-            } catch (EOFException eof) {
-                // Could happen if reading a version of a TabState that does not include the app id.
-                Log.w(TAG, "Failed to read opener app id state from tab state");
-            }
-            try {
-                tabState.contentsState.setVersion(stream.readInt());
-            } catch (EOFException eof) {
-                // On the stable channel, the first release is version 18. For all other channels,
-                // chrome 25 is the first release.
-                tabState.contentsState.setVersion(isStableChannelBuild() ? 0 : 1);
-
-                // Could happen if reading a version of a TabState that does not include the
-                // version id.
-                Log.w(TAG, "Failed to read saved state version id from tab state. Assuming "
-                        + "version " + tabState.contentsState.version());
-            }
-            try {
-                // Skip obsolete sync ID.
-                stream.readLong();
-            } catch (EOFException eof) {
-            }
-            try {
-                tabState.shouldPreserve = stream.readBoolean();
-            } catch (EOFException eof) {
-                // Could happen if reading a version of TabState without this flag set.
-                tabState.shouldPreserve = false;
-                Log.w(TAG, "Failed to read shouldPreserve flag from tab state. "
-                        + "Assuming shouldPreserve is false");
-            }
-            tabState.mIsIncognito = encrypted;
-            try {
-                tabState.themeColor = stream.readInt();
-                tabState.mHasThemeColor = ColorUtils.isValidThemeColor(tabState.themeColor);
-            } catch (EOFException eof) {
-                // Could happen if reading a version of TabState without a theme color.
-                tabState.themeColor = Color.WHITE;
-                tabState.mHasThemeColor = false;
-                Log.w(TAG, "Failed to read theme color from tab state. "
-                        + "Assuming theme color is white");
-            }
-            try {
-                tabState.tabLaunchTypeAtCreation = stream.readInt();
-                if (tabState.tabLaunchTypeAtCreation == -1) tabState.tabLaunchTypeAtCreation = null;
-            } catch (EOFException eof) {
-                tabState.tabLaunchTypeAtCreation = null;
-                Log.w(TAG,
-                        "Failed to read tab launch type at creation from tab state. "
-                                + "Assuming tab launch type is null");
+            // Mmap the file directly, saving time and copies into the java heap.
+            FileChannel channel = input.getChannel();
+            tabState.contentsState = new WebContentsState(
+                    channel.map(MapMode.READ_ONLY, channel.position(), size));
+            // Skip ahead to avoid re-reading data that mmap'd.
+            long skipped = input.skip(size);
+            if (skipped != size) {
+                Log.e(TAG, "Only skipped " + skipped + " bytes when " + size + " should've "
+                        + "been skipped. Tab restore may fail.");
             }
+            readStateAfterContents(stream, tabState, false);
             return tabState;
         } finally {
             stream.close();
         }
     }
 
+    /**
+     * Restores an encrypted TabState file. The whole file is mapped and decrypted into a single
+     * direct buffer, and the contents state is a slice of that buffer, so that the contents state
+     * isn't held in the Java heap on the way.
+     * @param input Location of the TabState file.
+     * @return TabState that has been restored, or null if it failed.
+     */
+    private static TabState readEncryptedState(FileInputStream input) throws IOException {
+        Cipher cipher = CipherFactory.getInstance().getCipher(Cipher.DECRYPT_MODE);
+        if (cipher == null) return null;
+
+        FileChannel channel = input.getChannel();
+        ByteBuffer encryptedState = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        ByteBuffer state =
+                ByteBuffer.allocateDirect(cipher.getOutputSize(encryptedState.remaining()));
+        try {
+            cipher.doFinal(encryptedState, state);
+        } catch (GeneralSecurityException e) {
+            // Likely saved with another key, which also fails the key check below.
+            Log.w(TAG, "Failed to decrypt tab state.");
+            return null;
+        }
+        state.flip();
+
+        // Key checker, timestamp and contents state size.
+        final int headerSize = 8 + 8 + 4;
+        if (state.remaining() < headerSize || state.getLong() != KEY_CHECKER) {
+            // Got the wrong key, skip the file
+            return null;
+        }
+        TabState tabState = new TabState();
+        tabState.timestampMillis = state.getLong();
+        int size = state.getInt();
+        if (size < 0 || size > state.remaining()) throw new EOFException();
+
+        // Slice the contents state so that its capacity is its size, as native code expects.
+        int contentsEnd = state.position() + size;
+        int stateEnd = state.limit();
+        state.limit(contentsEnd);
+        tabState.contentsState = new WebContentsState(state.slice());
+
+        // The rest is a handful of small fields, read through a stream to share the handling of
+        // older versions.
+        byte[] rest = new byte[stateEnd - contentsEnd];
+        state.limit(stateEnd);
+        state.position(contentsEnd);
+        state.get(rest);
+        readStateAfterContents(
+                new DataInputStream(new ByteArrayInputStream(rest)), tabState, true);
+        return tabState;
+    }
+
+    /**
+     * Reads the fields of a TabState file which follow the contents state, tolerating files saved
+     * by older versions which lack some of them.
+     */
+    private static void readStateAfterContents(
+            DataInputStream stream, TabState tabState, boolean encrypted) throws IOException {
+        tabState.parentId = stream.readInt();
+        try {
+            tabState.openerAppId = stream.readUTF();
+            if ("".equals(tabState.openerAppId)) tabState.openerAppId = null;
+        } catch (EOFException eof) {
+            // Could happen if reading a version of a TabState that does not include the app id.
+            Log.w(TAG, "Failed to read opener app id state from tab state");
+        }
+        try {
+            tabState.contentsState.setVersion(stream.readInt());
+        } catch (EOFException eof) {
+            // On the stable channel, the first release is version 18. For all other channels,
+            // chrome 25 is the first release.
+            tabState.contentsState.setVersion(isStableChannelBuild() ? 0 : 1);
+
+            // Could happen if reading a version of a TabState that does not include the
+            // version id.
+            Log.w(TAG, "Failed to read saved state version id from tab state. Assuming "
+                    + "version " + tabState.contentsState.version());
+        }
+        try {
+            // Skip obsolete sync ID.
+            stream.readLong();
+        } catch (EOFException eof) {
+        }
+        try {
+            tabState.shouldPreserve = stream.readBoolean();
+        } catch (EOFException eof) {
+            // Could happen if reading a version of TabState without this flag set.
+            tabState.shouldPreserve = false;
+            Log.w(TAG, "Failed to read shouldPreserve flag from tab state. "
+                    + "Assuming shouldPreserve is false");
+        }
+        tabState.mIsIncognito = encrypted;
+        try {
+            tabState.themeColor = stream.readInt();
+            tabState.mHasThemeColor = ColorUtils.isValidThemeColor(tabState.themeColor);
+        } catch (EOFException eof) {
+            // Could happen if reading a version of TabState without a theme color.
+            tabState.themeColor = Color.WHITE;
+            tabState.mHasThemeColor = false;
+            Log.w(TAG, "Failed to read theme color from tab state. "
+                    + "Assuming theme color is white");
+        }
+        try {
+            tabState.tabLaunchTypeAtCreation = stream.readInt();
+            if (tabState.tabLaunchTypeAtCreation == -1) tabState.tabLaunchTypeAtCreation = null;
+        } catch (EOFException eof) {
+            tabState.tabLaunchTypeAtCreation = null;
+            Log.w(TAG,
+                    "Failed to read tab launch type at creation from tab state. "
+                            + "Assuming tab launch type is null");
+        }
+    }
+
     private static byte[] getContentStateByteArray(ByteBuffer buffer) {
         byte[] contentsStateBytes = new byte[buffer.limit()];
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -361,6 +409,9 @@ public class TabState {
 
     /**
      * Writes the TabState to disk. This method may be called on either the UI or background thread.
+     * Unencrypted TabStates are saved to a {@link TabStateJournal}, so that only what changed since
+     * the last save is written. Encrypted ones are rewritten entirely, as the cipher stream can't
+     * be appended to.
      * @param file File to write the tab's state to.
      * @param state State object obtained from from {@link Tab#getState()}.
      * @param encrypted Whether or not the TabState should be encrypted.
@@ -373,27 +424,32 @@ public class TabState {
         // the tab state file.
         byte[] contentsStateBytes = getContentStateByteArray(state.contentsState.buffer());
 
+        if (!encrypted) {
+            try {
+                TabStateJournal.saveState(file, state, contentsStateBytes);
+            } catch (IOException e) {
+                Log.w(TAG, "IOException while attempting to save TabState.");
+            }
+            return;
+        }
+
         DataOutputStream dataOutputStream = null;
         FileOutputStream fileOutputStream = null;
         try {
             fileOutputStream = new FileOutputStream(file);
 
-            if (encrypted) {
-                Cipher cipher = CipherFactory.getInstance().getCipher(Cipher.ENCRYPT_MODE);
-                if (cipher != null) {
-                    dataOutputStream = new DataOutputStream(new BufferedOutputStream(
-                            new CipherOutputStream(fileOutputStream, cipher)));
-                } else {
-                    // If cipher is null, getRandomBytes failed, which means encryption is
-                    // meaningless. Therefore, do not save anything. This will cause users
-                    // to lose Incognito state in certain cases. That is annoying, but is
-                    // better than failing to provide the guarantee of Incognito Mode.
-                    return;
-                }
+            Cipher cipher = CipherFactory.getInstance().getCipher(Cipher.ENCRYPT_MODE);
+            if (cipher != null) {
+                dataOutputStream = new DataOutputStream(new BufferedOutputStream(
+                        new CipherOutputStream(fileOutputStream, cipher)));
             } else {
-                dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+                // If cipher is null, getRandomBytes failed, which means encryption is
+                // meaningless. Therefore, do not save anything. This will cause users
+                // to lose Incognito state in certain cases. That is annoying, but is
+                // better than failing to provide the guarantee of Incognito Mode.
+                return;
             }
-            if (encrypted) dataOutputStream.writeLong(KEY_CHECKER);
+            dataOutputStream.writeLong(KEY_CHECKER);
             dataOutputStream.writeLong(state.timestampMillis);
             dataOutputStream.writeInt(contentsStateBytes.length);
             dataOutputStream.write(contentsStateBytes);
@@ -464,6 +520,15 @@ public class TabState {
         if (file.exists() && !file.delete()) Log.e(TAG, "Failed to delete TabState: " + file);
     }
 
+    /**
+     * Deletes the temporary files left by TabState saves that were interrupted, which nothing else
+     * would clean up.
+     * @param directory Directory containing the TabState files.
+     */
+    public static void deleteStaleTempFiles(File directory) {
+        TabStateJournal.deleteStaleTempFiles(directory);
+    }
+
     /** @return Title currently being displayed in the saved state's current entry. */
     public String getDisplayTitleFromState() {
         return nativeGetDisplayTitleFromByteBuffer(contentsState.buffer(), contentsState.version());
@@ -0,0 +1,561 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.chrome.browser;
+
+import android.util.Log;
+
+import org.chromium.base.StreamUtil;
+import org.chromium.base.VisibleForTesting;
+import org.chromium.chrome.browser.util.ColorUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file format for unencrypted {@link TabState}s.
+ *
+ * Instead of rewriting the whole TabState every time a tab is saved, saving appends records for
+ * what changed since the last save: a metadata record when the timestamp, parent, theme color etc.
+ * changed, and a contents record when the navigation history changed. A contents record is either
+ * the whole WebContents state, or a delta against the previous one, which is usually a few hundred
+ * bytes for a navigation. Reading replays the records. Once the journal gets too long or too big
+ * compared to the state it describes, it is compacted back to one record of each kind.
+ *
+ * Every record carries a checksum, so that a record torn by a crash in the middle of an append is
+ * ignored along with anything after it, leaving the state as of the previous save.
+ *
+ * What the last save of a journal wrote is remembered for the few most recently saved tabs, so
+ * that saving them again doesn't replay their journal, as long as the file is as that save left it.
+ */
+final class TabStateJournal {
+    private static final String TAG = "TabStateJournal";
+
+    /**
+     * Starts every journal. Legacy TabState files start with the timestamp, which can't have these
+     * high bits set.
+     */
+    private static final int MAGIC = 0x54534a4c;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte RECORD_METADATA = 1;
+    private static final byte RECORD_CONTENTS = 2;
+    private static final byte RECORD_CONTENTS_DELTA = 3;
+
+    /** Record type, payload length and checksum. */
+    private static final int RECORD_OVERHEAD = 9;
+
+    private static final byte DELTA_COPY = 0;
+    private static final byte DELTA_INSERT = 1;
+
+    /** Size of the blocks of the previous contents that deltas look for in the new ones. */
+    private static final int DELTA_BLOCK_SIZE = 32;
+
+    /** Number of records past which the journal is compacted. */
+    @VisibleForTesting
+    static final int MAX_RECORD_COUNT = 32;
+
+    /** The journal is compacted when it is this many times bigger than once compacted. */
+    private static final int MAX_SIZE_RATIO = 2;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /** Number of journals whose last save is remembered. */
+    private static final int MAX_SAVED_JOURNALS = 8;
+
+    /** Serializes saves, so that appends to the same journal don't interleave. */
+    private static final Object sLock = new Object();
+
+    /**
+     * The last save of recently saved journals, by path, least recently saved first. Guarded by
+     * {@link #sLock}.
+     */
+    private static final Map<String, SavedJournal> sSavedJournals =
+            new LinkedHashMap<String, SavedJournal>(MAX_SAVED_JOURNALS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SavedJournal> eldest) {
+                    return size() > MAX_SAVED_JOURNALS;
+                }
+            };
+
+    /** The state described by a journal, as of its last valid record. */
+    private static class Replay {
+        byte[] metadata;
+        int contentsVersion;
+        /** The current contents, either inside the mapped journal or rebuilt from deltas. */
+        ByteBuffer contents;
+        /** Offset of {@link #contents} in the journal, or -1 if it was rebuilt from deltas. */
+        long contentsOffset = -1;
+        int recordCount;
+        long validLength = HEADER_SIZE;
+    }
+
+    /** The state a save left a journal in, along with what the file looked like afterwards. */
+    private static class SavedJournal {
+        final Replay replay;
+        final long lastModified;
+
+        SavedJournal(Replay replay, long lastModified) {
+            this.replay = replay;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private TabStateJournal() {}
+
+    /**
+     * @param channel Channel of a TabState file. Its position isn't changed.
+     * @return Whether the file is a journal, as opposed to a legacy TabState file.
+     */
+    static boolean hasJournalHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) return false;
+        }
+        return header.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Restores a TabState from a journal.
+     * @param channel Channel of the journal, as checked by {@link #hasJournalHeader}.
+     * @return TabState that has been restored, or null if the journal holds no complete state.
+     */
+    static TabState readState(FileChannel channel) throws IOException {
+        Replay replay = replay(channel);
+        if (replay == null || replay.metadata == null || replay.contents == null) return null;
+
+        TabState tabState = new TabState();
+        readMetadata(tabState, replay.metadata);
+        ByteBuffer contents;
+        if (replay.contentsOffset >= 0) {
+            // Map the contents on their own, like the legacy format does.
+            contents = channel.map(
+                    MapMode.READ_ONLY, replay.contentsOffset, replay.contents.remaining());
+        } else {
+            contents = ByteBuffer.allocateDirect(replay.contents.remaining());
+            contents.put(replay.contents);
+            contents.rewind();
+        }
+        tabState.contentsState = new TabState.WebContentsState(contents);
+        tabState.contentsState.setVersion(replay.contentsVersion);
+        return tabState;
+    }
+
+    /**
+     * Saves a TabState by appending what changed since the last save to its journal. The file is
+     * rewritten as a new journal if it doesn't hold a valid one, or if it needs compacting.
+     * @param file File to write the tab's state to.
+     * @param state State to save.
+     * @param contents The contents of {@code state.contentsState}, copied out of its buffer.
+     */
+    static void saveState(File file, TabState state, byte[] contents) throws IOException {
+        byte[] metadata = writeMetadata(state);
+        int version = state.contentsState.version();
+        synchronized (sLock) {
+            String path = file.getAbsolutePath();
+            try {
+                saveStateLocked(file, path, metadata, version, contents);
+            } catch (IOException e) {
+                sSavedJournals.remove(path);
+                throw e;
+            }
+        }
+    }
+
+    private static void saveStateLocked(File file, String path, byte[] metadata, int version,
+            byte[] contents) throws IOException {
+        Replay replay = null;
+        SavedJournal saved = sSavedJournals.get(path);
+        if (saved != null && file.length() == saved.replay.validLength
+                && file.lastModified() == saved.lastModified) {
+            replay = saved.replay;
+        } else if (file.exists()) {
+            // Not saved recently, or changed since then.
+            replay = replayFile(file);
+        }
+        if (replay == null || replay.metadata == null || replay.contents == null) {
+            writeCompacted(file, path, metadata, version, contents);
+            return;
+        }
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int recordCount = replay.recordCount;
+        if (!ByteBuffer.wrap(metadata).equals(ByteBuffer.wrap(replay.metadata))) {
+            writeRecord(records, RECORD_METADATA, metadata);
+            recordCount++;
+        }
+        if (version != replay.contentsVersion
+                || !ByteBuffer.wrap(contents).equals(replay.contents)) {
+            byte[] delta = createDelta(replay.contents, version, contents);
+            if (delta.length < contents.length / 2) {
+                writeRecord(records, RECORD_CONTENTS_DELTA, delta);
+            } else {
+                writeRecord(records, RECORD_CONTENTS, writeContents(version, contents));
+            }
+            recordCount++;
+        }
+        if (records.size() == 0) {
+            // Nothing changed since the last save, so there is nothing to write.
+            if (saved == null || replay != saved.replay) {
+                remember(file, path, metadata, version, contents, recordCount, replay.validLength);
+            }
+            return;
+        }
+
+        long compactedLength = HEADER_SIZE + 2 * RECORD_OVERHEAD + metadata.length + 4
+                + contents.length;
+        if (recordCount > MAX_RECORD_COUNT
+                || replay.validLength + records.size() > MAX_SIZE_RATIO * compactedLength) {
+            writeCompacted(file, path, metadata, version, contents);
+            return;
+        }
+
+        RandomAccessFile journal = new RandomAccessFile(file, "rw");
+        try {
+            // Drop a torn record left by a previous append.
+            if (journal.length() != replay.validLength) journal.setLength(replay.validLength);
+            journal.seek(replay.validLength);
+            journal.write(records.toByteArray());
+        } finally {
+            StreamUtil.closeQuietly(journal);
+        }
+        remember(file, path, metadata, version, contents, recordCount,
+                replay.validLength + records.size());
+    }
+
+    /** Remembers that {@code file} now holds the given state. */
+    private static void remember(File file, String path, byte[] metadata, int version,
+            byte[] contents, int recordCount, long length) {
+        Replay replay = new Replay();
+        replay.metadata = metadata;
+        replay.contentsVersion = version;
+        replay.contents = ByteBuffer.wrap(contents);
+        replay.recordCount = recordCount;
+        replay.validLength = length;
+        sSavedJournals.put(path, new SavedJournal(replay, file.lastModified()));
+    }
+
+    /**
+     * Writes a journal holding only the current state next to {@code file}, then moves it over
+     * {@code file}. Moving, rather than truncating, leaves buffers mapped from the old file intact.
+     * The new journal is synced before it is moved, so that a crash can't leave an empty file in
+     * place of the old one.
+     */
+    private static void writeCompacted(File file, String path, byte[] metadata, int version,
+            byte[] contents) throws IOException {
+        // Whatever was remembered about the old journal no longer applies.
+        sSavedJournals.remove(path);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(
+                HEADER_SIZE + 2 * RECORD_OVERHEAD + metadata.length + 4 + contents.length);
+        DataOutputStream header = new DataOutputStream(output);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        writeRecord(output, RECORD_METADATA, metadata);
+        writeRecord(output, RECORD_CONTENTS, writeContents(version, contents));
+
+        File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        FileOutputStream stream = new FileOutputStream(tempFile);
+        try {
+            output.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+        if (!tempFile.renameTo(file)) {
+            // Some file systems refuse to replace the destination.
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Failed to replace " + file);
+            }
+        }
+        remember(file, path, metadata, version, contents, 2, output.size());
+    }
+
+    /**
+     * Deletes the temporary files left in {@code directory} by compactions that were interrupted
+     * by the app being killed.
+     */
+    static void deleteStaleTempFiles(File directory) {
+        synchronized (sLock) {
+            // Compactions hold the lock, so none is writing its temporary file right now.
+            File[] files = directory.listFiles();
+            if (files == null) return;
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(TEMP_FILE_SUFFIX)) continue;
+                String tabFileName =
+                        name.substring(0, name.length() - TEMP_FILE_SUFFIX.length());
+                if (TabState.parseInfoFromFilename(tabFileName) == null) continue;
+                if (!file.delete()) Log.w(TAG, "Failed to delete " + file);
+            }
+        }
+    }
+
+    private static Replay replayFile(File file) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            if (!hasJournalHeader(channel)) return null;
+            return replay(channel);
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Replays the records of a journal, up to the first one which is incomplete or corrupted.
+     * @return The state described by the journal, or null if its format isn't supported.
+     */
+    private static Replay replay(FileChannel channel) throws IOException {
+        ByteBuffer journal = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        if (journal.getInt(0) != MAGIC || journal.getInt(4) != FORMAT_VERSION) return null;
+
+        Replay replay = new Replay();
+        int position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (journal.limit() - position >= RECORD_OVERHEAD) {
+            byte type = journal.get(position);
+            int length = journal.getInt(position + 1);
+            int payloadOffset = position + 5;
+            if (length < 0 || journal.limit() - payloadOffset - 4 < length) break;
+
+            ByteBuffer payload = slice(journal, payloadOffset, length);
+            crc.reset();
+            crc.update(type);
+            crc.update(toByteArray(payload.duplicate()));
+            if ((int) crc.getValue() != journal.getInt(payloadOffset + length)) break;
+
+            if (type != RECORD_METADATA && length < 4) throw new IOException("Invalid record");
+            if (type == RECORD_METADATA) {
+                replay.metadata = toByteArray(payload);
+            } else if (type == RECORD_CONTENTS) {
+                replay.contentsVersion = payload.getInt(0);
+                replay.contents = slice(journal, payloadOffset + 4, length - 4);
+                replay.contentsOffset = payloadOffset + 4;
+            } else if (type == RECORD_CONTENTS_DELTA) {
+                if (replay.contents == null) throw new IOException("Delta without contents");
+                replay.contentsVersion = payload.getInt(0);
+                replay.contents = applyDelta(replay.contents, payload);
+                replay.contentsOffset = -1;
+            } else {
+                Log.w(TAG, "Ignoring unknown record type " + type);
+            }
+            position = payloadOffset + length + 4;
+            replay.recordCount++;
+            replay.validLength = position;
+        }
+        return replay;
+    }
+
+    private static void writeRecord(ByteArrayOutputStream output, byte type, byte[] payload)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        DataOutputStream stream = new DataOutputStream(output);
+        stream.writeByte(type);
+        stream.writeInt(payload.length);
+        stream.write(payload);
+        stream.writeInt((int) crc.getValue());
+        stream.flush();
+    }
+
+    private static byte[] writeMetadata(TabState state) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(output);
+        stream.writeLong(state.timestampMillis);
+        stream.writeInt(state.parentId);
+        stream.writeUTF(state.openerAppId != null ? state.openerAppId : "");
+        stream.writeBoolean(state.shouldPreserve);
+        stream.writeInt(state.themeColor);
+        stream.writeInt(state.tabLaunchTypeAtCreation != null ? state.tabLaunchTypeAtCreation : -1);
+        stream.close();
+        return output.toByteArray();
+    }
+
+    private static void readMetadata(TabState tabState, byte[] metadata) throws IOException {
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(metadata));
+        tabState.timestampMillis = stream.readLong();
+        tabState.parentId = stream.readInt();
+        tabState.openerAppId = stream.readUTF();
+        if ("".equals(tabState.openerAppId)) tabState.openerAppId = null;
+        tabState.shouldPreserve = stream.readBoolean();
+        tabState.themeColor = stream.readInt();
+        tabState.mHasThemeColor = ColorUtils.isValidThemeColor(tabState.themeColor);
+        tabState.tabLaunchTypeAtCreation = stream.readInt();
+        if (tabState.tabLaunchTypeAtCreation == -1) tabState.tabLaunchTypeAtCreation = null;
+        tabState.mIsIncognito = false;
+    }
+
+    private static byte[] writeContents(int version, byte[] contents) {
+        ByteBuffer payload = ByteBuffer.allocate(4 + contents.length);
+        payload.putInt(version);
+        payload.put(contents);
+        return payload.array();
+    }
+
+    /**
+     * Encodes {@code target} as a list of ranges copied from {@code base} and of inserted bytes.
+     * Blocks of {@code base} are found in {@code target} with a rolling checksum, so that entries
+     * moved by inserted or removed navigations are still copied.
+     */
+    @VisibleForTesting
+    static byte[] createDelta(ByteBuffer baseBuffer, int version, byte[] target)
+            throws IOException {
+        byte[] base = toByteArray(baseBuffer.duplicate());
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int offset = 0; offset + DELTA_BLOCK_SIZE <= base.length;
+                offset += DELTA_BLOCK_SIZE) {
+            int checksum = checksum(base, offset);
+            if (!blocks.containsKey(checksum)) blocks.put(checksum, offset);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(output);
+        stream.writeInt(version);
+        stream.writeInt(target.length);
+        int insertStart = 0;
+        int position = 0;
+        int checksum = target.length >= DELTA_BLOCK_SIZE ? checksum(target, 0) : 0;
+        while (position + DELTA_BLOCK_SIZE <= target.length) {
+            Integer match = blocks.get(checksum);
+            if (match != null && rangeEquals(base, match, target, position, DELTA_BLOCK_SIZE)) {
+                int baseStart = match;
+                int targetStart = position;
+                // Grow the match backward over pending inserted bytes, then forward.
+                while (targetStart > insertStart && baseStart > 0
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart--;
+                    targetStart--;
+                }
+                int end = position + DELTA_BLOCK_SIZE;
+                int baseEnd = match + DELTA_BLOCK_SIZE;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end++;
+                    baseEnd++;
+                }
+                writeInsert(stream, target, insertStart, targetStart);
+                stream.writeByte(DELTA_COPY);
+                stream.writeInt(baseStart);
+                stream.writeInt(end - targetStart);
+                position = end;
+                insertStart = end;
+                if (position + DELTA_BLOCK_SIZE <= target.length) {
+                    checksum = checksum(target, position);
+                }
+            } else if (position + DELTA_BLOCK_SIZE < target.length) {
+                checksum = rollChecksum(
+                        checksum, target[position], target[position + DELTA_BLOCK_SIZE]);
+                position++;
+            } else {
+                break;
+            }
+        }
+        writeInsert(stream, target, insertStart, target.length);
+        stream.close();
+        return output.toByteArray();
+    }
+
+    private static void writeInsert(DataOutputStream stream, byte[] target, int start, int end)
+            throws IOException {
+        if (start == end) return;
+        stream.writeByte(DELTA_INSERT);
+        stream.writeInt(end - start);
+        stream.write(target, start, end - start);
+    }
+
+    @VisibleForTesting
+    static ByteBuffer applyDelta(ByteBuffer base, ByteBuffer delta) throws IOException {
+        int length = delta.getInt(4);
+        if (length < 0) throw new IOException("Invalid delta length");
+        byte[] target = new byte[length];
+        int targetPosition = 0;
+        int position = 8;
+        while (position < delta.limit()) {
+            byte op = delta.get(position);
+            if (op == DELTA_COPY) {
+                int offset = delta.getInt(position + 1);
+                int count = delta.getInt(position + 5);
+                if (offset < 0 || count < 0 || offset > base.limit() - count
+                        || count > length - targetPosition) {
+                    throw new IOException("Invalid delta copy");
+                }
+                slice(base, offset, count).get(target, targetPosition, count);
+                position += 9;
+                targetPosition += count;
+            } else if (op == DELTA_INSERT) {
+                int count = delta.getInt(position + 1);
+                if (count < 0 || count > length - targetPosition
+                        || count > delta.limit() - position - 5) {
+                    throw new IOException("Invalid delta insert");
+                }
+                slice(delta, position + 5, count).get(target, targetPosition, count);
+                position += 5 + count;
+                targetPosition += count;
+            } else {
+                throw new IOException("Unknown delta operation " + op);
+            }
+        }
+        if (targetPosition != length) throw new IOException("Incomplete delta");
+        return ByteBuffer.wrap(target);
+    }
+
+    /**
+     * Checksum of a block, in the style of rsync: the low half sums the bytes, the high half sums
+     * them weighted by their distance to the end of the block.
+     */
+    private static int checksum(byte[] data, int offset) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < DELTA_BLOCK_SIZE; i++) {
+            a += data[offset + i] & 0xff;
+            b += (DELTA_BLOCK_SIZE - i) * (data[offset + i] & 0xff);
+        }
+        return (b << 16) | (a & 0xffff);
+    }
+
+    /** Slides the block of {@code checksum} by one byte. */
+    private static int rollChecksum(int checksum, byte removed, byte added) {
+        int a = (checksum - (removed & 0xff) + (added & 0xff)) & 0xffff;
+        int b = ((checksum >>> 16) - DELTA_BLOCK_SIZE * (removed & 0xff) + a) & 0xffff;
+        return (b << 16) | a;
+    }
+
+    private static boolean rangeEquals(
+            byte[] base, int baseOffset, byte[] target, int targetOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (base[baseOffset + i] != target[targetOffset + i]) return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length);
+        slice.position(offset);
+        return slice.slice();
+    }
+
+    private static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,263 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.chrome.browser.download;
+
+import android.support.annotation.Nullable;
+import android.support.v4.util.AtomicFile;
+
+import org.chromium.base.Log;
+import org.chromium.base.StreamUtil;
+import org.chromium.base.ThreadUtils;
+import org.chromium.base.VisibleForTesting;
+import org.chromium.components.offline_items_collection.ContentId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Stores {@link DownloadSharedPreferenceEntry}s in memory, indexed by {@link ContentId}, and
+ * persists them to a small binary file.
+ *
+ * Adding, replacing or removing an entry only touches that entry. Writes are coalesced: the file
+ * is rewritten once, on |writeExecutor|, for all the changes made within {@link #FLUSH_DELAY_MS}.
+ * Must be used on the UI thread.
+ */
+final class DownloadEntryStore {
+    private static final String TAG = "DownloadEntryStore";
+
+    private static final int MAGIC = 0x444c4e45;
+    @VisibleForTesting
+    static final int FORMAT_VERSION = 1;
+
+    @VisibleForTesting
+    static final long FLUSH_DELAY_MS = 500;
+
+    private static final int FLAG_OFF_THE_RECORD = 1 << 0;
+    private static final int FLAG_CAN_DOWNLOAD_WHILE_METERED = 1 << 1;
+    private static final int FLAG_AUTO_RESUMABLE = 1 << 2;
+    private static final int FLAG_TRANSIENT = 1 << 3;
+
+    /** The size of an encoded entry with empty strings: three UTF lengths, an int and a byte. */
+    private static final int MIN_ENCODED_ENTRY_SIZE = 3 * 2 + 4 + 1;
+
+    private final AtomicFile mFile;
+    private final Executor mWriteExecutor;
+
+    /** Entries in the order they were last added or replaced. */
+    private final List<DownloadSharedPreferenceEntry> mEntries = new ArrayList<>();
+    private final Map<ContentId, DownloadSharedPreferenceEntry> mEntriesById = new HashMap<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushPending = false;
+            flush(false /* synchronous */);
+        }
+    };
+    private boolean mFlushPending;
+
+    /** Incremented with every write, so that a stale write never overwrites a newer one. */
+    private long mGeneration;
+
+    /** The generation of the last write to disk. Guarded by |mFile|. */
+    private long mWrittenGeneration;
+
+    /**
+     * @param file          The file the entries are persisted to.
+     * @param writeExecutor Executor to write the file on. Writes must run in order.
+     */
+    DownloadEntryStore(AtomicFile file, Executor writeExecutor) {
+        mFile = file;
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Reads the entries from disk, replacing the ones in memory.
+     * @return Whether the file existed and could be read.
+     */
+    boolean load() {
+        byte[] data;
+        try {
+            data = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read download entries", e);
+            return false;
+        }
+
+        List<DownloadSharedPreferenceEntry> entries = decode(data);
+        if (entries == null) return false;
+        mEntries.clear();
+        mEntriesById.clear();
+        for (DownloadSharedPreferenceEntry entry : entries) {
+            if (entry.notificationId <= 0) continue;
+            mEntries.add(entry);
+            mEntriesById.put(entry.id, entry);
+        }
+        return true;
+    }
+
+    /** @return The entries, in the order they were last added or replaced. */
+    List<DownloadSharedPreferenceEntry> getEntries() {
+        return mEntries;
+    }
+
+    /** @return The entry for |id|, or null if there is none. */
+    @Nullable
+    DownloadSharedPreferenceEntry get(ContentId id) {
+        return mEntriesById.get(id);
+    }
+
+    /**
+     * Adds |entry|, replacing the one with the same {@link ContentId} if any.
+     * @return Whether anything changed.
+     */
+    boolean put(DownloadSharedPreferenceEntry entry) {
+        DownloadSharedPreferenceEntry previous = mEntriesById.put(entry.id, entry);
+        if (previous != null) {
+            if (previous.equals(entry)) {
+                mEntriesById.put(entry.id, previous);
+                return false;
+            }
+            mEntries.remove(previous);
+        }
+        mEntries.add(entry);
+        return true;
+    }
+
+    /**
+     * Removes the entry for |id|.
+     * @return Whether there was one.
+     */
+    boolean remove(ContentId id) {
+        DownloadSharedPreferenceEntry previous = mEntriesById.remove(id);
+        if (previous == null) return false;
+        mEntries.remove(previous);
+        return true;
+    }
+
+    /**
+     * Persists the entries, after {@link #FLUSH_DELAY_MS} unless |synchronous| is set. Calls made
+     * while a flush is pending are folded into it.
+     * @param synchronous Whether to write the file before returning.
+     */
+    void scheduleFlush(boolean synchronous) {
+        if (synchronous) {
+            if (mFlushPending) {
+                ThreadUtils.getUiThreadHandler().removeCallbacks(mFlushRunnable);
+                mFlushPending = false;
+            }
+            flush(true);
+            return;
+        }
+        if (mFlushPending) return;
+        mFlushPending = true;
+        ThreadUtils.postOnUiThreadDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+    }
+
+    private void flush(boolean synchronous) {
+        final byte[] data = encode(mEntries);
+        final long generation = ++mGeneration;
+        if (synchronous) {
+            write(data, generation);
+            return;
+        }
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(data, generation);
+            }
+        });
+    }
+
+    private void write(byte[] data, long generation) {
+        synchronized (mFile) {
+            if (generation <= mWrittenGeneration) return;
+            mWrittenGeneration = generation;
+            FileOutputStream stream = null;
+            try {
+                stream = mFile.startWrite();
+                stream.write(data);
+                mFile.finishWrite(stream);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write download entries", e);
+                if (stream != null) mFile.failWrite(stream);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static byte[] encode(List<DownloadSharedPreferenceEntry> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * (entries.size() + 1));
+        DataOutputStream stream = new DataOutputStream(bytes);
+        try {
+            stream.writeInt(MAGIC);
+            stream.writeInt(FORMAT_VERSION);
+            stream.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                DownloadSharedPreferenceEntry entry = entries.get(i);
+                stream.writeUTF(entry.id.namespace == null ? "" : entry.id.namespace);
+                stream.writeUTF(entry.id.id == null ? "" : entry.id.id);
+                stream.writeInt(entry.notificationId);
+                stream.writeUTF(entry.fileName == null ? "" : entry.fileName);
+                int flags = 0;
+                if (entry.isOffTheRecord) flags |= FLAG_OFF_THE_RECORD;
+                if (entry.canDownloadWhileMetered) flags |= FLAG_CAN_DOWNLOAD_WHILE_METERED;
+                if (entry.isAutoResumable) flags |= FLAG_AUTO_RESUMABLE;
+                if (entry.isTransient) flags |= FLAG_TRANSIENT;
+                stream.writeByte(flags);
+            }
+            stream.flush();
+        } catch (IOException e) {
+            // Writing to a ByteArrayOutputStream doesn't throw.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return The entries in |data|, or null if it isn't a valid entry file. */
+    @VisibleForTesting
+    @Nullable
+    static List<DownloadSharedPreferenceEntry> decode(byte[] data) {
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (stream.readInt() != MAGIC || stream.readInt() != FORMAT_VERSION) return null;
+            int count = stream.readInt();
+            // Don't trust |count| to size the list before checking that the data can hold it.
+            if (count < 0 || count > stream.available() / MIN_ENCODED_ENTRY_SIZE) {
+                Log.e(TAG, "Corrupt download entries, bad count " + count);
+                return null;
+            }
+            List<DownloadSharedPreferenceEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ContentId id = new ContentId(stream.readUTF(), stream.readUTF());
+                int notificationId = stream.readInt();
+                String fileName = stream.readUTF();
+                int flags = stream.readByte();
+                entries.add(new DownloadSharedPreferenceEntry(id, notificationId,
+                        (flags & FLAG_OFF_THE_RECORD) != 0,
+                        (flags & FLAG_CAN_DOWNLOAD_WHILE_METERED) != 0, fileName,
+                        (flags & FLAG_AUTO_RESUMABLE) != 0, (flags & FLAG_TRANSIENT) != 0));
+            }
+            return entries;
+        } catch (IOException e) {
+            Log.e(TAG, "Corrupt download entries", e);
+            return null;
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+    }
+}
@@ -4,21 +4,26 @@
 
 package org.chromium.chrome.browser.download;
 
+import android.annotation.SuppressLint;
 import android.content.SharedPreferences;
+import android.support.v4.util.AtomicFile;
 
 import org.chromium.base.ContextUtils;
 import org.chromium.base.ObserverList;
 import org.chromium.base.VisibleForTesting;
+import org.chromium.base.task.AsyncTask;
 import org.chromium.components.offline_items_collection.ContentId;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.io.File;
 import java.util.List;
 import java.util.Set;
 
 /**
  * Class for maintaining all entries of DownloadSharedPreferenceEntry.
+ *
+ * The entries used to be stored as a string set in SharedPreferences, which had to be rebuilt and
+ * rewritten in full on every update. They are now kept in a {@link DownloadEntryStore}, and
+ * migrated from SharedPreferences the first time.
  */
 public class DownloadSharedPreferenceHelper {
     /** Observes modifications to the SharedPreferences for {@link DownloadItem}s. */
@@ -29,11 +34,11 @@ public class DownloadSharedPreferenceHelper {
 
     @VisibleForTesting
     static final String KEY_PENDING_DOWNLOAD_NOTIFICATIONS = "PendingDownloadNotifications";
-    private final List<DownloadSharedPreferenceEntry> mDownloadSharedPreferenceEntries =
-            new ArrayList<DownloadSharedPreferenceEntry>();
-    private final ObserverList<Observer> mObservers = new ObserverList<>();
+    @VisibleForTesting
+    static final String ENTRIES_FILE_NAME = "download_notification_entries";
 
-    private SharedPreferences mSharedPrefs;
+    private final DownloadEntryStore mStore;
+    private final ObserverList<Observer> mObservers = new ObserverList<>();
 
     // "Initialization on demand holder idiom"
     private static class LazyHolder {
@@ -49,8 +54,10 @@ public class DownloadSharedPreferenceHelper {
     }
 
     private DownloadSharedPreferenceHelper() {
-        mSharedPrefs = ContextUtils.getAppSharedPreferences();
-        parseDownloadSharedPrefs();
+        File file = new File(
+                ContextUtils.getApplicationContext().getFilesDir(), ENTRIES_FILE_NAME);
+        mStore = new DownloadEntryStore(new AtomicFile(file), AsyncTask.SERIAL_EXECUTOR);
+        if (!mStore.load()) migrateDownloadSharedPrefs();
     }
 
     /**
@@ -59,7 +66,7 @@ public class DownloadSharedPreferenceHelper {
      * @return Whether or not that entry currently has metadata.
      */
     public boolean hasEntry(ContentId id) {
-        return getDownloadSharedPreferenceEntry(id) != null;
+        return mStore.get(id) != null;
     }
 
     /**
@@ -71,18 +78,8 @@ public class DownloadSharedPreferenceHelper {
      */
     public void addOrReplaceSharedPreferenceEntry(
             DownloadSharedPreferenceEntry pendingEntry, boolean forceCommit) {
-        Iterator<DownloadSharedPreferenceEntry> iterator =
-                mDownloadSharedPreferenceEntries.iterator();
-        while (iterator.hasNext()) {
-            DownloadSharedPreferenceEntry entry = iterator.next();
-            if (entry.id.equals(pendingEntry.id)) {
-                if (entry.equals(pendingEntry)) return;
-                iterator.remove();
-                break;
-            }
-        }
-        mDownloadSharedPreferenceEntries.add(pendingEntry);
-        storeDownloadSharedPreferenceEntries(forceCommit);
+        if (!mStore.put(pendingEntry)) return;
+        mStore.scheduleFlush(forceCommit);
 
         for (Observer observer : mObservers) {
             observer.onAddOrReplaceDownloadSharedPreferenceEntry(pendingEntry.id);
@@ -104,20 +101,7 @@ public class DownloadSharedPreferenceHelper {
      * @param id The {@link ContentId} to query for.
      */
     public void removeSharedPreferenceEntry(ContentId id) {
-        Iterator<DownloadSharedPreferenceEntry> iterator =
-                mDownloadSharedPreferenceEntries.iterator();
-        boolean found = false;
-        while (iterator.hasNext()) {
-            DownloadSharedPreferenceEntry entry = iterator.next();
-            if (entry.id.equals(id)) {
-                iterator.remove();
-                found = true;
-                break;
-            }
-        }
-        if (found) {
-            storeDownloadSharedPreferenceEntries(false);
-        }
+        if (mStore.remove(id)) mStore.scheduleFlush(false /* synchronous */);
     }
 
     /**
@@ -125,24 +109,27 @@ public class DownloadSharedPreferenceHelper {
      * return A list of DownloadSharedPreferenceEntry stored in SharedPrefs.
      */
     public List<DownloadSharedPreferenceEntry> getEntries() {
-        return mDownloadSharedPreferenceEntries;
+        return mStore.getEntries();
     }
 
     /**
-     * Parse a list of the DownloadSharedPreferenceEntry from |mSharedPrefs|.
+     * Moves the DownloadSharedPreferenceEntry list from SharedPreferences, where it was stored
+     * by previous versions, to |mStore|.
      */
-    private void parseDownloadSharedPrefs() {
-        if (!mSharedPrefs.contains(KEY_PENDING_DOWNLOAD_NOTIFICATIONS)) return;
+    @SuppressLint("ApplySharedPref")
+    private void migrateDownloadSharedPrefs() {
+        SharedPreferences sharedPrefs = ContextUtils.getAppSharedPreferences();
+        if (!sharedPrefs.contains(KEY_PENDING_DOWNLOAD_NOTIFICATIONS)) return;
         Set<String> entries = DownloadManagerService.getStoredDownloadInfo(
-                mSharedPrefs, KEY_PENDING_DOWNLOAD_NOTIFICATIONS);
+                sharedPrefs, KEY_PENDING_DOWNLOAD_NOTIFICATIONS);
         for (String entryString : entries) {
             DownloadSharedPreferenceEntry entry =
                     DownloadSharedPreferenceEntry.parseFromString(entryString);
-            if (entry.notificationId > 0) {
-                mDownloadSharedPreferenceEntries.add(
-                        DownloadSharedPreferenceEntry.parseFromString(entryString));
-            }
+            if (entry.notificationId > 0) mStore.put(entry);
         }
+        // The entries must be on disk before they are dropped from SharedPreferences.
+        mStore.scheduleFlush(true /* synchronous */);
+        sharedPrefs.edit().remove(KEY_PENDING_DOWNLOAD_NOTIFICATIONS).commit();
     }
 
     /**
@@ -151,12 +138,7 @@ public class DownloadSharedPreferenceHelper {
      * @return a DownloadSharedPreferenceEntry that has the specified {@link ContentId}.
      */
     public DownloadSharedPreferenceEntry getDownloadSharedPreferenceEntry(ContentId id) {
-        for (int i = 0; i < mDownloadSharedPreferenceEntries.size(); ++i) {
-            if (mDownloadSharedPreferenceEntries.get(i).id.equals(id)) {
-                return mDownloadSharedPreferenceEntries.get(i);
-            }
-        }
-        return null;
+        return mStore.get(id);
     }
 
     /**
@@ -174,17 +156,4 @@ public class DownloadSharedPreferenceHelper {
     public void removeObserver(Observer observer) {
         mObservers.removeObserver(observer);
     }
-
-    /**
-     * Helper method to store all the SharedPreferences entries.
-     * @param forceCommit   Whether SharedPreferences should be updated synchronously.
-     */
-    private void storeDownloadSharedPreferenceEntries(boolean forceCommit) {
-        Set<String> entries = new HashSet<String>();
-        for (int i = 0; i < mDownloadSharedPreferenceEntries.size(); ++i) {
-            entries.add(mDownloadSharedPreferenceEntries.get(i).getSharedPreferenceString());
-        }
-        DownloadManagerService.storeDownloadInfo(
-                mSharedPrefs, KEY_PENDING_DOWNLOAD_NOTIFICATIONS, entries, forceCommit);
-    }
 }
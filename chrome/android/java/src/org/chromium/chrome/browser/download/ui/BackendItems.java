@@ -4,6 +4,7 @@
 
 package org.chromium.chrome.browser.download.ui;
 
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import org.chromium.chrome.browser.widget.DateDividedAdapter.TimedItem;
@@ -11,7 +12,7 @@ import org.chromium.chrome.browser.widget.DateDividedAdapter.TimedItem;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Set;
 
 /**
  * Stores a List of DownloadHistoryItemWrappers for a particular download backend.
@@ -44,23 +45,16 @@ public abstract class BackendItems extends ArrayList<DownloadHistoryItemWrapper>
      * TODO(shaktisahu) : Remove this when not needed.
      * Filters out items that match the query and are displayed in this list for the current filter.
      * @param filterType    Filter to use.
-     * @param query         The text to match.
+     * @param searchMatches The items matching the search text, or null if there is none. See
+     *                      {@link DownloadSearchIndex#search}.
      * @param filteredItems List for appending items that match the filter.
      */
-    public void filter(int filterType, String query, List<TimedItem> filteredItems) {
-        if (TextUtils.isEmpty(query)) {
-            filter(filterType, filteredItems);
-            return;
-        }
-
+    public void filter(int filterType, @Nullable Set<DownloadHistoryItemWrapper> searchMatches,
+            List<TimedItem> filteredItems) {
         for (DownloadHistoryItemWrapper item : this) {
-            query = query.toLowerCase(Locale.getDefault());
-            Locale locale = Locale.getDefault();
-            if (item.isVisibleToUser(filterType)
-                    && (item.getDisplayHostname().toLowerCase(locale).contains(query)
-                    || item.getDisplayFileName().toLowerCase(locale).contains(query))) {
-                filteredItems.add(item);
-            }
+            if (!item.isVisibleToUser(filterType)) continue;
+            if (searchMatches != null && !searchMatches.contains(item)) continue;
+            filteredItems.add(item);
         }
     }
 
@@ -94,16 +88,4 @@ public abstract class BackendItems extends ArrayList<DownloadHistoryItemWrapper>
     public void setIsInitialized() {
         mIsInitialized = true;
     }
-
-    /**
-     * Filters out items that are displayed in this list for the current filter.
-     *
-     * @param filterType    Filter to use.
-     * @param filteredItems List for appending items that match the filter.
-     */
-    private void filter(int filterType, List<TimedItem> filteredItems) {
-        for (DownloadHistoryItemWrapper item : this) {
-            if (item.isVisibleToUser(filterType)) filteredItems.add(item);
-        }
-    }
 }
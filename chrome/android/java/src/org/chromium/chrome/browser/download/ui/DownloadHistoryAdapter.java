@@ -45,7 +45,6 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 
 /** Bridges the user's download history and the UI used to display it. */
@@ -69,6 +68,7 @@ public class DownloadHistoryAdapter
 
             if (wrapper != null) {
                 mFilePathsToItemsMap.removeItem(wrapper);
+                mSearchIndex.removeItem(wrapper);
                 if (getSelectionDelegate().isItemSelected(wrapper)) {
                     getSelectionDelegate().toggleSelectionForItem(wrapper);
                 }
@@ -197,6 +197,7 @@ public class DownloadHistoryAdapter
 
     private final FilePathsToDownloadItemsMap mFilePathsToItemsMap =
             new FilePathsToDownloadItemsMap();
+    private final DownloadSearchIndex mSearchIndex = new DownloadSearchIndex();
 
     private SubsectionHeader mPrefetchHeader;
     private final ComponentName mParentComponent;
@@ -334,6 +335,7 @@ public class DownloadHistoryAdapter
 
         getListForItem(wrapper).add(wrapper);
         mFilePathsToItemsMap.addItem(wrapper);
+        mSearchIndex.addItem(wrapper);
         return true;
     }
 
@@ -468,6 +470,7 @@ public class DownloadHistoryAdapter
         // Update the old one.
         DownloadHistoryItemWrapper existingWrapper = list.get(index);
         boolean isUpdated = existingWrapper.replaceItem(item);
+        mSearchIndex.updateItem(existingWrapper);
 
         // Re-add the file mapping once it finishes downloading. This accounts for the backend
         // creating DownloadItems with a null file path, then updating it after the download starts.
@@ -630,26 +633,17 @@ public class DownloadHistoryAdapter
         return mBackendProvider.getSelectionDelegate();
     }
 
-    private boolean matchesQuery(DownloadHistoryItemWrapper item, String query) {
-        if (TextUtils.isEmpty(query)) return true;
-
-        query = query.toLowerCase(Locale.getDefault());
-        Locale locale = Locale.getDefault();
-
-        return item.getDisplayHostname().toLowerCase(locale).contains(query)
-                || item.getDisplayFileName().toLowerCase(locale).contains(query);
-    }
-
     /** Filters the list of downloads to show only files of a specific type. */
     private void filter(@DownloadFilter.Type int filterType) {
         mFilter = filterType;
 
+        Set<DownloadHistoryItemWrapper> searchMatches = mSearchIndex.search(mSearchQuery);
         List<TimedItem> filteredTimedItems = new ArrayList<>();
-        mRegularDownloadItems.filter(mFilter, mSearchQuery, filteredTimedItems);
-        mIncognitoDownloadItems.filter(mFilter, mSearchQuery, filteredTimedItems);
+        mRegularDownloadItems.filter(mFilter, searchMatches, filteredTimedItems);
+        mIncognitoDownloadItems.filter(mFilter, searchMatches, filteredTimedItems);
 
         List<DownloadHistoryItemWrapper> prefetchedItems = new ArrayList<>();
-        filter(mFilter, mSearchQuery, mOfflineItems, filteredTimedItems, prefetchedItems);
+        filter(mFilter, searchMatches, mOfflineItems, filteredTimedItems, prefetchedItems);
 
         clear(false);
 
@@ -703,18 +697,19 @@ public class DownloadHistoryAdapter
      * is expanded. While doing a search, we don't show the prefetch header, but show the items
      * nevertheless.
      * @param filterType The filter to use.
-     * @param query The search text to match.
+     * @param searchMatches The items matching the search text, or null if there is none.
      * @param inputList The input item list.
      * @param filteredItems The output item list (append-only) for the normal section.
      * @param suggestedItems The output item list for the prefetch section.
      */
-    private void filter(int filterType, String query, List<DownloadHistoryItemWrapper> inputList,
-            List<TimedItem> filteredItems, List<DownloadHistoryItemWrapper> suggestedItems) {
+    private void filter(int filterType, @Nullable Set<DownloadHistoryItemWrapper> searchMatches,
+            List<DownloadHistoryItemWrapper> inputList, List<TimedItem> filteredItems,
+            List<DownloadHistoryItemWrapper> suggestedItems) {
         boolean shouldShowSubsectionHeaders = TextUtils.isEmpty(mSearchQuery);
 
         for (DownloadHistoryItemWrapper item : inputList) {
             if (!item.isVisibleToUser(filterType)) continue;
-            if (!matchesQuery(item, query)) continue;
+            if (searchMatches != null && !searchMatches.contains(item)) continue;
 
             if (shouldShowSubsectionHeaders && item.isSuggested()) {
                 suggestedItems.add(item);
@@ -892,6 +887,7 @@ public class DownloadHistoryAdapter
         // Update the old one.
         DownloadHistoryItemWrapper existingWrapper = list.get(index);
         boolean isUpdated = existingWrapper.replaceItem(item);
+        mSearchIndex.updateItem(existingWrapper);
 
         // Re-add the file mapping once it finishes downloading. This accounts for the backend
         // creating DownloadItems with a null file path, then updating it after the download starts.
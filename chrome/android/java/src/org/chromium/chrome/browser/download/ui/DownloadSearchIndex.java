@@ -0,0 +1,119 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.chrome.browser.download.ui;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the {@link DownloadHistoryItemWrapper}s matching the download search query.
+ *
+ * The hostname and file name of each item are lowercased once, when the item is added or updated,
+ * instead of on every keystroke. Results are kept for the chain of queries typed so far, each one
+ * containing the previous one, so that typing a character only narrows down the results of the
+ * previous query, and deleting one goes back to them. The results are kept up to date as items
+ * are added, updated and removed.
+ */
+class DownloadSearchIndex {
+    /** The items matching a query. */
+    private static class SearchResult {
+        final String mQuery;
+        final Set<DownloadHistoryItemWrapper> mMatches;
+
+        SearchResult(String query, Set<DownloadHistoryItemWrapper> matches) {
+            mQuery = query;
+            mMatches = matches;
+        }
+    }
+
+    /** Lowercased hostname and file name of every item, separated by a newline. */
+    private final Map<DownloadHistoryItemWrapper, String> mSearchKeys = new HashMap<>();
+
+    /** Results of the last queries, each one containing the query of the previous one. */
+    private final List<SearchResult> mResults = new ArrayList<>();
+
+    /** Adds |item| to the index. */
+    void addItem(DownloadHistoryItemWrapper item) {
+        String key = buildSearchKey(item);
+        mSearchKeys.put(item, key);
+        for (int i = 0; i < mResults.size(); i++) {
+            SearchResult result = mResults.get(i);
+            if (key.contains(result.mQuery)) result.mMatches.add(item);
+        }
+    }
+
+    /** Updates the index after the hostname or file name of |item| may have changed. */
+    void updateItem(DownloadHistoryItemWrapper item) {
+        String key = buildSearchKey(item);
+        if (key.equals(mSearchKeys.put(item, key))) return;
+        for (int i = 0; i < mResults.size(); i++) {
+            SearchResult result = mResults.get(i);
+            if (key.contains(result.mQuery)) {
+                result.mMatches.add(item);
+            } else {
+                result.mMatches.remove(item);
+            }
+        }
+    }
+
+    /** Removes |item| from the index. */
+    void removeItem(DownloadHistoryItemWrapper item) {
+        if (mSearchKeys.remove(item) == null) return;
+        for (int i = 0; i < mResults.size(); i++) {
+            mResults.get(i).mMatches.remove(item);
+        }
+    }
+
+    /**
+     * Returns the items whose hostname or file name contains |query|, ignoring case. The returned
+     * set is owned by the index, and must not be modified.
+     * @param query The search text.
+     * @return The matching items, or null if |query| is empty and all items match.
+     */
+    @Nullable
+    Set<DownloadHistoryItemWrapper> search(String query) {
+        if (TextUtils.isEmpty(query)) {
+            mResults.clear();
+            return null;
+        }
+        query = query.toLowerCase(Locale.getDefault());
+
+        // Only the results of queries contained in this one can be narrowed down.
+        while (!mResults.isEmpty() && !query.contains(getLastResult().mQuery)) {
+            mResults.remove(mResults.size() - 1);
+        }
+        if (!mResults.isEmpty() && query.equals(getLastResult().mQuery)) {
+            return getLastResult().mMatches;
+        }
+
+        Collection<DownloadHistoryItemWrapper> candidates =
+                mResults.isEmpty() ? mSearchKeys.keySet() : getLastResult().mMatches;
+        Set<DownloadHistoryItemWrapper> matches = new HashSet<>();
+        for (DownloadHistoryItemWrapper item : candidates) {
+            if (mSearchKeys.get(item).contains(query)) matches.add(item);
+        }
+        mResults.add(new SearchResult(query, matches));
+        return matches;
+    }
+
+    private SearchResult getLastResult() {
+        return mResults.get(mResults.size() - 1);
+    }
+
+    private static String buildSearchKey(DownloadHistoryItemWrapper item) {
+        // The newline keeps a query from matching across the hostname and the file name.
+        return (item.getDisplayHostname() + "\n" + item.getDisplayFileName())
+                .toLowerCase(Locale.getDefault());
+    }
+}
@@ -6,6 +6,7 @@ package org.chromium.chrome.browser.init;
 
 import org.chromium.base.Callback;
 import org.chromium.base.ContextUtils;
+import org.chromium.base.SysUtils;
 import org.chromium.base.ThreadUtils;
 import org.chromium.base.VisibleForTesting;
 import org.chromium.base.library_loader.LibraryLoader;
@@ -26,6 +27,10 @@ import java.util.concurrent.Executor;
  * - Fetching the variations seed on first run
  */
 public abstract class AsyncInitTaskRunner {
+    // Number of sandboxed processes kept ready after startup, so that a burst of navigations
+    // does not wait for a process to be bound.
+    private static final int SPARE_RENDERER_COUNT = 2;
+
     private boolean mFetchingVariations;
     private boolean mLibraryLoaded;
     private boolean mAllocateChildConnection;
@@ -155,7 +160,8 @@ public abstract class AsyncInitTaskRunner {
 
         if (mLibraryLoaded && !mFetchingVariations) {
             if (mAllocateChildConnection) {
-                ChildProcessLauncherHelper.warmUp(ContextUtils.getApplicationContext());
+                ChildProcessLauncherHelper.warmUp(ContextUtils.getApplicationContext(),
+                        SysUtils.isLowEndDevice() ? 1 : SPARE_RENDERER_COUNT);
             }
             onSuccess();
         }
@@ -107,6 +107,12 @@ public class ProcessInitializationHandler {
     private static final String SNAPSHOT_DATABASE_REMOVED = "snapshot_database_removed";
     private static final String SNAPSHOT_DATABASE_NAME = "snapshots.db";
 
+    // Record file sizes between 1-2560KB. Expected range is 1-2048KB, so this gives us a bit of
+    // buffer. These values cannot be changed, as doing so will alter histogram bucketing and
+    // confuse the dashboard.
+    private static final int MIN_CACHE_FILE_SIZE_KB = 1;
+    private static final int MAX_CACHE_FILE_SIZE_KB = 2560;
+
     private static ProcessInitializationHandler sInstance;
 
     private boolean mInitializedPreNative;
@@ -318,12 +324,13 @@ public class ProcessInitializationHandler {
             }
         });
 
+        // Tasks that only record metrics run after the others.
         deferredStartupHandler.addDeferredTask(new Runnable() {
             @Override
             public void run() {
                 LocaleManager.getInstance().recordStartupMetrics();
             }
-        });
+        }, DeferredStartupHandler.TaskPriority.LOW, false /* runOnBackgroundThread */);
 
         deferredStartupHandler.addDeferredTask(new Runnable() {
             @Override
@@ -335,7 +342,7 @@ public class ProcessInitializationHandler {
                             !HomepageManager.getInstance().getPrefHomepageUseDefaultUri());
                 }
             }
-        });
+        }, DeferredStartupHandler.TaskPriority.LOW, false /* runOnBackgroundThread */);
 
         deferredStartupHandler.addDeferredTask(new Runnable() {
             @Override
@@ -351,7 +358,7 @@ public class ProcessInitializationHandler {
                 // Record the saved restore state in a histogram
                 ChromeBackupAgent.recordRestoreHistogram();
             }
-        });
+        }, DeferredStartupHandler.TaskPriority.LOW, false /* runOnBackgroundThread */);
 
         deferredStartupHandler.addDeferredTask(new Runnable() {
             @Override
@@ -415,15 +422,14 @@ public class ProcessInitializationHandler {
             }
         });
 
-        deferredStartupHandler.addDeferredTask(new Runnable() {
-            @Override
-            public void run() {
-                logEGLShaderCacheSizeHistogram();
-            }
-        });
+        // Must run on a background thread, as it does a file access.
+        deferredStartupHandler.addDeferredTask(
+                ProcessInitializationHandler::logEGLShaderCacheSizeHistogram,
+                DeferredStartupHandler.TaskPriority.LOW, true /* runOnBackgroundThread */);
 
         deferredStartupHandler.addDeferredTask(
-                () -> { BuildHooksAndroid.maybeRecordResourceMetrics(); });
+                () -> { BuildHooksAndroid.maybeRecordResourceMetrics(); },
+                DeferredStartupHandler.TaskPriority.LOW, false /* runOnBackgroundThread */);
 
         deferredStartupHandler.addDeferredTask(() -> {
             MediaViewerUtils.updateMediaLauncherActivityEnabled(
@@ -676,6 +682,7 @@ public class ProcessInitializationHandler {
      * Logs a histogram with the size of the Android EGL shader cache.
      */
     @TargetApi(Build.VERSION_CODES.N)
+    @WorkerThread
     private static void logEGLShaderCacheSizeHistogram() {
         // To simplify logic, only log this value on Android N+.
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
@@ -684,41 +691,27 @@ public class ProcessInitializationHandler {
         final Context cacheContext =
                 ContextUtils.getApplicationContext().createDeviceProtectedStorageContext();
 
-        // Must log async, as we're doing a file access.
-        new AsyncTask<Void>() {
-            // Record file sizes between 1-2560KB. Expected range is 1-2048KB, so this gives
-            // us a bit of buffer. These values cannot be changed, as doing so will alter
-            // histogram bucketing and confuse the dashboard.
-            private static final int MIN_CACHE_FILE_SIZE_KB = 1;
-            private static final int MAX_CACHE_FILE_SIZE_KB = 2560;
-
-            @Override
-            protected Void doInBackground() {
-                File codeCacheDir = cacheContext.getCodeCacheDir();
-                if (codeCacheDir == null) {
-                    return null;
-                }
-                // This filename is defined in core/java/android/view/HardwareRenderer.java,
-                // and has been located in the codeCacheDir since Android M.
-                File cacheFile = new File(codeCacheDir, "com.android.opengl.shaders_cache");
-                if (!cacheFile.exists()) {
-                    return null;
-                }
-                long cacheFileSizeKb = ConversionUtils.bytesToKilobytes(cacheFile.length());
-                // Clamp size to [minFileSizeKb, maxFileSizeKb). This also guarantees that the
-                // int-cast below is safe.
-                if (cacheFileSizeKb < MIN_CACHE_FILE_SIZE_KB) {
-                    cacheFileSizeKb = MIN_CACHE_FILE_SIZE_KB;
-                }
-                if (cacheFileSizeKb >= MAX_CACHE_FILE_SIZE_KB) {
-                    cacheFileSizeKb = MAX_CACHE_FILE_SIZE_KB - 1;
-                }
-                String histogramName = "Memory.Experimental.Browser.EGLShaderCacheSize.Android";
-                RecordHistogram.recordCustomCountHistogram(histogramName, (int) cacheFileSizeKb,
-                        MIN_CACHE_FILE_SIZE_KB, MAX_CACHE_FILE_SIZE_KB, 50);
-                return null;
-            }
+        File codeCacheDir = cacheContext.getCodeCacheDir();
+        if (codeCacheDir == null) {
+            return;
         }
-                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        // This filename is defined in core/java/android/view/HardwareRenderer.java, and has been
+        // located in the codeCacheDir since Android M.
+        File cacheFile = new File(codeCacheDir, "com.android.opengl.shaders_cache");
+        if (!cacheFile.exists()) {
+            return;
+        }
+        long cacheFileSizeKb = ConversionUtils.bytesToKilobytes(cacheFile.length());
+        // Clamp size to [minFileSizeKb, maxFileSizeKb). This also guarantees that the int-cast
+        // below is safe.
+        if (cacheFileSizeKb < MIN_CACHE_FILE_SIZE_KB) {
+            cacheFileSizeKb = MIN_CACHE_FILE_SIZE_KB;
+        }
+        if (cacheFileSizeKb >= MAX_CACHE_FILE_SIZE_KB) {
+            cacheFileSizeKb = MAX_CACHE_FILE_SIZE_KB - 1;
+        }
+        String histogramName = "Memory.Experimental.Browser.EGLShaderCacheSize.Android";
+        RecordHistogram.recordCustomCountHistogram(histogramName, (int) cacheFileSizeKb,
+                MIN_CACHE_FILE_SIZE_KB, MAX_CACHE_FILE_SIZE_KB, 50);
     }
 }
@@ -46,6 +46,7 @@ import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
@@ -82,6 +83,10 @@ public class TabPersistentStore extends TabPersister {
     /** Prevents two TabPersistentStores from saving the same file simultaneously. */
     private static final Object SAVE_LIST_LOCK = new Object();
 
+    /** Maximum number of TabStates read ahead of the next tab to be restored. */
+    @VisibleForTesting
+    static final int MAX_CONCURRENT_TAB_LOADS = 4;
+
     /**
      * Callback interface to use while reading the persisted TabModelSelector info from disk.
      */
@@ -169,7 +174,8 @@ public class TabPersistentStore extends TabPersister {
     private final Deque<TabRestoreDetails> mTabsToRestore;
     private final Set<Integer> mTabIdsToRestore;
 
-    private LoadTabTask mLoadTabTask;
+    /** Tabs whose TabState is being read, in the order they are restored in. */
+    private final Deque<LoadTabTask> mLoadTabTasks;
     private SaveTabTask mSaveTabTask;
     private SaveListTask mSaveListTask;
 
@@ -195,6 +201,10 @@ public class TabPersistentStore extends TabPersister {
     // Set when restoreTabs() is called during a non-cold-start merge. Used for logging time to
     // restore per tab.
     private long mRestoreMergedTabsStartTime;
+    // Original index of the tab that is restored first, around which the other tabs are restored.
+    private int mActiveTabIndexToRestore = TabList.INVALID_TAB_INDEX;
+    // Set when tabs start being restored asynchronously. Used for logging the total restore time.
+    private long mRestoreTabsStartTime;
 
     @VisibleForTesting
     AsyncTask<TabState> mPrefetchActiveTabTask;
@@ -212,6 +222,7 @@ public class TabPersistentStore extends TabPersister {
         mTabCreatorManager = tabCreatorManager;
         mTabsToSave = new ArrayDeque<>();
         mTabsToRestore = new ArrayDeque<>();
+        mLoadTabTasks = new ArrayDeque<>();
         mTabIdsToRestore = new HashSet<>();
         mObservers = new ObserverList<>();
         mObservers.addObserver(observer);
@@ -476,11 +487,16 @@ public class TabPersistentStore extends TabPersister {
      * Restore tab state.  Tab state is loaded asynchronously, other than the active tab which
      * can be forced to load synchronously.
      *
+     * Tabs are restored in visibility order: the active tab first, then the tabs closest to it,
+     * then tabs being merged in. Up to {@link #MAX_CONCURRENT_TAB_LOADS} TabStates are read in
+     * parallel in the background, and the tabs are added to the model in that same order.
+     *
      * @param setActiveTab If true the last active tab given in the saved state is loaded
      *                     synchronously and set as the current active tab. If false all tabs are
      *                     loaded asynchronously.
      */
     public void restoreTabs(boolean setActiveTab) {
+        prioritizeTabsToRestore();
         if (setActiveTab) {
             // Restore and select the active tab, which is first in the restore list.
             // If the active tab can't be restored, restore and select another tab. Otherwise, the
@@ -492,7 +508,28 @@ public class TabPersistentStore extends TabPersister {
                 restoreTab(tabToRestore, true);
             }
         }
-        loadNextTab();
+        mRestoreTabsStartTime = SystemClock.uptimeMillis();
+        // The restore pipeline is only accessed from the UI thread, where tabs are committed.
+        ThreadUtils.runOnUiThread(() -> loadNextTab());
+    }
+
+    /**
+     * Orders the tabs to restore by distance to the active tab, so that the tabs visible around
+     * it are restored first. Tabs being merged in stay last, in their original order.
+     */
+    private void prioritizeTabsToRestore() {
+        if (mActiveTabIndexToRestore == TabList.INVALID_TAB_INDEX) return;
+        final int activeIndex = mActiveTabIndexToRestore;
+        List<TabRestoreDetails> tabsToRestore = new ArrayList<>(mTabsToRestore);
+        // The sort is stable, so the tab before the active tab comes before the one after it.
+        Collections.sort(tabsToRestore, (first, second) -> {
+            int result = Boolean.compare(first.fromMerge, second.fromMerge);
+            if (result != 0 || first.fromMerge) return result;
+            return Math.abs(first.originalIndex - activeIndex)
+                    - Math.abs(second.originalIndex - activeIndex);
+        });
+        mTabsToRestore.clear();
+        mTabsToRestore.addAll(tabsToRestore);
     }
 
     /**
@@ -513,22 +550,33 @@ public class TabPersistentStore extends TabPersister {
 
     private void restoreTabStateInternal(String url, int id) {
         TabRestoreDetails tabToRestore = null;
-        if (mLoadTabTask != null) {
-            if ((url == null && mLoadTabTask.mTabToRestore.id == id)
-                    || (url != null && TextUtils.equals(mLoadTabTask.mTabToRestore.url, url))) {
-                // Steal the task of restoring the tab from the active load tab task.
-                mLoadTabTask.cancel(false);
-                tabToRestore = mLoadTabTask.mTabToRestore;
-                loadNextTab();  // Queue up async task to load next tab after we're done here.
+        LoadTabTask loadTabTask = null;
+        for (LoadTabTask task : mLoadTabTasks) {
+            if ((url == null && task.mTabToRestore.id == id)
+                    || (url != null && TextUtils.equals(task.mTabToRestore.url, url))) {
+                loadTabTask = task;
+                break;
             }
         }
 
-        if (tabToRestore == null) {
-            if (url == null) {
-                tabToRestore = getTabToRestoreById(id);
+        if (loadTabTask != null) {
+            // Steal the task of restoring the tab from the restore pipeline.
+            loadTabTask.cancel(false);
+            mLoadTabTasks.remove(loadTabTask);
+            if (loadTabTask.mStateRead) {
+                restoreTab(loadTabTask.mTabToRestore, loadTabTask.mTabState, false);
             } else {
-                tabToRestore = getTabToRestoreByUrl(url);
+                restoreTab(loadTabTask.mTabToRestore, false);
             }
+            // Carry on with the tabs that were waiting for this one.
+            commitLoadedTabs();
+            return;
+        }
+
+        if (url == null) {
+            tabToRestore = getTabToRestoreById(id);
+        } else {
+            tabToRestore = getTabToRestoreByUrl(url);
         }
 
         if (tabToRestore != null) {
@@ -749,10 +797,12 @@ public class TabPersistentStore extends TabPersister {
         mTabsToSave.remove(tab);
         mTabsToRestore.remove(getTabToRestoreById(tab.getId()));
 
-        if (mLoadTabTask != null && mLoadTabTask.mTabToRestore.id == tab.getId()) {
-            mLoadTabTask.cancel(false);
-            mLoadTabTask = null;
-            loadNextTab();
+        for (LoadTabTask task : mLoadTabTasks) {
+            if (task.mTabToRestore.id != tab.getId()) continue;
+            task.cancel(false);
+            mLoadTabTasks.remove(task);
+            commitLoadedTabs();
+            break;
         }
 
         if (mSaveTabTask != null && mSaveTabTask.mId == tab.getId()) {
@@ -785,7 +835,8 @@ public class TabPersistentStore extends TabPersister {
     public void destroy() {
         mDestroyed = true;
         mPersistencePolicy.destroy();
-        if (mLoadTabTask != null) mLoadTabTask.cancel(true);
+        for (LoadTabTask task : mLoadTabTasks) task.cancel(true);
+        mLoadTabTasks.clear();
         mTabsToSave.clear();
         mTabsToRestore.clear();
         if (mSaveTabTask != null) mSaveTabTask.cancel(false);
@@ -803,7 +854,7 @@ public class TabPersistentStore extends TabPersister {
 
         // The metadata file may be being written out before all of the Tabs have been restored.
         // Save that information out, as well.
-        if (mLoadTabTask != null) tabsToRestore.add(mLoadTabTask.mTabToRestore);
+        for (LoadTabTask task : mLoadTabTasks) tabsToRestore.add(task.mTabToRestore);
         for (TabRestoreDetails details : mTabsToRestore) {
             tabsToRestore.add(details);
         }
@@ -976,6 +1027,7 @@ public class TabPersistentStore extends TabPersister {
                         || (isStandardActiveIndex && !isIncognitoSelected))) {
                     // Active tab gets loaded first
                     mTabsToRestore.addFirst(details);
+                    mActiveTabIndexToRestore = index;
                 } else {
                     mTabsToRestore.addLast(details);
                 }
@@ -1222,10 +1274,27 @@ public class TabPersistentStore extends TabPersister {
         }
     }
 
+    /**
+     * Starts reading the TabStates of the next tabs to restore, up to
+     * {@link #MAX_CONCURRENT_TAB_LOADS} at a time, and finishes restoring once all tabs have been
+     * restored.
+     */
     private void loadNextTab() {
         if (mDestroyed) return;
 
-        if (mTabsToRestore.isEmpty()) {
+        while (!mTabsToRestore.isEmpty() && mLoadTabTasks.size() < MAX_CONCURRENT_TAB_LOADS) {
+            LoadTabTask task = new LoadTabTask(mTabsToRestore.removeFirst());
+            mLoadTabTasks.addLast(task);
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        if (mLoadTabTasks.isEmpty()) {
+            if (mRestoreTabsStartTime != 0) {
+                recordRestoreStageTime(
+                        "TotalTime", SystemClock.uptimeMillis() - mRestoreTabsStartTime);
+                mRestoreTabsStartTime = 0;
+            }
+            mActiveTabIndexToRestore = TabList.INVALID_TAB_INDEX;
             mNormalTabsRestored = null;
             mIncognitoTabsRestored = null;
             mLoadInProgress = false;
@@ -1260,13 +1329,26 @@ public class TabPersistentStore extends TabPersister {
 
             cleanUpPersistentData();
             onStateLoaded();
-            mLoadTabTask = null;
             Log.d(TAG, "Loaded tab lists; counts: " + mTabModelSelector.getModel(false).getCount()
                     + "," + mTabModelSelector.getModel(true).getCount());
-        } else {
-            TabRestoreDetails tabToRestore = mTabsToRestore.removeFirst();
-            mLoadTabTask = new LoadTabTask(tabToRestore);
-            mLoadTabTask.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Restores the tabs whose TabState has been read, as long as all the tabs before them in
+     * restore order have been restored, then reads more TabStates.
+     */
+    private void commitLoadedTabs() {
+        while (!mDestroyed && !mLoadTabTasks.isEmpty() && mLoadTabTasks.peekFirst().mStateRead) {
+            mLoadTabTasks.removeFirst().commit();
+        }
+        loadNextTab();
+    }
+
+    private static void recordRestoreStageTime(String stage, long durationMs) {
+        if (LibraryLoader.getInstance().isInitialized()) {
+            RecordHistogram.recordTimesHistogram("Android.TabPersistentStore.RestoreTabs." + stage,
+                    durationMs, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -1283,6 +1365,14 @@ public class TabPersistentStore extends TabPersister {
                 }
             }
         });
+        new AsyncTask<Void>() {
+            @Override
+            protected Void doInBackground() {
+                TabState.deleteStaleTempFiles(getStateDirectory());
+                return null;
+            }
+        }
+                .executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
     }
 
     /**
@@ -1314,9 +1404,18 @@ public class TabPersistentStore extends TabPersister {
         // executor.
     }
 
+    /**
+     * Reads the TabState of a tab in the background, then restores the tab once the tabs before
+     * it in restore order have been restored.
+     */
     private class LoadTabTask extends AsyncTask<TabState> {
         public final TabRestoreDetails mTabToRestore;
 
+        /** Whether the TabState has been read, in which case it is {@link #mTabState}. */
+        boolean mStateRead;
+        TabState mTabState;
+        long mStateReadTime;
+
         public LoadTabTask(TabRestoreDetails tabToRestore) {
             mTabToRestore = tabToRestore;
         }
@@ -1324,11 +1423,14 @@ public class TabPersistentStore extends TabPersister {
         @Override
         protected TabState doInBackground() {
             if (mDestroyed || isCancelled()) return null;
+            long time = SystemClock.uptimeMillis();
             try {
                 return TabState.restoreTabState(getStateDirectory(), mTabToRestore.id);
             } catch (Exception e) {
                 Log.w(TAG, "Unable to read state: " + e);
                 return null;
+            } finally {
+                recordRestoreStageTime("ReadTime", SystemClock.uptimeMillis() - time);
             }
         }
 
@@ -1336,12 +1438,23 @@ public class TabPersistentStore extends TabPersister {
         protected void onPostExecute(TabState tabState) {
             if (mDestroyed || isCancelled()) return;
 
-            boolean isIncognito = isIncognitoTabBeingRestored(mTabToRestore, tabState);
+            mTabState = tabState;
+            mStateRead = true;
+            mStateReadTime = SystemClock.uptimeMillis();
+            commitLoadedTabs();
+        }
+
+        /** Adds the tab to its model, unless loading tabs of its type was cancelled. */
+        void commit() {
+            long time = SystemClock.uptimeMillis();
+            // Time spent waiting for the tabs before this one to be read.
+            recordRestoreStageTime("WaitTime", time - mStateReadTime);
+
+            boolean isIncognito = isIncognitoTabBeingRestored(mTabToRestore, mTabState);
             boolean isLoadCancelled = (isIncognito && mCancelIncognitoTabLoads)
                     || (!isIncognito && mCancelNormalTabLoads);
-            if (!isLoadCancelled) restoreTab(mTabToRestore, tabState, false);
-
-            loadNextTab();
+            if (!isLoadCancelled) restoreTab(mTabToRestore, mTabState, false);
+            recordRestoreStageTime("CommitTime", SystemClock.uptimeMillis() - time);
         }
     }
 
@@ -5,9 +5,6 @@
 package org.chromium.chrome.browser.toolbar.bottom;
 
 import android.content.Context;
-import android.graphics.Canvas;
-import android.graphics.PorterDuff;
-import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 
@@ -21,9 +18,6 @@ import org.chromium.ui.resources.dynamics.ViewResourceAdapter;
  * it represents.
  */
 public class ScrollingBottomViewResourceFrameLayout extends ViewResourceFrameLayout {
-    /** A cached rect to avoid extra allocations. */
-    private final Rect mCachedRect = new Rect();
-
     /** The height of the shadow sitting above the bottom view in px. */
     private int mTopShadowHeightPx;
 
@@ -66,26 +60,9 @@ public class ScrollingBottomViewResourceFrameLayout extends ViewResourceFrameLay
 
     @Override
     protected ViewResourceAdapter createResourceAdapter() {
-        return new ViewResourceAdapter(this) {
-            @Override
-            public void onCaptureStart(Canvas canvas, Rect dirtyRect) {
-                mCachedRect.set(dirtyRect);
-                if (mCachedRect.intersect(0, 0, getWidth(), mTopShadowHeightPx)) {
-                    canvas.save();
-
-                    // Clip the canvas to only the section of the dirty rect that contains the top
-                    // shadow of the view.
-                    canvas.clipRect(mCachedRect);
-
-                    // Clear the shadow so redrawing does not make it progressively darker.
-                    canvas.drawColor(0, PorterDuff.Mode.CLEAR);
-
-                    canvas.restore();
-                }
-
-                super.onCaptureStart(canvas, dirtyRect);
-            }
-        };
+        // Tiled capture clears each redrawn region, so redrawing the top shadow does not make it
+        // progressively darker.
+        return new ViewResourceAdapter(this, true);
     }
 
     /**
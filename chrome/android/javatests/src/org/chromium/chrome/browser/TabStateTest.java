@@ -90,6 +90,41 @@ public class TabStateTest {
         loadAndCheckTabState(TestTabModelDirectory.V2_HAARETZ);
     }
 
+    @Test
+    @SmallTest
+    public void testSaveLoadEncrypted() throws Exception {
+        byte[] bytes = new byte[100 * 1024];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+        TabState tabState = new TabState();
+        tabState.contentsState = new WebContentsState(ByteBuffer.allocateDirect(bytes.length));
+        tabState.contentsState.buffer().put(bytes);
+        tabState.contentsState.setVersion(TabState.CONTENTS_STATE_CURRENT_VERSION);
+        tabState.timestampMillis = 1234;
+        tabState.parentId = 2;
+        tabState.openerAppId = "app";
+        tabState.themeColor = Color.BLACK;
+
+        File file = TabState.getTabStateFile(mTestTabModelDirectory.getBaseDirectory(), 1, true);
+        TabState.saveState(file, tabState, true);
+        TabState restoredState = TabState.restoreTabState(file, true);
+
+        Assert.assertNotNull(restoredState);
+        Assert.assertTrue(restoredState.isIncognito());
+        // The contents state is decrypted into a direct buffer of its exact size.
+        ByteBuffer buffer = restoredState.contentsState.buffer();
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(bytes.length, buffer.capacity());
+        byte[] restoredBytes = new byte[bytes.length];
+        buffer.get(restoredBytes);
+        Assert.assertArrayEquals(bytes, restoredBytes);
+        Assert.assertEquals(tabState.timestampMillis, restoredState.timestampMillis);
+        Assert.assertEquals(tabState.parentId, restoredState.parentId);
+        Assert.assertEquals(tabState.openerAppId, restoredState.openerAppId);
+        Assert.assertEquals(
+                tabState.contentsState.version(), restoredState.contentsState.version());
+        Assert.assertEquals(tabState.themeColor, restoredState.themeColor);
+    }
+
     @Test
     @SmallTest
     public void testSaveLoadThroughBundle() throws Exception {
@@ -8,7 +8,6 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
-import android.content.SharedPreferences;
 import android.support.test.annotation.UiThreadTest;
 import android.support.test.filters.SmallTest;
 import android.support.test.rule.UiThreadTestRule;
@@ -20,7 +19,7 @@ import org.junit.Test;
 import org.junit.rules.TestRule;
 import org.junit.runner.RunWith;
 
-import org.chromium.base.ContextUtils;
+import org.chromium.base.ThreadUtils;
 import org.chromium.base.test.params.ParameterAnnotations.ClassParameter;
 import org.chromium.base.test.params.ParameterAnnotations.UseRunnerDelegate;
 import org.chromium.base.test.params.ParameterSet;
@@ -36,6 +35,7 @@ import org.chromium.components.offline_items_collection.OfflineItem.Progress;
 import org.chromium.components.offline_items_collection.OfflineItemProgressUnit;
 import org.chromium.components.offline_items_collection.PendingState;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
@@ -112,10 +112,13 @@ public class DownloadNotificationServiceTest {
     @After
     public void tearDown() {
         DownloadNotificationService.clearResumptionAttemptLeft();
-        SharedPreferences sharedPrefs = ContextUtils.getAppSharedPreferences();
-        SharedPreferences.Editor editor = sharedPrefs.edit();
-        editor.remove(DownloadSharedPreferenceHelper.KEY_PENDING_DOWNLOAD_NOTIFICATIONS);
-        editor.apply();
+        ThreadUtils.runOnUiThreadBlocking(() -> {
+            List<DownloadSharedPreferenceEntry> entries =
+                    new ArrayList<>(mDownloadSharedPreferenceHelper.getEntries());
+            for (DownloadSharedPreferenceEntry entry : entries) {
+                mDownloadSharedPreferenceHelper.removeSharedPreferenceEntry(entry.id);
+            }
+        });
     }
 
     @Test
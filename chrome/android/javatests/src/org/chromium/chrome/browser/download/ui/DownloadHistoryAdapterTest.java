@@ -725,6 +725,41 @@ public class DownloadHistoryAdapterTest {
         checkAdapterContents(null, item2, null, item0);
     }
 
+    @Test
+    @SmallTest
+    public void testSearch_NarrowAndWiden() throws Exception {
+        final DownloadItem item0 = StubbedProvider.createDownloadItem(0, "19840116 12:00");
+        final DownloadItem item1 = StubbedProvider.createDownloadItem(1, "19840116 12:01");
+        final DownloadItem item2 = StubbedProvider.createDownloadItem(2, "19840117 12:00");
+        final DownloadItem item3 = StubbedProvider.createDownloadItem(3, "19840117 12:01");
+        final DownloadItem item4 = StubbedProvider.createDownloadItem(4, "19840118 12:00");
+        mDownloadDelegate.regularItems.add(item0);
+        mDownloadDelegate.regularItems.add(item1);
+        mDownloadDelegate.regularItems.add(item2);
+        mDownloadDelegate.regularItems.add(item3);
+        mDownloadDelegate.regularItems.add(item4);
+        initializeAdapter(false, true);
+        checkAdapterContents(HEADER, null, item4, null, item3, item2, null, item1, item0);
+
+        // Type a query one character at a time.
+        ThreadUtils.runOnUiThreadBlocking(() -> mAdapter.search("F"));
+        checkAdapterContents(null, item4, null, item3, item2, null, item1, item0);
+        ThreadUtils.runOnUiThreadBlocking(() -> mAdapter.search("Fi"));
+        checkAdapterContents(null, item4, null, item2, null, item1, item0);
+        ThreadUtils.runOnUiThreadBlocking(() -> mAdapter.search("Fil"));
+        checkAdapterContents(null, item2, null, item1, item0);
+
+        // Items removed while searching are dropped from the previous results too.
+        onDownloadItemRemoved(item1.getId(), false, 1);
+        checkAdapterContents(null, item2, null, item0);
+
+        // Deleting characters widens the results again.
+        ThreadUtils.runOnUiThreadBlocking(() -> mAdapter.search("Fi"));
+        checkAdapterContents(null, item4, null, item2, null, item0);
+        ThreadUtils.runOnUiThreadBlocking(() -> mAdapter.search("Fo"));
+        checkAdapterContents(null, item3);
+    }
+
     /** Checks that the adapter has the correct items in the right places. */
     private void checkAdapterContents(Object... expectedItems) {
         if (expectedItems.length == 0) {
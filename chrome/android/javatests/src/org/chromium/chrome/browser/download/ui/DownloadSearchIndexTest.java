@@ -0,0 +1,169 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.chrome.browser.download.ui;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.chromium.base.test.util.Feature;
+import org.chromium.chrome.browser.test.ChromeBrowserTestRule;
+import org.chromium.components.offline_items_collection.ContentId;
+import org.chromium.components.offline_items_collection.LegacyHelpers;
+import org.chromium.components.offline_items_collection.OfflineItem;
+import org.chromium.components.offline_items_collection.OfflineItemFilter;
+import org.chromium.components.offline_items_collection.OfflineItemState;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests that {@link DownloadSearchIndex} returns the same items as matching every item against
+ * the query, while queries are typed and deleted and items are added, updated and removed.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class DownloadSearchIndexTest {
+    private static final String[] WORDS = {"Report", "photo", "invoice", "2017", "2018", "_"};
+
+    @Rule
+    public final ChromeBrowserTestRule mBrowserTestRule = new ChromeBrowserTestRule();
+
+    private final Random mRandom = new Random(42);
+    private final List<DownloadHistoryItemWrapper> mItems = new ArrayList<>();
+    private final DownloadSearchIndex mIndex = new DownloadSearchIndex();
+    private StubbedProvider mProvider;
+    private int mNextId;
+
+    @Before
+    public void setUp() {
+        mProvider = new StubbedProvider();
+        for (int i = 0; i < 200; i++) addItem();
+    }
+
+    private OfflineItem createOfflineItem(ContentId id) {
+        OfflineItem item = new OfflineItem();
+        item.id = id;
+        item.pageUrl = "https://www.site" + mRandom.nextInt(20) + ".com/page";
+        item.title = WORDS[mRandom.nextInt(WORDS.length)] + "_"
+                + WORDS[mRandom.nextInt(WORDS.length)] + ".pdf";
+        item.state = OfflineItemState.COMPLETE;
+        item.filter = OfflineItemFilter.FILTER_PAGE;
+        return item;
+    }
+
+    private void addItem() {
+        ContentId id =
+                new ContentId(LegacyHelpers.LEGACY_OFFLINE_PAGE_NAMESPACE, "guid_" + mNextId++);
+        DownloadHistoryItemWrapper item = new DownloadHistoryItemWrapper.OfflineItemWrapper(
+                createOfflineItem(id), mProvider, null);
+        mItems.add(item);
+        mIndex.addItem(item);
+    }
+
+    private void updateItem() {
+        DownloadHistoryItemWrapper item = mItems.get(mRandom.nextInt(mItems.size()));
+        item.replaceItem(createOfflineItem(((OfflineItem) item.getItem()).id));
+        mIndex.updateItem(item);
+    }
+
+    private void removeItem() {
+        DownloadHistoryItemWrapper item = mItems.remove(mRandom.nextInt(mItems.size()));
+        mIndex.removeItem(item);
+    }
+
+    /** Matches every item against |query|, as done before the index. */
+    private Set<DownloadHistoryItemWrapper> searchAll(String query) {
+        Locale locale = Locale.getDefault();
+        query = query.toLowerCase(locale);
+        Set<DownloadHistoryItemWrapper> matches = new HashSet<>();
+        for (DownloadHistoryItemWrapper item : mItems) {
+            if (item.getDisplayHostname().toLowerCase(locale).contains(query)
+                    || item.getDisplayFileName().toLowerCase(locale).contains(query)) {
+                matches.add(item);
+            }
+        }
+        return matches;
+    }
+
+    private void assertSearch(String query) {
+        Set<DownloadHistoryItemWrapper> matches = mIndex.search(query);
+        if (query.isEmpty()) {
+            Assert.assertNull(matches);
+            return;
+        }
+        Assert.assertEquals("Query: " + query, searchAll(query), matches);
+    }
+
+    private void typeAndDelete(String query) {
+        for (int i = 1; i <= query.length(); i++) assertSearch(query.substring(0, i));
+        for (int i = query.length() - 1; i >= 0; i--) assertSearch(query.substring(0, i));
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Download"})
+    public void testTypeAndDelete() {
+        typeAndDelete("report_2018");
+        typeAndDelete("SITE1");
+        typeAndDelete("nomatch");
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Download"})
+    public void testEditQuery() {
+        assertSearch("photo");
+        // Neither contains the other, so the results can't be narrowed down.
+        assertSearch("phone");
+        assertSearch("ph");
+        assertSearch("2017.pdf");
+        assertSearch("2017.pdf");
+        assertSearch("7.p");
+        assertSearch("");
+        assertSearch("invoice");
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Download"})
+    public void testQueryDoesNotSpanHostnameAndFileName() {
+        Assert.assertTrue(mIndex.search("comreport").isEmpty());
+        assertSearch("comreport");
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Download"})
+    public void testItemChangesWhileSearching() {
+        String query = "report_20";
+        for (int i = 0; i < 100; i++) {
+            // Keep results for a chain of queries, then change the items under them.
+            for (int j = 1; j <= 1 + mRandom.nextInt(query.length()); j++) {
+                assertSearch(query.substring(0, j));
+            }
+            switch (mRandom.nextInt(3)) {
+                case 0:
+                    addItem();
+                    break;
+                case 1:
+                    updateItem();
+                    break;
+                default:
+                    removeItem();
+                    break;
+            }
+            assertSearch(query.substring(0, 1 + mRandom.nextInt(query.length())));
+        }
+    }
+}
@@ -47,6 +47,7 @@ import org.chromium.content_public.browser.LoadUrlParams;
 import org.chromium.content_public.browser.WebContents;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -80,6 +81,7 @@ public class TabPersistentStoreTest {
 
     private static class MockTabCreator extends TabCreator {
         public final SparseArray<TabState> created;
+        public final List<Integer> createdIdsInOrder;
         public final CallbackHelper callback;
 
         private final boolean mIsIncognito;
@@ -89,6 +91,7 @@ public class TabPersistentStoreTest {
 
         public MockTabCreator(boolean incognito, TabModelSelector selector) {
             created = new SparseArray<>();
+            createdIdsInOrder = new ArrayList<>();
             callback = new CallbackHelper();
             mIsIncognito = incognito;
             mSelector = selector;
@@ -132,6 +135,7 @@ public class TabPersistentStoreTest {
         private void storeTabInfo(TabState state, int id) {
             if (created.size() == 0) idOfFirstCreatedTab = id;
             created.put(id, state);
+            createdIdsInOrder.add(id);
             callback.notifyCalled();
         }
     }
@@ -406,6 +410,48 @@ public class TabPersistentStoreTest {
         }
     }
 
+    @Test
+    @SmallTest
+    @Feature("TabPersistentStore")
+    public void testTabsAroundActiveTabAreRestoredFirst() throws Exception {
+        TabModelMetaDataInfo info = TestTabModelDirectory.TAB_MODEL_METADATA_V4;
+        mMockDirectory.writeTabModelFiles(info, true);
+
+        MockTabModelSelector mockSelector = new MockTabModelSelector(0, 0, null);
+        MockTabCreatorManager mockManager = new MockTabCreatorManager(mockSelector);
+        MockTabCreator regularCreator = mockManager.getTabCreator(false);
+        MockTabPersistentStoreObserver mockObserver = new MockTabPersistentStoreObserver();
+        TabPersistencePolicy persistencePolicy = new TabbedModeTabPersistencePolicy(0, false);
+        final TabPersistentStore store =
+                buildTabPersistentStore(persistencePolicy, mockSelector, mockManager, mockObserver);
+        store.loadState(false /* ignoreIncognitoFiles */);
+        ThreadUtils.runOnUiThreadBlocking(new Runnable() {
+            @Override
+            public void run() {
+                store.restoreTabs(true);
+            }
+        });
+        mockObserver.stateLoadedCallback.waitForCallback(0, 1);
+
+        // The selected tab is restored first, then the others by distance to it, whatever order
+        // their TabStates were read in.
+        Assert.assertEquals(Arrays.asList(TestTabModelDirectory.V2_BAIDU.tabId,
+                                    TestTabModelDirectory.M26_GOOGLE_CA.tabId,
+                                    TestTabModelDirectory.V2_DUCK_DUCK_GO.tabId,
+                                    TestTabModelDirectory.M26_GOOGLE_COM.tabId,
+                                    TestTabModelDirectory.V2_HAARETZ.tabId,
+                                    TestTabModelDirectory.M18_GOOGLE_COM.tabId,
+                                    TestTabModelDirectory.V2_TEXTAREA.tabId),
+                regularCreator.createdIdsInOrder);
+
+        // The tabs are still in their original order in the model.
+        TabModel model = mockSelector.getModel(false);
+        Assert.assertEquals(info.contents.length, model.getCount());
+        for (int i = 0; i < info.contents.length; i++) {
+            Assert.assertEquals(info.contents[i].tabId, model.getTabAt(i).getId());
+        }
+    }
+
     @Test
     @SmallTest
     @Feature({"TabPersistentStore"})
@@ -0,0 +1,113 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.chrome.browser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import org.chromium.base.test.BaseRobolectricTestRunner;
+import org.chromium.chrome.browser.DeferredStartupHandler.TaskPriority;
+import org.chromium.chrome.test.support.DisableHistogramsRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link DeferredStartupHandler}.
+ */
+@RunWith(BaseRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DeferredStartupHandlerTest {
+    @Rule
+    public DisableHistogramsRule mDisableHistogramsRule = new DisableHistogramsRule();
+
+    private DeferredStartupHandler mHandler;
+    private final List<String> mRunTasks = new ArrayList<>();
+    private final List<Runnable> mBackgroundTasks = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        mHandler = new DeferredStartupHandler();
+        mHandler.setBackgroundExecutorForTesting(mBackgroundTasks::add);
+    }
+
+    private void addTask(String name, long durationMs, @TaskPriority int priority) {
+        mHandler.addDeferredTask(() -> {
+            mRunTasks.add(name);
+            SystemClock.sleep(durationMs);
+        }, priority, false);
+    }
+
+    @Test
+    public void testTasksRunByPriorityThenInOrder() {
+        addTask("normal1", 0, TaskPriority.NORMAL);
+        addTask("low", 0, TaskPriority.LOW);
+        addTask("high", 0, TaskPriority.HIGH);
+        addTask("normal2", 0, TaskPriority.NORMAL);
+
+        assertFalse(mHandler.runIdleSlice());
+        assertEquals(Arrays.asList("high", "normal1", "normal2", "low"), mRunTasks);
+        assertTrue(mHandler.isDeferredStartupCompleteForApp());
+    }
+
+    @Test
+    public void testSliceStopsWhenBudgetIsSpent() {
+        long halfBudget = DeferredStartupHandler.IDLE_SLICE_BUDGET_MS / 2;
+        addTask("a", halfBudget, TaskPriority.NORMAL);
+        addTask("b", halfBudget, TaskPriority.NORMAL);
+        addTask("c", halfBudget, TaskPriority.NORMAL);
+
+        assertTrue(mHandler.runIdleSlice());
+        assertEquals(Arrays.asList("a", "b"), mRunTasks);
+        assertFalse(mHandler.isDeferredStartupCompleteForApp());
+
+        assertFalse(mHandler.runIdleSlice());
+        assertEquals(Arrays.asList("a", "b", "c"), mRunTasks);
+        assertTrue(mHandler.isDeferredStartupCompleteForApp());
+    }
+
+    @Test
+    public void testLongTaskRunsAlone() {
+        addTask("long", DeferredStartupHandler.IDLE_SLICE_BUDGET_MS * 4, TaskPriority.NORMAL);
+        addTask("short", 0, TaskPriority.NORMAL);
+
+        assertTrue(mHandler.runIdleSlice());
+        assertEquals(Arrays.asList("long"), mRunTasks);
+
+        assertFalse(mHandler.runIdleSlice());
+        assertEquals(Arrays.asList("long", "short"), mRunTasks);
+    }
+
+    @Test
+    public void testBackgroundTasks() {
+        mHandler.addDeferredTask(() -> mRunTasks.add("background"), TaskPriority.HIGH, true);
+        addTask("ui", DeferredStartupHandler.IDLE_SLICE_BUDGET_MS, TaskPriority.NORMAL);
+
+        // The background task is handed to the executor and doesn't use the budget of the slice.
+        assertFalse(mHandler.runIdleSlice());
+        assertEquals(Arrays.asList("ui"), mRunTasks);
+        assertEquals(1, mBackgroundTasks.size());
+        assertFalse(mHandler.isDeferredStartupCompleteForApp());
+
+        // Deferred startup completes once the background task is done.
+        mBackgroundTasks.get(0).run();
+        assertEquals(Arrays.asList("ui", "background"), mRunTasks);
+        assertFalse(mHandler.isDeferredStartupCompleteForApp());
+        ShadowLooper.runUiThreadTasks();
+        assertTrue(mHandler.isDeferredStartupCompleteForApp());
+    }
+}
@@ -0,0 +1,251 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.chrome.browser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import org.chromium.base.StreamUtil;
+import org.chromium.base.test.BaseRobolectricTestRunner;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link TabStateJournal}.
+ */
+@RunWith(BaseRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TabStateJournalTest {
+    private static final int CONTENTS_SIZE = 8 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Random mRandom = new Random(42);
+
+    private static TabState createTabState(byte[] contents, long timestampMillis) {
+        TabState state = new TabState();
+        state.contentsState = new TabState.WebContentsState(ByteBuffer.wrap(contents.clone()));
+        state.contentsState.setVersion(TabState.CONTENTS_STATE_CURRENT_VERSION);
+        state.timestampMillis = timestampMillis;
+        state.parentId = 3;
+        state.openerAppId = "app";
+        state.shouldPreserve = true;
+        state.themeColor = 0xff00ff00;
+        return state;
+    }
+
+    private static byte[] getContents(TabState state) {
+        ByteBuffer buffer = state.contentsState.buffer().duplicate();
+        buffer.rewind();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void assertRestored(File file, byte[] contents, long timestampMillis) {
+        TabState state = TabState.restoreTabState(file, false);
+        assertNotNull(state);
+        assertArrayEquals(contents, getContents(state));
+        assertEquals(timestampMillis, state.timestampMillis);
+        assertEquals(3, state.parentId);
+        assertEquals("app", state.openerAppId);
+        assertTrue(state.shouldPreserve);
+        assertEquals(0xff00ff00, state.getThemeColor());
+        assertNull(state.tabLaunchTypeAtCreation);
+        assertEquals(TabState.CONTENTS_STATE_CURRENT_VERSION, state.contentsState.version());
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream stream = new DataInputStream(new FileInputStream(file));
+        try {
+            stream.readFully(bytes);
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(bytes);
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        mRandom.nextBytes(bytes);
+        return bytes;
+    }
+
+    /** Returns |contents| with a navigation-like entry inserted in the middle. */
+    private byte[] insertEntry(byte[] contents) {
+        byte[] entry = randomBytes(100);
+        int offset = contents.length / 2;
+        byte[] result = new byte[contents.length + entry.length];
+        System.arraycopy(contents, 0, result, 0, offset);
+        System.arraycopy(entry, 0, result, offset, entry.length);
+        System.arraycopy(contents, offset, result, offset + entry.length, contents.length - offset);
+        // Like the pickle header, the leading size changes too.
+        result[0]++;
+        return result;
+    }
+
+    @Test
+    public void testSaveAndRestore() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "tab1");
+        byte[] contents = randomBytes(CONTENTS_SIZE);
+        TabState.saveState(file, createTabState(contents, 10), false);
+
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            assertTrue(TabStateJournal.hasJournalHeader(stream.getChannel()));
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+        assertRestored(file, contents, 10);
+    }
+
+    @Test
+    public void testUnchangedStateIsNotWritten() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "tab1");
+        byte[] contents = randomBytes(CONTENTS_SIZE);
+        TabState.saveState(file, createTabState(contents, 10), false);
+        long length = file.length();
+
+        TabState.saveState(file, createTabState(contents, 10), false);
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void testChangesAreAppended() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "tab1");
+        byte[] contents = randomBytes(CONTENTS_SIZE);
+        TabState.saveState(file, createTabState(contents, 10), false);
+        long length = file.length();
+
+        // Only the metadata changed.
+        TabState.saveState(file, createTabState(contents, 20), false);
+        assertTrue(file.length() - length < 100);
+        assertRestored(file, contents, 20);
+        length = file.length();
+
+        // A navigation is saved as a delta.
+        contents = insertEntry(contents);
+        TabState.saveState(file, createTabState(contents, 20), false);
+        assertTrue(file.length() - length < 200);
+        assertRestored(file, contents, 20);
+    }
+
+    @Test
+    public void testJournalIsCompacted() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "tab1");
+        byte[] contents = randomBytes(CONTENTS_SIZE);
+        TabState.saveState(file, createTabState(contents, 0), false);
+        long compactedLength = file.length();
+
+        for (int i = 1; i <= 2 * TabStateJournal.MAX_RECORD_COUNT; i++) {
+            contents = insertEntry(contents);
+            TabState.saveState(file, createTabState(contents, i), false);
+            assertRestored(file, contents, i);
+        }
+        // Compacting keeps the journal within twice the size of the state it holds.
+        assertTrue(file.length() <= 2 * (compactedLength + contents.length - CONTENTS_SIZE));
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "tab1");
+        byte[] contents = randomBytes(CONTENTS_SIZE);
+        TabState.saveState(file, createTabState(contents, 10), false);
+
+        // Append the beginning of a record, as if the app died while saving.
+        FileOutputStream stream = new FileOutputStream(file, true);
+        try {
+            stream.write(new byte[] {1, 0, 0, 1, 0, 42});
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+        assertRestored(file, contents, 10);
+
+        byte[] newContents = insertEntry(contents);
+        TabState.saveState(file, createTabState(newContents, 20), false);
+        assertRestored(file, newContents, 20);
+    }
+
+    @Test
+    public void testJournalChangedSinceLastSave() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "tab1");
+        byte[] contents = randomBytes(CONTENTS_SIZE);
+        TabState.saveState(file, createTabState(contents, 10), false);
+        byte[] firstJournal = readFile(file);
+        TabState.saveState(file, createTabState(insertEntry(contents), 20), false);
+
+        // Put the first journal back, as if something else had written the file.
+        writeFile(file, firstJournal);
+        assertRestored(file, contents, 10);
+
+        byte[] newContents = insertEntry(insertEntry(contents));
+        TabState.saveState(file, createTabState(newContents, 30), false);
+        assertRestored(file, newContents, 30);
+
+        // Saving after the file was deleted writes a new journal.
+        assertTrue(file.delete());
+        TabState.saveState(file, createTabState(contents, 40), false);
+        assertRestored(file, contents, 40);
+    }
+
+    @Test
+    public void testStaleTempFilesAreDeleted() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "tab1");
+        TabState.saveState(file, createTabState(randomBytes(CONTENTS_SIZE), 10), false);
+        File tempFile = temporaryFolder.newFile("tab1.tmp");
+        File otherFile = temporaryFolder.newFile("other.tmp");
+
+        TabState.deleteStaleTempFiles(temporaryFolder.getRoot());
+        assertFalse(tempFile.exists());
+        assertTrue(otherFile.exists());
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testDeltaRoundTrip() throws IOException {
+        byte[] base = randomBytes(CONTENTS_SIZE);
+        byte[] target = insertEntry(Arrays.copyOfRange(base, 500, base.length));
+        byte[] delta = TabStateJournal.createDelta(ByteBuffer.wrap(base), 2, target);
+        assertTrue(delta.length < 300);
+
+        ByteBuffer result =
+                TabStateJournal.applyDelta(ByteBuffer.wrap(base), ByteBuffer.wrap(delta));
+        assertArrayEquals(target, result.array());
+
+        // Unrelated contents are inserted as is.
+        target = randomBytes(100);
+        delta = TabStateJournal.createDelta(ByteBuffer.wrap(base), 2, target);
+        result = TabStateJournal.applyDelta(ByteBuffer.wrap(base), ByteBuffer.wrap(delta));
+        assertArrayEquals(target, result.array());
+    }
+}
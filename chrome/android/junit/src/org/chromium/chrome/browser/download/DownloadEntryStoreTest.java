@@ -0,0 +1,190 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.chrome.browser.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.v4.util.AtomicFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import org.chromium.base.test.BaseRobolectricTestRunner;
+import org.chromium.base.test.util.Feature;
+import org.chromium.components.offline_items_collection.ContentId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/** Unit tests for {@link DownloadEntryStore}. */
+@RunWith(BaseRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DownloadEntryStoreTest {
+    private static final ContentId ID1 = new ContentId("LEGACY_DOWNLOAD", "1");
+    private static final ContentId ID2 = new ContentId("LEGACY_OFFLINE_PAGE", "2");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File mFile;
+    private int mWriteCount;
+
+    private final Executor mWriteExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mWriteCount++;
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mFile = new File(temporaryFolder.getRoot(), "entries");
+    }
+
+    private DownloadEntryStore createStore() {
+        return new DownloadEntryStore(new AtomicFile(mFile), mWriteExecutor);
+    }
+
+    private static DownloadSharedPreferenceEntry buildEntry(
+            ContentId id, int notificationId, String fileName, boolean isAutoResumable) {
+        return new DownloadSharedPreferenceEntry(
+                id, notificationId, false, true, fileName, isAutoResumable, false);
+    }
+
+    @Test
+    @Feature({"Download"})
+    public void testEncodeDecode() {
+        DownloadSharedPreferenceEntry entry1 = buildEntry(ID1, 1, "test.pdf", true);
+        DownloadSharedPreferenceEntry entry2 =
+                new DownloadSharedPreferenceEntry(ID2, 2, true, false, "", false, true);
+        assertEquals(Arrays.asList(entry1, entry2), DownloadEntryStore.decode(
+                DownloadEntryStore.encode(Arrays.asList(entry1, entry2))));
+        assertNull(DownloadEntryStore.decode(new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    @Feature({"Download"})
+    public void testDecodeBadCount() {
+        byte[] data = DownloadEntryStore.encode(
+                Arrays.asList(buildEntry(ID1, 1, "", false), buildEntry(ID2, 2, "", false)));
+        // The count follows the magic number and the format version.
+        ByteBuffer.wrap(data).putInt(8, Integer.MAX_VALUE);
+        assertNull(DownloadEntryStore.decode(data));
+        ByteBuffer.wrap(data).putInt(8, 3);
+        assertNull(DownloadEntryStore.decode(data));
+        ByteBuffer.wrap(data).putInt(8, -1);
+        assertNull(DownloadEntryStore.decode(data));
+        ByteBuffer.wrap(data).putInt(8, 2);
+        assertEquals(2, DownloadEntryStore.decode(data).size());
+    }
+
+    @Test
+    @Feature({"Download"})
+    public void testLoadBadCount() throws IOException {
+        byte[] data = DownloadEntryStore.encode(Arrays.asList(buildEntry(ID1, 1, "", false)));
+        ByteBuffer.wrap(data).putInt(8, Integer.MAX_VALUE);
+        FileOutputStream stream = new FileOutputStream(mFile);
+        try {
+            stream.write(data);
+        } finally {
+            stream.close();
+        }
+
+        // A failed load makes DownloadSharedPreferenceHelper migrate from SharedPreferences.
+        DownloadEntryStore store = createStore();
+        assertFalse(store.load());
+        assertTrue(store.getEntries().isEmpty());
+    }
+
+    @Test
+    @Feature({"Download"})
+    public void testPutGetRemove() {
+        DownloadEntryStore store = createStore();
+        DownloadSharedPreferenceEntry entry1 = buildEntry(ID1, 1, "test.pdf", true);
+        DownloadSharedPreferenceEntry entry2 = buildEntry(ID2, 2, "test.mhtml", true);
+        assertTrue(store.put(entry1));
+        assertTrue(store.put(entry2));
+        assertSame(entry1, store.get(ID1));
+
+        // Putting an equal entry is a no-op, replacing one moves it to the end.
+        assertFalse(store.put(buildEntry(ID1, 1, "test.pdf", true)));
+        assertSame(entry1, store.get(ID1));
+        DownloadSharedPreferenceEntry paused = buildEntry(ID1, 1, "test.pdf", false);
+        assertTrue(store.put(paused));
+        assertSame(paused, store.get(ID1));
+        assertEquals(Arrays.asList(entry2, paused), store.getEntries());
+
+        assertTrue(store.remove(ID2));
+        assertFalse(store.remove(ID2));
+        assertNull(store.get(ID2));
+        assertEquals(Arrays.asList(paused), store.getEntries());
+    }
+
+    @Test
+    @Feature({"Download"})
+    public void testFlushesAreCoalesced() {
+        DownloadEntryStore store = createStore();
+        for (int i = 1; i <= 10; i++) {
+            store.put(buildEntry(new ContentId("LEGACY_DOWNLOAD", String.valueOf(i)), i,
+                    "test.pdf", true));
+            store.scheduleFlush(false /* synchronous */);
+        }
+        assertFalse(mFile.exists());
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(1, mWriteCount);
+
+        DownloadEntryStore loaded = createStore();
+        assertTrue(loaded.load());
+        assertEquals(store.getEntries(), loaded.getEntries());
+    }
+
+    @Test
+    @Feature({"Download"})
+    public void testSynchronousFlushCancelsPendingFlush() {
+        DownloadEntryStore store = createStore();
+        store.put(buildEntry(ID1, 1, "test.pdf", true));
+        store.scheduleFlush(false /* synchronous */);
+        store.put(buildEntry(ID2, 2, "test.mhtml", true));
+        store.scheduleFlush(true /* synchronous */);
+        assertEquals(0, mWriteCount);
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(0, mWriteCount);
+
+        DownloadEntryStore loaded = createStore();
+        assertTrue(loaded.load());
+        assertEquals(store.getEntries(), loaded.getEntries());
+    }
+
+    @Test
+    @Feature({"Download"})
+    public void testLoadSkipsInvalidEntries() {
+        DownloadEntryStore store = createStore();
+        assertFalse(store.load());
+        store.put(buildEntry(ID1, 1, "test.pdf", true));
+        store.put(buildEntry(ID2, -1, "test.mhtml", true));
+        store.scheduleFlush(true /* synchronous */);
+
+        DownloadEntryStore loaded = createStore();
+        assertTrue(loaded.load());
+        assertEquals(1, loaded.getEntries().size());
+        assertNull(loaded.get(ID2));
+    }
+}
@@ -245,6 +245,27 @@ public abstract class RequestFinishedInfo {
          */
         @Nullable
         public abstract Long getReceivedByteCount();
+
+        /**
+         * Returns milliseconds the request waited in the engine's queue before it was allowed to
+         * start, or {@code null} if not collected. Only engines that limit the number of
+         * concurrent requests collect this.
+         * {@hide}
+         */
+        @Nullable
+        public Long getQueueWaitMs() {
+            return null;
+        }
+
+        /**
+         * Returns the number of requests that were already waiting in the engine's queue when
+         * this request was started, or {@code null} if not collected.
+         * {@hide}
+         */
+        @Nullable
+        public Integer getQueueDepth() {
+            return null;
+        }
     }
 
     /**
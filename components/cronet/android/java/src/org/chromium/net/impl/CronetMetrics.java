@@ -41,6 +41,10 @@ public final class CronetMetrics extends RequestFinishedInfo.Metrics {
     private final Long mSentByteCount;
     @Nullable
     private final Long mReceivedByteCount;
+    @Nullable
+    private final Long mQueueWaitMs;
+    @Nullable
+    private final Integer mQueueDepth;
 
     @Nullable
     private static Date toDate(long timestamp) {
@@ -68,6 +72,8 @@ public final class CronetMetrics extends RequestFinishedInfo.Metrics {
         mReceivedByteCount = receivedByteCount;
 
         // Everything else is -1 (translates to null) for now
+        mQueueWaitMs = null;
+        mQueueDepth = null;
         mRequestStartMs = -1;
         mDnsStartMs = -1;
         mDnsEndMs = -1;
@@ -91,6 +97,19 @@ public final class CronetMetrics extends RequestFinishedInfo.Metrics {
             long connectEndMs, long sslStartMs, long sslEndMs, long sendingStartMs,
             long sendingEndMs, long pushStartMs, long pushEndMs, long responseStartMs,
             long requestEndMs, boolean socketReused, long sentByteCount, long receivedByteCount) {
+        this(requestStartMs, dnsStartMs, dnsEndMs, connectStartMs, connectEndMs, sslStartMs,
+                sslEndMs, sendingStartMs, sendingEndMs, pushStartMs, pushEndMs, responseStartMs,
+                requestEndMs, socketReused, sentByteCount, receivedByteCount, null, null);
+    }
+
+    /**
+     * New-style constructor, for engines that queue requests before starting them.
+     */
+    public CronetMetrics(long requestStartMs, long dnsStartMs, long dnsEndMs, long connectStartMs,
+            long connectEndMs, long sslStartMs, long sslEndMs, long sendingStartMs,
+            long sendingEndMs, long pushStartMs, long pushEndMs, long responseStartMs,
+            long requestEndMs, boolean socketReused, long sentByteCount, long receivedByteCount,
+            @Nullable Long queueWaitMs, @Nullable Integer queueDepth) {
         // Check that no end times are before corresponding start times,
         // or exist when start time doesn't.
         assert checkOrder(dnsStartMs, dnsEndMs);
@@ -121,6 +140,8 @@ public final class CronetMetrics extends RequestFinishedInfo.Metrics {
         mSocketReused = socketReused;
         mSentByteCount = sentByteCount;
         mReceivedByteCount = receivedByteCount;
+        mQueueWaitMs = queueWaitMs;
+        mQueueDepth = queueDepth;
 
         // TODO(mgersh): delete these after embedders stop using them http://crbug.com/629194
         if (requestStartMs != -1 && responseStartMs != -1) {
@@ -241,4 +262,16 @@ public final class CronetMetrics extends RequestFinishedInfo.Metrics {
     public Long getReceivedByteCount() {
         return mReceivedByteCount;
     }
+
+    @Nullable
+    @Override
+    public Long getQueueWaitMs() {
+        return mQueueWaitMs;
+    }
+
+    @Nullable
+    @Override
+    public Integer getQueueDepth() {
+        return mQueueDepth;
+    }
 }
@@ -0,0 +1,68 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import org.chromium.base.VisibleForTesting;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Pool of equally sized direct {@link ByteBuffer}s. Direct buffers are expensive to allocate and
+ * are only reclaimed by a full GC, so buffers that are needed for the duration of a request are
+ * recycled rather than allocated per request. At most {@code maxPooledBuffers} idle buffers are
+ * retained; beyond that, released buffers are left to the GC.
+ */
+final class DirectByteBufferPool {
+    private final int mBufferSize;
+    private final int mMaxPooledBuffers;
+
+    @GuardedBy("mPool")
+    private final ArrayDeque<ByteBuffer> mPool = new ArrayDeque<>();
+
+    DirectByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        mBufferSize = bufferSize;
+        mMaxPooledBuffers = maxPooledBuffers;
+    }
+
+    int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /** Returns a cleared buffer of {@link #getBufferSize} bytes. */
+    ByteBuffer acquire() {
+        ByteBuffer buffer;
+        synchronized (mPool) {
+            buffer = mPool.pollFirst();
+        }
+        if (buffer == null) return ByteBuffer.allocateDirect(mBufferSize);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns {@code buffer} to the pool. The caller must not use it afterwards, and must be sure
+     * nobody else holds on to it either.
+     */
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != mBufferSize) {
+            throw new IllegalArgumentException("Buffer was not allocated by this pool");
+        }
+        synchronized (mPool) {
+            if (mPool.size() < mMaxPooledBuffers) {
+                mPool.addFirst(buffer);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getPooledBufferCount() {
+        synchronized (mPool) {
+            return mPool.size();
+        }
+    }
+}
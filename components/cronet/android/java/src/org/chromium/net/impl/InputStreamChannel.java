@@ -16,14 +16,18 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * Adapts an {@link InputStream} into a {@link ReadableByteChannel}, exactly like
  * {@link java.nio.channels.Channels#newChannel(InputStream)} does, but more efficiently, since it
- * does not allocate a temporary buffer if it doesn't have to, and it freely takes advantage of
- * {@link FileInputStream}'s trivial conversion to {@link java.nio.channels.FileChannel}.
+ * reads straight into the destination's backing array when it has one, and it freely takes
+ * advantage of {@link FileInputStream}'s trivial conversion to
+ * {@link java.nio.channels.FileChannel}. Buffers without a backing array are filled through a
+ * single scratch array that is allocated on first use and reused for the channel's lifetime.
  */
 final class InputStreamChannel implements ReadableByteChannel {
     private static final int MAX_TMP_BUFFER_SIZE = 16384;
     private static final int MIN_TMP_BUFFER_SIZE = 4096;
     private final InputStream mInputStream;
     private final AtomicBoolean mIsOpen = new AtomicBoolean(true);
+    // Only used for destinations without a backing array. Reads on a channel aren't concurrent.
+    private byte[] mTmpBuf;
 
     private InputStreamChannel(@NonNull InputStream inputStream) {
         mInputStream = inputStream;
@@ -46,18 +50,17 @@ final class InputStreamChannel implements ReadableByteChannel {
                 dst.position(dst.position() + read);
             }
         } else {
-            // Since we're allocating a buffer for every read, we want to choose a good size - on
-            // Android, the only case where a ByteBuffer won't have a backing byte[] is if it was
-            // created wrapping a void * in native code, or if it represents a memory-mapped file.
-            // Especially in the latter case, we want to avoid allocating a buffer that could be
-            // very large.
-            final int possibleToRead = Math.min(
-                    Math.max(mInputStream.available(), MIN_TMP_BUFFER_SIZE), dst.remaining());
-            final int reasonableToRead = Math.min(MAX_TMP_BUFFER_SIZE, possibleToRead);
-            byte[] tmpBuf = new byte[reasonableToRead];
-            read = mInputStream.read(tmpBuf);
+            // On Android, the only case where a ByteBuffer won't have a backing byte[] is if it
+            // was created wrapping a void * in native code, or if it represents a memory-mapped
+            // file. Especially in the latter case, we want to avoid allocating a buffer that could
+            // be very large, so the scratch buffer's size is capped.
+            if (mTmpBuf == null) {
+                mTmpBuf = new byte[Math.max(
+                        MIN_TMP_BUFFER_SIZE, Math.min(MAX_TMP_BUFFER_SIZE, dst.remaining()))];
+            }
+            read = mInputStream.read(mTmpBuf, 0, Math.min(mTmpBuf.length, dst.remaining()));
             if (read > 0) {
-                dst.put(tmpBuf, 0, read);
+                dst.put(mTmpBuf, 0, read);
             }
         }
         return read;
@@ -7,6 +7,9 @@ package org.chromium.net.impl;
 import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
 import static android.os.Process.THREAD_PRIORITY_MORE_FAVORABLE;
 
+import android.support.annotation.Nullable;
+import android.util.Log;
+
 import org.chromium.net.BidirectionalStream;
 import org.chromium.net.ExperimentalBidirectionalStream;
 import org.chromium.net.NetworkQualityRttListener;
@@ -14,30 +17,72 @@ import org.chromium.net.NetworkQualityThroughputListener;
 import org.chromium.net.RequestFinishedInfo;
 import org.chromium.net.UrlRequest;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.net.URLStreamHandlerFactory;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
 /**
  * {@link java.net.HttpURLConnection} backed CronetEngine.
  *
- * <p>Does not support netlogs, transferred data measurement, bidistream, cache, or priority.
+ * <p>Does not support netlogs or bidistream. Only the disk HTTP cache is supported; it is
+ * implemented by {@link JavaHttpCache} and kept separate from the native engine's. Requests are
+ * started in priority order, subject to {@link #MAX_ACTIVE_REQUESTS} and
+ * {@link #MAX_ACTIVE_REQUESTS_PER_HOST}. If enabled, network quality is estimated by
+ * {@link JavaNetworkQualityEstimator} from the requests made through this engine only.
+ * Connection reuse is delegated to the platform's keep-alive pool, so requests must release
+ * their connections by consuming and closing response bodies rather than by disconnecting.
  */
 public final class JavaCronetEngine extends CronetEngineBase {
+    private static final String TAG = JavaCronetEngine.class.getSimpleName();
+
+    /**
+     * Maximum number of requests that may be in flight at once. Each in-flight request occupies at
+     * most one thread of the pool while it blocks on I/O, so this also bounds the pool size.
+     */
+    static final int MAX_ACTIVE_REQUESTS = 20;
+    /** Maximum number of in-flight requests per scheme/host/port, matching the native stack. */
+    static final int MAX_ACTIVE_REQUESTS_PER_HOST = 6;
+    /** Subdirectory of the builder's storage path holding {@link JavaHttpCache}'s entries. */
+    private static final String HTTP_CACHE_DIRECTORY = "java_http_cache";
+
     private final String mUserAgent;
     private final ExecutorService mExecutorService;
+    private final JavaUrlRequestScheduler mScheduler =
+            new JavaUrlRequestScheduler(MAX_ACTIVE_REQUESTS, MAX_ACTIVE_REQUESTS_PER_HOST);
+    /** Upload buffers, shared by all requests. At most one per active request is kept idle. */
+    private final DirectByteBufferPool mUploadBufferPool = new DirectByteBufferPool(
+            JavaUrlRequest.DEFAULT_UPLOAD_BUFFER_SIZE, MAX_ACTIVE_REQUESTS);
+    /** Null if the network quality estimator wasn't enabled by the builder. */
+    @Nullable
+    private final JavaNetworkQualityEstimator mNetworkQualityEstimator;
+    /** Null unless the builder enabled the disk cache. */
+    @Nullable
+    private final JavaHttpCache mHttpCache;
+
+    private final Object mFinishedListenerLock = new Object();
+    @GuardedBy("mFinishedListenerLock")
+    private final Map<RequestFinishedInfo.Listener,
+            VersionSafeCallbacks.RequestFinishedInfoListener> mFinishedListenerMap =
+            new HashMap<>();
 
     public JavaCronetEngine(CronetEngineBuilderImpl builder) {
         // On android, all background threads (and all threads that are part
@@ -49,8 +94,20 @@ public final class JavaCronetEngine extends CronetEngineBase {
         final int threadPriority =
                 builder.threadPriority(THREAD_PRIORITY_BACKGROUND + THREAD_PRIORITY_MORE_FAVORABLE);
         this.mUserAgent = builder.getUserAgent();
-        this.mExecutorService = new ThreadPoolExecutor(10, 20, 50, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        this.mNetworkQualityEstimator = builder.networkQualityEstimatorEnabled()
+                ? new JavaNetworkQualityEstimator()
+                : null;
+        // HTTP_CACHE_DISK_NO_HTTP also maps to a disk cache, but one that mustn't hold responses.
+        this.mHttpCache = builder.httpCacheMode() == HttpCacheType.DISK && !builder.cacheDisabled()
+                ? new JavaHttpCache(new File(builder.storagePath(), HTTP_CACHE_DIRECTORY),
+                          builder.httpCacheMaxSize())
+                : null;
+        // A ThreadPoolExecutor with an unbounded queue never grows past its core size, so the core
+        // size is the real limit; idle threads are allowed to time out instead. Admission is
+        // controlled by mScheduler, so the queue only ever holds work for admitted requests.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_ACTIVE_REQUESTS,
+                MAX_ACTIVE_REQUESTS, 50, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
                     @Override
                     public Thread newThread(final Runnable r) {
                         return Executors.defaultThreadFactory().newThread(new Runnable() {
@@ -63,6 +120,8 @@ public final class JavaCronetEngine extends CronetEngineBase {
                         });
                     }
                 });
+        executor.allowCoreThreadTimeOut(true);
+        this.mExecutorService = executor;
     }
 
     @Override
@@ -71,9 +130,10 @@ public final class JavaCronetEngine extends CronetEngineBase {
             boolean disableConnectionMigration, boolean allowDirectExecutor,
             boolean trafficStatsTagSet, int trafficStatsTag, boolean trafficStatsUidSet,
             int trafficStatsUid, RequestFinishedInfo.Listener requestFinishedListener) {
-        return new JavaUrlRequest(callback, mExecutorService, executor, url, mUserAgent,
-                allowDirectExecutor, trafficStatsTagSet, trafficStatsTag, trafficStatsUidSet,
-                trafficStatsUid);
+        return new JavaUrlRequest(callback, mExecutorService, this, executor, url, mUserAgent,
+                priority, connectionAnnotations, disableCache, allowDirectExecutor,
+                trafficStatsTagSet, trafficStatsTag, trafficStatsUidSet, trafficStatsUid,
+                requestFinishedListener);
     }
 
     @Override
@@ -121,12 +181,14 @@ public final class JavaCronetEngine extends CronetEngineBase {
 
     @Override
     public int getEffectiveConnectionType() {
-        return EFFECTIVE_CONNECTION_TYPE_UNKNOWN;
+        if (mNetworkQualityEstimator == null) return EFFECTIVE_CONNECTION_TYPE_UNKNOWN;
+        return mNetworkQualityEstimator.getEffectiveConnectionType();
     }
 
     @Override
     public int getHttpRttMs() {
-        return CONNECTION_METRIC_UNKNOWN;
+        if (mNetworkQualityEstimator == null) return CONNECTION_METRIC_UNKNOWN;
+        return mNetworkQualityEstimator.getHttpRttMs();
     }
 
     @Override
@@ -136,7 +198,8 @@ public final class JavaCronetEngine extends CronetEngineBase {
 
     @Override
     public int getDownstreamThroughputKbps() {
-        return CONNECTION_METRIC_UNKNOWN;
+        if (mNetworkQualityEstimator == null) return CONNECTION_METRIC_UNKNOWN;
+        return mNetworkQualityEstimator.getDownstreamThroughputKbps();
     }
 
     @Override
@@ -144,22 +207,91 @@ public final class JavaCronetEngine extends CronetEngineBase {
             boolean useSmallerResponses, boolean disableOfflineCheck) {}
 
     @Override
-    public void addRttListener(NetworkQualityRttListener listener) {}
+    public void addRttListener(NetworkQualityRttListener listener) {
+        if (mNetworkQualityEstimator != null) {
+            mNetworkQualityEstimator.addRttListener(listener);
+        }
+    }
 
     @Override
-    public void removeRttListener(NetworkQualityRttListener listener) {}
+    public void removeRttListener(NetworkQualityRttListener listener) {
+        if (mNetworkQualityEstimator != null) {
+            mNetworkQualityEstimator.removeRttListener(listener);
+        }
+    }
 
     @Override
-    public void addThroughputListener(NetworkQualityThroughputListener listener) {}
+    public void addThroughputListener(NetworkQualityThroughputListener listener) {
+        if (mNetworkQualityEstimator != null) {
+            mNetworkQualityEstimator.addThroughputListener(listener);
+        }
+    }
 
     @Override
-    public void removeThroughputListener(NetworkQualityThroughputListener listener) {}
+    public void removeThroughputListener(NetworkQualityThroughputListener listener) {
+        if (mNetworkQualityEstimator != null) {
+            mNetworkQualityEstimator.removeThroughputListener(listener);
+        }
+    }
 
     @Override
-    public void addRequestFinishedListener(RequestFinishedInfo.Listener listener) {}
+    public void addRequestFinishedListener(RequestFinishedInfo.Listener listener) {
+        synchronized (mFinishedListenerLock) {
+            mFinishedListenerMap.put(
+                    listener, new VersionSafeCallbacks.RequestFinishedInfoListener(listener));
+        }
+    }
 
     @Override
-    public void removeRequestFinishedListener(RequestFinishedInfo.Listener listener) {}
+    public void removeRequestFinishedListener(RequestFinishedInfo.Listener listener) {
+        synchronized (mFinishedListenerLock) {
+            mFinishedListenerMap.remove(listener);
+        }
+    }
+
+    boolean hasRequestFinishedListener() {
+        synchronized (mFinishedListenerLock) {
+            return !mFinishedListenerMap.isEmpty();
+        }
+    }
+
+    void reportRequestFinished(final RequestFinishedInfo requestInfo) {
+        ArrayList<VersionSafeCallbacks.RequestFinishedInfoListener> currentListeners;
+        synchronized (mFinishedListenerLock) {
+            if (mFinishedListenerMap.isEmpty()) return;
+            currentListeners = new ArrayList<>(mFinishedListenerMap.values());
+        }
+        for (final VersionSafeCallbacks.RequestFinishedInfoListener listener : currentListeners) {
+            try {
+                listener.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onRequestFinished(requestInfo);
+                    }
+                });
+            } catch (RejectedExecutionException failException) {
+                Log.e(TAG, "Exception posting task to executor", failException);
+            }
+        }
+    }
+
+    JavaUrlRequestScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    DirectByteBufferPool getUploadBufferPool() {
+        return mUploadBufferPool;
+    }
+
+    @Nullable
+    JavaNetworkQualityEstimator getNetworkQualityEstimator() {
+        return mNetworkQualityEstimator;
+    }
+
+    @Nullable
+    JavaHttpCache getHttpCache() {
+        return mHttpCache;
+    }
 
     @Override
     public URLConnection openConnection(URL url) throws IOException {
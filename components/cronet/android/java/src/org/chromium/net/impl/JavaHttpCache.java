@@ -0,0 +1,686 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.chromium.base.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Size-bounded HTTP cache on disk, used by {@link JavaCronetEngine} when the builder enables
+ * {@link org.chromium.net.CronetEngine.Builder#HTTP_CACHE_DISK}.
+ *
+ * <p>Implements the parts of RFC 7234 that matter for a private client cache: only successful
+ * {@code GET} responses are stored; {@code no-store}, {@code Vary: *} and authorized requests are
+ * never stored; freshness comes from {@code max-age}, {@code Expires} or, failing those, 10% of
+ * the time since {@code Last-Modified}; stale entries with an {@code ETag} or
+ * {@code Last-Modified} validator are revalidated with a conditional request.
+ *
+ * <p>Each entry is two files named after a hash of its URL: the response metadata and the body.
+ * Entries are evicted least recently used first once the total size exceeds the limit. Recency
+ * survives restarts through the files' modification times, so no separate journal is needed.
+ * Bodies are written to a temporary file and only become visible on {@link Editor#commit}.
+ */
+final class JavaHttpCache {
+    private static final String TAG = JavaHttpCache.class.getSimpleName();
+
+    private static final int METADATA_VERSION = 1;
+    private static final String METADATA_SUFFIX = ".0";
+    private static final String BODY_SUFFIX = ".1";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Request headers that make a request conditional or partial. */
+    private static final String[] CALLER_CONDITIONAL_HEADERS = {"If-None-Match",
+            "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range", "Range"};
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    private final Object mLock = new Object();
+    // Entry key to size on disk, in least to most recently used order.
+    @GuardedBy("mLock")
+    private final LinkedHashMap<String, Long> mEntrySizes = new LinkedHashMap<>(0, 0.75f, true);
+    @GuardedBy("mLock")
+    private long mSize;
+    @GuardedBy("mLock")
+    private boolean mInitialized;
+    @GuardedBy("mLock")
+    private int mNextTempFileId;
+
+    /** A stored response. Immutable; updating an entry produces a new one. */
+    static final class Entry {
+        private final String mKey;
+        private final int mHttpStatusCode;
+        private final String mHttpStatusText;
+        private final String mNegotiatedProtocol;
+        private final List<Map.Entry<String, String>> mHeaders;
+        // Request headers named by the response's Vary header, lower-cased names.
+        private final Map<String, String> mVaryHeaders;
+        /** Wall-clock time the response was received. */
+        private final long mResponseTimeMs;
+
+        private Entry(String key, int httpStatusCode, String httpStatusText,
+                String negotiatedProtocol, List<Map.Entry<String, String>> headers,
+                Map<String, String> varyHeaders, long responseTimeMs) {
+            mKey = key;
+            mHttpStatusCode = httpStatusCode;
+            mHttpStatusText = httpStatusText;
+            mNegotiatedProtocol = negotiatedProtocol;
+            mHeaders = Collections.unmodifiableList(headers);
+            mVaryHeaders = varyHeaders;
+            mResponseTimeMs = responseTimeMs;
+        }
+
+        int getHttpStatusCode() {
+            return mHttpStatusCode;
+        }
+
+        String getHttpStatusText() {
+            return mHttpStatusText;
+        }
+
+        String getNegotiatedProtocol() {
+            return mNegotiatedProtocol;
+        }
+
+        List<Map.Entry<String, String>> getHeaders() {
+            return mHeaders;
+        }
+
+        /**
+         * Returns whether the entry can be used without revalidation, given the request's
+         * headers and the current wall-clock time.
+         */
+        boolean isFresh(Map<String, String> requestHeaders, long nowMs) {
+            Map<String, String> requestCacheControl =
+                    parseCacheControl(getHeader(requestHeaders, "Cache-Control"));
+            if (requestCacheControl.containsKey("no-cache")
+                    || "no-cache".equalsIgnoreCase(getHeader(requestHeaders, "Pragma"))) {
+                return false;
+            }
+            Map<String, String> cacheControl =
+                    parseCacheControl(getHeader(mHeaders, "Cache-Control"));
+            if (cacheControl.containsKey("no-cache")) return false;
+
+            long ageMs = currentAgeMs(nowMs);
+            long lifetimeMs = freshnessLifetimeMs(cacheControl);
+            long requestMaxAgeSeconds = parseSeconds(requestCacheControl.get("max-age"));
+            if (requestMaxAgeSeconds != -1) {
+                lifetimeMs = Math.min(lifetimeMs, requestMaxAgeSeconds * 1000);
+            }
+            return ageMs < lifetimeMs;
+        }
+
+        /** Returns the headers that turn a request into a revalidation of this entry. */
+        Map<String, String> getConditionalHeaders() {
+            Map<String, String> conditionalHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            String etag = getHeader(mHeaders, "ETag");
+            if (etag != null) {
+                conditionalHeaders.put("If-None-Match", etag);
+            }
+            String lastModified = getHeader(mHeaders, "Last-Modified");
+            if (lastModified != null) {
+                conditionalHeaders.put("If-Modified-Since", lastModified);
+            }
+            return conditionalHeaders;
+        }
+
+        private long currentAgeMs(long nowMs) {
+            long apparentAgeMs = 0;
+            long dateMs = parseDate(getHeader(mHeaders, "Date"));
+            if (dateMs != -1) {
+                apparentAgeMs = Math.max(0, mResponseTimeMs - dateMs);
+            }
+            long ageHeaderMs = Math.max(0, parseSeconds(getHeader(mHeaders, "Age")) * 1000);
+            return Math.max(apparentAgeMs, ageHeaderMs) + Math.max(0, nowMs - mResponseTimeMs);
+        }
+
+        private long freshnessLifetimeMs(Map<String, String> cacheControl) {
+            long maxAgeSeconds = parseSeconds(cacheControl.get("max-age"));
+            if (maxAgeSeconds != -1) return maxAgeSeconds * 1000;
+
+            long dateMs = parseDate(getHeader(mHeaders, "Date"));
+            long servedMs = dateMs != -1 ? dateMs : mResponseTimeMs;
+            long expiresMs = parseDate(getHeader(mHeaders, "Expires"));
+            if (expiresMs != -1) return Math.max(0, expiresMs - servedMs);
+
+            long lastModifiedMs = parseDate(getHeader(mHeaders, "Last-Modified"));
+            if (lastModifiedMs != -1 && lastModifiedMs < servedMs) {
+                return (servedMs - lastModifiedMs) / 10;
+            }
+            return 0;
+        }
+
+        private boolean matchesVary(Map<String, String> requestHeaders) {
+            for (Map.Entry<String, String> vary : mVaryHeaders.entrySet()) {
+                String value = getHeader(requestHeaders, vary.getKey());
+                if (!vary.getValue().equals(value == null ? "" : value)) return false;
+            }
+            return true;
+        }
+    }
+
+    /** Writes a response body into the cache as it is read from the network. */
+    final class Editor {
+        private final Entry mEntry;
+        private final File mTempBodyFile;
+        private FileOutputStream mBodyStream;
+        private long mBodySize;
+        private boolean mDone;
+
+        private Editor(Entry entry, File tempBodyFile) throws IOException {
+            mEntry = entry;
+            mTempBodyFile = tempBodyFile;
+            mBodyStream = new FileOutputStream(tempBodyFile);
+        }
+
+        /**
+         * Appends the remaining bytes of {@code data} to the body, consuming them. A body that
+         * turns out to be too large for the cache, or that can't be written, is silently dropped.
+         */
+        void write(ByteBuffer data) {
+            if (mDone) return;
+            mBodySize += data.remaining();
+            if (mBodySize > mMaxSize) {
+                abort();
+                return;
+            }
+            try {
+                FileChannel channel = mBodyStream.getChannel();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write cache entry", e);
+                abort();
+            }
+        }
+
+        /** Makes the entry visible to readers, replacing any previous entry for the URL. */
+        void commit() {
+            if (mDone) return;
+            mDone = true;
+            try {
+                mBodyStream.close();
+                writeEntry(mEntry, mTempBodyFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to commit cache entry", e);
+                mTempBodyFile.delete();
+            }
+        }
+
+        void abort() {
+            if (mDone) return;
+            mDone = true;
+            try {
+                mBodyStream.close();
+            } catch (IOException e) {
+                // Deleting the file is all that matters.
+            }
+            mTempBodyFile.delete();
+        }
+    }
+
+    JavaHttpCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns whether a request may be answered from, or its response stored in, the cache.
+     * Conditional and range requests made by the caller are passed through unchanged, as the
+     * native stack does, since a stored full response is not an answer to them.
+     */
+    static boolean isCacheableRequest(String method, Map<String, String> requestHeaders) {
+        if (!"GET".equalsIgnoreCase(method)) return false;
+        if (getHeader(requestHeaders, "Authorization") != null) return false;
+        for (String header : CALLER_CONDITIONAL_HEADERS) {
+            if (getHeader(requestHeaders, header) != null) return false;
+        }
+        return !parseCacheControl(getHeader(requestHeaders, "Cache-Control"))
+                        .containsKey("no-store");
+    }
+
+    /**
+     * Returns whether a request with {@code method} makes cached responses for its URL obsolete.
+     */
+    static boolean invalidatesCache(String method) {
+        return !"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)
+                && !"OPTIONS".equalsIgnoreCase(method) && !"TRACE".equalsIgnoreCase(method);
+    }
+
+    /**
+     * Returns the stored response for {@code url} that matches {@code requestHeaders}, or
+     * {@code null}. The caller decides whether it is {@link Entry#isFresh fresh}. Entries whose
+     * body has gone missing are dropped, since they could be neither served nor revalidated.
+     */
+    @Nullable
+    Entry get(String url, Map<String, String> requestHeaders) {
+        String key = keyFor(url);
+        synchronized (mLock) {
+            initializeLocked();
+            if (!mEntrySizes.containsKey(key)) return null;
+            if (!new File(mDirectory, key + BODY_SUFFIX).exists()) {
+                removeLocked(key);
+                return null;
+            }
+            // Marks the entry as recently used, here and across restarts.
+            mEntrySizes.get(key);
+            new File(mDirectory, key + METADATA_SUFFIX).setLastModified(System.currentTimeMillis());
+        }
+        Entry entry;
+        try {
+            entry = readEntry(key);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read cache entry", e);
+            remove(url);
+            return null;
+        }
+        return entry.matchesVary(requestHeaders) ? entry : null;
+    }
+
+    /**
+     * Opens the body of {@code entry} for reading, or returns {@code null} if the entry has been
+     * evicted since it was looked up. Once open, the body stays readable even if it is evicted.
+     */
+    @Nullable
+    ReadableByteChannel openBody(Entry entry) {
+        try {
+            return new FileInputStream(new File(mDirectory, entry.mKey + BODY_SUFFIX))
+                    .getChannel();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts storing a response, or returns {@code null} if it must not be stored. The response's
+     * body must then be passed to the returned {@link Editor}.
+     */
+    @Nullable
+    Editor edit(String url, Map<String, String> requestHeaders, int httpStatusCode,
+            String httpStatusText, String negotiatedProtocol,
+            List<Map.Entry<String, String>> responseHeaders, long responseTimeMs) {
+        if (httpStatusCode != 200 && httpStatusCode != 203) return null;
+        Map<String, String> cacheControl =
+                parseCacheControl(getHeader(responseHeaders, "Cache-Control"));
+        if (cacheControl.containsKey("no-store")) return null;
+        Map<String, String> varyHeaders = new TreeMap<>();
+        String vary = getHeader(responseHeaders, "Vary");
+        if (vary != null) {
+            for (String name : vary.split(",")) {
+                name = name.trim().toLowerCase(Locale.US);
+                if (name.equals("*")) return null;
+                if (name.isEmpty()) continue;
+                String value = getHeader(requestHeaders, name);
+                varyHeaders.put(name, value == null ? "" : value);
+            }
+        }
+        Entry entry = new Entry(keyFor(url), httpStatusCode, httpStatusText, negotiatedProtocol,
+                new ArrayList<>(responseHeaders), varyHeaders, responseTimeMs);
+        try {
+            File tempBodyFile;
+            synchronized (mLock) {
+                tempBodyFile = newTempFile(entry.mKey);
+            }
+            return new Editor(entry, tempBodyFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create cache entry", e);
+            return null;
+        }
+    }
+
+    /**
+     * Merges the headers of a 304 Not Modified response into {@code entry}, as RFC 7234 requires,
+     * and returns the updated entry. The body is unchanged.
+     */
+    Entry update(Entry entry, List<Map.Entry<String, String>> notModifiedHeaders,
+            long responseTimeMs) {
+        Map<String, List<Map.Entry<String, String>>> merged = new LinkedHashMap<>();
+        for (Map.Entry<String, String> header : entry.mHeaders) {
+            addHeader(merged, header);
+        }
+        Map<String, Boolean> replaced = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> header : notModifiedHeaders) {
+            String name = header.getKey().toLowerCase(Locale.US);
+            // Content-Length of a 304 describes the (empty) 304 body, not the stored one.
+            if (name.equals("content-length")) continue;
+            if (!replaced.containsKey(name)) {
+                merged.remove(name);
+                replaced.put(name, true);
+            }
+            addHeader(merged, header);
+        }
+        List<Map.Entry<String, String>> headers = new ArrayList<>();
+        for (List<Map.Entry<String, String>> values : merged.values()) {
+            headers.addAll(values);
+        }
+        Entry updated = new Entry(entry.mKey, entry.mHttpStatusCode, entry.mHttpStatusText,
+                entry.mNegotiatedProtocol, headers, entry.mVaryHeaders, responseTimeMs);
+        try {
+            writeEntry(updated, null);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to update cache entry", e);
+        }
+        return updated;
+    }
+
+    /** Removes any stored response for {@code url}. */
+    void remove(String url) {
+        String key = keyFor(url);
+        synchronized (mLock) {
+            initializeLocked();
+            removeLocked(key);
+        }
+    }
+
+    @VisibleForTesting
+    long getSize() {
+        synchronized (mLock) {
+            initializeLocked();
+            return mSize;
+        }
+    }
+
+    private static void addHeader(Map<String, List<Map.Entry<String, String>>> headers,
+            Map.Entry<String, String> header) {
+        String name = header.getKey().toLowerCase(Locale.US);
+        List<Map.Entry<String, String>> values = headers.get(name);
+        if (values == null) {
+            values = new ArrayList<>();
+            headers.put(name, values);
+        }
+        values.add(header);
+    }
+
+    /**
+     * Stores {@code entry}'s metadata and, if {@code tempBodyFile} isn't null, moves it into place
+     * as the entry's body.
+     */
+    private void writeEntry(Entry entry, @Nullable File tempBodyFile) throws IOException {
+        File tempMetadataFile;
+        synchronized (mLock) {
+            tempMetadataFile = newTempFile(entry.mKey);
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempMetadataFile)));
+        try {
+            out.writeInt(METADATA_VERSION);
+            out.writeInt(entry.mHttpStatusCode);
+            out.writeUTF(entry.mHttpStatusText == null ? "" : entry.mHttpStatusText);
+            out.writeUTF(entry.mNegotiatedProtocol);
+            out.writeLong(entry.mResponseTimeMs);
+            out.writeInt(entry.mHeaders.size());
+            for (Map.Entry<String, String> header : entry.mHeaders) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+            out.writeInt(entry.mVaryHeaders.size());
+            for (Map.Entry<String, String> header : entry.mVaryHeaders.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+        } finally {
+            out.close();
+        }
+
+        synchronized (mLock) {
+            initializeLocked();
+            File metadataFile = new File(mDirectory, entry.mKey + METADATA_SUFFIX);
+            File bodyFile = new File(mDirectory, entry.mKey + BODY_SUFFIX);
+            if (tempBodyFile != null) {
+                removeLocked(entry.mKey);
+                if (!tempBodyFile.renameTo(bodyFile)) {
+                    tempMetadataFile.delete();
+                    tempBodyFile.delete();
+                    throw new IOException("Failed to move cache entry body into place");
+                }
+            } else if (!bodyFile.exists()) {
+                // The entry was evicted while it was being revalidated.
+                tempMetadataFile.delete();
+                return;
+            }
+            if (!tempMetadataFile.renameTo(metadataFile)) {
+                tempMetadataFile.delete();
+                bodyFile.delete();
+                Long oldSize = mEntrySizes.remove(entry.mKey);
+                if (oldSize != null) mSize -= oldSize;
+                throw new IOException("Failed to move cache entry metadata into place");
+            }
+            Long oldSize = mEntrySizes.remove(entry.mKey);
+            if (oldSize != null) mSize -= oldSize;
+            long size = metadataFile.length() + bodyFile.length();
+            mEntrySizes.put(entry.mKey, size);
+            mSize += size;
+            trimToSizeLocked();
+        }
+    }
+
+    private Entry readEntry(String key) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(mDirectory, key + METADATA_SUFFIX))));
+        try {
+            if (in.readInt() != METADATA_VERSION) {
+                throw new IOException("Unknown cache entry version");
+            }
+            int httpStatusCode = in.readInt();
+            String httpStatusText = in.readUTF();
+            String negotiatedProtocol = in.readUTF();
+            long responseTimeMs = in.readLong();
+            int headerCount = in.readInt();
+            List<Map.Entry<String, String>> headers = new ArrayList<>(headerCount);
+            for (int i = 0; i < headerCount; i++) {
+                headers.add(new SimpleEntry<>(in.readUTF(), in.readUTF()));
+            }
+            int varyCount = in.readInt();
+            Map<String, String> varyHeaders = new TreeMap<>();
+            for (int i = 0; i < varyCount; i++) {
+                varyHeaders.put(in.readUTF(), in.readUTF());
+            }
+            return new Entry(key, httpStatusCode, httpStatusText, negotiatedProtocol, headers,
+                    varyHeaders, responseTimeMs);
+        } finally {
+            in.close();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private File newTempFile(String key) throws IOException {
+        initializeLocked();
+        return new File(mDirectory, key + "." + (mNextTempFileId++) + TEMP_SUFFIX);
+    }
+
+    /**
+     * Builds the in-memory index from the directory's contents on first use, so that engine
+     * creation doesn't block on disk I/O.
+     */
+    @GuardedBy("mLock")
+    private void initializeLocked() {
+        if (mInitialized) return;
+        mInitialized = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "Failed to create cache directory " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        List<File> metadataFiles = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Left behind by a process that died mid-write.
+                file.delete();
+            } else if (name.endsWith(METADATA_SUFFIX)) {
+                metadataFiles.add(file);
+            }
+        }
+        File[] sorted = metadataFiles.toArray(new File[metadataFiles.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File metadataFile : sorted) {
+            String name = metadataFile.getName();
+            String key = name.substring(0, name.length() - METADATA_SUFFIX.length());
+            File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+            if (!bodyFile.exists()) {
+                metadataFile.delete();
+                continue;
+            }
+            long size = metadataFile.length() + bodyFile.length();
+            mEntrySizes.put(key, size);
+            mSize += size;
+        }
+        // Bodies without metadata are orphans of a failed commit.
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(BODY_SUFFIX)
+                    && !mEntrySizes.containsKey(
+                            name.substring(0, name.length() - BODY_SUFFIX.length()))) {
+                file.delete();
+            }
+        }
+        trimToSizeLocked();
+    }
+
+    @GuardedBy("mLock")
+    private void trimToSizeLocked() {
+        Iterator<Map.Entry<String, Long>> it = mEntrySizes.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            mSize -= eldest.getValue();
+            deleteFilesLocked(eldest.getKey());
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void removeLocked(String key) {
+        Long size = mEntrySizes.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        deleteFilesLocked(key);
+    }
+
+    @GuardedBy("mLock")
+    private void deleteFilesLocked(String key) {
+        // Readers that already opened the body keep reading the unlinked file.
+        new File(mDirectory, key + METADATA_SUFFIX).delete();
+        new File(mDirectory, key + BODY_SUFFIX).delete();
+    }
+
+    private static String keyFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are guaranteed to be available on Android.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nullable
+    private static String getHeader(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String getHeader(List<Map.Entry<String, String>> headers, String name) {
+        for (Map.Entry<String, String> header : headers) {
+            if (header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    /** Parses a Cache-Control header into lower-cased directives and their (maybe null) values. */
+    @VisibleForTesting
+    static Map<String, String> parseCacheControl(@Nullable String header) {
+        Map<String, String> directives = new TreeMap<>();
+        if (header == null) return directives;
+        for (String directive : header.split(",")) {
+            int equals = directive.indexOf('=');
+            String name = (equals == -1 ? directive : directive.substring(0, equals))
+                                  .trim()
+                                  .toLowerCase(Locale.US);
+            if (name.isEmpty()) continue;
+            String value = null;
+            if (equals != -1) {
+                value = directive.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+            }
+            directives.put(name, value);
+        }
+        return directives;
+    }
+
+    /** Returns a non-negative number of seconds, or -1 if {@code value} isn't one. */
+    private static long parseSeconds(@Nullable String value) {
+        if (value == null) return -1;
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Parses an RFC 1123 HTTP date, returning -1 if {@code value} isn't one. */
+    private static long parseDate(@Nullable String value) {
+        if (value == null) return -1;
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import static org.chromium.net.ExperimentalCronetEngine.CONNECTION_METRIC_UNKNOWN;
+import static org.chromium.net.ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_2G;
+import static org.chromium.net.ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_3G;
+import static org.chromium.net.ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_4G;
+import static org.chromium.net.ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_SLOW_2G;
+import static org.chromium.net.ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_UNKNOWN;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.chromium.base.ObserverList;
+import org.chromium.base.VisibleForTesting;
+import org.chromium.net.NetworkQualityObservationSource;
+import org.chromium.net.NetworkQualityRttListener;
+import org.chromium.net.NetworkQualityThroughputListener;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Estimates network quality for {@link JavaCronetEngine} from the requests it makes. This is a
+ * much simplified version of the native NetworkQualityEstimator: estimates are the weighted
+ * median of recent observations, where an observation's weight halves every
+ * {@link #HALF_LIFE_MS}.
+ */
+final class JavaNetworkQualityEstimator {
+    private static final String TAG = JavaNetworkQualityEstimator.class.getSimpleName();
+
+    /** Number of most recent observations of each kind that are kept. */
+    private static final int MAX_OBSERVATIONS = 50;
+    /** Same as the native estimator's default observation half life. */
+    private static final long HALF_LIFE_MS = 60 * 1000;
+    /**
+     * Responses smaller than this are mostly latency, not bandwidth, so they aren't used as
+     * throughput observations. Matches the native estimator's default.
+     */
+    @VisibleForTesting
+    static final long MIN_THROUGHPUT_OBSERVATION_BYTES = 32 * 1024;
+
+    // HTTP RTT thresholds for each effective connection type, from the native estimator.
+    private static final int SLOW_2G_HTTP_RTT_MS = 2010;
+    private static final int TYPE_2G_HTTP_RTT_MS = 1420;
+    private static final int TYPE_3G_HTTP_RTT_MS = 272;
+
+    /** Fixed-capacity ring of timestamped observations. */
+    private static final class ObservationBuffer {
+        private final int[] mValues = new int[MAX_OBSERVATIONS];
+        private final long[] mTimestampsMs = new long[MAX_OBSERVATIONS];
+        private int mNext;
+        private int mSize;
+
+        void add(int value, long nowMs) {
+            mValues[mNext] = value;
+            mTimestampsMs[mNext] = nowMs;
+            mNext = (mNext + 1) % MAX_OBSERVATIONS;
+            mSize = Math.min(mSize + 1, MAX_OBSERVATIONS);
+        }
+
+        /** Returns the time-weighted median, or {@code CONNECTION_METRIC_UNKNOWN} if empty. */
+        int weightedMedian(long nowMs) {
+            if (mSize == 0) return CONNECTION_METRIC_UNKNOWN;
+            // Sort indices by value. Sizes are tiny, so a simple copy-and-sort is fine.
+            long[] packed = new long[mSize];
+            double totalWeight = 0;
+            for (int i = 0; i < mSize; i++) {
+                packed[i] = ((long) mValues[i] << 32) | i;
+                totalWeight += weight(i, nowMs);
+            }
+            Arrays.sort(packed);
+            double cumulativeWeight = 0;
+            for (long entry : packed) {
+                int index = (int) entry;
+                cumulativeWeight += weight(index, nowMs);
+                if (cumulativeWeight >= totalWeight / 2) return mValues[index];
+            }
+            return mValues[(int) packed[mSize - 1]];
+        }
+
+        private double weight(int index, long nowMs) {
+            return Math.pow(0.5, (double) (nowMs - mTimestampsMs[index]) / HALF_LIFE_MS);
+        }
+    }
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final ObservationBuffer mHttpRttObservations = new ObservationBuffer();
+    @GuardedBy("mLock")
+    private final ObservationBuffer mThroughputObservations = new ObservationBuffer();
+    @GuardedBy("mLock")
+    private final ObserverList<VersionSafeCallbacks.NetworkQualityRttListenerWrapper>
+            mRttListenerList = new ObserverList<>();
+    @GuardedBy("mLock")
+    private final ObserverList<VersionSafeCallbacks.NetworkQualityThroughputListenerWrapper>
+            mThroughputListenerList = new ObserverList<>();
+
+    /**
+     * Records the time between sending a request and receiving its response headers.
+     */
+    void onHttpRttObservation(final int rttMs) {
+        final long whenMs = System.currentTimeMillis();
+        synchronized (mLock) {
+            mHttpRttObservations.add(rttMs, SystemClock.elapsedRealtime());
+            for (final VersionSafeCallbacks.NetworkQualityRttListenerWrapper listener :
+                    mRttListenerList) {
+                postObservationTaskToExecutor(listener.getExecutor(), new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onRttObservation(
+                                rttMs, whenMs, NetworkQualityObservationSource.HTTP);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Records the transfer of a response body of {@code bytes} bytes in {@code durationMs}. Ignored
+     * if the response was too small to say anything about throughput.
+     */
+    void onResponseBodyReceived(long bytes, long durationMs) {
+        if (bytes < MIN_THROUGHPUT_OBSERVATION_BYTES || durationMs <= 0) return;
+        final int throughputKbps = (int) Math.min(Integer.MAX_VALUE, bytes * 8 / durationMs);
+        final long whenMs = System.currentTimeMillis();
+        synchronized (mLock) {
+            mThroughputObservations.add(throughputKbps, SystemClock.elapsedRealtime());
+            for (final VersionSafeCallbacks.NetworkQualityThroughputListenerWrapper listener :
+                    mThroughputListenerList) {
+                postObservationTaskToExecutor(listener.getExecutor(), new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onThroughputObservation(
+                                throughputKbps, whenMs, NetworkQualityObservationSource.HTTP);
+                    }
+                });
+            }
+        }
+    }
+
+    int getHttpRttMs() {
+        synchronized (mLock) {
+            return mHttpRttObservations.weightedMedian(SystemClock.elapsedRealtime());
+        }
+    }
+
+    int getDownstreamThroughputKbps() {
+        synchronized (mLock) {
+            return mThroughputObservations.weightedMedian(SystemClock.elapsedRealtime());
+        }
+    }
+
+    int getEffectiveConnectionType() {
+        int httpRttMs = getHttpRttMs();
+        if (httpRttMs == CONNECTION_METRIC_UNKNOWN) return EFFECTIVE_CONNECTION_TYPE_UNKNOWN;
+        if (httpRttMs >= SLOW_2G_HTTP_RTT_MS) return EFFECTIVE_CONNECTION_TYPE_SLOW_2G;
+        if (httpRttMs >= TYPE_2G_HTTP_RTT_MS) return EFFECTIVE_CONNECTION_TYPE_2G;
+        if (httpRttMs >= TYPE_3G_HTTP_RTT_MS) return EFFECTIVE_CONNECTION_TYPE_3G;
+        return EFFECTIVE_CONNECTION_TYPE_4G;
+    }
+
+    void addRttListener(NetworkQualityRttListener listener) {
+        synchronized (mLock) {
+            mRttListenerList.addObserver(
+                    new VersionSafeCallbacks.NetworkQualityRttListenerWrapper(listener));
+        }
+    }
+
+    void removeRttListener(NetworkQualityRttListener listener) {
+        synchronized (mLock) {
+            mRttListenerList.removeObserver(
+                    new VersionSafeCallbacks.NetworkQualityRttListenerWrapper(listener));
+        }
+    }
+
+    void addThroughputListener(NetworkQualityThroughputListener listener) {
+        synchronized (mLock) {
+            mThroughputListenerList.addObserver(
+                    new VersionSafeCallbacks.NetworkQualityThroughputListenerWrapper(listener));
+        }
+    }
+
+    void removeThroughputListener(NetworkQualityThroughputListener listener) {
+        synchronized (mLock) {
+            mThroughputListenerList.removeObserver(
+                    new VersionSafeCallbacks.NetworkQualityThroughputListenerWrapper(listener));
+        }
+    }
+
+    private static void postObservationTaskToExecutor(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException failException) {
+            Log.e(TAG, "Exception posting task to executor", failException);
+        }
+    }
+}
@@ -8,11 +8,13 @@ import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.net.TrafficStats;
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.chromium.net.CronetException;
 import org.chromium.net.InlineExecutionProhibitedException;
+import org.chromium.net.RequestFinishedInfo;
 import org.chromium.net.ThreadStatsUid;
 import org.chromium.net.UploadDataProvider;
 import org.chromium.net.UploadDataSink;
@@ -22,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.ByteBuffer;
@@ -31,12 +34,14 @@ import java.nio.channels.WritableByteChannel;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -50,8 +55,14 @@ final class JavaUrlRequest extends UrlRequestBase {
     private static final String X_ANDROID = "X-Android";
     private static final String X_ANDROID_SELECTED_TRANSPORT = "X-Android-Selected-Transport";
     private static final String TAG = JavaUrlRequest.class.getSimpleName();
-    private static final int DEFAULT_UPLOAD_BUFFER_SIZE = 8192;
+    static final int DEFAULT_UPLOAD_BUFFER_SIZE = 8192;
     private static final int DEFAULT_CHUNK_LENGTH = DEFAULT_UPLOAD_BUFFER_SIZE;
+    /**
+     * Redirect bodies up to this size are read and discarded before following the redirect, which
+     * lets the platform return the underlying keep-alive socket to its connection pool instead of
+     * closing it. Larger bodies aren't worth the extra bytes, so those connections are dropped.
+     */
+    private static final int MAX_REDIRECT_BODY_DRAIN_BYTES = 64 * 1024;
     private static final String USER_AGENT = "User-Agent";
     private final AsyncUrlRequestCallback mCallbackAsync;
     private final Executor mExecutor;
@@ -72,6 +83,45 @@ final class JavaUrlRequest extends UrlRequestBase {
     private final AtomicBoolean mUploadProviderClosed = new AtomicBoolean(false);
 
     private final boolean mAllowDirectExecutor;
+    private final JavaCronetEngine mEngine;
+    private final JavaUrlRequestScheduler mScheduler;
+    private final DirectByteBufferPool mUploadBufferPool;
+    @CronetEngineBase.RequestPriority
+    private final int mPriority;
+    private final String mInitialUrl;
+    private final Collection<Object> mRequestAnnotations;
+    private final boolean mDisableCache;
+    /** The engine's cache, or null if it has none or this request bypasses it. */
+    @Nullable
+    private final JavaHttpCache mHttpCache;
+    @Nullable
+    private final VersionSafeCallbacks.RequestFinishedInfoListener mRequestFinishedListener;
+    // Set once by start(), then only read.
+    private volatile JavaUrlRequestScheduler.Ticket mSchedulerTicket;
+
+    /*
+     * Metrics. The start time is wall-clock time, as required by RequestFinishedInfo; everything
+     * else is measured with elapsedRealtime() and reported relative to it. Apart from the start
+     * time, these are only updated on mExecutor, and describe the most recent redirect hop.
+     *
+     * HttpURLConnection resolves the host, connects and performs the TLS handshake inside
+     * connect() without exposing any of their timing or whether a pooled socket was reused, so
+     * DNS, connect and SSL times are reported as unknown and the socket as not reused. Byte counts
+     * include an estimate of the header bytes, since the exact wire format isn't visible either.
+     */
+    private long mRequestStartMs = -1;
+    private long mRequestStartElapsedMs = -1;
+    private volatile long mSendingStartElapsedMs = -1;
+    private volatile long mSendingEndElapsedMs = -1;
+    private volatile long mResponseStartElapsedMs = -1;
+    private volatile long mSentByteCount;
+    private volatile long mReceivedByteCount;
+    private long mResponseBodyByteCount; // Only accessed on mExecutor.
+    // Time spent in reads of the response body. Reads are pulled by the caller, so the time
+    // between them is the caller's and doesn't count towards throughput. Only accessed on
+    // mExecutor.
+    private long mResponseBodyReadNs;
+    private final AtomicBoolean mRequestFinishedReported = new AtomicBoolean(false);
 
     /* These don't change with redirects */
     private String mInitialMethod;
@@ -99,6 +149,14 @@ final class JavaUrlRequest extends UrlRequestBase {
     private String mPendingRedirectUrl;
     private HttpURLConnection mCurrentUrlConnection; // Only accessed on mExecutor.
     private OutputStreamDataSink mOutputStreamDataSink; // Only accessed on mExecutor.
+    // Stale cache entry being revalidated by the current connection. Only accessed on mExecutor.
+    @Nullable
+    private JavaHttpCache.Entry mCacheEntry;
+    // Stores the response body as it is read. Only accessed on mExecutor.
+    @Nullable
+    private JavaHttpCache.Editor mCacheEditor;
+    // Whether the response body is read from the cache. Only accessed on mExecutor.
+    private boolean mResponseFromCache;
 
     /**
      *             /- AWAITING_FOLLOW_REDIRECT <-  REDIRECT_RECEIVED <-\     /- READING <--\
@@ -188,11 +246,15 @@ final class JavaUrlRequest extends UrlRequestBase {
 
     /**
      * @param executor The executor used for reading and writing from sockets
+     * @param engine The engine that created this request
      * @param userExecutor The executor used to dispatch to {@code callback}
      */
-    JavaUrlRequest(Callback callback, final Executor executor, Executor userExecutor, String url,
-            String userAgent, boolean allowDirectExecutor, boolean trafficStatsTagSet,
-            int trafficStatsTag, final boolean trafficStatsUidSet, final int trafficStatsUid) {
+    JavaUrlRequest(Callback callback, final Executor executor, JavaCronetEngine engine,
+            Executor userExecutor, String url, String userAgent,
+            @CronetEngineBase.RequestPriority int priority, Collection<Object> requestAnnotations,
+            boolean disableCache, boolean allowDirectExecutor, boolean trafficStatsTagSet,
+            int trafficStatsTag, final boolean trafficStatsUidSet, final int trafficStatsUid,
+            @Nullable RequestFinishedInfo.Listener requestFinishedListener) {
         if (url == null) {
             throw new NullPointerException("URL is required");
         }
@@ -207,6 +269,16 @@ final class JavaUrlRequest extends UrlRequestBase {
         }
 
         this.mAllowDirectExecutor = allowDirectExecutor;
+        this.mEngine = engine;
+        this.mScheduler = engine.getScheduler();
+        this.mUploadBufferPool = engine.getUploadBufferPool();
+        this.mPriority = priority;
+        this.mRequestAnnotations = requestAnnotations;
+        this.mDisableCache = disableCache;
+        this.mHttpCache = disableCache ? null : engine.getHttpCache();
+        this.mRequestFinishedListener = requestFinishedListener != null
+                ? new VersionSafeCallbacks.RequestFinishedInfoListener(requestFinishedListener)
+                : null;
         this.mCallbackAsync = new AsyncUrlRequestCallback(callback, userExecutor);
         final int trafficStatsTagToUse =
                 trafficStatsTagSet ? trafficStatsTag : TrafficStats.getThreadStatsTag();
@@ -234,6 +306,7 @@ final class JavaUrlRequest extends UrlRequestBase {
             }
         });
         this.mCurrentUrl = url;
+        this.mInitialUrl = url;
         this.mUserAgent = userAgent;
     }
 
@@ -342,7 +415,10 @@ final class JavaUrlRequest extends UrlRequestBase {
         WritableByteChannel mOutputChannel;
         OutputStream mUrlConnectionOutputStream;
         final VersionSafeCallbacks.UploadDataProviderWrapper mUploadProvider;
+        /** Taken from the engine's pool, and returned once the upload has been fully written. */
         ByteBuffer mBuffer;
+        /** Limit of mBuffer whenever it is handed to the provider. */
+        int mBufferLimit;
         /** This holds the total bytes to send (the content-length). -1 if unknown. */
         long mTotalBytes;
         /** This holds the bytes written so far */
@@ -383,8 +459,19 @@ final class JavaUrlRequest extends UrlRequestBase {
                                 mWrittenBytes + mBuffer.remaining(), mTotalBytes)));
                         return;
                     }
+                    if (mBuffer.hasArray()) {
+                        // Skips the intermediate copy the channel would otherwise make.
+                        int length = mBuffer.remaining();
+                        mUrlConnectionOutputStream.write(mBuffer.array(),
+                                mBuffer.arrayOffset() + mBuffer.position(), length);
+                        mBuffer.position(mBuffer.limit());
+                        mWrittenBytes += length;
+                        mSentByteCount += length;
+                    }
                     while (mBuffer.hasRemaining()) {
-                        mWrittenBytes += mOutputChannel.write(mBuffer);
+                        int written = mOutputChannel.write(mBuffer);
+                        mWrittenBytes += written;
+                        mSentByteCount += written;
                     }
                     // Forces a chunk to be sent, rather than buffering to the DEFAULT_CHUNK_LENGTH.
                     // This allows clients to trickle-upload bytes as they become available without
@@ -393,6 +480,7 @@ final class JavaUrlRequest extends UrlRequestBase {
 
                     if (mWrittenBytes < mTotalBytes || (mTotalBytes == -1 && !finalChunk)) {
                         mBuffer.clear();
+                        mBuffer.limit(mBufferLimit);
                         mSinkState.set(SinkState.AWAITING_READ_RESULT);
                         executeOnUploadExecutor(new CheckedRunnable() {
                             @Override
@@ -436,8 +524,7 @@ final class JavaUrlRequest extends UrlRequestBase {
                 @Override
                 public void run() throws Exception {
                     if (mOutputChannel == null) {
-                        mAdditionalStatusDetails = Status.CONNECTING;
-                        mUrlConnection.connect();
+                        connect(mUrlConnection);
                         mAdditionalStatusDetails = Status.SENDING_REQUEST;
                         mUrlConnectionOutputStream = mUrlConnection.getOutputStream();
                         mOutputChannel = Channels.newChannel(mUrlConnectionOutputStream);
@@ -468,6 +555,13 @@ final class JavaUrlRequest extends UrlRequestBase {
         }
 
         void finish() throws IOException {
+            // The provider has returned its last read, so nothing else references the buffer.
+            // Buffers of failed or cancelled uploads may still be in the provider's hands, so
+            // those are left to the GC instead.
+            if (mBuffer != null) {
+                mUploadBufferPool.release(mBuffer);
+                mBuffer = null;
+            }
             closeOutputChannel();
             fireGetHeaders();
         }
@@ -480,15 +574,17 @@ final class JavaUrlRequest extends UrlRequestBase {
                     if (mTotalBytes == 0) {
                         finish();
                     } else {
-                        // If we know how much data we have to upload, and it's small, we can save
-                        // memory by allocating a reasonably sized buffer to read into.
-                        if (mTotalBytes > 0 && mTotalBytes < DEFAULT_UPLOAD_BUFFER_SIZE) {
-                            // Allocate one byte more than necessary, to detect callers uploading
+                        mBuffer = mUploadBufferPool.acquire();
+                        // If we know how much data we have to upload, and it's small, only expose
+                        // as much of the pooled buffer as is needed.
+                        if (mTotalBytes > 0 && mTotalBytes < mBuffer.capacity()) {
+                            // Expose one byte more than necessary, to detect callers uploading
                             // more bytes than they specified in length.
-                            mBuffer = ByteBuffer.allocateDirect((int) mTotalBytes + 1);
+                            mBufferLimit = (int) mTotalBytes + 1;
                         } else {
-                            mBuffer = ByteBuffer.allocateDirect(DEFAULT_UPLOAD_BUFFER_SIZE);
+                            mBufferLimit = mBuffer.capacity();
                         }
+                        mBuffer.limit(mBufferLimit);
 
                         if (mTotalBytes > 0 && mTotalBytes <= Integer.MAX_VALUE) {
                             mUrlConnection.setFixedLengthStreamingMode((int) mTotalBytes);
@@ -515,18 +611,53 @@ final class JavaUrlRequest extends UrlRequestBase {
 
     @Override
     public void start() {
-        mAdditionalStatusDetails = Status.CONNECTING;
+        mAdditionalStatusDetails = Status.WAITING_FOR_AVAILABLE_SOCKET;
         transitionStates(State.NOT_STARTED, State.STARTED, new Runnable() {
             @Override
             public void run() {
+                mRequestStartMs = System.currentTimeMillis();
+                mRequestStartElapsedMs = SystemClock.elapsedRealtime();
                 mUrlChain.add(mCurrentUrl);
-                fireOpenConnection();
+                mSchedulerTicket = mScheduler.schedule(
+                        getHostKey(mCurrentUrl), mPriority, new Runnable() {
+                            @Override
+                            public void run() {
+                                mAdditionalStatusDetails = Status.CONNECTING;
+                                fireOpenConnection();
+                            }
+                        });
+                // A cancel() that raced with scheduling couldn't release the ticket yet.
+                if (isDone()) {
+                    releaseSchedulerSlot();
+                }
             }
         });
     }
 
+    /**
+     * Returns the key {@link JavaUrlRequestScheduler} uses to limit concurrent requests per host.
+     * Malformed URLs share a key; they fail as soon as they are started anyway.
+     */
+    private static String getHostKey(String url) {
+        try {
+            URL parsedUrl = new URL(url);
+            return parsedUrl.getProtocol() + "://" + parsedUrl.getAuthority();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /** Gives up the request's scheduler slot, letting queued requests start. */
+    private void releaseSchedulerSlot() {
+        JavaUrlRequestScheduler.Ticket ticket = mSchedulerTicket;
+        if (ticket != null) {
+            mScheduler.finish(ticket);
+        }
+    }
+
     private void enterErrorState(final CronetException error) {
         if (setTerminalState(State.ERROR)) {
+            releaseSchedulerSlot();
             fireDisconnect();
             fireCloseUploadDataProvider();
             mCallbackAsync.onFailed(mUrlResponseInfo, error);
@@ -601,6 +732,7 @@ final class JavaUrlRequest extends UrlRequestBase {
     }
 
     private void fireGetHeaders() {
+        mSendingEndElapsedMs = SystemClock.elapsedRealtime();
         mAdditionalStatusDetails = Status.WAITING_FOR_RESPONSE;
         mExecutor.execute(errorSetting(new CheckedRunnable() {
             @Override
@@ -623,12 +755,44 @@ final class JavaUrlRequest extends UrlRequestBase {
                 }
 
                 int responseCode = mCurrentUrlConnection.getResponseCode();
+                mResponseStartElapsedMs = SystemClock.elapsedRealtime();
+                String responseMessage = mCurrentUrlConnection.getResponseMessage();
+                // Status line, then one line per header, then the empty line.
+                long headerBytes = (responseMessage == null ? 0 : responseMessage.length()) + 15;
+                for (Map.Entry<String, String> header : headerList) {
+                    headerBytes += header.getKey().length() + header.getValue().length() + 4;
+                }
+                mReceivedByteCount += headerBytes + 2;
+                JavaNetworkQualityEstimator estimator = mEngine.getNetworkQualityEstimator();
+                if (estimator != null) {
+                    estimator.onHttpRttObservation(
+                            (int) (mResponseStartElapsedMs - mSendingEndElapsedMs));
+                }
+                JavaHttpCache.Entry cacheEntry = mCacheEntry;
+                mCacheEntry = null;
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cacheEntry != null) {
+                    // Our stored copy is still valid; the 304 itself has no body to read.
+                    releaseConnection(mCurrentUrlConnection);
+                    mCurrentUrlConnection = null;
+                    ReadableByteChannel body = mHttpCache.openBody(cacheEntry);
+                    if (body == null) {
+                        // The body was evicted while revalidating, so the 304 can't be used.
+                        // Without the entry, the retry is sent without validators.
+                        mHttpCache.remove(mCurrentUrl);
+                        fireOpenConnection();
+                        return;
+                    }
+                    fireCachedResponse(
+                            mHttpCache.update(cacheEntry, headerList, System.currentTimeMillis()),
+                            body);
+                    return;
+                }
                 // Important to copy the list here, because although we never concurrently modify
                 // the list ourselves, user code might iterate over it while we're redirecting, and
                 // that would throw ConcurrentModificationException.
                 mUrlResponseInfo = new UrlResponseInfoImpl(new ArrayList<>(mUrlChain), responseCode,
-                        mCurrentUrlConnection.getResponseMessage(),
-                        Collections.unmodifiableList(headerList), false, selectedTransport, "", 0);
+                        responseMessage, Collections.unmodifiableList(headerList), false,
+                        selectedTransport, "", mReceivedByteCount);
                 // TODO(clm) actual redirect handling? post -> get and whatnot?
                 if (responseCode >= 300 && responseCode < 400) {
                     fireRedirectReceived(mUrlResponseInfo.getAllHeaders());
@@ -643,6 +807,11 @@ final class JavaUrlRequest extends UrlRequestBase {
                 } else {
                     mResponseChannel =
                             InputStreamChannel.wrap(mCurrentUrlConnection.getInputStream());
+                    if (isCacheable()) {
+                        mCacheEditor = mHttpCache.edit(mCurrentUrl, mRequestHeaders, responseCode,
+                                responseMessage, selectedTransport, headerList,
+                                System.currentTimeMillis());
+                    }
                     mCallbackAsync.onResponseStarted(mUrlResponseInfo);
                 }
             }
@@ -696,34 +865,142 @@ final class JavaUrlRequest extends UrlRequestBase {
 
                 final URL url = new URL(mCurrentUrl);
                 if (mCurrentUrlConnection != null) {
-                    mCurrentUrlConnection.disconnect();
+                    releaseConnection(mCurrentUrlConnection);
                     mCurrentUrlConnection = null;
                 }
-                mCurrentUrlConnection = (HttpURLConnection) url.openConnection();
-                mCurrentUrlConnection.setInstanceFollowRedirects(false);
+                mSendingStartElapsedMs = -1;
+                mSendingEndElapsedMs = -1;
+                mResponseStartElapsedMs = -1;
                 if (!mRequestHeaders.containsKey(USER_AGENT)) {
                     mRequestHeaders.put(USER_AGENT, mUserAgent);
                 }
+                if (mInitialMethod == null) {
+                    mInitialMethod = "GET";
+                }
+                mCacheEntry = null;
+                if (mHttpCache != null && JavaHttpCache.invalidatesCache(mInitialMethod)) {
+                    mHttpCache.remove(mCurrentUrl);
+                } else if (isCacheable()) {
+                    JavaHttpCache.Entry entry = mHttpCache.get(mCurrentUrl, mRequestHeaders);
+                    if (entry != null
+                            && entry.isFresh(mRequestHeaders, System.currentTimeMillis())) {
+                        ReadableByteChannel body = mHttpCache.openBody(entry);
+                        if (body != null) {
+                            fireCachedResponse(entry, body);
+                            return;
+                        }
+                        // Evicted since the lookup; there is nothing left to revalidate.
+                        entry = null;
+                    }
+                    mCacheEntry = entry;
+                }
+                mCurrentUrlConnection = (HttpURLConnection) url.openConnection();
+                mCurrentUrlConnection.setInstanceFollowRedirects(false);
+                // Keeps a ResponseCache installed by the app from serving or storing the response
+                // when the request bypasses the cache, or when it is already cached by us.
+                if (mDisableCache || mHttpCache != null) {
+                    mCurrentUrlConnection.setUseCaches(false);
+                }
                 for (Map.Entry<String, String> entry : mRequestHeaders.entrySet()) {
                     mCurrentUrlConnection.setRequestProperty(entry.getKey(), entry.getValue());
                 }
-                if (mInitialMethod == null) {
-                    mInitialMethod = "GET";
+                if (mCacheEntry != null) {
+                    Map<String, String> conditionalHeaders = mCacheEntry.getConditionalHeaders();
+                    if (conditionalHeaders.isEmpty()) {
+                        // Without a validator the stale entry can't be revalidated.
+                        mCacheEntry = null;
+                    }
+                    for (Map.Entry<String, String> entry : conditionalHeaders.entrySet()) {
+                        // Conditions set by the caller are theirs to handle.
+                        if (!mRequestHeaders.containsKey(entry.getKey())) {
+                            mCurrentUrlConnection.setRequestProperty(
+                                    entry.getKey(), entry.getValue());
+                        }
+                    }
                 }
                 mCurrentUrlConnection.setRequestMethod(mInitialMethod);
+                // Request line, then one line per header, then the empty line.
+                long headerBytes = mInitialMethod.length() + url.getFile().length() + 12;
+                for (Map.Entry<String, String> entry : mRequestHeaders.entrySet()) {
+                    headerBytes += entry.getKey().length() + entry.getValue().length() + 4;
+                }
+                mSentByteCount += headerBytes + 2;
                 if (mUploadDataProvider != null) {
                     mOutputStreamDataSink = new OutputStreamDataSink(
                             mUploadExecutor, mExecutor, mCurrentUrlConnection, mUploadDataProvider);
                     mOutputStreamDataSink.start(mUrlChain.size() == 1);
                 } else {
-                    mAdditionalStatusDetails = Status.CONNECTING;
-                    mCurrentUrlConnection.connect();
+                    connect(mCurrentUrlConnection);
                     fireGetHeaders();
                 }
             }
         }));
     }
 
+    /** Connects {@code connection}, recording when the request starts being sent. */
+    private void connect(HttpURLConnection connection) throws IOException {
+        mAdditionalStatusDetails = Status.CONNECTING;
+        connection.connect();
+        mSendingStartElapsedMs = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns whether the current request can be answered from, and stored in, the cache. Requests
+     * with a body never are, whatever their method.
+     */
+    private boolean isCacheable() {
+        return mHttpCache != null && mUploadDataProvider == null
+                && JavaHttpCache.isCacheableRequest(mInitialMethod, mRequestHeaders);
+    }
+
+    /** Responds with {@code entry}, whose stored body was opened as {@code body}. On mExecutor. */
+    private void fireCachedResponse(JavaHttpCache.Entry entry, ReadableByteChannel body) {
+        mResponseFromCache = true;
+        mResponseStartElapsedMs = SystemClock.elapsedRealtime();
+        mResponseChannel = body;
+        mUrlResponseInfo = new UrlResponseInfoImpl(new ArrayList<>(mUrlChain),
+                entry.getHttpStatusCode(), entry.getHttpStatusText(), entry.getHeaders(), true,
+                entry.getNegotiatedProtocol(), "", mReceivedByteCount);
+        mCallbackAsync.onResponseStarted(mUrlResponseInfo);
+    }
+
+    /**
+     * Releases a connection whose response body was never handed to the caller (i.e. a redirect).
+     * {@link HttpURLConnection#disconnect()} closes the socket, so instead drain small bodies and
+     * close the stream, which returns the connection to the platform's keep-alive pool and lets the
+     * redirected request (commonly to the same host) reuse it.
+     */
+    private static void releaseConnection(HttpURLConnection connection) {
+        InputStream inputStream = null;
+        try {
+            inputStream = connection.getResponseCode() >= 400 ? connection.getErrorStream()
+                                                              : connection.getInputStream();
+            if (inputStream != null) {
+                byte[] discard = new byte[DEFAULT_UPLOAD_BUFFER_SIZE];
+                int drained = 0;
+                int read;
+                while ((read = inputStream.read(discard)) != -1) {
+                    drained += read;
+                    if (drained > MAX_REDIRECT_BODY_DRAIN_BYTES) {
+                        connection.disconnect();
+                        return;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+            return;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Exception when closing redirect response stream", e);
+                }
+            }
+        }
+    }
+
     private Runnable errorSetting(final CheckedRunnable delegate) {
         return new Runnable() {
             @Override
@@ -775,7 +1052,12 @@ final class JavaUrlRequest extends UrlRequestBase {
                 mExecutor.execute(errorSetting(new CheckedRunnable() {
                     @Override
                     public void run() throws Exception {
-                        int read = mResponseChannel == null ? -1 : mResponseChannel.read(buffer);
+                        int read = -1;
+                        if (mResponseChannel != null) {
+                            long readStartNs = System.nanoTime();
+                            read = mResponseChannel.read(buffer);
+                            mResponseBodyReadNs += System.nanoTime() - readStartNs;
+                        }
                         processReadResult(read, buffer);
                     }
                 }));
@@ -785,12 +1067,36 @@ final class JavaUrlRequest extends UrlRequestBase {
 
     private void processReadResult(int read, final ByteBuffer buffer) throws IOException {
         if (read != -1) {
+            if (mCacheEditor != null && read > 0) {
+                ByteBuffer readBytes = buffer.duplicate();
+                readBytes.limit(buffer.position());
+                readBytes.position(buffer.position() - read);
+                mCacheEditor.write(readBytes);
+            }
+            if (!mResponseFromCache) {
+                mReceivedByteCount += read;
+                mResponseBodyByteCount += read;
+                mUrlResponseInfo.setReceivedByteCount(mReceivedByteCount);
+            }
             mCallbackAsync.onReadCompleted(mUrlResponseInfo, buffer);
         } else {
             if (mResponseChannel != null) {
                 mResponseChannel.close();
             }
+            if (mCacheEditor != null) {
+                mCacheEditor.commit();
+                mCacheEditor = null;
+            }
             if (mState.compareAndSet(State.READING, State.COMPLETE)) {
+                releaseSchedulerSlot();
+                JavaNetworkQualityEstimator estimator = mEngine.getNetworkQualityEstimator();
+                if (estimator != null && !mResponseFromCache) {
+                    // Rounded up, so that a body read from buffers in under a millisecond still
+                    // makes an observation.
+                    estimator.onResponseBodyReceived(mResponseBodyByteCount,
+                            TimeUnit.NANOSECONDS.toMillis(
+                                    mResponseBodyReadNs + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+                }
                 fireDisconnect();
                 mCallbackAsync.onSucceeded(mUrlResponseInfo);
             }
@@ -801,6 +1107,11 @@ final class JavaUrlRequest extends UrlRequestBase {
         mExecutor.execute(new Runnable() {
             @Override
             public void run() {
+                // A body that wasn't read to the end must not be cached.
+                if (mCacheEditor != null) {
+                    mCacheEditor.abort();
+                    mCacheEditor = null;
+                }
                 if (mOutputStreamDataSink != null) {
                     try {
                         mOutputStreamDataSink.closeOutputChannel();
@@ -831,6 +1142,7 @@ final class JavaUrlRequest extends UrlRequestBase {
             // User code is waiting on us - cancel away!
             case STARTED:
             case READING:
+                releaseSchedulerSlot();
                 fireDisconnect();
                 fireCloseUploadDataProvider();
                 mCallbackAsync.onCanceled(mUrlResponseInfo);
@@ -960,6 +1272,7 @@ final class JavaUrlRequest extends UrlRequestBase {
                     } catch (Exception exception) {
                         Log.e(TAG, "Exception in onCanceled method", exception);
                     }
+                    maybeReportMetrics(RequestFinishedInfo.CANCELED, info, null);
                 }
             });
         }
@@ -973,6 +1286,7 @@ final class JavaUrlRequest extends UrlRequestBase {
                     } catch (Exception exception) {
                         Log.e(TAG, "Exception in onSucceeded method", exception);
                     }
+                    maybeReportMetrics(RequestFinishedInfo.SUCCEEDED, info, null);
                 }
             });
         }
@@ -987,6 +1301,7 @@ final class JavaUrlRequest extends UrlRequestBase {
                     } catch (Exception exception) {
                         Log.e(TAG, "Exception in onFailed method", exception);
                     }
+                    maybeReportMetrics(RequestFinishedInfo.FAILED, urlResponseInfo, e);
                 }
             };
             try {
@@ -999,6 +1314,49 @@ final class JavaUrlRequest extends UrlRequestBase {
         }
     }
 
+    /**
+     * Reports metrics to the engine's and the request's {@link RequestFinishedInfo.Listener}s.
+     * Should be called on the user executor, after the final {@link Callback} method has returned.
+     */
+    private void maybeReportMetrics(@RequestFinishedInfoImpl.FinishedReason int finishedReason,
+            @Nullable UrlResponseInfo responseInfo, @Nullable CronetException exception) {
+        if ((mRequestFinishedListener == null && !mEngine.hasRequestFinishedListener())
+                || mRequestStartMs == -1 || !mRequestFinishedReported.compareAndSet(false, true)) {
+            return;
+        }
+        JavaUrlRequestScheduler.Ticket ticket = mSchedulerTicket;
+        long queueWaitMs = ticket == null ? -1 : mScheduler.getQueueWaitMs(ticket);
+        CronetMetrics metrics = new CronetMetrics(mRequestStartMs, -1, -1, -1, -1, -1, -1,
+                toRequestClock(mSendingStartElapsedMs), toRequestClock(mSendingEndElapsedMs),
+                -1, -1, toRequestClock(mResponseStartElapsedMs),
+                toRequestClock(SystemClock.elapsedRealtime()), false, mSentByteCount,
+                mReceivedByteCount, queueWaitMs == -1 ? null : queueWaitMs,
+                ticket == null ? null : ticket.getQueueDepth());
+        final RequestFinishedInfo requestInfo = new RequestFinishedInfoImpl(mInitialUrl,
+                mRequestAnnotations, metrics, finishedReason, responseInfo, exception);
+        mEngine.reportRequestFinished(requestInfo);
+        if (mRequestFinishedListener == null) return;
+        try {
+            mRequestFinishedListener.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mRequestFinishedListener.onRequestFinished(requestInfo);
+                }
+            });
+        } catch (RejectedExecutionException failException) {
+            Log.e(TAG, "Exception posting task to executor", failException);
+        }
+    }
+
+    /**
+     * Converts an {@link SystemClock#elapsedRealtime} timestamp to metrics time. -1, meaning the
+     * event didn't happen, is passed through.
+     */
+    private long toRequestClock(long elapsedRealtimeMs) {
+        if (elapsedRealtimeMs == -1) return -1;
+        return mRequestStartMs + (elapsedRealtimeMs - mRequestStartElapsedMs);
+    }
+
     private void closeResponseChannel() {
         mExecutor.execute(new Runnable() {
             @Override
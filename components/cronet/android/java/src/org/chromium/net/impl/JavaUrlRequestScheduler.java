@@ -0,0 +1,176 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import static org.chromium.net.UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST;
+import static org.chromium.net.UrlRequest.Builder.REQUEST_PRIORITY_IDLE;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Decides when {@link JavaUrlRequest}s may start using the {@link JavaCronetEngine} thread pool.
+ *
+ * <p>Requests that would exceed the total or per-host concurrency limit wait in one FIFO queue per
+ * {@link CronetEngineBase.RequestPriority}. Whenever a slot frees up the oldest request of the
+ * highest priority whose host has spare capacity is started, so that a burst of low priority
+ * requests can't delay requests the user is waiting on, and a single slow host can't occupy every
+ * worker thread. Hosts are keyed by scheme, host and port, like the native socket pools.
+ */
+final class JavaUrlRequestScheduler {
+    /** Handle for a single request, created by {@link #schedule}. */
+    static final class Ticket {
+        private final String mHostKey;
+        private final int mPriority;
+        private final Runnable mStartTask;
+        private final long mEnqueueTimeMs;
+        private final int mQueueDepth;
+        // All of the below are guarded by the scheduler's lock.
+        private long mStartTimeMs = -1;
+        private boolean mFinished;
+
+        private Ticket(String hostKey, int priority, Runnable startTask, int queueDepth) {
+            mHostKey = hostKey;
+            mPriority = priority;
+            mStartTask = startTask;
+            mEnqueueTimeMs = SystemClock.elapsedRealtime();
+            mQueueDepth = queueDepth;
+        }
+
+        /** Number of requests that were waiting to start when this one was scheduled. */
+        int getQueueDepth() {
+            return mQueueDepth;
+        }
+    }
+
+    private final int mMaxActiveRequests;
+    private final int mMaxActiveRequestsPerHost;
+
+    private final Object mLock = new Object();
+    // Waiting requests, indexed by priority.
+    @GuardedBy("mLock")
+    private final List<ArrayDeque<Ticket>> mQueues = new ArrayList<>();
+    @GuardedBy("mLock")
+    private final Map<String, Integer> mActiveRequestsPerHost = new HashMap<>();
+    @GuardedBy("mLock")
+    private int mActiveRequests;
+    @GuardedBy("mLock")
+    private int mQueuedRequests;
+
+    JavaUrlRequestScheduler(int maxActiveRequests, int maxActiveRequestsPerHost) {
+        if (maxActiveRequests < 1 || maxActiveRequestsPerHost < 1) {
+            throw new IllegalArgumentException("Concurrency limits must be positive");
+        }
+        mMaxActiveRequests = maxActiveRequests;
+        mMaxActiveRequestsPerHost = maxActiveRequestsPerHost;
+        for (int i = REQUEST_PRIORITY_IDLE; i <= REQUEST_PRIORITY_HIGHEST; i++) {
+            mQueues.add(new ArrayDeque<Ticket>());
+        }
+    }
+
+    /**
+     * Queues a request. {@code startTask} is run, possibly on the calling thread, once the request
+     * is allowed to proceed. Every returned ticket must eventually be passed to {@link #finish}.
+     */
+    Ticket schedule(String hostKey, @CronetEngineBase.RequestPriority int priority,
+            Runnable startTask) {
+        if (priority < REQUEST_PRIORITY_IDLE || priority > REQUEST_PRIORITY_HIGHEST) {
+            throw new IllegalArgumentException("Invalid priority " + priority);
+        }
+        List<Ticket> toStart;
+        Ticket ticket;
+        synchronized (mLock) {
+            ticket = new Ticket(hostKey, priority, startTask, mQueuedRequests);
+            mQueues.get(priority).addLast(ticket);
+            mQueuedRequests++;
+            toStart = startRequestsLocked();
+        }
+        runStartTasks(toStart);
+        return ticket;
+    }
+
+    /**
+     * Releases the slot held by {@code ticket}, or drops it from its queue if it hasn't started
+     * yet, and starts whatever requests can now proceed. Safe to call more than once.
+     */
+    void finish(Ticket ticket) {
+        List<Ticket> toStart;
+        synchronized (mLock) {
+            if (ticket.mFinished) return;
+            ticket.mFinished = true;
+            if (ticket.mStartTimeMs == -1) {
+                mQueues.get(ticket.mPriority).remove(ticket);
+                mQueuedRequests--;
+                return;
+            }
+            mActiveRequests--;
+            int hostCount = mActiveRequestsPerHost.get(ticket.mHostKey) - 1;
+            if (hostCount == 0) {
+                mActiveRequestsPerHost.remove(ticket.mHostKey);
+            } else {
+                mActiveRequestsPerHost.put(ticket.mHostKey, hostCount);
+            }
+            toStart = startRequestsLocked();
+        }
+        runStartTasks(toStart);
+    }
+
+    /**
+     * Returns how long {@code ticket} waited before starting, in milliseconds, or -1 if it never
+     * started.
+     */
+    long getQueueWaitMs(Ticket ticket) {
+        synchronized (mLock) {
+            return ticket.mStartTimeMs == -1 ? -1 : ticket.mStartTimeMs - ticket.mEnqueueTimeMs;
+        }
+    }
+
+    /** Returns the number of requests currently waiting to start. */
+    int getQueuedRequestCount() {
+        synchronized (mLock) {
+            return mQueuedRequests;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private List<Ticket> startRequestsLocked() {
+        List<Ticket> toStart = null;
+        for (int priority = REQUEST_PRIORITY_HIGHEST;
+                priority >= REQUEST_PRIORITY_IDLE && mActiveRequests < mMaxActiveRequests;
+                priority--) {
+            Iterator<Ticket> it = mQueues.get(priority).iterator();
+            while (it.hasNext() && mActiveRequests < mMaxActiveRequests) {
+                Ticket ticket = it.next();
+                Integer hostCount = mActiveRequestsPerHost.get(ticket.mHostKey);
+                int activeForHost = hostCount == null ? 0 : hostCount;
+                // Skip over requests to saturated hosts rather than blocking the whole queue.
+                if (activeForHost >= mMaxActiveRequestsPerHost) continue;
+                it.remove();
+                mQueuedRequests--;
+                mActiveRequests++;
+                mActiveRequestsPerHost.put(ticket.mHostKey, activeForHost + 1);
+                ticket.mStartTimeMs = SystemClock.elapsedRealtime();
+                if (toStart == null) toStart = new ArrayList<>();
+                toStart.add(ticket);
+            }
+        }
+        return toStart;
+    }
+
+    private static void runStartTasks(List<Ticket> toStart) {
+        if (toStart == null) return;
+        for (Ticket ticket : toStart) {
+            ticket.mStartTask.run();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.chromium.base.test.util.Feature;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tests for {@link DirectByteBufferPool}.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class DirectByteBufferPoolTest {
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testReusesReleasedBuffers() throws Exception {
+        DirectByteBufferPool pool = new DirectByteBufferPool(16, 1);
+        ByteBuffer first = pool.acquire();
+        assertTrue(first.isDirect());
+        assertEquals(16, first.capacity());
+        first.put((byte) 1).limit(4);
+        pool.release(first);
+        assertEquals(1, pool.getPooledBufferCount());
+
+        ByteBuffer reused = pool.acquire();
+        assertSame(first, reused);
+        // Reused buffers are handed out cleared.
+        assertEquals(0, reused.position());
+        assertEquals(16, reused.limit());
+        assertNotSame(reused, pool.acquire());
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testKeepsAtMostMaxPooledBuffers() throws Exception {
+        DirectByteBufferPool pool = new DirectByteBufferPool(16, 2);
+        ByteBuffer[] buffers = {pool.acquire(), pool.acquire(), pool.acquire()};
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(2, pool.getPooledBufferCount());
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testRejectsForeignBuffers() throws Exception {
+        DirectByteBufferPool pool = new DirectByteBufferPool(16, 2);
+        try {
+            pool.release(ByteBuffer.allocate(16));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            pool.release(ByteBuffer.allocateDirect(8));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertEquals(0, pool.getPooledBufferCount());
+    }
+}
@@ -0,0 +1,129 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.chromium.base.test.util.Feature;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Tests for {@link InputStreamChannel}.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class InputStreamChannelTest {
+    private static final int BODY_SIZE = 64 * 1024 + 3;
+
+    private static byte[] createBody() {
+        byte[] body = new byte[BODY_SIZE];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31);
+        }
+        return body;
+    }
+
+    /** Reads all of {@code channel} through {@code buffer}, which is cleared before every read. */
+    private static byte[] readAll(ReadableByteChannel channel, ByteBuffer buffer)
+            throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(BODY_SIZE);
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read == -1) break;
+            assertEquals(read, buffer.position());
+            buffer.flip();
+            result.put(buffer);
+        }
+        assertEquals(BODY_SIZE, result.position());
+        return result.array();
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testReadIntoHeapBuffer() throws Exception {
+        byte[] body = createBody();
+        ReadableByteChannel channel = InputStreamChannel.wrap(new ByteArrayInputStream(body));
+        assertArrayEquals(body, readAll(channel, ByteBuffer.allocate(32 * 1024)));
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testReadIntoHeapBufferWithOffset() throws Exception {
+        byte[] body = createBody();
+        ByteBuffer backing = ByteBuffer.allocate(1024);
+        backing.position(100);
+        // The slice's backing array starts 100 bytes before its first element.
+        ByteBuffer slice = backing.slice();
+        ReadableByteChannel channel = InputStreamChannel.wrap(new ByteArrayInputStream(body));
+        assertArrayEquals(body, readAll(channel, slice));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, backing.get(i));
+        }
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testReadIntoDirectBuffer() throws Exception {
+        byte[] body = createBody();
+        ReadableByteChannel channel = InputStreamChannel.wrap(new ByteArrayInputStream(body));
+        // Larger than the scratch array, so reads can't fill the buffer at once.
+        assertArrayEquals(body, readAll(channel, ByteBuffer.allocateDirect(32 * 1024)));
+
+        channel = InputStreamChannel.wrap(new ByteArrayInputStream(body));
+        // Smaller than the scratch array, so reads mustn't overrun the buffer.
+        assertArrayEquals(body, readAll(channel, ByteBuffer.allocateDirect(1000)));
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testReadIntoPartlyFilledDirectBuffer() throws Exception {
+        byte[] body = createBody();
+        ReadableByteChannel channel = InputStreamChannel.wrap(new ByteArrayInputStream(body));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        buffer.position(7);
+        assertEquals(3, channel.read(buffer));
+        assertEquals(10, buffer.position());
+        assertEquals(body[0], buffer.get(7));
+        assertEquals(body[2], buffer.get(9));
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testClose() throws Exception {
+        final boolean[] closed = new boolean[1];
+        ReadableByteChannel channel =
+                InputStreamChannel.wrap(new ByteArrayInputStream(createBody()) {
+                    @Override
+                    public void close() throws IOException {
+                        assertFalse(closed[0]);
+                        closed[0] = true;
+                    }
+                });
+        assertTrue(channel.isOpen());
+        channel.close();
+        assertFalse(channel.isOpen());
+        assertTrue(closed[0]);
+        // Closing again doesn't close the stream twice.
+        channel.close();
+    }
+}
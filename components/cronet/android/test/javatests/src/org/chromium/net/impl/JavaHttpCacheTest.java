@@ -0,0 +1,266 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static org.chromium.net.CronetTestRule.getContext;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.chromium.base.test.util.Feature;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tests for {@link JavaHttpCache}.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class JavaHttpCacheTest {
+    private static final String URL = "https://example.com/resource";
+    private static final long MAX_SIZE = 100 * 1024;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = new File(getContext().getCacheDir(), "java_http_cache_test");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteDirectory();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static List<Map.Entry<String, String>> headers(String... namesAndValues) {
+        List<Map.Entry<String, String>> headers = new ArrayList<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(new SimpleEntry<>(namesAndValues[i], namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+
+    private static Map<String, String> noRequestHeaders() {
+        return Collections.emptyMap();
+    }
+
+    private static boolean store(JavaHttpCache cache, String url,
+            List<Map.Entry<String, String>> responseHeaders, String body) throws Exception {
+        JavaHttpCache.Editor editor = cache.edit(url, noRequestHeaders(), 200, "OK", "http/1.1",
+                responseHeaders, System.currentTimeMillis());
+        if (editor == null) return false;
+        editor.write(ByteBuffer.wrap(body.getBytes("UTF-8")));
+        editor.commit();
+        return true;
+    }
+
+    private static String readBody(JavaHttpCache cache, JavaHttpCache.Entry entry)
+            throws Exception {
+        ReadableByteChannel channel = cache.openBody(entry);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        while (channel.read(buffer) != -1) {
+            // Keep reading until the end of the body.
+        }
+        channel.close();
+        return new String(buffer.array(), 0, buffer.position(), "UTF-8");
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testStoreAndServeFresh() throws Exception {
+        JavaHttpCache cache = new JavaHttpCache(mDirectory, MAX_SIZE);
+        assertNull(cache.get(URL, noRequestHeaders()));
+        assertTrue(store(cache, URL, headers("Cache-Control", "max-age=60"), "hello"));
+
+        // A new instance must find the entry on disk.
+        cache = new JavaHttpCache(mDirectory, MAX_SIZE);
+        JavaHttpCache.Entry entry = cache.get(URL, noRequestHeaders());
+        assertNotNull(entry);
+        assertEquals(200, entry.getHttpStatusCode());
+        assertTrue(entry.isFresh(noRequestHeaders(), System.currentTimeMillis()));
+        assertFalse(entry.isFresh(noRequestHeaders(), System.currentTimeMillis() + 61 * 1000));
+        assertEquals("hello", readBody(cache, entry));
+
+        Map<String, String> noCache = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        noCache.put("Cache-Control", "no-cache");
+        assertFalse(entry.isFresh(noCache, System.currentTimeMillis()));
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testUncacheableResponses() throws Exception {
+        JavaHttpCache cache = new JavaHttpCache(mDirectory, MAX_SIZE);
+        assertFalse(store(cache, URL, headers("Cache-Control", "no-store"), "a"));
+        assertFalse(store(cache, URL, headers("Vary", "*"), "a"));
+        assertNull(cache.edit(URL, noRequestHeaders(), 206, "Partial Content", "http/1.1",
+                headers(), System.currentTimeMillis()));
+        assertFalse(JavaHttpCache.isCacheableRequest("POST", noRequestHeaders()));
+        assertTrue(JavaHttpCache.invalidatesCache("DELETE"));
+        assertFalse(JavaHttpCache.invalidatesCache("GET"));
+    }
+
+    private static Map<String, String> requestHeaders(String name, String value) {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put(name, value);
+        return headers;
+    }
+
+    private void checkCallerConditionalRequests(String cacheControl, boolean fresh)
+            throws Exception {
+        JavaHttpCache cache = new JavaHttpCache(mDirectory, MAX_SIZE);
+        assertTrue(store(cache, URL,
+                headers("Cache-Control", cacheControl, "ETag", "\"v1\"", "Last-Modified",
+                        "Mon, 01 Jan 2018 00:00:00 GMT"),
+                "hello"));
+        JavaHttpCache.Entry entry = cache.get(URL, noRequestHeaders());
+        assertNotNull(entry);
+        assertEquals(fresh, entry.isFresh(noRequestHeaders(), System.currentTimeMillis()));
+        assertTrue(JavaHttpCache.isCacheableRequest("GET", noRequestHeaders()));
+
+        // The caller expects a 304, a 412 or a 206 for these, never the stored 200, so they are
+        // neither answered from nor revalidated against the entry.
+        assertFalse(JavaHttpCache.isCacheableRequest(
+                "GET", requestHeaders("If-None-Match", "\"v1\"")));
+        assertFalse(JavaHttpCache.isCacheableRequest(
+                "GET", requestHeaders("if-modified-since", "Mon, 01 Jan 2018 00:00:00 GMT")));
+        assertFalse(JavaHttpCache.isCacheableRequest(
+                "GET", requestHeaders("If-Match", "\"v1\"")));
+        assertFalse(JavaHttpCache.isCacheableRequest(
+                "GET", requestHeaders("If-Unmodified-Since", "Mon, 01 Jan 2018 00:00:00 GMT")));
+        assertFalse(JavaHttpCache.isCacheableRequest("GET", requestHeaders("Range", "bytes=1-2")));
+        Map<String, String> ifRange = requestHeaders("Range", "bytes=1-");
+        ifRange.put("If-Range", "\"v1\"");
+        assertFalse(JavaHttpCache.isCacheableRequest("GET", ifRange));
+
+        // The entry is left alone for unconditional requests.
+        assertEquals("hello", readBody(cache, cache.get(URL, noRequestHeaders())));
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testCallerConditionalRequestsWithFreshEntry() throws Exception {
+        checkCallerConditionalRequests("max-age=60", true);
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testCallerConditionalRequestsWithStaleEntry() throws Exception {
+        checkCallerConditionalRequests("max-age=0", false);
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testRevalidation() throws Exception {
+        JavaHttpCache cache = new JavaHttpCache(mDirectory, MAX_SIZE);
+        assertTrue(store(cache, URL,
+                headers("Cache-Control", "max-age=0", "ETag", "\"v1\"", "Content-Length", "5"),
+                "hello"));
+        JavaHttpCache.Entry entry = cache.get(URL, noRequestHeaders());
+        assertFalse(entry.isFresh(noRequestHeaders(), System.currentTimeMillis()));
+        assertEquals("\"v1\"", entry.getConditionalHeaders().get("If-None-Match"));
+
+        JavaHttpCache.Entry updated = cache.update(entry,
+                headers("Cache-Control", "max-age=60", "Content-Length", "0"),
+                System.currentTimeMillis());
+        assertTrue(updated.isFresh(noRequestHeaders(), System.currentTimeMillis()));
+        // The stored body's length survives the 304.
+        assertTrue(updated.getHeaders().contains(new SimpleEntry<>("Content-Length", "5")));
+        assertEquals("hello", readBody(cache, cache.get(URL, noRequestHeaders())));
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testMissingBody() throws Exception {
+        JavaHttpCache cache = new JavaHttpCache(mDirectory, MAX_SIZE);
+        assertTrue(store(cache, URL, headers("Cache-Control", "max-age=0", "ETag", "\"v1\""),
+                "hello"));
+        JavaHttpCache.Entry entry = cache.get(URL, noRequestHeaders());
+        assertNotNull(entry);
+        for (File file : mDirectory.listFiles()) {
+            if (file.getName().endsWith(".1")) assertTrue(file.delete());
+        }
+
+        // Neither the entry found before the body went missing nor a new lookup can be used.
+        assertNull(cache.openBody(entry));
+        assertNull(cache.get(URL, noRequestHeaders()));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testVary() throws Exception {
+        JavaHttpCache cache = new JavaHttpCache(mDirectory, MAX_SIZE);
+        Map<String, String> english = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        english.put("Accept-Language", "en");
+        JavaHttpCache.Editor editor = cache.edit(URL, english, 200, "OK", "http/1.1",
+                headers("Vary", "Accept-Language"), System.currentTimeMillis());
+        editor.write(ByteBuffer.wrap(new byte[] {1}));
+        editor.commit();
+
+        assertNotNull(cache.get(URL, english));
+        Map<String, String> french = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        french.put("Accept-Language", "fr");
+        assertNull(cache.get(URL, french));
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        char[] body = new char[40 * 1024];
+        String largeBody = new String(body);
+        JavaHttpCache cache = new JavaHttpCache(mDirectory, MAX_SIZE);
+        assertTrue(store(cache, URL + "1", headers(), largeBody));
+        assertTrue(store(cache, URL + "2", headers(), largeBody));
+        // Using the first entry makes the second one the least recently used.
+        assertNotNull(cache.get(URL + "1", noRequestHeaders()));
+        assertTrue(store(cache, URL + "3", headers(), largeBody));
+
+        assertNotNull(cache.get(URL + "1", noRequestHeaders()));
+        assertNull(cache.get(URL + "2", noRequestHeaders()));
+        assertNotNull(cache.get(URL + "3", noRequestHeaders()));
+        assertTrue(cache.getSize() <= MAX_SIZE);
+
+        // Bodies larger than the whole cache are dropped while being written.
+        assertTrue(store(cache, URL + "4", headers(), new String(new char[(int) MAX_SIZE + 1])));
+        assertNull(cache.get(URL + "4", noRequestHeaders()));
+    }
+}
@@ -0,0 +1,159 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static org.chromium.net.CronetTestRule.getContext;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.chromium.base.test.util.Feature;
+import org.chromium.net.ExperimentalCronetEngine;
+import org.chromium.net.TestUrlRequestCallback;
+import org.chromium.net.TestUrlRequestCallback.ResponseStep;
+import org.chromium.net.UrlRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Tests for {@link JavaNetworkQualityEstimator}.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class JavaNetworkQualityEstimatorTest {
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testNoObservations() throws Exception {
+        JavaNetworkQualityEstimator estimator = new JavaNetworkQualityEstimator();
+        assertEquals(ExperimentalCronetEngine.CONNECTION_METRIC_UNKNOWN, estimator.getHttpRttMs());
+        assertEquals(ExperimentalCronetEngine.CONNECTION_METRIC_UNKNOWN,
+                estimator.getDownstreamThroughputKbps());
+        assertEquals(ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_UNKNOWN,
+                estimator.getEffectiveConnectionType());
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testHttpRttMedian() throws Exception {
+        JavaNetworkQualityEstimator estimator = new JavaNetworkQualityEstimator();
+        estimator.onHttpRttObservation(3000);
+        estimator.onHttpRttObservation(100);
+        estimator.onHttpRttObservation(500);
+        assertEquals(500, estimator.getHttpRttMs());
+        assertEquals(ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_3G,
+                estimator.getEffectiveConnectionType());
+
+        estimator.onHttpRttObservation(50);
+        estimator.onHttpRttObservation(60);
+        assertEquals(100, estimator.getHttpRttMs());
+        assertEquals(ExperimentalCronetEngine.EFFECTIVE_CONNECTION_TYPE_4G,
+                estimator.getEffectiveConnectionType());
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testSmallResponsesIgnoredForThroughput() throws Exception {
+        JavaNetworkQualityEstimator estimator = new JavaNetworkQualityEstimator();
+        estimator.onResponseBodyReceived(
+                JavaNetworkQualityEstimator.MIN_THROUGHPUT_OBSERVATION_BYTES - 1, 1);
+        assertEquals(ExperimentalCronetEngine.CONNECTION_METRIC_UNKNOWN,
+                estimator.getDownstreamThroughputKbps());
+
+        // 1 MB in a second is 8000 kbps.
+        estimator.onResponseBodyReceived(1000 * 1000, 1000);
+        assertEquals(8000, estimator.getDownstreamThroughputKbps());
+    }
+
+    /** Serves a single response with a {@code bodySize} byte body on a local port. */
+    private static ServerSocket startServer(final int bodySize) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName(null));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    InputStream in = socket.getInputStream();
+                    // Skip the request headers, which end with an empty line.
+                    int matched = 0;
+                    while (matched < 4) {
+                        int c = in.read();
+                        if (c == -1) break;
+                        if (c == (matched % 2 == 0 ? '\r' : '\n')) {
+                            matched++;
+                        } else {
+                            matched = c == '\r' ? 1 : 0;
+                        }
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + bodySize
+                            + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+                    out.write(new byte[bodySize]);
+                    out.flush();
+                    socket.close();
+                } catch (IOException e) {
+                    // The request fails and the test with it.
+                }
+            }
+        }).start();
+        return serverSocket;
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testPausesBetweenReadsDontLowerThroughput() throws Exception {
+        final int bodySize = 128 * 1024;
+        final int readSize = 4 * 1024;
+        final int pauseMs = 20;
+        ExperimentalCronetEngine.Builder builder =
+                (ExperimentalCronetEngine.Builder) new JavaCronetProvider(getContext())
+                        .createBuilder();
+        ExperimentalCronetEngine engine = builder.enableNetworkQualityEstimator(true).build();
+        ServerSocket serverSocket = startServer(bodySize);
+        TestUrlRequestCallback callback = new TestUrlRequestCallback();
+        callback.setAutoAdvance(false);
+        try {
+            String url = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+            UrlRequest request =
+                    engine.newUrlRequestBuilder(url, callback, callback.getExecutor()).build();
+            request.start();
+            // Read slowly, as a consumer that pauses between buffers does.
+            int pauseCount = 0;
+            while (true) {
+                callback.waitForNextStep();
+                if (callback.mResponseStep != ResponseStep.ON_RESPONSE_STARTED
+                        && callback.mResponseStep != ResponseStep.ON_READ_COMPLETED) {
+                    break;
+                }
+                Thread.sleep(pauseMs);
+                pauseCount++;
+                callback.startNextRead(request, ByteBuffer.allocateDirect(readSize));
+            }
+            assertEquals(ResponseStep.ON_SUCCEEDED, callback.mResponseStep);
+            assertEquals(bodySize, callback.mHttpResponseDataLength);
+
+            // Timing the whole response would count the pauses, and give at most this.
+            long pausedKbps = bodySize * 8L / (pauseCount * pauseMs);
+            assertTrue(engine.getDownstreamThroughputKbps() > 2 * pausedKbps);
+        } finally {
+            serverSocket.close();
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.net.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static org.chromium.net.UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST;
+import static org.chromium.net.UrlRequest.Builder.REQUEST_PRIORITY_IDLE;
+import static org.chromium.net.UrlRequest.Builder.REQUEST_PRIORITY_LOW;
+import static org.chromium.net.UrlRequest.Builder.REQUEST_PRIORITY_MEDIUM;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.chromium.base.test.util.Feature;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link JavaUrlRequestScheduler}.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class JavaUrlRequestSchedulerTest {
+    private final List<String> mStarted = new ArrayList<>();
+
+    private JavaUrlRequestScheduler.Ticket schedule(
+            JavaUrlRequestScheduler scheduler, String host, int priority, final String name) {
+        return scheduler.schedule(host, priority, new Runnable() {
+            @Override
+            public void run() {
+                mStarted.add(name);
+            }
+        });
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testStartsHighestPriorityFirst() throws Exception {
+        JavaUrlRequestScheduler scheduler = new JavaUrlRequestScheduler(1, 1);
+        JavaUrlRequestScheduler.Ticket first =
+                schedule(scheduler, "https://a.com", REQUEST_PRIORITY_MEDIUM, "first");
+        JavaUrlRequestScheduler.Ticket idle =
+                schedule(scheduler, "https://a.com", REQUEST_PRIORITY_IDLE, "idle");
+        JavaUrlRequestScheduler.Ticket low =
+                schedule(scheduler, "https://a.com", REQUEST_PRIORITY_LOW, "low");
+        JavaUrlRequestScheduler.Ticket highest =
+                schedule(scheduler, "https://a.com", REQUEST_PRIORITY_HIGHEST, "highest");
+        assertEquals(3, scheduler.getQueuedRequestCount());
+        assertEquals(2, highest.getQueueDepth());
+
+        scheduler.finish(first);
+        scheduler.finish(highest);
+        scheduler.finish(low);
+        scheduler.finish(idle);
+        assertEquals(4, mStarted.size());
+        assertEquals("first", mStarted.get(0));
+        assertEquals("highest", mStarted.get(1));
+        assertEquals("low", mStarted.get(2));
+        assertEquals("idle", mStarted.get(3));
+        assertEquals(0, scheduler.getQueuedRequestCount());
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testPerHostLimitDoesNotBlockOtherHosts() throws Exception {
+        JavaUrlRequestScheduler scheduler = new JavaUrlRequestScheduler(10, 2);
+        JavaUrlRequestScheduler.Ticket a1 =
+                schedule(scheduler, "https://a.com", REQUEST_PRIORITY_HIGHEST, "a1");
+        schedule(scheduler, "https://a.com", REQUEST_PRIORITY_HIGHEST, "a2");
+        schedule(scheduler, "https://a.com", REQUEST_PRIORITY_HIGHEST, "a3");
+        schedule(scheduler, "https://b.com", REQUEST_PRIORITY_IDLE, "b1");
+        assertEquals(3, mStarted.size());
+        assertEquals("b1", mStarted.get(2));
+        assertEquals(1, scheduler.getQueuedRequestCount());
+
+        scheduler.finish(a1);
+        assertEquals("a3", mStarted.get(3));
+        assertTrue(scheduler.getQueueWaitMs(a1) >= 0);
+    }
+
+    @Test
+    @SmallTest
+    @Feature({"Cronet"})
+    public void testFinishBeforeStart() throws Exception {
+        JavaUrlRequestScheduler scheduler = new JavaUrlRequestScheduler(1, 1);
+        JavaUrlRequestScheduler.Ticket first =
+                schedule(scheduler, "https://a.com", REQUEST_PRIORITY_MEDIUM, "first");
+        JavaUrlRequestScheduler.Ticket cancelled =
+                schedule(scheduler, "https://a.com", REQUEST_PRIORITY_MEDIUM, "cancelled");
+        scheduler.finish(cancelled);
+        // Finishing twice must not release a second slot.
+        scheduler.finish(cancelled);
+        assertEquals(-1, scheduler.getQueueWaitMs(cancelled));
+        assertEquals(0, scheduler.getQueuedRequestCount());
+
+        schedule(scheduler, "https://a.com", REQUEST_PRIORITY_MEDIUM, "second");
+        assertEquals(1, mStarted.size());
+        scheduler.finish(first);
+        assertEquals(2, mStarted.size());
+        assertEquals("second", mStarted.get(1));
+    }
+}
@@ -40,12 +40,24 @@ class BindingManager implements ComponentCallbacks2 {
     // added by BindingManager.
     private ChildProcessConnection mWaivedConnection;
 
+    // The pool of spare connections to limit under memory pressure, if any.
+    private SpareChildConnection mSpareConnection;
+
+    // The number of spare connections allowed by the current memory pressure.
+    private int mSpareConnectionLimit = Integer.MAX_VALUE;
+
     @Override
     public void onTrimMemory(final int level) {
         LauncherThread.post(new Runnable() {
             @Override
             public void run() {
                 Log.i(TAG, "onTrimMemory: level=%d, size=%d", level, mConnections.size());
+                if (level <= TRIM_MEMORY_RUNNING_MODERATE) {
+                    // Keep at most one spare connection under moderate memory pressure.
+                    setSpareConnectionLimit(Math.min(mSpareConnectionLimit, 1));
+                } else if (level != TRIM_MEMORY_UI_HIDDEN) {
+                    setSpareConnectionLimit(0);
+                }
                 if (mConnections.isEmpty()) {
                     return;
                 }
@@ -69,6 +81,7 @@ class BindingManager implements ComponentCallbacks2 {
             @Override
             public void run() {
                 Log.i(TAG, "onLowMemory: evict %d bindings", mConnections.size());
+                setSpareConnectionLimit(0);
                 removeAllConnections();
             }
         });
@@ -86,6 +99,11 @@ class BindingManager implements ComponentCallbacks2 {
         ensureLowestRankIsWaived();
     }
 
+    private void setSpareConnectionLimit(int limit) {
+        mSpareConnectionLimit = limit;
+        if (mSpareConnection != null) mSpareConnection.setMemoryPressureLimit(limit);
+    }
+
     private void removeAllConnections() {
         removeOldConnections(mConnections.size());
     }
@@ -134,14 +152,18 @@ class BindingManager implements ComponentCallbacks2 {
      */
     void onSentToBackground() {
         assert LauncherThread.runningOnLauncherThread();
-        if (mConnections.isEmpty()) return;
+        if (mConnections.isEmpty() && mSpareConnection == null) return;
         LauncherThread.postDelayed(mDelayedClearer, MODERATE_BINDING_POOL_CLEARER_DELAY_MILLIS);
     }
 
-    /** Called when the embedding application is brought to foreground. */
+    /**
+     * Called when the embedding application is brought to foreground. Lifts the memory pressure
+     * limit on spare connections.
+     */
     void onBroughtToForeground() {
         assert LauncherThread.runningOnLauncherThread();
         LauncherThread.removeCallbacks(mDelayedClearer);
+        setSpareConnectionLimit(Integer.MAX_VALUE);
     }
 
     // Whether this instance is used on testing.
@@ -170,6 +192,7 @@ class BindingManager implements ComponentCallbacks2 {
                             "Android.ModerateBindingCount", mConnections.size());
                 }
                 removeAllConnections();
+                setSpareConnectionLimit(0);
             }
         };
 
@@ -195,6 +218,18 @@ class BindingManager implements ComponentCallbacks2 {
         assert !mConnections.contains(connection);
     }
 
+    /**
+     * Sets the pool of spare connections to limit under memory pressure, replacing the previous
+     * one.
+     */
+    public void setSpareConnection(SpareChildConnection spareConnection) {
+        assert LauncherThread.runningOnLauncherThread();
+        mSpareConnection = spareConnection;
+        if (mSpareConnectionLimit != Integer.MAX_VALUE) {
+            mSpareConnection.setMemoryPressureLimit(mSpareConnectionLimit);
+        }
+    }
+
     // Separate from other public methods so it allows client to update ranking after
     // adding and removing connection.
     public void rankingChanged() {
@@ -62,7 +62,7 @@ public final class ChildProcessLauncherHelperImpl {
     private static final String PRIVILEGED_SERVICES_NAME =
             "org.chromium.content.app.PrivilegedProcessService";
 
-    // A warmed-up connection to a sandboxed service.
+    // Warmed-up connections to a sandboxed service.
     private static SpareChildConnection sSpareSandboxedConnection;
 
     // Allocator used for sandboxed services.
@@ -230,23 +230,35 @@ public final class ChildProcessLauncherHelperImpl {
      * @see {@link ChildProcessLauncherHelper#warmUp(Context)}.
      */
     public static void warmUp(final Context context) {
+        warmUp(context, 1 /* connectionCount */);
+    }
+
+    /**
+     * @see {@link ChildProcessLauncherHelper#warmUp(Context, int)}.
+     */
+    public static void warmUp(final Context context, final int connectionCount) {
         assert ThreadUtils.runningOnUiThread();
         LauncherThread.post(new Runnable() {
             @Override
             public void run() {
-                warmUpOnLauncherThread(context);
+                warmUpOnLauncherThread(context, connectionCount);
             }
         });
     }
 
-    private static void warmUpOnLauncherThread(Context context) {
-        if (sSpareSandboxedConnection != null && !sSpareSandboxedConnection.isEmpty()) {
+    private static void warmUpOnLauncherThread(Context context, int connectionCount) {
+        if (sSpareSandboxedConnection != null
+                && sSpareSandboxedConnection.getMaxSize() >= connectionCount) {
+            sSpareSandboxedConnection.fill();
             return;
         }
 
         Bundle serviceBundle = populateServiceBundle(new Bundle());
         ChildConnectionAllocator allocator = getConnectionAllocator(context, true /* sandboxed */);
-        sSpareSandboxedConnection = new SpareChildConnection(context, allocator, serviceBundle);
+        if (sSpareSandboxedConnection != null) sSpareSandboxedConnection.clear();
+        sSpareSandboxedConnection =
+                new SpareChildConnection(context, allocator, serviceBundle, connectionCount);
+        if (sBindingManager != null) sBindingManager.setSpareConnection(sSpareSandboxedConnection);
     }
 
     /**
@@ -261,6 +273,9 @@ public final class ChildProcessLauncherHelperImpl {
                         getConnectionAllocator(context, true /* sandboxed */);
                 sBindingManager = new BindingManager(context, allocator.getNumberOfServices(),
                         sSandboxedChildConnectionRanking, false /* onTesting */);
+                if (sSpareSandboxedConnection != null) {
+                    sBindingManager.setSpareConnection(sSpareSandboxedConnection);
+                }
             }
         });
 
@@ -9,7 +9,9 @@ import org.chromium.content_public.browser.ChildProcessImportance;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Ranking of ChildProcessConnections for a particular ChildConnectionAllocator.
@@ -25,6 +27,15 @@ public class ChildProcessRanking implements Iterable<ChildProcessConnection> {
         @ChildProcessImportance
         public int importance;
 
+        // Orders connections that are otherwise tied, the higher ranking lower. Keeps the order
+        // of the stable sort this class used to do: an added connection, or one whose rank went
+        // up, goes after the connections it is tied with, and one whose rank went down goes
+        // before them.
+        public long sequenceNumber;
+
+        // Position of the connection in |mHeap|.
+        public int heapIndex;
+
         public ConnectionWithRank(ChildProcessConnection connection, boolean visible,
                 long frameDepth, boolean intersectsViewport,
                 @ChildProcessImportance int importance) {
@@ -120,41 +131,67 @@ public class ChildProcessRanking implements Iterable<ChildProcessConnection> {
         }
     }
 
-    private class ReverseRankIterator implements Iterator<ChildProcessConnection> {
-        private final int mSizeOnConstruction;
+    /** Orders connections from lowest to highest rank. */
+    private static class LowestRankFirstComparator implements Comparator<ConnectionWithRank> {
+        @Override
+        public int compare(ConnectionWithRank o1, ConnectionWithRank o2) {
+            int result = COMPARATOR.compare(o2, o1);
+            if (result != 0) return result;
+            return Long.compare(o2.sequenceNumber, o1.sequenceNumber);
+        }
+    }
+
+    private class RankIterator implements Iterator<ChildProcessConnection> {
+        private final int mModificationCountOnConstruction;
         private int mNextIndex;
+        // Sorted copy of |mHeap|, made only if iterating past the lowest ranked connection.
+        private ConnectionWithRank[] mSortedRankings;
 
-        public ReverseRankIterator() {
-            mSizeOnConstruction = ChildProcessRanking.this.mSize;
-            mNextIndex = mSizeOnConstruction - 1;
+        public RankIterator() {
+            mModificationCountOnConstruction = mModificationCount;
         }
 
         @Override
         public boolean hasNext() {
             modificationCheck();
-            return mNextIndex >= 0;
+            return mNextIndex < mSize;
         }
 
         @Override
         public ChildProcessConnection next() {
             modificationCheck();
-            return ChildProcessRanking.this.mRankings[mNextIndex--].connection;
+            if (mNextIndex == 0) {
+                mNextIndex++;
+                return mHeap[0].connection;
+            }
+            if (mSortedRankings == null) {
+                mSortedRankings = Arrays.copyOf(mHeap, mSize);
+                Arrays.sort(mSortedRankings, LOWEST_RANK_FIRST_COMPARATOR);
+            }
+            return mSortedRankings[mNextIndex++].connection;
         }
 
         private void modificationCheck() {
-            assert mSizeOnConstruction == ChildProcessRanking.this.mSize;
+            assert mModificationCountOnConstruction == mModificationCount;
         }
     }
 
     private static final RankComparator COMPARATOR = new RankComparator();
-
-    // Not the most theoretically efficient data structure, but is good enough
-    // for sizes in production and more memory efficient than linked data structures.
-    private final ConnectionWithRank mRankings[];
+    private static final LowestRankFirstComparator LOWEST_RANK_FIRST_COMPARATOR =
+            new LowestRankFirstComparator();
+
+    // Binary heap with the lowest ranked connection at the root, so that it is found in constant
+    // time, and connections are added, removed and updated in logarithmic time. Connections are
+    // found in the heap through |mRankingsByConnection|.
+    private final ConnectionWithRank mHeap[];
+    private final Map<ChildProcessConnection, ConnectionWithRank> mRankingsByConnection;
     private int mSize;
+    private long mNextSequenceNumber = 1;
+    private int mModificationCount;
 
     public ChildProcessRanking(int maxSize) {
-        mRankings = new ConnectionWithRank[maxSize];
+        mHeap = new ConnectionWithRank[maxSize];
+        mRankingsByConnection = new HashMap<>(maxSize);
     }
 
     /**
@@ -163,60 +200,112 @@ public class ChildProcessRanking implements Iterable<ChildProcessConnection> {
      */
     @Override
     public Iterator<ChildProcessConnection> iterator() {
-        return new ReverseRankIterator();
+        return new RankIterator();
     }
 
     public void addConnection(ChildProcessConnection connection, boolean visible, long frameDepth,
             boolean intersectsViewport, @ChildProcessImportance int importance) {
         assert connection != null;
-        assert indexOf(connection) == -1;
-        assert mSize < mRankings.length;
-        mRankings[mSize] = new ConnectionWithRank(
+        assert !mRankingsByConnection.containsKey(connection);
+        assert mSize < mHeap.length;
+        ConnectionWithRank rank = new ConnectionWithRank(
                 connection, visible, frameDepth, intersectsViewport, importance);
+        rank.sequenceNumber = mNextSequenceNumber++;
+        rank.heapIndex = mSize;
+        mHeap[mSize] = rank;
         mSize++;
-        sort();
+        mRankingsByConnection.put(connection, rank);
+        mModificationCount++;
+        siftUp(rank.heapIndex);
     }
 
     public void removeConnection(ChildProcessConnection connection) {
         assert connection != null;
         assert mSize > 0;
-        int i = indexOf(connection);
-        assert i != -1;
+        ConnectionWithRank rank = mRankingsByConnection.remove(connection);
+        assert rank != null;
 
-        // Null is sorted to the end.
-        mRankings[i] = null;
-        sort();
         mSize--;
+        mModificationCount++;
+        ConnectionWithRank last = mHeap[mSize];
+        mHeap[mSize] = null;
+        if (last == rank) return;
+        last.heapIndex = rank.heapIndex;
+        mHeap[last.heapIndex] = last;
+        siftUp(last.heapIndex);
+        siftDown(last.heapIndex);
     }
 
     public void updateConnection(ChildProcessConnection connection, boolean visible,
             long frameDepth, boolean intersectsViewport, @ChildProcessImportance int importance) {
         assert connection != null;
         assert mSize > 0;
-        int i = indexOf(connection);
-        assert i != -1;
-
-        mRankings[i].visible = visible;
-        mRankings[i].frameDepth = frameDepth;
-        mRankings[i].intersectsViewport = intersectsViewport;
-        mRankings[i].importance = importance;
-        sort();
+        ConnectionWithRank rank = mRankingsByConnection.get(connection);
+        assert rank != null;
+
+        if (rank.visible == visible && rank.frameDepth == frameDepth
+                && rank.intersectsViewport == intersectsViewport
+                && rank.importance == importance) {
+            return;
+        }
+        ConnectionWithRank previous = new ConnectionWithRank(connection, rank.visible,
+                rank.frameDepth, rank.intersectsViewport, rank.importance);
+        rank.visible = visible;
+        rank.frameDepth = frameDepth;
+        rank.intersectsViewport = intersectsViewport;
+        rank.importance = importance;
+        int change = COMPARATOR.compare(previous, rank);
+        if (change < 0) {
+            rank.sequenceNumber = -mNextSequenceNumber++;
+        } else if (change > 0) {
+            rank.sequenceNumber = mNextSequenceNumber++;
+        }
+        mModificationCount++;
+        siftUp(rank.heapIndex);
+        siftDown(rank.heapIndex);
     }
 
     public ChildProcessConnection getLowestRankedConnection() {
         if (mSize < 1) return null;
-        return mRankings[mSize - 1].connection;
+        return mHeap[0].connection;
     }
 
-    private int indexOf(ChildProcessConnection connection) {
-        for (int i = 0; i < mSize; ++i) {
-            if (mRankings[i].connection == connection) return i;
+    /** Moves the connection at |index| up while it is ranked lower than its parent. */
+    private void siftUp(int index) {
+        ConnectionWithRank rank = mHeap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) / 2;
+            ConnectionWithRank parent = mHeap[parentIndex];
+            if (!ranksLower(rank, parent)) break;
+            mHeap[index] = parent;
+            parent.heapIndex = index;
+            index = parentIndex;
+        }
+        mHeap[index] = rank;
+        rank.heapIndex = index;
+    }
+
+    /** Moves the connection at |index| down while one of its children is ranked lower. */
+    private void siftDown(int index) {
+        ConnectionWithRank rank = mHeap[index];
+        while (true) {
+            int childIndex = 2 * index + 1;
+            if (childIndex >= mSize) break;
+            int rightIndex = childIndex + 1;
+            if (rightIndex < mSize && ranksLower(mHeap[rightIndex], mHeap[childIndex])) {
+                childIndex = rightIndex;
+            }
+            ConnectionWithRank child = mHeap[childIndex];
+            if (!ranksLower(child, rank)) break;
+            mHeap[index] = child;
+            child.heapIndex = index;
+            index = childIndex;
         }
-        return -1;
+        mHeap[index] = rank;
+        rank.heapIndex = index;
     }
 
-    private void sort() {
-        // Sort is stable and linear when array is mostly sorted.
-        Arrays.sort(mRankings, 0, mSize, COMPARATOR);
+    private static boolean ranksLower(ConnectionWithRank o1, ConnectionWithRank o2) {
+        return LOWEST_RANK_FIRST_COMPARATOR.compare(o1, o2) < 0;
     }
 }
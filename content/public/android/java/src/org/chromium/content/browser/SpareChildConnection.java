@@ -6,126 +6,246 @@ package org.chromium.content.browser;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 
 import org.chromium.base.Log;
 import org.chromium.base.VisibleForTesting;
+import org.chromium.base.metrics.RecordHistogram;
 import org.chromium.base.process_launcher.ChildConnectionAllocator;
 import org.chromium.base.process_launcher.ChildProcessConnection;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * This class is used to create a single spare ChildProcessConnection (usually early on during
- * start-up) that can then later be retrieved when a connection to a service is needed.
+ * This class is used to create a pool of spare ChildProcessConnections for an allocator (usually
+ * early on during start-up) that can then later be retrieved when a connection to a service is
+ * needed. A retrieved connection is replaced in the background, as long as the allocator has free
+ * slots and the memory pressure limit set by {@link BindingManager} allows it.
  */
 public class SpareChildConnection {
     private static final String TAG = "SpareChildConn";
 
-    // The allocator used to create the connection.
+    // Delay before replacing a retrieved connection, so that binding the replacement does not
+    // compete with the start-up of the process that was just handed out.
+    private static final long REFILL_DELAY_MILLIS = 2000;
+
+    // Results of getConnection() calls for the allocator of the spare connections. These values
+    // are recorded in histograms, so entries should not be renumbered and numeric values should
+    // never be reused.
+    @IntDef({LOOKUP_HIT_BOUND, LOOKUP_HIT_BINDING, LOOKUP_MISS})
+    @Retention(RetentionPolicy.SOURCE)
+    private @interface LookupResult {}
+    private static final int LOOKUP_HIT_BOUND = 0;
+    private static final int LOOKUP_HIT_BINDING = 1;
+    private static final int LOOKUP_MISS = 2;
+    private static final int LOOKUP_COUNT = 3;
+
+    /**
+     * A spare connection. Once retrieved, it is removed from the pool but keeps forwarding the
+     * callbacks of the connection to the caller that retrieved it.
+     */
+    private class SpareConnection implements ChildProcessConnection.ServiceCallback {
+        private ChildProcessConnection mConnection;
+
+        // True when the connection is bound.
+        private boolean mReady;
+
+        // The callback that should be called when the connection becomes bound, or dies. Set when
+        // the connection is retrieved.
+        private ChildProcessConnection.ServiceCallback mServiceCallback;
+
+        @Override
+        public void onChildStarted() {
+            assert LauncherThread.runningOnLauncherThread();
+            mReady = true;
+            if (mServiceCallback != null) mServiceCallback.onChildStarted();
+            // If there is no chained callback, that means the spare connection has not been used
+            // yet. It will be removed from the pool when used.
+        }
+
+        @Override
+        public void onChildStartFailed(ChildProcessConnection connection) {
+            assert LauncherThread.runningOnLauncherThread();
+            Log.e(TAG, "Failed to warm up the spare sandbox service");
+            if (mServiceCallback != null) mServiceCallback.onChildStartFailed(connection);
+            mSpareConnections.remove(this);
+        }
+
+        @Override
+        public void onChildProcessDied(ChildProcessConnection connection) {
+            assert LauncherThread.runningOnLauncherThread();
+            if (mServiceCallback != null) mServiceCallback.onChildProcessDied(connection);
+            mSpareConnections.remove(this);
+        }
+    }
+
+    private final Context mContext;
+
+    // The allocator used to create the connections.
     private final ChildConnectionAllocator mConnectionAllocator;
 
-    // The actual spare connection.
-    private ChildProcessConnection mConnection;
+    private final Bundle mServiceBundle;
 
-    // True when there is a spare connection and it is bound.
-    private boolean mConnectionReady;
+    // The number of spare connections to keep without memory pressure.
+    private final int mMaxSize;
 
-    // The callback that should be called when the connection becomes bound. Set when the connection
-    // is retrieved.
-    private ChildProcessConnection.ServiceCallback mConnectionServiceCallback;
+    // The number of spare connections allowed by the current memory pressure.
+    private int mMemoryPressureLimit = Integer.MAX_VALUE;
 
-    /** Creates and binds a ChildProcessConnection using the specified parameters. */
+    // The spare connections that have not been retrieved, bound or being bound.
+    private final List<SpareConnection> mSpareConnections = new ArrayList<>();
+
+    private final Runnable mRefillRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mRefillScheduled = false;
+            fill();
+        }
+    };
+    private boolean mRefillScheduled;
+
+    /** Creates and binds a single ChildProcessConnection using the specified parameters. */
     public SpareChildConnection(
             Context context, ChildConnectionAllocator connectionAllocator, Bundle serviceBundle) {
+        this(context, connectionAllocator, serviceBundle, 1 /* maxSize */);
+    }
+
+    /**
+     * Creates and binds up to {@code maxSize} ChildProcessConnections using the specified
+     * parameters.
+     */
+    public SpareChildConnection(Context context, ChildConnectionAllocator connectionAllocator,
+            Bundle serviceBundle, int maxSize) {
         assert LauncherThread.runningOnLauncherThread();
+        assert maxSize > 0;
 
+        mContext = context;
         mConnectionAllocator = connectionAllocator;
-
-        ChildProcessConnection.ServiceCallback serviceCallback =
-                new ChildProcessConnection.ServiceCallback() {
-                    @Override
-                    public void onChildStarted() {
-                        assert LauncherThread.runningOnLauncherThread();
-                        mConnectionReady = true;
-                        if (mConnectionServiceCallback != null) {
-                            mConnectionServiceCallback.onChildStarted();
-                            clearConnection();
-                        }
-                        // If there is no chained callback, that means the spare connection has not
-                        // been used yet. It will be cleared when used.
-                    }
-
-                    @Override
-                    public void onChildStartFailed(ChildProcessConnection connection) {
-                        assert LauncherThread.runningOnLauncherThread();
-                        Log.e(TAG, "Failed to warm up the spare sandbox service");
-                        if (mConnectionServiceCallback != null) {
-                            mConnectionServiceCallback.onChildStartFailed(connection);
-                        }
-                        clearConnection();
-                    }
-
-                    @Override
-                    public void onChildProcessDied(ChildProcessConnection connection) {
-                        if (mConnectionServiceCallback != null) {
-                            mConnectionServiceCallback.onChildProcessDied(connection);
-                        }
-                        if (mConnection != null) {
-                            assert connection == mConnection;
-                            clearConnection();
-                        }
-                    }
-                };
-
-        mConnection = mConnectionAllocator.allocate(context, serviceBundle, serviceCallback);
+        mServiceBundle = serviceBundle;
+        mMaxSize = maxSize;
+        fill();
     }
 
     /**
      * @return a connection that has been bound or is being bound if one was created with the same
-     * allocator as the one provided, null otherwise.
+     * allocator as the one provided, null otherwise. Bound connections are returned first.
      */
     public ChildProcessConnection getConnection(ChildConnectionAllocator allocator,
             @NonNull final ChildProcessConnection.ServiceCallback serviceCallback) {
         assert LauncherThread.runningOnLauncherThread();
-        if (isEmpty() || mConnectionAllocator != allocator || mConnectionServiceCallback != null) {
+        if (mConnectionAllocator != allocator) return null;
+
+        if (mSpareConnections.isEmpty()) {
+            recordLookupResult(LOOKUP_MISS);
             return null;
         }
+        SpareConnection spareConnection = mSpareConnections.get(0);
+        for (SpareConnection candidate : mSpareConnections) {
+            if (candidate.mReady) {
+                spareConnection = candidate;
+                break;
+            }
+        }
+        mSpareConnections.remove(spareConnection);
+        spareConnection.mServiceCallback = serviceCallback;
+        recordLookupResult(spareConnection.mReady ? LOOKUP_HIT_BOUND : LOOKUP_HIT_BINDING);
 
-        mConnectionServiceCallback = serviceCallback;
-
-        ChildProcessConnection connection = mConnection;
-        if (mConnectionReady) {
+        if (spareConnection.mReady) {
             // onChildStarted was already run. Call it explicitly on the passed serviceCallback.
-            if (serviceCallback != null) {
-                // Post a task so the callback happens after the caller has retrieved the
-                // connection.
-                LauncherThread.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        serviceCallback.onChildStarted();
-                    }
-                });
-            }
-            clearConnection();
+            // Post a task so the callback happens after the caller has retrieved the connection.
+            LauncherThread.post(new Runnable() {
+                @Override
+                public void run() {
+                    serviceCallback.onChildStarted();
+                }
+            });
         }
-        return connection;
+        scheduleRefill();
+        return spareConnection.mConnection;
     }
 
     /** Returns true if no connection is available (so getConnection will always return null), */
     public boolean isEmpty() {
-        // Note that if the connection was retrieved but was not yet ready mConnection is non null
-        // but that connection is already used and will be cleared when it becomes ready. In that
-        // case mConnectionServiceCallback is non null.
-        return mConnection == null || mConnectionServiceCallback != null;
+        return mSpareConnections.isEmpty();
+    }
+
+    /** Binds new spare connections, if needed, up to the maximum size of the pool. */
+    public void fill() {
+        assert LauncherThread.runningOnLauncherThread();
+        while (mSpareConnections.size() < getTargetSize()
+                && mConnectionAllocator.isFreeConnectionAvailable()) {
+            SpareConnection spareConnection = new SpareConnection();
+            spareConnection.mConnection = mConnectionAllocator.allocate(mContext,
+                    mServiceBundle == null ? null : new Bundle(mServiceBundle), spareConnection);
+            if (spareConnection.mConnection == null) break;
+            mSpareConnections.add(spareConnection);
+        }
+    }
+
+    /** Unbinds the spare connections that have not been retrieved, and stops refilling them. */
+    public void clear() {
+        assert LauncherThread.runningOnLauncherThread();
+        LauncherThread.removeCallbacks(mRefillRunnable);
+        mRefillScheduled = false;
+        while (!mSpareConnections.isEmpty()) {
+            mSpareConnections.remove(mSpareConnections.size() - 1).mConnection.stop();
+        }
     }
 
-    private void clearConnection() {
+    /** Returns the number of spare connections kept without memory pressure. */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Limits the number of spare connections under memory pressure. Spare connections over the
+     * limit are unbound, and the pool is refilled if the limit is raised.
+     * @param limit The maximum number of spare connections, or {@link Integer#MAX_VALUE}.
+     */
+    void setMemoryPressureLimit(int limit) {
         assert LauncherThread.runningOnLauncherThread();
-        mConnection = null;
-        mConnectionReady = false;
+        int oldTargetSize = getTargetSize();
+        mMemoryPressureLimit = limit;
+        // Unbind the connections that are not bound yet first.
+        while (mSpareConnections.size() > getTargetSize()) {
+            int index = mSpareConnections.size() - 1;
+            for (int i = 0; i < mSpareConnections.size(); i++) {
+                if (!mSpareConnections.get(i).mReady) {
+                    index = i;
+                    break;
+                }
+            }
+            mSpareConnections.remove(index).mConnection.stop();
+        }
+        if (getTargetSize() > oldTargetSize) scheduleRefill();
+    }
+
+    private int getTargetSize() {
+        return Math.min(mMaxSize, mMemoryPressureLimit);
+    }
+
+    private void scheduleRefill() {
+        if (mRefillScheduled || mSpareConnections.size() >= getTargetSize()) return;
+        mRefillScheduled = true;
+        LauncherThread.postDelayed(mRefillRunnable, REFILL_DELAY_MILLIS);
+    }
+
+    private static void recordLookupResult(@LookupResult int result) {
+        RecordHistogram.recordEnumeratedHistogram(
+                "Android.ChildProcessLauncher.SpareConnectionLookup", result, LOOKUP_COUNT);
     }
 
     @VisibleForTesting
     public ChildProcessConnection getConnection() {
-        return mConnection;
+        return mSpareConnections.isEmpty() ? null : mSpareConnections.get(0).mConnection;
+    }
+
+    @VisibleForTesting
+    int getSpareConnectionCount() {
+        return mSpareConnections.size();
     }
 }
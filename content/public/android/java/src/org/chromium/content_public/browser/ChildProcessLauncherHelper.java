@@ -23,6 +23,17 @@ public final class ChildProcessLauncherHelper {
         ChildProcessLauncherHelperImpl.warmUp(context);
     }
 
+    /**
+     * Creates a pool of ready to use sandboxed child processes. A process taken from the pool is
+     * replaced in the background, unless under memory pressure. Should be called early during
+     * startup so the child processes are created while other startup work is happening.
+     * @param context the application context used for the connections.
+     * @param connectionCount the number of child processes to keep ready.
+     */
+    public static void warmUp(Context context, int connectionCount) {
+        ChildProcessLauncherHelperImpl.warmUp(context, connectionCount);
+    }
+
     /**
      * Starts the moderate binding management that adjust a process priority in response to various
      * signals (app sent to background/foreground for example).
@@ -16,6 +16,12 @@ import org.chromium.base.test.BaseRobolectricTestRunner;
 import org.chromium.base.test.TestChildProcessConnection;
 import org.chromium.content_public.browser.ChildProcessImportance;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
 /** Unit tests for ChildProessRanking */
 @RunWith(BaseRobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
@@ -213,4 +219,145 @@ public class ChildProcessRankingTest {
 
         assertRankingAndRemoveAll(ranking, new ChildProcessConnection[] {c3, c2, c1});
     }
+
+    @Test
+    public void testTiesRankMostRecentlyAddedLower() {
+        ChildProcessConnection c1 = createConnection();
+        ChildProcessConnection c2 = createConnection();
+        ChildProcessConnection c3 = createConnection();
+
+        ChildProcessRanking ranking = new ChildProcessRanking(3);
+        ranking.addConnection(c1, true /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        ranking.addConnection(c2, true /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        ranking.addConnection(c3, true /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        Assert.assertEquals(c3, ranking.getLowestRankedConnection());
+
+        // An update that doesn't change anything keeps the ranking.
+        ranking.updateConnection(c3, true /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        Assert.assertEquals(c3, ranking.getLowestRankedConnection());
+
+        ranking.updateConnection(c3, true /* foreground */, 0 /* frameDepth */,
+                true /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        assertRankingAndRemoveAll(ranking, new ChildProcessConnection[] {c3, c1, c2});
+    }
+
+    @Test
+    public void testTiesAfterRankGoesUp() {
+        ChildProcessConnection c1 = createConnection();
+        ChildProcessConnection c2 = createConnection();
+        ChildProcessConnection c3 = createConnection();
+
+        ChildProcessRanking ranking = new ChildProcessRanking(3);
+        ranking.addConnection(c1, false /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        ranking.addConnection(c2, true /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        ranking.addConnection(c3, true /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        Assert.assertEquals(c1, ranking.getLowestRankedConnection());
+
+        // A connection whose rank goes up goes after the ones it is now tied with, and one whose
+        // rank goes down goes before them.
+        ranking.updateConnection(c1, true /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        assertRankingAndRemoveAll(ranking, new ChildProcessConnection[] {c2, c3, c1});
+
+        ranking.addConnection(c1, false /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        ranking.addConnection(c2, false /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        ranking.addConnection(c3, true /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        ranking.updateConnection(c3, false /* foreground */, 0 /* frameDepth */,
+                false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        assertRankingAndRemoveAll(ranking, new ChildProcessConnection[] {c3, c1, c2});
+    }
+
+    @Test
+    public void testManyConnections() {
+        final int count = 100;
+        ChildProcessConnection[] connections = new ChildProcessConnection[count];
+        ChildProcessRanking ranking = new ChildProcessRanking(count);
+        // Add in an order unrelated to the ranking, and rank them all by frame depth.
+        for (int i = 0; i < count; i++) {
+            connections[i] = createConnection();
+            ranking.addConnection(connections[i], false /* foreground */,
+                    (i * 37) % count + 1 /* frameDepth */, false /* intersectsViewport */,
+                    ChildProcessImportance.NORMAL);
+        }
+        for (int i = 0; i < count; i++) {
+            ranking.updateConnection(connections[i], false /* foreground */, i + 1 /* frameDepth */,
+                    false /* intersectsViewport */, ChildProcessImportance.NORMAL);
+        }
+
+        // Removing from the middle keeps the rest of the ranking.
+        ranking.removeConnection(connections[count / 2]);
+        ChildProcessConnection[] expected = new ChildProcessConnection[count - 1];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (i != count / 2) expected[j++] = connections[i];
+        }
+        assertRankingAndRemoveAll(ranking, expected);
+    }
+
+    @Test
+    public void testScrollsAndTabSwitches() {
+        final int tabCount = 10;
+        final int framesPerTab = 10;
+        ChildProcessConnection[] connections = new ChildProcessConnection[tabCount * framesPerTab];
+        boolean[] intersectsViewport = new boolean[connections.length];
+        ChildProcessRanking ranking = new ChildProcessRanking(connections.length);
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = createConnection();
+            intersectsViewport[i] = i < framesPerTab && i % framesPerTab < framesPerTab / 2;
+            ranking.addConnection(connections[i], i < framesPerTab /* foreground */,
+                    i % framesPerTab /* frameDepth */, intersectsViewport[i],
+                    ChildProcessImportance.NORMAL);
+        }
+
+        Random random = new Random(42);
+        int visibleTab = 0;
+        for (int update = 0; update < 1000; update++) {
+            if (update % 100 == 99) {
+                // Switch tabs. Subframes of hidden tabs don't intersect the viewport.
+                int newTab = random.nextInt(tabCount);
+                for (int i = 0; i < framesPerTab; i++) {
+                    int index = visibleTab * framesPerTab + i;
+                    intersectsViewport[index] = false;
+                    ranking.updateConnection(connections[index], false /* foreground */,
+                            i /* frameDepth */, false /* intersectsViewport */,
+                            ChildProcessImportance.NORMAL);
+                }
+                for (int i = 0; i < framesPerTab; i++) {
+                    int index = newTab * framesPerTab + i;
+                    ranking.updateConnection(connections[index], true /* foreground */,
+                            i /* frameDepth */, intersectsViewport[index],
+                            ChildProcessImportance.NORMAL);
+                }
+                visibleTab = newTab;
+            } else {
+                // Scroll a subframe of the visible tab in or out of the viewport.
+                int depth = 1 + random.nextInt(framesPerTab - 1);
+                int index = visibleTab * framesPerTab + depth;
+                intersectsViewport[index] = !intersectsViewport[index];
+                ranking.updateConnection(connections[index], true /* foreground */,
+                        depth /* frameDepth */, intersectsViewport[index],
+                        ChildProcessImportance.NORMAL);
+            }
+
+            List<ChildProcessConnection> lowestFirst = new ArrayList<>();
+            for (ChildProcessConnection connection : ranking) lowestFirst.add(connection);
+            Assert.assertEquals(connections.length, new HashSet<>(lowestFirst).size());
+            Assert.assertSame(ranking.getLowestRankedConnection(), lowestFirst.get(0));
+            // The visible main frame ranks highest, and the deepest frame of a hidden tab lowest.
+            Assert.assertSame(connections[visibleTab * framesPerTab],
+                    lowestFirst.get(lowestFirst.size() - 1));
+            int lowestIndex = Arrays.asList(connections).indexOf(lowestFirst.get(0));
+            Assert.assertNotEquals(visibleTab, lowestIndex / framesPerTab);
+            Assert.assertEquals(framesPerTab - 1, lowestIndex % framesPerTab);
+        }
+    }
 }
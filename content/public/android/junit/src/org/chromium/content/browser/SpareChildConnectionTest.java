@@ -4,9 +4,11 @@
 
 package org.chromium.content.browser;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.times;
@@ -25,12 +27,16 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLooper;
 
+import org.chromium.base.metrics.RecordHistogram;
 import org.chromium.base.process_launcher.ChildConnectionAllocator;
 import org.chromium.base.process_launcher.ChildProcessConnection;
 import org.chromium.base.test.BaseRobolectricTestRunner;
 import org.chromium.base.test.TestChildProcessConnection;
 import org.chromium.base.test.util.Feature;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /** Unit tests for the SpareChildConnection class. */
 @Config(manifest = Config.NONE)
 @RunWith(BaseRobolectricTestRunner.class)
@@ -49,18 +55,27 @@ public class SpareChildConnectionTest {
 
     private static class TestConnectionFactory
             implements ChildConnectionAllocator.ConnectionFactory {
+        private final List<TestChildProcessConnection> mConnections = new ArrayList<>();
         private TestChildProcessConnection mConnection;
 
         @Override
         public ChildProcessConnection createConnection(Context context, ComponentName serviceName,
                 boolean bindToCaller, boolean bindAsExternalService, Bundle serviceBundle) {
-            // We expect to create only one connection in these tests.
-            assert mConnection == null;
             mConnection = new TestChildProcessConnection(
                     serviceName, bindToCaller, bindAsExternalService, serviceBundle);
+            mConnections.add(mConnection);
             return mConnection;
         }
 
+        /** Makes the following calls simulate events of the connection at |index|. */
+        public void selectConnection(int index) {
+            mConnection = mConnections.get(index);
+        }
+
+        public int getCreatedConnectionCount() {
+            return mConnections.size();
+        }
+
         public void simulateConnectionBindingSuccessfully() {
             mConnection.getServiceCallback().onChildStarted();
         }
@@ -81,6 +96,7 @@ public class SpareChildConnectionTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        RecordHistogram.setDisabledForTests(true);
 
         // The tests run on only one thread. Pretend that is the launcher thread so LauncherThread
         // asserts are not triggered.
@@ -98,6 +114,13 @@ public class SpareChildConnectionTest {
     @After
     public void tearDown() {
         LauncherThread.setLauncherThreadAsLauncherThread();
+        RecordHistogram.setDisabledForTests(false);
+    }
+
+    private SpareChildConnection createPool(int maxSize) {
+        mSpareConnection.clear();
+        return new SpareChildConnection(
+                null /* context */, mConnectionAllocator, null /* serviceBundle */, maxSize);
     }
 
     /** Test creation and retrieval of connection. */
@@ -229,4 +252,63 @@ public class SpareChildConnectionTest {
                 mSpareConnection.getConnection(mConnectionAllocator, mServiceCallback);
         assertNull(connection);
     }
+
+    @Test
+    @Feature({"ProcessManagement"})
+    public void testPoolReturnsBoundConnectionFirst() {
+        SpareChildConnection pool = createPool(2);
+        assertEquals(3, mTestConnectionFactory.getCreatedConnectionCount());
+        assertEquals(2, pool.getSpareConnectionCount());
+
+        // Bind the second connection of the pool, it is returned before the first one.
+        mTestConnectionFactory.selectConnection(2);
+        mTestConnectionFactory.simulateConnectionBindingSuccessfully();
+        ShadowLooper.runUiThreadTasks();
+        ChildProcessConnection connection =
+                pool.getConnection(mConnectionAllocator, mServiceCallback);
+        assertSame(mTestConnectionFactory.mConnections.get(2), connection);
+        assertEquals(1, pool.getSpareConnectionCount());
+
+        ShadowLooper.runUiThreadTasks();
+        verify(mServiceCallback, times(1)).onChildStarted();
+    }
+
+    @Test
+    @Feature({"ProcessManagement"})
+    public void testPoolRefillsInBackground() {
+        SpareChildConnection pool = createPool(2);
+        assertNotNull(pool.getConnection(mConnectionAllocator, mServiceCallback));
+        assertNotNull(pool.getConnection(mConnectionAllocator, mServiceCallback));
+        assertNull(pool.getConnection(mConnectionAllocator, mServiceCallback));
+        assertTrue(pool.isEmpty());
+
+        // The retrieved connections are replaced after a delay.
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(2, pool.getSpareConnectionCount());
+        assertEquals(5, mTestConnectionFactory.getCreatedConnectionCount());
+    }
+
+    @Test
+    @Feature({"ProcessManagement"})
+    public void testPoolMemoryPressureLimit() {
+        SpareChildConnection pool = createPool(2);
+
+        // Unbound connections are dropped first.
+        mTestConnectionFactory.selectConnection(1);
+        mTestConnectionFactory.simulateConnectionBindingSuccessfully();
+        ShadowLooper.runUiThreadTasks();
+        pool.setMemoryPressureLimit(1);
+        assertEquals(1, pool.getSpareConnectionCount());
+        assertSame(mTestConnectionFactory.mConnections.get(1), pool.getConnection());
+
+        // No connection is refilled while the limit holds.
+        pool.setMemoryPressureLimit(0);
+        assertTrue(pool.isEmpty());
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertTrue(pool.isEmpty());
+
+        pool.setMemoryPressureLimit(Integer.MAX_VALUE);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(2, pool.getSpareConnectionCount());
+    }
 }
@@ -96,6 +96,8 @@ public class Connector implements MessageReceiver, HandleOwner<MessagePipeHandle
         try {
             mMessagePipeHandle.writeMessage(message.getData(),
                     message.getHandles(), MessagePipeHandle.WriteFlags.NONE);
+            // The data has been copied into the pipe.
+            message.releasePooledBuffer();
             return true;
         } catch (MojoException e) {
             onError(e);
@@ -12,7 +12,13 @@ import org.chromium.mojo.system.MessagePipeHandle;
 import org.chromium.mojo.system.SharedBufferHandle;
 import org.chromium.mojo.system.UntypedHandle;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -436,6 +442,65 @@ public class Decoder {
         return result;
     }
 
+    /**
+     * Returns a read-only view of an array of bytes at the given offset, without copying it. The
+     * view shares the message's memory, so it is only valid as long as the message is, and must
+     * not be kept past the handling of the message.
+     */
+    public ByteBuffer readBytesView(int offset, int arrayNullability, int expectedLength) {
+        return readArrayView(offset, arrayNullability, expectedLength, 1);
+    }
+
+    /**
+     * Returns a read-only view of an array of shorts at the given offset, without copying it.
+     *
+     * @see #readBytesView(int, int, int)
+     */
+    public ShortBuffer readShortsView(int offset, int arrayNullability, int expectedLength) {
+        ByteBuffer view = readArrayView(offset, arrayNullability, expectedLength, 2);
+        return view == null ? null : view.asShortBuffer();
+    }
+
+    /**
+     * Returns a read-only view of an array of ints at the given offset, without copying it.
+     *
+     * @see #readBytesView(int, int, int)
+     */
+    public IntBuffer readIntsView(int offset, int arrayNullability, int expectedLength) {
+        ByteBuffer view = readArrayView(offset, arrayNullability, expectedLength, 4);
+        return view == null ? null : view.asIntBuffer();
+    }
+
+    /**
+     * Returns a read-only view of an array of floats at the given offset, without copying it.
+     *
+     * @see #readBytesView(int, int, int)
+     */
+    public FloatBuffer readFloatsView(int offset, int arrayNullability, int expectedLength) {
+        ByteBuffer view = readArrayView(offset, arrayNullability, expectedLength, 4);
+        return view == null ? null : view.asFloatBuffer();
+    }
+
+    /**
+     * Returns a read-only view of an array of longs at the given offset, without copying it.
+     *
+     * @see #readBytesView(int, int, int)
+     */
+    public LongBuffer readLongsView(int offset, int arrayNullability, int expectedLength) {
+        ByteBuffer view = readArrayView(offset, arrayNullability, expectedLength, 8);
+        return view == null ? null : view.asLongBuffer();
+    }
+
+    /**
+     * Returns a read-only view of an array of doubles at the given offset, without copying it.
+     *
+     * @see #readBytesView(int, int, int)
+     */
+    public DoubleBuffer readDoublesView(int offset, int arrayNullability, int expectedLength) {
+        ByteBuffer view = readArrayView(offset, arrayNullability, expectedLength, 8);
+        return view == null ? null : view.asDoubleBuffer();
+    }
+
     /**
      * Deserializes an |Handle| at the given offset.
      */
@@ -719,6 +784,25 @@ public class Decoder {
         return null;
     }
 
+    /**
+     * Validates the array at the given offset and returns a read-only little endian view of its
+     * elements, or |null| for a null array.
+     */
+    private ByteBuffer readArrayView(
+            int offset, int arrayNullability, int expectedLength, int elementSize) {
+        Decoder d = readPointer(offset, BindingsHelper.isArrayNullable(arrayNullability));
+        if (d == null) {
+            return null;
+        }
+        DataHeader si = d.readDataHeaderForArray(elementSize, expectedLength);
+        ByteBuffer view = d.mMessage.getData().asReadOnlyBuffer();
+        int start = d.mBaseOffset + DataHeader.HEADER_SIZE;
+        view.limit(start + si.elementsOrVersion * elementSize);
+        view.position(start);
+        // Slicing resets the byte order, so it has to be set on the slice.
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     /**
      * Returns a view of this decoder at the offset |offset|.
      */
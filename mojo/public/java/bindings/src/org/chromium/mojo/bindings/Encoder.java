@@ -48,17 +48,35 @@ public class Encoder {
          */
         public int dataEnd;
 
+        /**
+         * Whether |byteBuffer| comes from the {@link EncoderBufferPool}.
+         */
+        public final boolean pooled;
+
+        /**
+         * Whether |byteBuffer| may contain stale data past |dataEnd|. Freshly allocated direct
+         * buffers are zeroed, recycled ones aren't.
+         */
+        private boolean mDirty;
+
         /**
          * @param core the |Core| implementation used to generate handles. Only used if the data
          *            structure being encoded contains interfaces, can be |null| otherwise.
          * @param bufferSize A hint on the size of the message. Used to build the initial byte
          *            buffer.
+         * @param pooled Whether to take buffers from the {@link EncoderBufferPool}.
          */
-        private EncoderState(Core core, int bufferSize) {
+        private EncoderState(Core core, int bufferSize, boolean pooled) {
             assert bufferSize % BindingsHelper.ALIGNMENT == 0;
             this.core = core;
-            byteBuffer = ByteBuffer.allocateDirect(
-                    bufferSize > 0 ? bufferSize : INITIAL_BUFFER_SIZE);
+            this.pooled = pooled;
+            int size = bufferSize > 0 ? bufferSize : INITIAL_BUFFER_SIZE;
+            if (pooled) {
+                byteBuffer = EncoderBufferPool.acquire(size);
+                mDirty = true;
+            } else {
+                byteBuffer = ByteBuffer.allocateDirect(size);
+            }
             byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
             dataEnd = 0;
         }
@@ -67,8 +85,16 @@ public class Encoder {
          * Claim the given amount of memory at the end of the buffer, resizing it if needed.
          */
         public void claimMemory(int size) {
+            int start = dataEnd;
             dataEnd += size;
             growIfNeeded();
+            if (mDirty) {
+                // Unused bits and padding must be zero. Claimed sizes are aligned, so the memory
+                // can be cleared a long at a time.
+                for (int i = start; i < dataEnd; i += 8) {
+                    byteBuffer.putLong(i, 0);
+                }
+            }
         }
 
         /**
@@ -82,11 +108,20 @@ public class Encoder {
             while (targetSize < dataEnd) {
                 targetSize *= 2;
             }
-            ByteBuffer newBuffer = ByteBuffer.allocateDirect(targetSize);
-            newBuffer.order(ByteOrder.nativeOrder());
+            ByteBuffer newBuffer;
+            if (pooled) {
+                newBuffer = EncoderBufferPool.acquire(targetSize);
+                mDirty = true;
+            } else {
+                newBuffer = ByteBuffer.allocateDirect(targetSize);
+                newBuffer.order(ByteOrder.nativeOrder());
+            }
             byteBuffer.position(0);
             byteBuffer.limit(byteBuffer.capacity());
             newBuffer.put(byteBuffer);
+            if (pooled) {
+                EncoderBufferPool.release(byteBuffer);
+            }
             byteBuffer = newBuffer;
         }
     }
@@ -112,7 +147,8 @@ public class Encoder {
     public Message getMessage() {
         mEncoderState.byteBuffer.position(0);
         mEncoderState.byteBuffer.limit(mEncoderState.dataEnd);
-        return new Message(mEncoderState.byteBuffer, mEncoderState.handles);
+        return new Message(
+                mEncoderState.byteBuffer, mEncoderState.handles, mEncoderState.pooled);
     }
 
     /**
@@ -123,7 +159,17 @@ public class Encoder {
      * @param sizeHint A hint on the size of the message. Used to build the initial byte buffer.
      */
     public Encoder(Core core, int sizeHint) {
-        this(new EncoderState(core, sizeHint));
+        this(new EncoderState(core, sizeHint, false));
+    }
+
+    /**
+     * Returns an encoder whose buffer comes from the current thread's {@link EncoderBufferPool}.
+     * The buffer of the resulting message is returned to the pool by
+     * {@link Message#releasePooledBuffer()}, so the message must not be used after it has been
+     * passed to a receiver that writes it, such as a {@link Connector}.
+     */
+    static Encoder createPooled(Core core, int sizeHint) {
+        return new Encoder(new EncoderState(core, sizeHint, true));
     }
 
     /**
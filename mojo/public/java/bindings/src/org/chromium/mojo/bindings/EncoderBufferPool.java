@@ -0,0 +1,110 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.mojo.bindings;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Per-thread pool of direct buffers for {@link Encoder}. Buffers are bucketed by power of two
+ * capacity, so that a size hint maps to a bucket in constant time and a buffer that is reused for
+ * a slightly different message doesn't need to grow. Buffers larger than
+ * {@link #MAX_POOLED_BUFFER_SIZE} are not pooled, to bound the memory each thread retains.
+ *
+ * Buffers handed out by {@link #acquire} are not zeroed; {@link Encoder} clears the memory it
+ * claims instead.
+ */
+final class EncoderBufferPool {
+    /**
+     * Smallest capacity handed out, as a power of two. Most messages are a few hundred bytes.
+     */
+    private static final int MIN_SIZE_CLASS = 8;
+
+    /**
+     * Largest pooled capacity, as a power of two.
+     */
+    private static final int MAX_SIZE_CLASS = 16;
+
+    static final int MAX_POOLED_BUFFER_SIZE = 1 << MAX_SIZE_CLASS;
+
+    /**
+     * Number of idle buffers kept per size class and thread.
+     */
+    private static final int BUFFERS_PER_SIZE_CLASS = 4;
+
+    private static final ThreadLocal<EncoderBufferPool> sPool =
+            new ThreadLocal<EncoderBufferPool>() {
+                @Override
+                protected EncoderBufferPool initialValue() {
+                    return new EncoderBufferPool();
+                }
+            };
+
+    /**
+     * Idle buffers, indexed by size class and then used as a stack.
+     */
+    private final ByteBuffer[][] mBuffers =
+            new ByteBuffer[MAX_SIZE_CLASS - MIN_SIZE_CLASS + 1][BUFFERS_PER_SIZE_CLASS];
+    private final int[] mCounts = new int[MAX_SIZE_CLASS - MIN_SIZE_CLASS + 1];
+
+    private EncoderBufferPool() {}
+
+    /**
+     * Returns a little endian direct buffer with a capacity of at least |minSize| bytes, taken from
+     * the current thread's pool if possible. Its content is undefined.
+     */
+    static ByteBuffer acquire(int minSize) {
+        int sizeClass = sizeClassFor(minSize);
+        ByteBuffer buffer = null;
+        if (sizeClass <= MAX_SIZE_CLASS) {
+            buffer = sPool.get().pop(sizeClass);
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(
+                    sizeClass <= MAX_SIZE_CLASS ? 1 << sizeClass : minSize);
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Returns |buffer| to the current thread's pool. The caller must not use it afterwards.
+     * Buffers that can't be pooled are left to the garbage collector, and releasing a buffer that
+     * is already pooled is a no-op.
+     */
+    static void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1) return;
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        if (sizeClass < MIN_SIZE_CLASS || sizeClass > MAX_SIZE_CLASS) return;
+        sPool.get().push(sizeClass, buffer);
+    }
+
+    private static int sizeClassFor(int size) {
+        if (size <= 1 << MIN_SIZE_CLASS) return MIN_SIZE_CLASS;
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private ByteBuffer pop(int sizeClass) {
+        int index = sizeClass - MIN_SIZE_CLASS;
+        if (mCounts[index] == 0) return null;
+        ByteBuffer buffer = mBuffers[index][--mCounts[index]];
+        mBuffers[index][mCounts[index]] = null;
+        return buffer;
+    }
+
+    private void push(int sizeClass, ByteBuffer buffer) {
+        int index = sizeClass - MIN_SIZE_CLASS;
+        int count = mCounts[index];
+        if (count == BUFFERS_PER_SIZE_CLASS) return;
+        for (int i = 0; i < count; ++i) {
+            // Handing the same buffer to two encoders would corrupt both messages.
+            if (mBuffers[index][i] == buffer) return;
+        }
+        mBuffers[index][count] = buffer;
+        mCounts[index] = count + 1;
+    }
+}
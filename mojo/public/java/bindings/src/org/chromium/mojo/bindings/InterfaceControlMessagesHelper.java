@@ -51,8 +51,8 @@ public class InterfaceControlMessagesHelper {
      */
     public static void sendRunMessage(Core core, MessageReceiverWithResponder receiver,
             RunMessageParams params, Callback1<RunResponseMessageParams> callback) {
-        Message message = params.serializeWithHeader(
-                core, new MessageHeader(InterfaceControlMessagesConstants.RUN_MESSAGE_ID,
+        Message message = Struct.serializeWithHeaderPooled(params, core,
+                new MessageHeader(InterfaceControlMessagesConstants.RUN_MESSAGE_ID,
                         MessageHeader.MESSAGE_EXPECTS_RESPONSE_FLAG, 0));
         receiver.acceptWithResponder(message, new RunResponseForwardToCallback(callback));
     }
@@ -62,7 +62,7 @@ public class InterfaceControlMessagesHelper {
      */
     public static void sendRunOrClosePipeMessage(
             Core core, MessageReceiverWithResponder receiver, RunOrClosePipeMessageParams params) {
-        Message message = params.serializeWithHeader(core,
+        Message message = Struct.serializeWithHeaderPooled(params, core,
                 new MessageHeader(InterfaceControlMessagesConstants.RUN_OR_CLOSE_PIPE_MESSAGE_ID));
         receiver.accept(message);
     }
@@ -83,8 +83,8 @@ public class InterfaceControlMessagesHelper {
             response.output = null;
         }
 
-        return responder.accept(response.serializeWithHeader(
-                core, new MessageHeader(InterfaceControlMessagesConstants.RUN_MESSAGE_ID,
+        return responder.accept(Struct.serializeWithHeaderPooled(response, core,
+                new MessageHeader(InterfaceControlMessagesConstants.RUN_MESSAGE_ID,
                         MessageHeader.MESSAGE_IS_RESPONSE_FLAG,
                         message.getHeader().getRequestId())));
     }
@@ -0,0 +1,140 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.mojo.bindings;
+
+/**
+ * Hash map from primitive long keys to non null values, using open addressing with linear probing.
+ * Unlike a {@link java.util.HashMap} with {@link Long} keys, it doesn't allocate on lookups,
+ * insertions or removals once it has grown to its working size. Used to track the responders of
+ * in-flight requests in {@link RouterImpl}.
+ *
+ * @param <V> the type of the values.
+ */
+final class LongHashMap<V> {
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Keys, in the slot of the matching value. The content of a slot whose value is null is
+     * undefined.
+     */
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+
+    /**
+     * Values. A null value marks an empty slot.
+     */
+    private Object[] mValues = new Object[INITIAL_CAPACITY];
+
+    private int mSize;
+
+    /**
+     * Returns the number of entries in the map.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns whether the map contains an entry for |key|.
+     */
+    boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns the value for |key|, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) mValues[index];
+    }
+
+    /**
+     * Associates |value| with |key|, and returns the previous value for |key|, if any.
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) throw new NullPointerException("Values must not be null.");
+        if ((mSize + 1) * 4 > mValues.length * 3) {
+            resize(mValues.length * 2);
+        }
+        int mask = mValues.length - 1;
+        int index = slotFor(key, mask);
+        while (mValues[index] != null) {
+            if (mKeys[index] == key) {
+                V previous = (V) mValues[index];
+                mValues[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        mKeys[index] = key;
+        mValues[index] = value;
+        ++mSize;
+        return null;
+    }
+
+    /**
+     * Removes the entry for |key|, and returns its value, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) return null;
+        V previous = (V) mValues[index];
+        // Shift back the following entries of the probe sequence, so that lookups never need to
+        // skip over deleted slots.
+        int mask = mValues.length - 1;
+        int hole = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (mValues[next] == null) break;
+            int slot = slotFor(mKeys[next], mask);
+            // The entry can fill the hole unless its own slot lies between the hole and itself.
+            if (((next - slot) & mask) >= ((next - hole) & mask)) {
+                mKeys[hole] = mKeys[next];
+                mValues[hole] = mValues[next];
+                hole = next;
+            }
+        }
+        mValues[hole] = null;
+        --mSize;
+        return previous;
+    }
+
+    private int indexOf(long key) {
+        int mask = mValues.length - 1;
+        int index = slotFor(key, mask);
+        while (mValues[index] != null) {
+            if (mKeys[index] == key) return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] == null) continue;
+            int index = slotFor(keys[i], mask);
+            while (mValues[index] != null) {
+                index = (index + 1) & mask;
+            }
+            mKeys[index] = keys[i];
+            mValues[index] = values[i];
+        }
+    }
+
+    private static int slotFor(long key, int mask) {
+        // Request ids are sequential, spread them over the table.
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -31,6 +31,11 @@ public class Message {
      */
     private ServiceMessage mWithHeader;
 
+    /**
+     * Whether |mBuffer| belongs to the {@link EncoderBufferPool} and may be released.
+     */
+    private boolean mBufferPooled;
+
     /**
      * Constructor.
      *
@@ -38,8 +43,16 @@ public class Message {
      * @param handles The list of handles to send.
      */
     public Message(ByteBuffer buffer, List<? extends Handle> handles) {
+        this(buffer, handles, false);
+    }
+
+    /**
+     * Constructor for messages whose buffer may come from the {@link EncoderBufferPool}.
+     */
+    Message(ByteBuffer buffer, List<? extends Handle> handles, boolean bufferPooled) {
         mBuffer = buffer;
         mHandles = handles;
+        mBufferPooled = bufferPooled;
     }
 
     /**
@@ -56,6 +69,28 @@ public class Message {
         return mHandles;
     }
 
+    /**
+     * Returns whether the buffer of this message belongs to the {@link EncoderBufferPool}, and
+     * gives up the responsibility of releasing it. Used when another message takes over the
+     * buffer, so that it can't be released twice.
+     */
+    boolean passPooledBuffer() {
+        boolean pooled = mBufferPooled;
+        mBufferPooled = false;
+        return pooled;
+    }
+
+    /**
+     * Returns the buffer of this message to the {@link EncoderBufferPool}, if it came from there.
+     * Must only be called once the data has been consumed, typically right after the message has
+     * been written to a message pipe; the data must not be accessed afterwards.
+     */
+    void releasePooledBuffer() {
+        if (!mBufferPooled) return;
+        mBufferPooled = false;
+        EncoderBufferPool.release(mBuffer);
+    }
+
     /**
      * Returns the message interpreted as a message for a mojo service.
      */
@@ -4,20 +4,15 @@
 
 package org.chromium.mojo.bindings;
 
-import android.annotation.SuppressLint;
-
 import org.chromium.mojo.system.Core;
 import org.chromium.mojo.system.MessagePipeHandle;
 import org.chromium.mojo.system.Watcher;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.Executor;
 
 /**
  * Implementation of {@link Router}.
  */
-@SuppressLint("UseSparseArrays")  // https://crbug.com/600699
 public class RouterImpl implements Router {
 
     /**
@@ -99,7 +94,7 @@ public class RouterImpl implements Router {
     /**
      * The map from request ids to {@link MessageReceiver} of request currently in flight.
      */
-    private Map<Long, MessageReceiver> mResponders = new HashMap<Long, MessageReceiver>();
+    private final LongHashMap<MessageReceiver> mResponders = new LongHashMap<MessageReceiver>();
 
     /**
      * An Executor that will run on the thread associated with the MessagePipe to which
@@ -227,11 +222,10 @@ public class RouterImpl implements Router {
             return false;
         } else if (header.hasFlag(MessageHeader.MESSAGE_IS_RESPONSE_FLAG)) {
             long requestId = header.getRequestId();
-            MessageReceiver responder = mResponders.get(requestId);
+            MessageReceiver responder = mResponders.remove(requestId);
             if (responder == null) {
                 return false;
             }
-            mResponders.remove(requestId);
             return responder.accept(message);
         } else {
             if (mIncomingMessageReceiver != null) {
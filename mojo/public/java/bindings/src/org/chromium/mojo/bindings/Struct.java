@@ -75,7 +75,22 @@ public abstract class Struct {
      *            being encoded contains interfaces, can be |null| otherwise.
      */
     public ServiceMessage serializeWithHeader(Core core, MessageHeader header) {
-        Encoder encoder = new Encoder(core, mEncodedBaseSize + header.getSize());
+        return encodeWithHeader(new Encoder(core, mEncodedBaseSize + header.getSize()), header);
+    }
+
+    /**
+     * Same as {@link #serializeWithHeader(Core, MessageHeader)}, but the message's buffer comes
+     * from the {@link EncoderBufferPool} and is recycled once a {@link Connector} has written it.
+     * Only for messages that are sent right away and never used afterwards. Static, because a
+     * package-private method isn't inherited by the generated structs in other packages.
+     */
+    static ServiceMessage serializeWithHeaderPooled(
+            Struct struct, Core core, MessageHeader header) {
+        return struct.encodeWithHeader(
+                Encoder.createPooled(core, struct.mEncodedBaseSize + header.getSize()), header);
+    }
+
+    private ServiceMessage encodeWithHeader(Encoder encoder, MessageHeader header) {
         header.encode(encoder);
         encode(encoder);
         return new ServiceMessage(encoder.getMessage(), header);
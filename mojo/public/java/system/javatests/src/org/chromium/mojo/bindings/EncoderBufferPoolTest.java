@@ -0,0 +1,191 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.mojo.bindings;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+import org.chromium.mojo.HandleMock;
+import org.chromium.mojo.bindings.test.mojom.sample.Bar;
+import org.chromium.mojo.bindings.test.mojom.sample.Foo;
+import org.chromium.mojo.bindings.test.mojom.test_structs.Rect;
+import org.chromium.mojo.system.DataPipe.ConsumerHandle;
+import org.chromium.mojo.system.DataPipe.ProducerHandle;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Testing {@link EncoderBufferPool}, pooled {@link Encoder}s and the {@link Decoder} views.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class EncoderBufferPoolTest {
+    /**
+     * Testing that released buffers are reused, and never handed out twice.
+     */
+    @Test
+    @SmallTest
+    public void testReuse() {
+        ByteBuffer buffer = EncoderBufferPool.acquire(100);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertTrue(buffer.capacity() >= 100);
+        EncoderBufferPool.release(buffer);
+        EncoderBufferPool.release(buffer);
+
+        Assert.assertSame(buffer, EncoderBufferPool.acquire(100));
+        Assert.assertNotSame(buffer, EncoderBufferPool.acquire(100));
+    }
+
+    /**
+     * Testing that a pooled encoder clears stale data left in a recycled buffer.
+     */
+    @Test
+    @SmallTest
+    public void testPooledEncoderClearsRecycledBuffer() {
+        ByteBuffer dirty = EncoderBufferPool.acquire(1024);
+        while (dirty.hasRemaining()) {
+            dirty.put((byte) 0xff);
+        }
+        EncoderBufferPool.release(dirty);
+
+        Rect rect = new Rect();
+        rect.x = 1;
+        rect.height = 4;
+        Encoder encoder = Encoder.createPooled(null, 0);
+        rect.encode(encoder);
+        Message pooled = encoder.getMessage();
+        Assert.assertSame(dirty, pooled.getData());
+        Assert.assertEquals(rect.serialize(null).getData(), pooled.getData());
+
+        pooled.releasePooledBuffer();
+        Assert.assertSame(dirty, EncoderBufferPool.acquire(1024));
+    }
+
+    /**
+     * Testing that a pooled encoder that grows through several recycled buffers produces the same
+     * message as an allocating one.
+     */
+    @Test
+    @SmallTest
+    public void testPooledEncoderGrowsThroughRecycledBuffers() {
+        for (int size = 256; size <= 64 * 1024; size *= 2) {
+            ByteBuffer dirty = EncoderBufferPool.acquire(size);
+            while (dirty.hasRemaining()) {
+                dirty.put((byte) 0xff);
+            }
+            EncoderBufferPool.release(dirty);
+        }
+
+        Foo foo = new Foo();
+        foo.name = "HELLO WORLD";
+        foo.arrayOfArrayOfBools = new boolean[][] {{true, false, true}, {}, {}, {false}, {true}};
+        foo.bar = new Bar();
+        foo.data = new byte[4096];
+        foo.extraBars = new Bar[] {new Bar(), new Bar(), new Bar()};
+        foo.multiArrayOfStrings = new String[][][] {{{"a"}, {"b"}}, {{"c"}, {"d"}}};
+        foo.inputStreams = new ConsumerHandle[] {new HandleMock(), new HandleMock()};
+        foo.outputStreams = new ProducerHandle[] {new HandleMock()};
+        foo.source = new HandleMock();
+
+        Encoder encoder = Encoder.createPooled(null, 0);
+        foo.encode(encoder);
+        Message pooled = encoder.getMessage();
+        Message allocated = foo.serialize(null);
+        Assert.assertEquals(allocated.getData(), pooled.getData());
+        Assert.assertEquals(allocated.getHandles(), pooled.getHandles());
+        pooled.releasePooledBuffer();
+    }
+
+    /**
+     * Testing that a message with a header passes the ownership of its buffer on.
+     */
+    @Test
+    @SmallTest
+    public void testServiceMessageTakesOverBuffer() {
+        Message message = Struct.serializeWithHeaderPooled(new Rect(), null, new MessageHeader(0));
+        ServiceMessage withHeader = new ServiceMessage(message, new MessageHeader(0));
+        ByteBuffer buffer = message.getData();
+        message.releasePooledBuffer();
+        Assert.assertNotSame(buffer, EncoderBufferPool.acquire(buffer.capacity()));
+        withHeader.releasePooledBuffer();
+        Assert.assertSame(buffer, EncoderBufferPool.acquire(buffer.capacity()));
+    }
+
+    /**
+     * Testing that the public serialization doesn't hand out pooled buffers, since callers may
+     * keep the message after it has been written.
+     */
+    @Test
+    @SmallTest
+    public void testSerializeWithHeaderIsNotPooled() {
+        Message message = new Rect().serializeWithHeader(null, new MessageHeader(0));
+        ByteBuffer buffer = message.getData();
+        Assert.assertFalse(message.passPooledBuffer());
+        message.releasePooledBuffer();
+        Assert.assertNotSame(buffer, EncoderBufferPool.acquire(buffer.capacity()));
+    }
+
+    /**
+     * Testing that {@link Decoder#readIntsView} sees the same values as {@link Decoder#readInts}.
+     */
+    @Test
+    @SmallTest
+    public void testDecoderViewMatchesCopy() {
+        int[] values = new int[1024];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = i * 7919 - 1000000;
+        }
+        Encoder encoder = new Encoder(null, 0);
+        encoder.encode(new DataHeader(DataHeader.HEADER_SIZE + 8, 0));
+        encoder.encode(values, 8, BindingsHelper.NOTHING_NULLABLE,
+                BindingsHelper.UNSPECIFIED_ARRAY_LENGTH);
+        Message message = encoder.getMessage();
+
+        Decoder decoder = new Decoder(message);
+        decoder.readDataHeader();
+        int[] copy = decoder.readInts(
+                8, BindingsHelper.NOTHING_NULLABLE, BindingsHelper.UNSPECIFIED_ARRAY_LENGTH);
+        decoder = new Decoder(message);
+        decoder.readDataHeader();
+        IntBuffer view = decoder.readIntsView(
+                8, BindingsHelper.NOTHING_NULLABLE, BindingsHelper.UNSPECIFIED_ARRAY_LENGTH);
+        Assert.assertArrayEquals(values, copy);
+        Assert.assertEquals(values.length, view.remaining());
+        for (int i = 0; i < values.length; ++i) {
+            Assert.assertEquals(values[i], view.get(i));
+        }
+    }
+
+    /**
+     * Testing {@link Decoder#readIntsView} and {@link Decoder#readBytesView}.
+     */
+    @Test
+    @SmallTest
+    public void testDecoderViews() {
+        Encoder encoder = new Encoder(null, 0);
+        encoder.encode(new DataHeader(DataHeader.HEADER_SIZE + 16, 0));
+        encoder.encode(new int[] {1, -2, 3}, 8, BindingsHelper.NOTHING_NULLABLE,
+                BindingsHelper.UNSPECIFIED_ARRAY_LENGTH);
+        encoder.encode((byte[]) null, 16, BindingsHelper.ARRAY_NULLABLE,
+                BindingsHelper.UNSPECIFIED_ARRAY_LENGTH);
+        Message message = encoder.getMessage();
+
+        Decoder decoder = new Decoder(message);
+        decoder.readDataHeader();
+        IntBuffer ints = decoder.readIntsView(
+                8, BindingsHelper.NOTHING_NULLABLE, BindingsHelper.UNSPECIFIED_ARRAY_LENGTH);
+        Assert.assertEquals(3, ints.remaining());
+        Assert.assertEquals(1, ints.get(0));
+        Assert.assertEquals(-2, ints.get(1));
+        Assert.assertEquals(3, ints.get(2));
+        Assert.assertTrue(ints.isReadOnly());
+        Assert.assertNull(decoder.readBytesView(
+                16, BindingsHelper.ARRAY_NULLABLE, BindingsHelper.UNSPECIFIED_ARRAY_LENGTH));
+    }
+}
@@ -0,0 +1,70 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.mojo.bindings;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.base.test.BaseJUnit4ClassRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Testing {@link LongHashMap}.
+ */
+@RunWith(BaseJUnit4ClassRunner.class)
+public class LongHashMapTest {
+    @Test
+    @SmallTest
+    public void testPutGetRemove() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        Assert.assertNull(map.put(1, "a"));
+        Assert.assertNull(map.put(0, "zero"));
+        Assert.assertNull(map.put(Long.MIN_VALUE, "min"));
+        Assert.assertEquals("a", map.put(1, "b"));
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("b", map.get(1));
+        Assert.assertEquals("zero", map.get(0));
+        Assert.assertEquals("min", map.get(Long.MIN_VALUE));
+        Assert.assertNull(map.get(2));
+        Assert.assertTrue(map.containsKey(0));
+        Assert.assertFalse(map.containsKey(2));
+
+        Assert.assertEquals("b", map.remove(1));
+        Assert.assertNull(map.remove(1));
+        Assert.assertFalse(map.containsKey(1));
+        Assert.assertEquals(2, map.size());
+    }
+
+    /**
+     * Testing that the map behaves like a {@link HashMap} under a random mix of operations, which
+     * exercises growing and the removal of entries in the middle of probe sequences.
+     */
+    @Test
+    @SmallTest
+    public void testMatchesHashMap() {
+        Random random = new Random(42);
+        LongHashMap<Long> map = new LongHashMap<Long>();
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (int i = 0; i < 20000; ++i) {
+            // A small key range makes collisions and repeated keys likely.
+            long key = random.nextInt(512);
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            } else {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 512; ++key) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -13,15 +13,18 @@ import android.net.http.X509TrustManagerExtensions;
 import android.os.Build;
 import android.security.KeyChain;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.Pair;
 
 import org.chromium.base.ContextUtils;
+import org.chromium.base.VisibleForTesting;
 import org.chromium.base.annotations.JNINamespace;
 import org.chromium.base.metrics.RecordHistogram;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.MessageDigest;
@@ -195,9 +198,44 @@ public class X509Util {
 
     /**
      * Lock object used to synchronize all calls that modify or depend on the trust managers.
+     * Verifications only hold it to read the current trust managers, and run in parallel.
      */
     private static final Object sLock = new Object();
 
+    /**
+     * A verification result of the trust managers, and when it stops being valid.
+     */
+    private static final class CachedVerifyResult {
+        final AndroidCertVerifyResult mResult;
+        final long mExpirationTimeMs;
+
+        CachedVerifyResult(AndroidCertVerifyResult result, long expirationTimeMs) {
+            mResult = result;
+            mExpirationTimeMs = expirationTimeMs;
+        }
+    }
+
+    private static final int VERIFY_RESULT_CACHE_SIZE = 256;
+
+    /**
+     * The maximum time a verification result is reused, even if the certificates it was computed
+     * for are still valid.
+     */
+    private static final long VERIFY_RESULT_CACHE_LIFETIME_MS = 10 * 60 * 1000;
+
+    /**
+     * Results of the trust managers for recently verified chains, keyed by a hash of the chain,
+     * the auth type and the host. Cleared when the trust managers are reloaded.
+     */
+    private static final LruCache<String, CachedVerifyResult> sVerifyResultCache =
+            new LruCache<String, CachedVerifyResult>(VERIFY_RESULT_CACHE_SIZE);
+
+    /**
+     * Incremented each time the trust managers are reloaded, so that verifications that started
+     * with the previous trust managers don't add their results to the cache. Guarded by |sLock|.
+     */
+    private static int sTrustManagerGeneration;
+
     /**
      * Allow disabling recording histograms for the certificate changes. Java unit tests do not load
      * native libraries which prevent this from succeeding.
@@ -254,7 +292,8 @@ public class X509Util {
             sLoadedSystemKeyStore = true;
         }
         if (sSystemTrustAnchorCache == null) {
-            sSystemTrustAnchorCache = new HashSet<Pair<X500Principal, PublicKey>>();
+            sSystemTrustAnchorCache = Collections.synchronizedSet(
+                    new HashSet<Pair<X500Principal, PublicKey>>());
         }
         if (sTestKeyStore == null) {
             sTestKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
@@ -321,6 +360,7 @@ public class X509Util {
         assert Thread.holdsLock(sLock);
 
         sTestTrustManager = X509Util.createTrustManager(sTestKeyStore);
+        invalidateVerifyResultCacheLocked();
     }
 
     /**
@@ -332,10 +372,21 @@ public class X509Util {
             sDefaultTrustManager = null;
             sSystemTrustAnchorCache = null;
             ensureInitializedLocked();
+            invalidateVerifyResultCacheLocked();
         }
         nativeNotifyKeyChainChanged();
     }
 
+    /**
+     * Drops the cached verification results, which may not match the current trust managers.
+     */
+    private static void invalidateVerifyResultCacheLocked() {
+        assert Thread.holdsLock(sLock);
+
+        sTrustManagerGeneration++;
+        sVerifyResultCache.evictAll();
+    }
+
     /**
      * Convert a DER encoded certificate to an X509Certificate.
      */
@@ -387,11 +438,44 @@ public class X509Util {
         return new String(hexChars);
     }
 
-    private static boolean isKnownRoot(X509Certificate root)
-            throws NoSuchAlgorithmException, KeyStoreException {
-        assert Thread.holdsLock(sLock);
+    /**
+     * Returns the key of a verification in |sVerifyResultCache|: the SHA-256 digest of the DER
+     * certificates, the auth type and the host, encoded in hex.
+     */
+    private static String getVerifyResultCacheKey(byte[][] certChain, String authType,
+            String host) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (byte[] cert : certChain) {
+            // Prefix each certificate with its length, so that different chains can't produce the
+            // same input.
+            int length = cert == null ? -1 : cert.length;
+            digest.update(new byte[] {(byte) (length >> 24), (byte) (length >> 16),
+                    (byte) (length >> 8), (byte) length});
+            if (cert != null) digest.update(cert);
+        }
+        Charset utf8 = Charset.forName("UTF-8");
+        digest.update(String.valueOf(authType).getBytes(utf8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(host).getBytes(utf8));
+        byte[] hash = digest.digest();
+        char[] hexChars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hexChars[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hexChars[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hexChars);
+    }
 
-        // Could not find the system key store. Conservatively report false.
+    /**
+     * @param root The root of a verified chain.
+     * @param systemTrustAnchorCache The value of |sSystemTrustAnchorCache| when the verification
+     *         started. It is synchronized, so this can be called without |sLock|.
+     */
+    private static boolean isKnownRoot(X509Certificate root,
+            Set<Pair<X500Principal, PublicKey>> systemTrustAnchorCache)
+            throws NoSuchAlgorithmException, KeyStoreException {
+        // Could not find the system key store. Conservatively report false. The system key store
+        // and directory are never changed after ensureInitialized().
         if (sSystemKeyStore == null) return false;
 
         // Check the in-memory cache first; avoid decoding the anchor from disk
@@ -399,7 +483,7 @@ public class X509Util {
         Pair<X500Principal, PublicKey> key = new Pair<X500Principal, PublicKey>(
                 root.getSubjectX500Principal(), root.getPublicKey());
 
-        if (sSystemTrustAnchorCache.contains(key)) return true;
+        if (systemTrustAnchorCache.contains(key)) return true;
 
         // Note: It is not sufficient to call sSystemKeyStore.getCertificiateAlias. If the server
         // supplies a copy of a trust anchor, X509TrustManagerExtensions returns the server's
@@ -434,7 +518,7 @@ public class X509Util {
             X509Certificate anchorX509 = (X509Certificate) anchor;
             if (root.getSubjectX500Principal().equals(anchorX509.getSubjectX500Principal())
                     && root.getPublicKey().equals(anchorX509.getPublicKey())) {
-                sSystemTrustAnchorCache.add(key);
+                systemTrustAnchorCache.add(key);
                 return true;
             }
         }
@@ -492,6 +576,17 @@ public class X509Util {
             return new AndroidCertVerifyResult(CertVerifyStatusAndroid.FAILED);
         }
 
+        // Chains are often verified again, e.g. for each connection to the same host. Reuse the
+        // result of the trust managers, which is the expensive part, if it is still valid.
+        String cacheKey = getVerifyResultCacheKey(certChain, authType, host);
+        CachedVerifyResult cachedResult = sVerifyResultCache.get(cacheKey);
+        if (cachedResult != null) {
+            if (System.currentTimeMillis() < cachedResult.mExpirationTimeMs) {
+                return cachedResult.mResult;
+            }
+            sVerifyResultCache.remove(cacheKey);
+        }
+
         List<X509Certificate> serverCertificatesList = new ArrayList<X509Certificate>();
         try {
             serverCertificatesList.add(createCertificateFromBytes(certChain[0]));
@@ -526,39 +621,75 @@ public class X509Util {
             return new AndroidCertVerifyResult(CertVerifyStatusAndroid.FAILED);
         }
 
+        // Only hold the lock to read the trust managers, so that independent chains are verified
+        // in parallel. The trust managers are never modified once created, they are replaced.
+        X509TrustManagerImplementation defaultTrustManager;
+        X509TrustManagerImplementation testTrustManager;
+        Set<Pair<X500Principal, PublicKey>> systemTrustAnchorCache;
+        int trustManagerGeneration;
         synchronized (sLock) {
-            // If no trust manager was found, fail without crashing on the null pointer.
-            if (sDefaultTrustManager == null) {
-                return new AndroidCertVerifyResult(CertVerifyStatusAndroid.FAILED);
-            }
+            defaultTrustManager = sDefaultTrustManager;
+            testTrustManager = sTestTrustManager;
+            systemTrustAnchorCache = sSystemTrustAnchorCache;
+            trustManagerGeneration = sTrustManagerGeneration;
+        }
 
-            List<X509Certificate> verifiedChain;
+        // If no trust manager was found, fail without crashing on the null pointer.
+        if (defaultTrustManager == null) {
+            return new AndroidCertVerifyResult(CertVerifyStatusAndroid.FAILED);
+        }
+
+        // The result is only valid as long as the end-entity certificate is.
+        long expirationTimeMs = Math.min(
+                System.currentTimeMillis() + VERIFY_RESULT_CACHE_LIFETIME_MS,
+                serverCertificates[0].getNotAfter().getTime());
+        AndroidCertVerifyResult result;
+        List<X509Certificate> verifiedChain;
+        try {
+            verifiedChain = defaultTrustManager.checkServerTrusted(serverCertificates,
+                                                                   authType, host);
+        } catch (CertificateException eDefaultManager) {
             try {
-                verifiedChain = sDefaultTrustManager.checkServerTrusted(serverCertificates,
-                                                                        authType, host);
-            } catch (CertificateException eDefaultManager) {
-                try {
-                    verifiedChain = sTestTrustManager.checkServerTrusted(serverCertificates,
-                                                                         authType, host);
-                } catch (CertificateException eTestManager) {
-                    // Neither of the trust managers confirms the validity of the certificate chain,
-                    // log the error message returned by the system trust manager.
-                    Log.i(TAG, "Failed to validate the certificate chain, error: "
-                            + eDefaultManager.getMessage());
-                    return new AndroidCertVerifyResult(
-                            CertVerifyStatusAndroid.NO_TRUSTED_ROOT);
-                }
+                verifiedChain = testTrustManager.checkServerTrusted(serverCertificates,
+                                                                    authType, host);
+            } catch (CertificateException eTestManager) {
+                // Neither of the trust managers confirms the validity of the certificate chain,
+                // log the error message returned by the system trust manager.
+                Log.i(TAG, "Failed to validate the certificate chain, error: "
+                        + eDefaultManager.getMessage());
+                verifiedChain = null;
             }
+        }
 
+        if (verifiedChain == null) {
+            result = new AndroidCertVerifyResult(CertVerifyStatusAndroid.NO_TRUSTED_ROOT);
+        } else {
             boolean isIssuedByKnownRoot = false;
             if (verifiedChain.size() > 0) {
                 X509Certificate root = verifiedChain.get(verifiedChain.size() - 1);
-                isIssuedByKnownRoot = isKnownRoot(root);
+                isIssuedByKnownRoot = isKnownRoot(root, systemTrustAnchorCache);
             }
+            for (X509Certificate certificate : verifiedChain) {
+                expirationTimeMs =
+                        Math.min(expirationTimeMs, certificate.getNotAfter().getTime());
+            }
+            result = new AndroidCertVerifyResult(CertVerifyStatusAndroid.OK,
+                                                 isIssuedByKnownRoot, verifiedChain);
+        }
 
-            return new AndroidCertVerifyResult(CertVerifyStatusAndroid.OK,
-                                               isIssuedByKnownRoot, verifiedChain);
+        synchronized (sLock) {
+            // Don't cache a result of trust managers that have been replaced since.
+            if (trustManagerGeneration == sTrustManagerGeneration) {
+                sVerifyResultCache.put(
+                        cacheKey, new CachedVerifyResult(result, expirationTimeMs));
+            }
         }
+        return result;
+    }
+
+    @VisibleForTesting
+    static int getVerifyResultCacheSizeForTesting() {
+        return sVerifyResultCache.size();
     }
 
     public static void setDisableNativeCodeForTest(boolean disabled) {
@@ -73,5 +73,27 @@ public class X509UtilTest {
             Assert.fail("Could not clear test root certificates: " + e.toString());
         }
     }
-}
 
+    @Test
+    @MediumTest
+    public void testVerifyResultCacheInvalidatedOnTrustChange()
+            throws GeneralSecurityException, IOException {
+        byte[][] chain = {CertTestUtil.pemToDer(CERTS_DIRECTORY + OK_CERT)};
+        X509Util.addTestRootCertificate(CertTestUtil.pemToDer(CERTS_DIRECTORY + GOOD_ROOT_CA));
+
+        AndroidCertVerifyResult result = X509Util.verifyServerCertificates(chain, "RSA", "host");
+        Assert.assertEquals(CertVerifyStatusAndroid.OK, result.getStatus());
+        int cacheSize = X509Util.getVerifyResultCacheSizeForTesting();
+        Assert.assertTrue(cacheSize > 0);
+
+        // Verifying the same chain again reuses the cached result.
+        Assert.assertSame(result, X509Util.verifyServerCertificates(chain, "RSA", "host"));
+        Assert.assertEquals(cacheSize, X509Util.getVerifyResultCacheSizeForTesting());
+
+        // Removing the root drops the cached results, and the chain is no longer trusted.
+        X509Util.clearTestRootCertificates();
+        Assert.assertEquals(0, X509Util.getVerifyResultCacheSizeForTesting());
+        Assert.assertEquals(CertVerifyStatusAndroid.NO_TRUSTED_ROOT,
+                X509Util.verifyServerCertificates(chain, "RSA", "host").getStatus());
+    }
+}
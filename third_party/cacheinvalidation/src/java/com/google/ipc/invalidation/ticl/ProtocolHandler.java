@@ -65,6 +65,7 @@ import com.google.ipc.invalidation.util.ProtoWrapper;
 import com.google.ipc.invalidation.util.ProtoWrapper.ValidationException;
 import com.google.ipc.invalidation.util.Smearer;
 import com.google.ipc.invalidation.util.TextBuilder;
+import com.google.ipc.invalidation.util.TypedUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -92,6 +93,25 @@ import java.util.Set;
 class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
   /** Class that batches messages to the server. */
   private static class Batcher implements Marshallable<BatcherState> {
+    /**
+     * Number of pending registrations and acks at which the batch is full and is sent without
+     * waiting for the batching delay.
+     */
+    private static final int MAX_BATCH_OPERATIONS = 500;
+
+    /**
+     * Estimated size in bytes of the pending registrations and acks at which the batch is full, as
+     * above.
+     */
+    private static final int MAX_BATCH_BYTES = 16 * 1024;
+
+    /**
+     * Estimated encoded size of a registration, or an ack, without the name of its object id and
+     * the payload of the acked invalidation: tags, lengths, source, op type, version, etc.
+     */
+    private static final int REGISTRATION_OVERHEAD_BYTES = 16;
+    private static final int ACK_OVERHEAD_BYTES = 32;
+
     /** Statistics to be updated when messages are created. */
     private final Statistics statistics;
 
@@ -101,9 +121,23 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
     /** Set of pending registrations stored as a map for overriding later operations. */
     private final Map<ObjectIdP, Integer> pendingRegistrations = new HashMap<ObjectIdP, Integer>();
 
-    /** Set of pending invalidation acks. */
+    /**
+     * Pending acks of restarted, known-version invalidations, by object id. Such an ack implicitly
+     * acks the earlier invalidations of its object (see {@link AckCache}), so only the one with the
+     * highest version is kept.
+     */
+    private final Map<ObjectIdP, InvalidationP> pendingRestartedAcks =
+        new HashMap<ObjectIdP, InvalidationP>();
+
+    /** Set of the other pending invalidation acks. */
     private final Set<InvalidationP> pendingAckedInvalidations = new HashSet<InvalidationP>();
 
+    /** Estimated encoded size of the pending registrations. */
+    private int pendingRegistrationBytes = 0;
+
+    /** Estimated encoded size of the pending acks. */
+    private int pendingAckBytes = 0;
+
     /** Set of pending registration sub trees for registration sync. */
     private final Set<RegistrationSubtree> pendingRegSubtrees = new HashSet<RegistrationSubtree>();
 
@@ -123,13 +157,13 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
     Batcher(SystemResources resources, Statistics statistics, BatcherState marshalledState) {
       this(resources, statistics);
       for (ObjectIdP registration : marshalledState.getRegistration()) {
-        pendingRegistrations.put(registration, RegistrationP.OpType.REGISTER);
+        addRegistration(registration, RegistrationP.OpType.REGISTER);
       }
       for (ObjectIdP unregistration : marshalledState.getUnregistration()) {
-        pendingRegistrations.put(unregistration, RegistrationP.OpType.UNREGISTER);
+        addRegistration(unregistration, RegistrationP.OpType.UNREGISTER);
       }
       for (InvalidationP ack : marshalledState.getAcknowledgement()) {
-        pendingAckedInvalidations.add(ack);
+        addAck(ack);
       }
       for (RegistrationSubtree subtree : marshalledState.getRegistrationSubtree()) {
         pendingRegSubtrees.add(subtree);
@@ -152,12 +186,55 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
 
     /** Adds a registration on {@code oid} of {@code opType} to the registrations to be sent. */
     void addRegistration(ObjectIdP oid, Integer opType) {
-      pendingRegistrations.put(oid, opType);
+      if (pendingRegistrations.put(oid, opType) == null) {
+        pendingRegistrationBytes += oid.getName().size() + REGISTRATION_OVERHEAD_BYTES;
+      }
     }
 
-    /** Adds {@code ack} to the set of acknowledgements to be sent. */
+    /**
+     * Adds {@code ack} to the set of acknowledgements to be sent, unless it is implied by a pending
+     * ack of a restarted invalidation with the same or a higher version.
+     */
     void addAck(InvalidationP ack) {
-      pendingAckedInvalidations.add(ack);
+      if (ack.getIsTrickleRestart() && ack.getIsKnownVersion()) {
+        InvalidationP pendingAck = TypedUtil.mapGet(pendingRestartedAcks, ack.getObjectId());
+        if (pendingAck != null) {
+          if (pendingAck.getVersion() >= ack.getVersion()) {
+            return;
+          }
+          pendingAckBytes -= getAckSize(pendingAck);
+        }
+        pendingRestartedAcks.put(ack.getObjectId(), ack);
+        pendingAckBytes += getAckSize(ack);
+      } else if (pendingAckedInvalidations.add(ack)) {
+        pendingAckBytes += getAckSize(ack);
+      }
+    }
+
+    /** Returns the estimated encoded size of {@code ack}. */
+    private static int getAckSize(InvalidationP ack) {
+      return ack.getObjectId().getName().size() + ack.getPayload().size() + ACK_OVERHEAD_BYTES;
+    }
+
+    /** Returns the number of pending registrations and acks. */
+    private int getPendingOperationCount() {
+      return pendingRegistrations.size() + pendingRestartedAcks.size()
+          + pendingAckedInvalidations.size();
+    }
+
+    /**
+     * Returns whether enough registrations and acks are pending that they should be sent without
+     * waiting for the batching delay.
+     */
+    boolean isFull() {
+      return (getPendingOperationCount() >= MAX_BATCH_OPERATIONS)
+          || (pendingRegistrationBytes + pendingAckBytes >= MAX_BATCH_BYTES);
+    }
+
+    /** Returns whether there is any data to be sent. */
+    boolean hasPendingData() {
+      return (pendingInitializeMessage != null) || (pendingInfoMessage != null)
+          || (getPendingOperationCount() > 0) || !pendingRegSubtrees.isEmpty();
     }
 
     /** Adds {@code subtree} to the set of registration subtrees to be sent. */
@@ -198,9 +275,10 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
       }
 
       // Check for pending batched operations and add to message builder if needed.
+      statistics.recordBatchOperationCount(getPendingOperationCount());
 
       // Add reg, acks, reg subtrees - clear them after adding.
-      if (!pendingAckedInvalidations.isEmpty()) {
+      if (!pendingAckedInvalidations.isEmpty() || !pendingRestartedAcks.isEmpty()) {
         invalidationAckMessage = createInvalidationAckMessage();
         statistics.recordSentMessage(SentMessageType.INVALIDATION_ACK);
       } else {
@@ -256,6 +334,7 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
         pendingRegistrations.add(RegistrationP.create(entry.getKey(), entry.getValue()));
       }
       this.pendingRegistrations.clear();
+      pendingRegistrationBytes = 0;
       return RegistrationMessage.create(pendingRegistrations);
     }
 
@@ -263,16 +342,27 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
      * Creates an invalidation ack message based on acks from {@code pendingAckedInvalidations} and
      * returns it.
      * <p>
-     * REQUIRES: pendingAckedInvalidations.size() > 0
+     * REQUIRES: pendingAckedInvalidations.size() + pendingRestartedAcks.size() > 0
      */
     private InvalidationMessage createInvalidationAckMessage() {
-      Preconditions.checkState(!pendingAckedInvalidations.isEmpty());
-      InvalidationMessage ackMessage =
-          InvalidationMessage.create(new ArrayList<InvalidationP>(pendingAckedInvalidations));
+      Preconditions.checkState(
+          !pendingAckedInvalidations.isEmpty() || !pendingRestartedAcks.isEmpty());
+      InvalidationMessage ackMessage = InvalidationMessage.create(getPendingAcks());
       pendingAckedInvalidations.clear();
+      pendingRestartedAcks.clear();
+      pendingAckBytes = 0;
       return ackMessage;
     }
 
+    /** Returns all the pending acks. */
+    private List<InvalidationP> getPendingAcks() {
+      List<InvalidationP> acks = new ArrayList<InvalidationP>(
+          pendingAckedInvalidations.size() + pendingRestartedAcks.size());
+      acks.addAll(pendingAckedInvalidations);
+      acks.addAll(pendingRestartedAcks.values());
+      return acks;
+    }
+
     @Override
     public BatcherState marshal() {
       // Marshall (un)registrations.
@@ -293,7 +383,7 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
             throw new IllegalArgumentException(opType.toString());
         }
       }
-      return BatcherState.create(registrations, unregistrations, pendingAckedInvalidations,
+      return BatcherState.create(registrations, unregistrations, getPendingAcks(),
           pendingRegSubtrees, pendingInitializeMessage, pendingInfoMessage);
     }
   }
@@ -582,6 +672,8 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
     Preconditions.checkState(internalScheduler.isRunningOnThread(), "Not on internal thread");
     for (ObjectIdP objectId : objectIds) {
       batcher.addRegistration(objectId, regOpType);
+      // Check after each registration, so that a large collection is split into full batches.
+      sendMessageToServerIfBatchIsFull();
     }
     batchingTask.ensureScheduled("Send-registrations");
   }
@@ -594,6 +686,7 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
     logger.fine("Sending ack for invalidation %s", invalidation);
     batcher.addAck(invalidation);
     batchingTask.ensureScheduled("Send-Ack");
+    sendMessageToServerIfBatchIsFull();
   }
 
   /**
@@ -608,9 +701,29 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
     batchingTask.ensureScheduled("Send-reg-sync");
   }
 
+  /**
+   * Sends the pending data to the server without waiting for the batching task if the batch is
+   * full, e.g., during a registration storm. The batching task then sends the data added after
+   * this message, if any. Does nothing if no message can be sent at this time, in which case the
+   * batching task sends the data as usual.
+   */
+  private void sendMessageToServerIfBatchIsFull() {
+    if (batcher.isFull() && (nextMessageSendTimeMs <= internalScheduler.getCurrentTimeMs())
+        && (listener.getClientToken() != null)) {
+      logger.fine("Batch is full, sending it without waiting for the batching delay");
+      sendMessageToServer();
+    }
+  }
+
   /** Sends pending data to the server (e.g., registrations, acks, registration sync messages). */
   void sendMessageToServer() {
     Preconditions.checkState(internalScheduler.isRunningOnThread(), "Not on internal thread");
+    if (!batcher.hasPendingData()) {
+      // The pending data was already sent since the batching task was scheduled, because the batch
+      // was full.
+      logger.fine("No pending data to send to server");
+      return;
+    }
     if (nextMessageSendTimeMs > internalScheduler.getCurrentTimeMs()) {
       logger.warning("In quiet period: not sending message to server: %s > %s",
           nextMessageSendTimeMs, internalScheduler.getCurrentTimeMs());
@@ -635,7 +748,9 @@ class ProtocolHandler implements Marshallable<ProtocolHandlerState> {
 
     statistics.recordSentMessage(SentMessageType.TOTAL);
     logger.fine("Sending message to server: %s", message);
-    network.sendMessage(message.toByteArray());
+    byte[] messageBytes = message.toByteArray();
+    statistics.recordSentMessageSize(messageBytes.length);
+    network.sendMessage(messageBytes);
 
     // Record that the message was sent. We're invoking the listener directly, rather than
     // scheduling a new work unit to do it. It would be safer to do a schedule, but that's hard to
@@ -30,6 +30,12 @@ import java.util.TreeMap;
 
 /**
  * Simple, map-based implementation of {@link DigestStore}.
+ * <p>
+ * The digest is the digest of the concatenation of all the object id digests in sorted order, as
+ * computed by the server, so it can't be updated in place when a registration is added or
+ * removed. It is instead recomputed lazily, the first time it is requested after a change, so
+ * that registering many objects one at a time costs a single digest computation per message sent
+ * to the server rather than one per registration.
  *
  */
 class SimpleRegistrationStore extends InternalBase implements DigestStore<ObjectIdP> {
@@ -40,19 +46,21 @@ class SimpleRegistrationStore extends InternalBase implements DigestStore<Object
   /** The function used to compute digests of objects. */
   private final DigestFunction digestFunction;
 
-  /** The memoized digest of all objects in registrations. */
+  /**
+   * The memoized digest of all objects in registrations, or {@code null} if registrations changed
+   * since it was computed.
+   */
   private Bytes digest;
 
   SimpleRegistrationStore(DigestFunction digestFunction) {
     this.digestFunction = digestFunction;
-    recomputeDigest();
   }
 
   @Override
   public boolean add(ObjectIdP oid) {
     if (registrations.put(ObjectIdDigestUtils.getDigest(oid.getSource(),
         oid.getName().getByteArray(), digestFunction), oid) == null) {
-      recomputeDigest();
+      digest = null;
       return true;
     }
     return false;
@@ -69,8 +77,8 @@ class SimpleRegistrationStore extends InternalBase implements DigestStore<Object
       }
     }
     if (!addedOids.isEmpty()) {
-      // Only recompute the digest if we made changes.
-      recomputeDigest();
+      // Only invalidate the digest if we made changes.
+      digest = null;
     }
     return addedOids;
   }
@@ -79,7 +87,7 @@ class SimpleRegistrationStore extends InternalBase implements DigestStore<Object
   public boolean remove(ObjectIdP oid) {
     if (registrations.remove(ObjectIdDigestUtils.getDigest(oid.getSource(),
         oid.getName().getByteArray(), digestFunction)) != null) {
-      recomputeDigest();
+      digest = null;
       return true;
     }
     return false;
@@ -95,8 +103,8 @@ class SimpleRegistrationStore extends InternalBase implements DigestStore<Object
       }
     }
     if (!removedOids.isEmpty()) {
-      // Only recompute the digest if we made changes.
-      recomputeDigest();
+      // Only invalidate the digest if we made changes.
+      digest = null;
     }
     return removedOids;
   }
@@ -105,7 +113,7 @@ class SimpleRegistrationStore extends InternalBase implements DigestStore<Object
   public Collection<ObjectIdP> removeAll() {
     Collection<ObjectIdP> result = new ArrayList<ObjectIdP>(registrations.values());
     registrations.clear();
-    recomputeDigest();
+    digest = null;
     return result;
   }
 
@@ -122,7 +130,7 @@ class SimpleRegistrationStore extends InternalBase implements DigestStore<Object
 
   @Override
   public byte[] getDigest() {
-    return digest.getByteArray();
+    return getDigestBytes().getByteArray();
   }
 
   @Override
@@ -131,9 +139,12 @@ class SimpleRegistrationStore extends InternalBase implements DigestStore<Object
     return registrations.values();
   }
 
-  /** Recomputes the digests over all objects and sets {@code this.digest}. */
-  private void recomputeDigest() {
-    this.digest = ObjectIdDigestUtils.getDigest(registrations.keySet(), digestFunction);
+  /** Returns the digest over all objects, recomputing it if registrations changed. */
+  private Bytes getDigestBytes() {
+    if (digest == null) {
+      digest = ObjectIdDigestUtils.getDigest(registrations.keySet(), digestFunction);
+    }
+    return digest;
   }
 
   @Override
@@ -142,7 +153,7 @@ class SimpleRegistrationStore extends InternalBase implements DigestStore<Object
         .append("<SimpleRegistrationStore: registrations=")
         .append(registrations.values())
         .append(", digest=")
-        .append(digest)
+        .append(getDigestBytes())
         .append(">");
   }
 }
@@ -127,6 +127,28 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
     TOKEN_TRANSIENT_FAILURE,
   }
 
+  /**
+   * Buckets of the number of registrations and acks batched in a message sent to the server. Used
+   * as a histogram of the batch sizes.
+   */
+  public enum BatchOperationCount {
+    NONE,
+    ONE,
+    UP_TO_10,
+    UP_TO_100,
+    UP_TO_500,
+    OVER_500,
+  }
+
+  /** Buckets of the size of a message sent to the server. Used as a histogram of the sizes. */
+  public enum SentMessageSize {
+    UP_TO_256_BYTES,
+    UP_TO_1_KB,
+    UP_TO_4_KB,
+    UP_TO_16_KB,
+    OVER_16_KB,
+  }
+
   // Names of statistics types. Do not rely on reflection to determine type names because Proguard
   // may change them for Android clients.
   private static final String SENT_MESSAGE_TYPE_NAME = "SentMessageType";
@@ -134,6 +156,8 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
   private static final String RECEIVED_MESSAGE_TYPE_NAME = "ReceivedMessageType";
   private static final String LISTENER_EVENT_TYPE_NAME = "ListenerEventType";
   private static final String CLIENT_ERROR_TYPE_NAME = "ClientErrorType";
+  private static final String BATCH_OPERATION_COUNT_NAME = "BatchOperationCount";
+  private static final String SENT_MESSAGE_SIZE_NAME = "SentMessageSize";
 
   // Map from stats enum names to values. Used in place of Enum.valueOf() because this method
   // invokes Enum.values() via reflection, and that method may be renamed by Proguard.
@@ -147,6 +171,10 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
       createValueOfMap(ListenerEventType.values());
   private static final Map<String, ClientErrorType> CLIENT_ERROR_TYPE_NAME_TO_VALUE_MAP =
       createValueOfMap(ClientErrorType.values());
+  private static final Map<String, BatchOperationCount> BATCH_OPERATION_COUNT_NAME_TO_VALUE_MAP =
+      createValueOfMap(BatchOperationCount.values());
+  private static final Map<String, SentMessageSize> SENT_MESSAGE_SIZE_NAME_TO_VALUE_MAP =
+      createValueOfMap(SentMessageSize.values());
 
   // Maps for each type of Statistic to keep track of how many times each event has occurred.
 
@@ -160,6 +188,10 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
       new HashMap<ListenerEventType, Integer>();
   private final Map<ClientErrorType, Integer> clientErrorTypes =
       new HashMap<ClientErrorType, Integer>();
+  private final Map<BatchOperationCount, Integer> batchOperationCounts =
+      new HashMap<BatchOperationCount, Integer>();
+  private final Map<SentMessageSize, Integer> sentMessageSizes =
+      new HashMap<SentMessageSize, Integer>();
 
   public Statistics() {
     initializeMap(sentMessageTypes, SentMessageType.values());
@@ -167,6 +199,8 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
     initializeMap(incomingOperationTypes, IncomingOperationType.values());
     initializeMap(listenerEventTypes, ListenerEventType.values());
     initializeMap(clientErrorTypes, ClientErrorType.values());
+    initializeMap(batchOperationCounts, BatchOperationCount.values());
+    initializeMap(sentMessageSizes, SentMessageSize.values());
   }
 
   /** Returns a copy of this. */
@@ -177,6 +211,8 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
     statistics.incomingOperationTypes.putAll(incomingOperationTypes);
     statistics.listenerEventTypes.putAll(listenerEventTypes);
     statistics.clientErrorTypes.putAll(clientErrorTypes);
+    statistics.batchOperationCounts.putAll(batchOperationCounts);
+    statistics.sentMessageSizes.putAll(sentMessageSizes);
     return statistics;
   }
 
@@ -223,6 +259,45 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
     incrementValue(clientErrorTypes, clientErrorType);
   }
 
+  /**
+   * Records the fact that a message batching {@code operationCount} registrations and acks has
+   * been sent.
+   */
+  public void recordBatchOperationCount(int operationCount) {
+    BatchOperationCount bucket;
+    if (operationCount == 0) {
+      bucket = BatchOperationCount.NONE;
+    } else if (operationCount == 1) {
+      bucket = BatchOperationCount.ONE;
+    } else if (operationCount <= 10) {
+      bucket = BatchOperationCount.UP_TO_10;
+    } else if (operationCount <= 100) {
+      bucket = BatchOperationCount.UP_TO_100;
+    } else if (operationCount <= 500) {
+      bucket = BatchOperationCount.UP_TO_500;
+    } else {
+      bucket = BatchOperationCount.OVER_500;
+    }
+    incrementValue(batchOperationCounts, bucket);
+  }
+
+  /** Records the fact that a message of {@code sizeBytes} bytes has been sent. */
+  public void recordSentMessageSize(int sizeBytes) {
+    SentMessageSize bucket;
+    if (sizeBytes <= 256) {
+      bucket = SentMessageSize.UP_TO_256_BYTES;
+    } else if (sizeBytes <= 1024) {
+      bucket = SentMessageSize.UP_TO_1_KB;
+    } else if (sizeBytes <= 4 * 1024) {
+      bucket = SentMessageSize.UP_TO_4_KB;
+    } else if (sizeBytes <= 16 * 1024) {
+      bucket = SentMessageSize.UP_TO_16_KB;
+    } else {
+      bucket = SentMessageSize.OVER_16_KB;
+    }
+    incrementValue(sentMessageSizes, bucket);
+  }
+
   /**
    * Modifies {@code performanceCounters} to contain all the statistics that are non-zero. Each pair
    * has the name of the statistic event and the number of times that event has occurred since the
@@ -237,6 +312,9 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
         INCOMING_OPERATION_TYPE_NAME);
     fillWithNonZeroStatistics(listenerEventTypes, performanceCounters, LISTENER_EVENT_TYPE_NAME);
     fillWithNonZeroStatistics(clientErrorTypes, performanceCounters, CLIENT_ERROR_TYPE_NAME);
+    fillWithNonZeroStatistics(batchOperationCounts, performanceCounters,
+        BATCH_OPERATION_COUNT_NAME);
+    fillWithNonZeroStatistics(sentMessageSizes, performanceCounters, SENT_MESSAGE_SIZE_NAME);
   }
 
   /** Modifies {@code result} to contain those statistics from {@code map} whose value is > 0. */
@@ -328,6 +406,12 @@ public class Statistics extends InternalBase implements Marshallable<StatisticsS
       } else if (TypedUtil.<String>equals(className,  CLIENT_ERROR_TYPE_NAME)) {
         incrementPerformanceCounterValue(logger, CLIENT_ERROR_TYPE_NAME_TO_VALUE_MAP,
             statistics.clientErrorTypes, fieldName, counterValue);
+      } else if (TypedUtil.<String>equals(className, BATCH_OPERATION_COUNT_NAME)) {
+        incrementPerformanceCounterValue(logger, BATCH_OPERATION_COUNT_NAME_TO_VALUE_MAP,
+            statistics.batchOperationCounts, fieldName, counterValue);
+      } else if (TypedUtil.<String>equals(className, SENT_MESSAGE_SIZE_NAME)) {
+        incrementPerformanceCounterValue(logger, SENT_MESSAGE_SIZE_NAME_TO_VALUE_MAP,
+            statistics.sentMessageSizes, fieldName, counterValue);
       } else {
         logger.warning("Skipping unknown enum class name %s", className);
       }
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ipc.invalidation.ticl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.ipc.invalidation.external.client.SystemResources;
+import com.google.ipc.invalidation.external.client.SystemResources.Logger;
+import com.google.ipc.invalidation.external.client.SystemResources.NetworkChannel;
+import com.google.ipc.invalidation.external.client.SystemResources.Scheduler;
+import com.google.ipc.invalidation.external.client.SystemResourcesBuilder;
+import com.google.ipc.invalidation.ticl.InvalidationClientCore.BatchingTask;
+import com.google.ipc.invalidation.ticl.proto.ClientProtocol.ClientToServerMessage;
+import com.google.ipc.invalidation.ticl.proto.ClientProtocol.InvalidationP;
+import com.google.ipc.invalidation.ticl.proto.ClientProtocol.ObjectIdP;
+import com.google.ipc.invalidation.ticl.proto.ClientProtocol.RegistrationP;
+import com.google.ipc.invalidation.ticl.proto.ClientProtocol.RegistrationSummary;
+import com.google.ipc.invalidation.util.Bytes;
+import com.google.ipc.invalidation.util.ProtoWrapper.ValidationException;
+import com.google.ipc.invalidation.util.Smearer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Tests for the batching of registrations and acks in {@link ProtocolHandler}: a full batch is
+ * sent without waiting for the batching task, and acks implied by others are not sent.
+ *
+ */
+public class ProtocolHandlerTest {
+  /** Number of registrations and acks in a full batch, see {@code Batcher}. */
+  private static final int MAX_BATCH_OPERATIONS = 500;
+
+  private static final int CLIENT_TYPE = 1;
+  private static final int BATCHING_DELAY_MS = 200;
+
+  /** Scheduler that runs everything on the test thread, when {@link #runTasks} is called. */
+  private static class TestScheduler implements Scheduler {
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    @Override
+    public void schedule(int delayMs, Runnable runnable) {
+      tasks.add(runnable);
+    }
+
+    @Override
+    public boolean isRunningOnThread() {
+      return true;
+    }
+
+    @Override
+    public long getCurrentTimeMs() {
+      return 1000;
+    }
+
+    @Override
+    public void setSystemResources(SystemResources resources) {}
+
+    /** Runs the scheduled tasks, such as the batching task. */
+    void runTasks() {
+      List<Runnable> tasksToRun = new ArrayList<Runnable>(tasks);
+      tasks.clear();
+      for (Runnable task : tasksToRun) {
+        task.run();
+      }
+    }
+  }
+
+  /** Network channel that keeps the messages sent to the server. */
+  private static class TestNetwork implements NetworkChannel {
+    final List<ClientToServerMessage> sentMessages = new ArrayList<ClientToServerMessage>();
+
+    @Override
+    public void sendMessage(byte[] outgoingMessage) {
+      try {
+        sentMessages.add(ClientToServerMessage.parseFrom(outgoingMessage));
+      } catch (ValidationException exception) {
+        throw new AssertionError(exception);
+      }
+    }
+
+    @Override
+    public void setListener(NetworkListener listener) {}
+
+    @Override
+    public void setSystemResources(SystemResources resources) {}
+  }
+
+  /** Logger that drops everything. */
+  private static class TestLogger implements Logger {
+    @Override
+    public void log(Level level, String template, Object... args) {}
+
+    @Override
+    public boolean isLoggable(Level level) {
+      return false;
+    }
+
+    @Override
+    public void severe(String template, Object... args) {}
+
+    @Override
+    public void warning(String template, Object... args) {}
+
+    @Override
+    public void info(String template, Object... args) {}
+
+    @Override
+    public void fine(String template, Object... args) {}
+
+    @Override
+    public void setSystemResources(SystemResources resources) {}
+  }
+
+  private final TestScheduler scheduler = new TestScheduler();
+  private final TestNetwork network = new TestNetwork();
+
+  /** The client token, or {@code null} if the client has none. */
+  private Bytes clientToken = Bytes.fromUtf8Encoding("token");
+
+  private ProtocolHandler protocolHandler;
+  private BatchingTask batchingTask;
+
+  @Before
+  public void setUp() {
+    SystemResources resources = new SystemResourcesBuilder(new TestLogger(), scheduler, scheduler,
+        network, new MemoryStorageImpl()).setPlatform("test").build();
+    ProtocolHandler.ProtocolListener listener = new ProtocolHandler.ProtocolListener() {
+      @Override
+      public void handleMessageSent() {}
+
+      @Override
+      public RegistrationSummary getRegistrationSummary() {
+        return RegistrationSummary.create(0, Bytes.EMPTY_BYTES);
+      }
+
+      @Override
+      public Bytes getClientToken() {
+        return clientToken;
+      }
+    };
+    protocolHandler = new ProtocolHandler(ProtocolHandler.createConfigForTest(), resources,
+        new Smearer(new Random(0), 0), new Statistics(), CLIENT_TYPE, "test", listener, null);
+    batchingTask = new BatchingTask(protocolHandler, resources, new Smearer(new Random(0), 0),
+        BATCHING_DELAY_MS);
+  }
+
+  private static ObjectIdP createObjectId(int i) {
+    return ObjectIdP.create(1004, Bytes.fromUtf8Encoding("OBJECT_" + i));
+  }
+
+  private static List<ObjectIdP> createObjectIds(int count) {
+    List<ObjectIdP> oids = new ArrayList<ObjectIdP>(count);
+    for (int i = 0; i < count; i++) {
+      oids.add(createObjectId(i));
+    }
+    return oids;
+  }
+
+  private static InvalidationP createAck(int i, long version, boolean isTrickleRestart) {
+    return InvalidationP.create(createObjectId(i), true, version, null, isTrickleRestart);
+  }
+
+  private static int getRegistrationCount(ClientToServerMessage message) {
+    return (message.getNullableRegistrationMessage() == null) ? 0
+        : message.getNullableRegistrationMessage().getRegistration().size();
+  }
+
+  private static List<InvalidationP> getAcks(ClientToServerMessage message) {
+    return (message.getNullableInvalidationAckMessage() == null) ? new ArrayList<InvalidationP>()
+        : message.getNullableInvalidationAckMessage().getInvalidation();
+  }
+
+  @Test
+  public void testRegistrationsBatchedUntilFull() {
+    protocolHandler.sendRegistrations(createObjectIds(MAX_BATCH_OPERATIONS - 1),
+        RegistrationP.OpType.REGISTER, batchingTask);
+    assertTrue(network.sentMessages.isEmpty());
+
+    scheduler.runTasks();
+    assertEquals(1, network.sentMessages.size());
+    assertEquals(MAX_BATCH_OPERATIONS - 1, getRegistrationCount(network.sentMessages.get(0)));
+  }
+
+  @Test
+  public void testLargeRegistrationCollectionSplitIntoFullBatches() {
+    int count = 2 * MAX_BATCH_OPERATIONS + 100;
+    protocolHandler.sendRegistrations(createObjectIds(count), RegistrationP.OpType.REGISTER,
+        batchingTask);
+
+    // Each batch is sent as soon as it is full, while the collection is being added.
+    assertEquals(2, network.sentMessages.size());
+    assertEquals(MAX_BATCH_OPERATIONS, getRegistrationCount(network.sentMessages.get(0)));
+    assertEquals(MAX_BATCH_OPERATIONS, getRegistrationCount(network.sentMessages.get(1)));
+
+    // The batching task sends the rest.
+    scheduler.runTasks();
+    assertEquals(3, network.sentMessages.size());
+    assertEquals(100, getRegistrationCount(network.sentMessages.get(2)));
+
+    // Every registration was sent once.
+    Set<ObjectIdP> sentOids = new HashSet<ObjectIdP>();
+    for (ClientToServerMessage message : network.sentMessages) {
+      for (RegistrationP registration :
+          message.getNullableRegistrationMessage().getRegistration()) {
+        assertTrue(sentOids.add(registration.getObjectId()));
+      }
+    }
+    assertEquals(count, sentOids.size());
+  }
+
+  @Test
+  public void testFullBatchNotSentWithoutToken() {
+    clientToken = null;
+    protocolHandler.sendRegistrations(createObjectIds(2 * MAX_BATCH_OPERATIONS),
+        RegistrationP.OpType.REGISTER, batchingTask);
+    assertTrue(network.sentMessages.isEmpty());
+  }
+
+  @Test
+  public void testFullAckBatchSentEarly() {
+    // The batch is full when either the number or the estimated size of the acks is too large.
+    int ackCount = 0;
+    while (network.sentMessages.isEmpty()) {
+      assertTrue(ackCount < MAX_BATCH_OPERATIONS);
+      protocolHandler.sendInvalidationAck(createAck(ackCount++, 1, false), batchingTask);
+    }
+    assertEquals(1, network.sentMessages.size());
+    assertEquals(ackCount, getAcks(network.sentMessages.get(0)).size());
+
+    // The batching task finds nothing left to send.
+    scheduler.runTasks();
+    assertEquals(1, network.sentMessages.size());
+  }
+
+  @Test
+  public void testRestartedAcksCoalesced() {
+    // Acks of restarted invalidations of an object imply the ones with lower versions.
+    protocolHandler.sendInvalidationAck(createAck(1, 3, true), batchingTask);
+    protocolHandler.sendInvalidationAck(createAck(1, 5, true), batchingTask);
+    protocolHandler.sendInvalidationAck(createAck(1, 4, true), batchingTask);
+
+    // Other acks are only deduplicated.
+    protocolHandler.sendInvalidationAck(createAck(2, 3, false), batchingTask);
+    protocolHandler.sendInvalidationAck(createAck(2, 5, false), batchingTask);
+    protocolHandler.sendInvalidationAck(createAck(2, 5, false), batchingTask);
+
+    scheduler.runTasks();
+    assertEquals(1, network.sentMessages.size());
+    Set<InvalidationP> expectedAcks = new HashSet<InvalidationP>();
+    expectedAcks.add(createAck(1, 5, true));
+    expectedAcks.add(createAck(2, 3, false));
+    expectedAcks.add(createAck(2, 5, false));
+    List<InvalidationP> acks = getAcks(network.sentMessages.get(0));
+    assertEquals(expectedAcks.size(), acks.size());
+    assertEquals(expectedAcks, new HashSet<InvalidationP>(acks));
+    assertNull(network.sentMessages.get(0).getNullableRegistrationMessage());
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ipc.invalidation.ticl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.ipc.invalidation.common.ObjectIdDigestUtils;
+import com.google.ipc.invalidation.ticl.proto.ClientProtocol.ObjectIdP;
+import com.google.ipc.invalidation.util.Bytes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link SimpleRegistrationStore}, checking that the lazily recomputed digest always
+ * equals the digest computed from scratch over the registered objects.
+ *
+ */
+public class SimpleRegistrationStoreTest {
+  private final ObjectIdDigestUtils.Sha1DigestFunction digestFunction =
+      new ObjectIdDigestUtils.Sha1DigestFunction();
+  private final SimpleRegistrationStore store = new SimpleRegistrationStore(digestFunction);
+
+  /** The objects expected to be registered in {@link #store}. */
+  private final List<ObjectIdP> registered = new ArrayList<ObjectIdP>();
+
+  private static ObjectIdP createObjectId(int i) {
+    return ObjectIdP.create(1004, Bytes.fromUtf8Encoding("OBJECT_" + i));
+  }
+
+  /** Returns the digest of {@link #registered}, computed from scratch over their digests. */
+  private byte[] computeDigest() {
+    List<Bytes> oidDigests = new ArrayList<Bytes>(registered.size());
+    for (ObjectIdP oid : registered) {
+      oidDigests.add(ObjectIdDigestUtils.getDigest(oid.getSource(), oid.getName().getByteArray(),
+          digestFunction));
+    }
+    Collections.sort(oidDigests);
+    return ObjectIdDigestUtils.getDigest(oidDigests, digestFunction).getByteArray();
+  }
+
+  private void assertDigest() {
+    assertEquals(registered.size(), store.size());
+    assertArrayEquals(computeDigest(), store.getDigest());
+  }
+
+  @Test
+  public void testEmpty() {
+    assertDigest();
+    assertTrue(store.removeAll().isEmpty());
+    assertDigest();
+  }
+
+  @Test
+  public void testAddAndRemoveOne() {
+    ObjectIdP oid = createObjectId(1);
+    assertTrue(store.add(oid));
+    registered.add(oid);
+    assertDigest();
+
+    // Adding again changes nothing.
+    assertFalse(store.add(oid));
+    assertDigest();
+
+    assertTrue(store.remove(oid));
+    registered.remove(oid);
+    assertDigest();
+    assertFalse(store.remove(oid));
+    assertDigest();
+  }
+
+  @Test
+  public void testAddAndRemoveCollections() {
+    List<ObjectIdP> oids = Arrays.asList(createObjectId(1), createObjectId(2), createObjectId(3));
+    assertEquals(oids.size(), store.add(oids).size());
+    registered.addAll(oids);
+    assertDigest();
+
+    // Only the objects not yet registered are returned, and the digest only changes for them.
+    Collection<ObjectIdP> added =
+        store.add(Arrays.asList(createObjectId(3), createObjectId(4)));
+    assertEquals(Collections.singletonList(createObjectId(4)), new ArrayList<ObjectIdP>(added));
+    registered.add(createObjectId(4));
+    assertDigest();
+
+    Collection<ObjectIdP> removed =
+        store.remove(Arrays.asList(createObjectId(1), createObjectId(5)));
+    assertEquals(Collections.singletonList(createObjectId(1)), new ArrayList<ObjectIdP>(removed));
+    registered.remove(createObjectId(1));
+    assertDigest();
+
+    assertEquals(registered.size(), store.removeAll().size());
+    registered.clear();
+    assertDigest();
+  }
+
+  @Test
+  public void testRandomChanges() {
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      ObjectIdP oid = createObjectId(random.nextInt(50));
+      if (random.nextBoolean()) {
+        assertEquals(!registered.contains(oid), store.add(oid));
+        if (!registered.contains(oid)) {
+          registered.add(oid);
+        }
+      } else {
+        assertEquals(registered.contains(oid), store.remove(oid));
+        registered.remove(oid);
+      }
+      assertEquals(registered.contains(oid), store.contains(oid));
+      // Read the digest only now and then, as when it is sent with a batched message.
+      if (random.nextInt(10) == 0) {
+        assertDigest();
+      }
+    }
+    assertDigest();
+  }
+}
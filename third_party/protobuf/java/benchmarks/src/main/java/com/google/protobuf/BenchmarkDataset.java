@@ -0,0 +1,174 @@
+// Protocol Buffers - Google's data interchange format
+// Copyright 2008 Google Inc.  All rights reserved.
+// https://developers.google.com/protocol-buffers/
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.protobuf;
+
+import com.google.protobuf.benchmarks.LiteBenchmarkMessages.Batch;
+import com.google.protobuf.benchmarks.LiteBenchmarkMessages.Entity;
+import com.google.protobuf.benchmarks.LiteBenchmarkMessages.EntityMetadata;
+import com.google.protobuf.benchmarks.LiteBenchmarkMessages.Invalidation;
+import com.google.protobuf.benchmarks.LiteBenchmarkMessages.ObjectId;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic datasets shared by the benchmarks. Each dataset is a {@link Batch} shaped like the
+ * payloads of sync and invalidation clients, from a single invalidation to a large initial sync.
+ */
+public enum BenchmarkDataset {
+  /** A single invalidation, as sent for each change of a registered object. */
+  SMALL_INVALIDATION(1, 0),
+  /** A typical incremental sync: a few invalidations and tens of entities. */
+  SYNC_UPDATE(5, 50),
+  /** An initial sync of a large account. */
+  INITIAL_SYNC(2000, 2000);
+
+  private static final String[] NAMES = {
+    "Bookmarks bar",
+    "Résumé – final.pdf",
+    "Noël à Montréal",
+    "Москва — план поездки",
+    "東京の天気予報",
+    "서울 지하철 노선도",
+    "Recipes 🍝🍰",
+    "https://www.example.com/some/long/path?query=value&other=1",
+  };
+
+  private final int invalidationCount;
+  private final int entityCount;
+  private Batch message;
+  private byte[] bytes;
+
+  BenchmarkDataset(int invalidationCount, int entityCount) {
+    this.invalidationCount = invalidationCount;
+    this.entityCount = entityCount;
+  }
+
+  /** Returns the message of the dataset. */
+  public synchronized Batch getMessage() {
+    if (message == null) {
+      message = createMessage();
+    }
+    return message;
+  }
+
+  /** Returns the serialized message of the dataset. */
+  public synchronized byte[] getBytes() {
+    if (bytes == null) {
+      bytes = getMessage().toByteArray();
+    }
+    return bytes;
+  }
+
+  /** Returns the strings of the dataset, as found in its entities and invalidations. */
+  public List<String> getStrings() {
+    List<String> strings = new ArrayList<String>();
+    Batch batch = getMessage();
+    strings.add(batch.getClientId());
+    for (Entity entity : batch.getEntitiesList()) {
+      strings.add(entity.getId());
+      strings.add(entity.getName());
+      strings.add(entity.getMetadata().getClientTagHash());
+    }
+    for (Invalidation invalidation : batch.getInvalidationsList()) {
+      strings.add(invalidation.getObjectId().getName().toStringUtf8());
+    }
+    return strings;
+  }
+
+  /**
+   * Splits the serialized message in buffers of at most {@code chunkSize} bytes, as received from
+   * the network.
+   */
+  public List<ByteBuffer> getChunks(int chunkSize, boolean direct) {
+    byte[] data = getBytes();
+    List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    for (int offset = 0; offset < data.length; offset += chunkSize) {
+      int length = Math.min(chunkSize, data.length - offset);
+      ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+      chunk.put(data, offset, length);
+      chunk.flip();
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private Batch createMessage() {
+    Random random = new Random(ordinal());
+    long now = 1520000000000L;
+    Batch.Builder batch =
+        Batch.newBuilder().setClientId("client-" + Long.toHexString(random.nextLong()));
+    batch.setProtocolVersion(3);
+    for (int i = 0; i < invalidationCount; i++) {
+      byte[] payload = new byte[random.nextInt(64)];
+      random.nextBytes(payload);
+      batch.addInvalidations(
+          Invalidation.newBuilder()
+              .setObjectId(
+                  ObjectId.newBuilder()
+                      .setSource(1004)
+                      .setName(ByteString.copyFromUtf8("OBJECT_" + random.nextInt(100000))))
+              .setIsKnownVersion(true)
+              .setVersion(now * 1000 + random.nextInt(1000000))
+              .setPayload(ByteString.copyFrom(payload))
+              .setBridgeArrivalTimeMs(now + random.nextInt(60000)));
+    }
+    for (int i = 0; i < entityCount; i++) {
+      byte[] specifics = new byte[32 + random.nextInt(256)];
+      random.nextBytes(specifics);
+      Entity.Builder entity =
+          Entity.newBuilder()
+              .setId("Z:" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36))
+              .setParentId("Z:" + Integer.toString(random.nextInt(1000), 36))
+              .setName(NAMES[random.nextInt(NAMES.length)] + " " + i)
+              .setVersion(random.nextInt(Integer.MAX_VALUE))
+              .setPosition(random.nextLong())
+              .setSpecifics(ByteString.copyFrom(specifics))
+              .setMetadata(
+                  EntityMetadata.newBuilder()
+                      .setClientTagHash(Long.toHexString(random.nextLong()))
+                      .setServerVersion(random.nextInt(100000))
+                      .setCreationTime(now - random.nextInt(Integer.MAX_VALUE))
+                      .setModificationTime(now - random.nextInt(1000000))
+                      .setSpecificsHash(random.nextLong())
+                      .setIsDeleted(random.nextInt(20) == 0))
+              .setScore(random.nextDouble());
+      int ancestorCount = random.nextInt(8);
+      for (int j = 0; j < ancestorCount; j++) {
+        entity.addAncestorVersions(random.nextInt(1 << 20));
+      }
+      batch.addEntities(entity);
+      batch.addDeltas(random.nextInt(2000) - 1000);
+    }
+    return batch.build();
+  }
+}
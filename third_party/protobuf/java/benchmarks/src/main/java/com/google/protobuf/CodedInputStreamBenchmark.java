@@ -0,0 +1,168 @@
+// Protocol Buffers - Google's data interchange format
+// Copyright 2008 Google Inc.  All rights reserved.
+// https://developers.google.com/protocol-buffers/
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.protobuf;
+
+import com.google.protobuf.benchmarks.LiteBenchmarkMessages.Batch;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the {@link CodedInputStream} decoders, reading a serialized {@link
+ * BenchmarkDataset} from each kind of input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CodedInputStreamBenchmark {
+  /** The size of the buffers the input is split in for the iterable decoders. */
+  private static final int CHUNK_SIZE = 4096;
+
+  /** The decoders, as selected by {@link CodedInputStream#newInstance}. */
+  public enum Decoder {
+    /** {@code ArrayDecoder}, over a byte array. */
+    ARRAY {
+      @Override
+      CodedInputStream newInput(CodedInputStreamBenchmark state) {
+        return CodedInputStream.newInstance(state.array);
+      }
+    },
+    /** {@code UnsafeDirectNioDecoder}, over a direct buffer. */
+    UNSAFE_DIRECT_NIO {
+      @Override
+      CodedInputStream newInput(CodedInputStreamBenchmark state) {
+        return CodedInputStream.newInstance(state.directBuffer);
+      }
+    },
+    /** {@code StreamDecoder}, over an input stream. */
+    STREAM {
+      @Override
+      CodedInputStream newInput(CodedInputStreamBenchmark state) {
+        return CodedInputStream.newInstance(new ByteArrayInputStream(state.array));
+      }
+    },
+    /** {@code IterableDirectByteBufferDecoder}, over chunks in direct buffers. */
+    ITERABLE_DIRECT_BUFFERS {
+      @Override
+      CodedInputStream newInput(CodedInputStreamBenchmark state) {
+        for (ByteBuffer chunk : state.directChunks) {
+          chunk.rewind();
+        }
+        return CodedInputStream.newInstance(state.directChunks);
+      }
+    },
+    /** {@code StreamDecoder} over an {@code IterableByteBufferInputStream}, for heap chunks. */
+    ITERABLE_HEAP_BUFFERS {
+      @Override
+      CodedInputStream newInput(CodedInputStreamBenchmark state) {
+        for (ByteBuffer chunk : state.heapChunks) {
+          chunk.rewind();
+        }
+        return CodedInputStream.newInstance(state.heapChunks);
+      }
+    };
+
+    abstract CodedInputStream newInput(CodedInputStreamBenchmark state);
+  }
+
+  @Param public BenchmarkDataset dataset;
+
+  @Param public Decoder decoder;
+
+  private byte[] array;
+  private ByteBuffer directBuffer;
+  private List<ByteBuffer> directChunks;
+  private List<ByteBuffer> heapChunks;
+
+  @Setup
+  public void setUp() {
+    array = dataset.getBytes();
+    directBuffer = ByteBuffer.allocateDirect(array.length);
+    directBuffer.put(array);
+    directBuffer.flip();
+    directChunks = dataset.getChunks(CHUNK_SIZE, true);
+    heapChunks = dataset.getChunks(CHUNK_SIZE, false);
+  }
+
+  /** Parses the dataset, as done by the generated code for a message read from the network. */
+  @Benchmark
+  public Batch parseMessage() throws IOException {
+    return Batch.parseFrom(decoder.newInput(this));
+  }
+
+  /** Skips all the fields, as done for unknown fields. Only the decoder is measured. */
+  @Benchmark
+  public int skipAllFields() throws IOException {
+    CodedInputStream input = decoder.newInput(this);
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+      input.skipField(tag);
+    }
+    return input.getTotalBytesRead();
+  }
+
+  /** Reads the top-level fields of the dataset, copying the nested messages as bytes. */
+  @Benchmark
+  public void readTopLevelFields(Blackhole blackhole) throws IOException {
+    CodedInputStream input = decoder.newInput(this);
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+      switch (WireFormat.getTagWireType(tag)) {
+        case WireFormat.WIRETYPE_VARINT:
+          blackhole.consume(input.readInt64());
+          break;
+        case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+          blackhole.consume(input.readBytes());
+          break;
+        default:
+          input.skipField(tag);
+          break;
+      }
+    }
+  }
+}
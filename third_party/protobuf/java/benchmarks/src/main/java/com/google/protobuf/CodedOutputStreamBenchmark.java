@@ -0,0 +1,146 @@
+// Protocol Buffers - Google's data interchange format
+// Copyright 2008 Google Inc.  All rights reserved.
+// https://developers.google.com/protocol-buffers/
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.protobuf;
+
+import com.google.protobuf.benchmarks.LiteBenchmarkMessages.Batch;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the {@link CodedOutputStream} encoders, writing a {@link BenchmarkDataset} to each
+ * kind of output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CodedOutputStreamBenchmark {
+  /** The encoders, as selected by {@link CodedOutputStream#newInstance}. */
+  public enum Encoder {
+    /** {@code ArrayEncoder}, to a byte array. */
+    ARRAY {
+      @Override
+      CodedOutputStream newOutput(CodedOutputStreamBenchmark state) {
+        return CodedOutputStream.newInstance(state.array);
+      }
+    },
+    /** {@code HeapNioEncoder}, to a heap buffer. */
+    HEAP_NIO {
+      @Override
+      CodedOutputStream newOutput(CodedOutputStreamBenchmark state) {
+        state.heapBuffer.clear();
+        return CodedOutputStream.newInstance(state.heapBuffer);
+      }
+    },
+    /** {@code SafeDirectNioEncoder}, to a direct buffer. */
+    SAFE_DIRECT_NIO {
+      @Override
+      CodedOutputStream newOutput(CodedOutputStreamBenchmark state) {
+        state.directBuffer.clear();
+        return CodedOutputStream.newSafeInstance(state.directBuffer);
+      }
+    },
+    /** {@code UnsafeDirectNioEncoder}, to a direct buffer. */
+    UNSAFE_DIRECT_NIO {
+      @Override
+      CodedOutputStream newOutput(CodedOutputStreamBenchmark state) {
+        state.directBuffer.clear();
+        return CodedOutputStream.newUnsafeInstance(state.directBuffer);
+      }
+    },
+    /** {@code OutputStreamEncoder}, to an output stream. */
+    OUTPUT_STREAM {
+      @Override
+      CodedOutputStream newOutput(CodedOutputStreamBenchmark state) {
+        state.outputStream.reset();
+        return CodedOutputStream.newInstance(state.outputStream);
+      }
+    };
+
+    abstract CodedOutputStream newOutput(CodedOutputStreamBenchmark state);
+  }
+
+  @Param public BenchmarkDataset dataset;
+
+  @Param public Encoder encoder;
+
+  private Batch message;
+  private byte[] array;
+  private ByteBuffer heapBuffer;
+  private ByteBuffer directBuffer;
+  private ByteArrayOutputStream outputStream;
+
+  @Setup
+  public void setUp() {
+    message = dataset.getMessage();
+    int size = message.getSerializedSize();
+    array = new byte[size];
+    heapBuffer = ByteBuffer.allocate(size);
+    directBuffer = ByteBuffer.allocateDirect(size);
+    outputStream = new ByteArrayOutputStream(size);
+  }
+
+  /** Writes the dataset, as done by the generated code to send a message. */
+  @Benchmark
+  public int writeMessage() throws IOException {
+    CodedOutputStream output = encoder.newOutput(this);
+    message.writeTo(output);
+    output.flush();
+    return output.getTotalBytesWritten();
+  }
+
+  /** Writes the strings of the dataset, which take most of the encoding time of text payloads. */
+  @Benchmark
+  public int writeStrings() throws IOException {
+    CodedOutputStream output = encoder.newOutput(this);
+    Batch batch = message;
+    for (int i = 0; i < batch.getEntitiesCount(); i++) {
+      output.writeString(3, batch.getEntities(i).getName());
+    }
+    output.flush();
+    return output.getTotalBytesWritten();
+  }
+}
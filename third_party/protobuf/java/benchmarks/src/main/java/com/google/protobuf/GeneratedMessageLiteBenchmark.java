@@ -0,0 +1,117 @@
+// Protocol Buffers - Google's data interchange format
+// Copyright 2008 Google Inc.  All rights reserved.
+// https://developers.google.com/protocol-buffers/
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.protobuf;
+
+import com.google.protobuf.benchmarks.LiteBenchmarkMessages.Batch;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of parsing and serializing {@link GeneratedMessageLite} messages through the public
+ * entry points used by the clients, over the {@link BenchmarkDataset}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class GeneratedMessageLiteBenchmark {
+  @Param public BenchmarkDataset dataset;
+
+  private byte[] bytes;
+  private ByteString byteString;
+  private ByteArrayOutputStream outputStream;
+
+  @Setup
+  public void setUp() {
+    bytes = dataset.getBytes();
+    byteString = ByteString.copyFrom(bytes);
+    outputStream = new ByteArrayOutputStream(bytes.length);
+  }
+
+  @Benchmark
+  public Batch parseFromByteArray() throws InvalidProtocolBufferException {
+    return Batch.parseFrom(bytes);
+  }
+
+  @Benchmark
+  public Batch parseFromByteString() throws InvalidProtocolBufferException {
+    return Batch.parseFrom(byteString);
+  }
+
+  @Benchmark
+  public Batch parseFromInputStream() throws IOException {
+    return Batch.parseFrom(new ByteArrayInputStream(bytes));
+  }
+
+  @Benchmark
+  public Batch mergeIntoBuilder() throws InvalidProtocolBufferException {
+    return Batch.newBuilder().mergeFrom(bytes).build();
+  }
+
+  /** Serializes a freshly parsed message, whose size has not been computed yet. */
+  @Benchmark
+  public byte[] parseAndSerialize() throws InvalidProtocolBufferException {
+    return Batch.parseFrom(bytes).toByteArray();
+  }
+
+  /** Serializes a message whose size is already computed, as when a message is sent again. */
+  @Benchmark
+  public byte[] serializeToByteArray() {
+    return dataset.getMessage().toByteArray();
+  }
+
+  @Benchmark
+  public ByteString serializeToByteString() {
+    return dataset.getMessage().toByteString();
+  }
+
+  @Benchmark
+  public int serializeToOutputStream() throws IOException {
+    outputStream.reset();
+    dataset.getMessage().writeTo(outputStream);
+    return outputStream.size();
+  }
+}
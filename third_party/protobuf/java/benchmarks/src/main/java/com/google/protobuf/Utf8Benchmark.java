@@ -0,0 +1,161 @@
+// Protocol Buffers - Google's data interchange format
+// Copyright 2008 Google Inc.  All rights reserved.
+// https://developers.google.com/protocol-buffers/
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.protobuf;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the {@link Utf8} encoder and decoder, compared with the JDK, over the strings of a
+ * {@link BenchmarkDataset} and over text of a single script.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class Utf8Benchmark {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The text to encode and decode. */
+  public enum Text {
+    /** The ids, names and hashes of an initial sync, mostly ASCII. */
+    INITIAL_SYNC_STRINGS,
+    /** ASCII only. */
+    ASCII,
+    /** Latin text with accents, mostly one byte per character. */
+    LATIN,
+    /** CJK text, three bytes per character. */
+    CJK,
+    /** Text with emoji, encoded as surrogate pairs. */
+    EMOJI;
+  }
+
+  private static final String[] SAMPLES = {
+    "The quick brown fox jumps over the lazy dog. ",
+    "Voix ambiguë d'un cœur qui, au zéphyr, préfère les jattes de kiwis. ",
+    "色は匂へど散りぬるを我が世誰ぞ常ならむ有為の奥山今日越えて浅き夢見じ酔ひもせず",
+    "Party 🎉🥳 at 8pm 🍕🍺, bring 🎸! ",
+  };
+
+  @Param public Text text;
+
+  private String[] strings;
+  private byte[][] encoded;
+  private byte[] buffer;
+
+  @Setup
+  public void setUp() {
+    if (text == Text.INITIAL_SYNC_STRINGS) {
+      strings = BenchmarkDataset.INITIAL_SYNC.getStrings().toArray(new String[0]);
+    } else {
+      String sample = SAMPLES[text.ordinal() - 1];
+      strings = new String[1000];
+      for (int i = 0; i < strings.length; i++) {
+        // Strings of various lengths, from a sentence to a paragraph.
+        StringBuilder builder = new StringBuilder();
+        int repeat = 1 + i % 8;
+        for (int j = 0; j < repeat; j++) {
+          builder.append(sample);
+        }
+        strings[i] = builder.toString();
+      }
+    }
+    encoded = new byte[strings.length][];
+    int maxLength = 0;
+    for (int i = 0; i < strings.length; i++) {
+      encoded[i] = strings[i].getBytes(UTF_8);
+      maxLength = Math.max(maxLength, strings[i].length() * Utf8.MAX_BYTES_PER_CHAR);
+    }
+    buffer = new byte[maxLength];
+  }
+
+  @Benchmark
+  public int encodedLength() {
+    int length = 0;
+    for (String string : strings) {
+      length += Utf8.encodedLength(string);
+    }
+    return length;
+  }
+
+  @Benchmark
+  public int encode() {
+    int length = 0;
+    for (String string : strings) {
+      length += Utf8.encode(string, buffer, 0, buffer.length);
+    }
+    return length;
+  }
+
+  @Benchmark
+  public void encodeJdk(Blackhole blackhole) {
+    for (String string : strings) {
+      blackhole.consume(string.getBytes(UTF_8));
+    }
+  }
+
+  @Benchmark
+  public void decode(Blackhole blackhole) throws InvalidProtocolBufferException {
+    for (byte[] bytes : encoded) {
+      blackhole.consume(Utf8.decodeUtf8(bytes, 0, bytes.length));
+    }
+  }
+
+  @Benchmark
+  public void decodeJdk(Blackhole blackhole) {
+    for (byte[] bytes : encoded) {
+      blackhole.consume(new String(bytes, UTF_8));
+    }
+  }
+
+  @Benchmark
+  public boolean isValidUtf8() {
+    boolean valid = true;
+    for (byte[] bytes : encoded) {
+      valid &= Utf8.isValidUtf8(bytes);
+    }
+    return valid;
+  }
+}
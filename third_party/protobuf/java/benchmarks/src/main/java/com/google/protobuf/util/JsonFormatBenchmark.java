@@ -0,0 +1,124 @@
+// Protocol Buffers - Google's data interchange format
+// Copyright 2008 Google Inc.  All rights reserved.
+// https://developers.google.com/protocol-buffers/
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.protobuf.util;
+
+import com.google.protobuf.BenchmarkDataset;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.benchmarks.JsonBenchmarkMessages.Batch;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link JsonFormat} over the {@link BenchmarkDataset}s. The parse benchmarks compare
+ * the default parser, which reads the input into a JSON tree first, with the streaming one
+ * returned by {@link JsonFormat.Parser#usingStreamingReader()}. Run with {@code -prof gc} to
+ * compare their allocations as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class JsonFormatBenchmark {
+  @Param public BenchmarkDataset dataset;
+
+  @Param({"false", "true"})
+  public boolean omittingInsignificantWhitespace;
+
+  private Batch message;
+  private String json;
+  private JsonFormat.Printer printer;
+  private JsonFormat.Parser treeParser;
+  private JsonFormat.Parser streamingParser;
+  private StringBuilder output;
+
+  @Setup
+  public void setUp() throws IOException {
+    message = Batch.parseFrom(dataset.getBytes());
+    printer = JsonFormat.printer();
+    if (omittingInsignificantWhitespace) {
+      printer = printer.omittingInsignificantWhitespace();
+    }
+    json = printer.print(message);
+    treeParser = JsonFormat.parser();
+    streamingParser = JsonFormat.parser().usingStreamingReader();
+    output = new StringBuilder(json.length());
+  }
+
+  @Benchmark
+  public Batch parseTree() throws InvalidProtocolBufferException {
+    Batch.Builder builder = Batch.newBuilder();
+    treeParser.merge(json, builder);
+    return builder.build();
+  }
+
+  @Benchmark
+  public Batch parseStreaming() throws InvalidProtocolBufferException {
+    Batch.Builder builder = Batch.newBuilder();
+    streamingParser.merge(json, builder);
+    return builder.build();
+  }
+
+  @Benchmark
+  public Batch parseTreeFromReader() throws IOException {
+    Batch.Builder builder = Batch.newBuilder();
+    treeParser.merge(new StringReader(json), builder);
+    return builder.build();
+  }
+
+  @Benchmark
+  public Batch parseStreamingFromReader() throws IOException {
+    Batch.Builder builder = Batch.newBuilder();
+    streamingParser.merge(new StringReader(json), builder);
+    return builder.build();
+  }
+
+  /** Prints into a reused builder, so that only the allocations of the printer are measured. */
+  @Benchmark
+  public int print() throws IOException {
+    output.setLength(0);
+    printer.appendTo(message, output);
+    return output.length();
+  }
+}
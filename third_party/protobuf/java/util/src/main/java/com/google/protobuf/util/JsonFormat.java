@@ -32,8 +32,6 @@ package com.google.protobuf.util;
 
 import com.google.common.base.Preconditions;
 import com.google.common.io.BaseEncoding;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonIOException;
@@ -41,7 +39,10 @@ import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.LazilyParsedNumber;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 import com.google.protobuf.Any;
 import com.google.protobuf.BoolValue;
 import com.google.protobuf.ByteString;
@@ -70,6 +71,7 @@ import com.google.protobuf.Timestamp;
 import com.google.protobuf.UInt32Value;
 import com.google.protobuf.UInt64Value;
 import com.google.protobuf.Value;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
@@ -317,7 +319,8 @@ public class JsonFormat {
    * Creates a {@link Parser} with default configuration.
    */
   public static Parser parser() {
-    return new Parser(TypeRegistry.getEmptyTypeRegistry(), false, Parser.DEFAULT_RECURSION_LIMIT);
+    return new Parser(
+        TypeRegistry.getEmptyTypeRegistry(), false, Parser.DEFAULT_RECURSION_LIMIT, false);
   }
 
   /**
@@ -327,14 +330,20 @@ public class JsonFormat {
     private final TypeRegistry registry;
     private final boolean ignoringUnknownFields;
     private final int recursionLimit;
+    private final boolean usingStreamingReader;
 
     // The default parsing recursion limit is aligned with the proto binary parser.
     private static final int DEFAULT_RECURSION_LIMIT = 100;
 
-    private Parser(TypeRegistry registry, boolean ignoreUnknownFields, int recursionLimit) {
+    private Parser(
+        TypeRegistry registry,
+        boolean ignoreUnknownFields,
+        int recursionLimit,
+        boolean usingStreamingReader) {
       this.registry = registry;
       this.ignoringUnknownFields = ignoreUnknownFields;
       this.recursionLimit = recursionLimit;
+      this.usingStreamingReader = usingStreamingReader;
     }
 
     /**
@@ -347,7 +356,7 @@ public class JsonFormat {
       if (this.registry != TypeRegistry.getEmptyTypeRegistry()) {
         throw new IllegalArgumentException("Only one registry is allowed.");
       }
-      return new Parser(registry, ignoringUnknownFields, recursionLimit);
+      return new Parser(registry, ignoringUnknownFields, recursionLimit, usingStreamingReader);
     }
 
     /**
@@ -355,7 +364,21 @@ public class JsonFormat {
      * encountered. The new Parser clones all other configurations from this Parser.
      */
     public Parser ignoringUnknownFields() {
-      return new Parser(this.registry, true, recursionLimit);
+      return new Parser(this.registry, true, recursionLimit, usingStreamingReader);
+    }
+
+    /**
+     * Creates a new {@link Parser} that reads the JSON tokens directly into the message builder,
+     * instead of parsing the whole input into a JSON tree first. This reduces the peak memory
+     * and the allocations of large inputs. Only the values of well-known types, which have their
+     * own JSON representation, are still read as trees. The new Parser clones all other
+     * configurations from this Parser.
+     *
+     * <p>The same inputs are accepted, except that errors in the JSON syntax are reported when
+     * they are reached, after the preceding fields have been merged into the builder.
+     */
+    public Parser usingStreamingReader() {
+      return new Parser(registry, ignoringUnknownFields, recursionLimit, true);
     }
 
     /**
@@ -367,7 +390,8 @@ public class JsonFormat {
     public void merge(String json, Message.Builder builder) throws InvalidProtocolBufferException {
       // TODO(xiaofeng): Investigate the allocation overhead and optimize for
       // mobile.
-      new ParserImpl(registry, ignoringUnknownFields, recursionLimit).merge(json, builder);
+      new ParserImpl(registry, ignoringUnknownFields, recursionLimit, usingStreamingReader)
+          .merge(json, builder);
     }
 
     /**
@@ -380,12 +404,13 @@ public class JsonFormat {
     public void merge(Reader json, Message.Builder builder) throws IOException {
       // TODO(xiaofeng): Investigate the allocation overhead and optimize for
       // mobile.
-      new ParserImpl(registry, ignoringUnknownFields, recursionLimit).merge(json, builder);
+      new ParserImpl(registry, ignoringUnknownFields, recursionLimit, usingStreamingReader)
+          .merge(json, builder);
     }
 
     // For testing only.
     Parser usingRecursionLimit(int recursionLimit) {
-      return new Parser(registry, ignoringUnknownFields, recursionLimit);
+      return new Parser(registry, ignoringUnknownFields, recursionLimit, usingStreamingReader);
     }
   }
 
@@ -604,13 +629,30 @@ public class JsonFormat {
     private final boolean preservingProtoFieldNames;
     private final boolean printingEnumsAsInts;
     private final TextGenerator generator;
-    // We use Gson to help handle string escapes.
-    private final Gson gson;
     private final CharSequence blankOrSpace;
     private final CharSequence blankOrNewLine;
-
-    private static class GsonHolder {
-      private static final Gson DEFAULT_GSON = new GsonBuilder().disableHtmlEscaping().create();
+    // The separators are built once, so that printing a field or an element doesn't allocate.
+    private final String objectStart;
+    private final String fieldSeparator;
+    private final String elementSeparator;
+    private final String nameSeparator;
+
+    // Escape sequences of the ASCII characters, as written by Gson with HTML escaping disabled.
+    // Other characters are written as is, except U+2028 and U+2029.
+    private static final String[] REPLACEMENT_CHARS = new String[128];
+
+    static {
+      String hexDigits = "0123456789abcdef";
+      for (int i = 0; i < 0x20; i++) {
+        REPLACEMENT_CHARS[i] = "\\u00" + hexDigits.charAt(i >> 4) + hexDigits.charAt(i & 0xf);
+      }
+      REPLACEMENT_CHARS['"'] = "\\\"";
+      REPLACEMENT_CHARS['\\'] = "\\\\";
+      REPLACEMENT_CHARS['\t'] = "\\t";
+      REPLACEMENT_CHARS['\b'] = "\\b";
+      REPLACEMENT_CHARS['\n'] = "\\n";
+      REPLACEMENT_CHARS['\r'] = "\\r";
+      REPLACEMENT_CHARS['\f'] = "\\f";
     }
 
     PrinterImpl(
@@ -626,7 +668,6 @@ public class JsonFormat {
       this.includingDefaultValueFields = includingDefaultValueFields;
       this.preservingProtoFieldNames = preservingProtoFieldNames;
       this.printingEnumsAsInts = printingEnumsAsInts;
-      this.gson = GsonHolder.DEFAULT_GSON;
       // json format related properties, determined by printerType
       if (omittingInsignificantWhitespace) {
         this.generator = new CompactTextGenerator(jsonOutput);
@@ -637,6 +678,10 @@ public class JsonFormat {
         this.blankOrSpace = " ";
         this.blankOrNewLine = "\n";
       }
+      this.objectStart = "{" + blankOrNewLine;
+      this.fieldSeparator = "," + blankOrNewLine;
+      this.elementSeparator = "," + blankOrSpace;
+      this.nameSeparator = ":" + blankOrSpace;
     }
 
     void print(MessageOrBuilder message) throws IOException {
@@ -771,10 +816,14 @@ public class JsonFormat {
       if (printer != null) {
         // If the type is one of the well-known types, we use a special
         // formatting.
-        generator.print("{" + blankOrNewLine);
+        generator.print(objectStart);
         generator.indent();
-        generator.print("\"@type\":" + blankOrSpace + gson.toJson(typeUrl) + "," + blankOrNewLine);
-        generator.print("\"value\":" + blankOrSpace);
+        generator.print("\"@type\"");
+        generator.print(nameSeparator);
+        printString(typeUrl);
+        generator.print(fieldSeparator);
+        generator.print("\"value\"");
+        generator.print(nameSeparator);
         printer.print(this, contentMessage);
         generator.print(blankOrNewLine);
         generator.outdent();
@@ -865,12 +914,14 @@ public class JsonFormat {
 
     /** Prints a regular message with an optional type URL. */
     private void print(MessageOrBuilder message, String typeUrl) throws IOException {
-      generator.print("{" + blankOrNewLine);
+      generator.print(objectStart);
       generator.indent();
 
       boolean printedField = false;
       if (typeUrl != null) {
-        generator.print("\"@type\":" + blankOrSpace + gson.toJson(typeUrl));
+        generator.print("\"@type\"");
+        generator.print(nameSeparator);
+        printString(typeUrl);
         printedField = true;
       }
       Map<FieldDescriptor, Object> fieldsToPrint = null;
@@ -901,7 +952,7 @@ public class JsonFormat {
       for (Map.Entry<FieldDescriptor, Object> field : fieldsToPrint.entrySet()) {
         if (printedField) {
           // Add line-endings for the previous field.
-          generator.print("," + blankOrNewLine);
+          generator.print(fieldSeparator);
         } else {
           printedField = true;
         }
@@ -917,11 +968,10 @@ public class JsonFormat {
     }
 
     private void printField(FieldDescriptor field, Object value) throws IOException {
-      if (preservingProtoFieldNames) {
-        generator.print("\"" + field.getName() + "\":" + blankOrSpace);
-      } else {
-        generator.print("\"" + field.getJsonName() + "\":" + blankOrSpace);
-      }
+      generator.print("\"");
+      generator.print(preservingProtoFieldNames ? field.getName() : field.getJsonName());
+      generator.print("\"");
+      generator.print(nameSeparator);
       if (field.isMapField()) {
         printMapFieldValue(field, value);
       } else if (field.isRepeated()) {
@@ -937,7 +987,7 @@ public class JsonFormat {
       boolean printedElement = false;
       for (Object element : (List) value) {
         if (printedElement) {
-          generator.print("," + blankOrSpace);
+          generator.print(elementSeparator);
         } else {
           printedElement = true;
         }
@@ -954,7 +1004,7 @@ public class JsonFormat {
       if (keyField == null || valueField == null) {
         throw new InvalidProtocolBufferException("Invalid map field.");
       }
-      generator.print("{" + blankOrNewLine);
+      generator.print(objectStart);
       generator.indent();
       boolean printedElement = false;
       for (Object element : (List) value) {
@@ -962,13 +1012,13 @@ public class JsonFormat {
         Object entryKey = entry.getField(keyField);
         Object entryValue = entry.getField(valueField);
         if (printedElement) {
-          generator.print("," + blankOrNewLine);
+          generator.print(fieldSeparator);
         } else {
           printedElement = true;
         }
         // Key fields are always double-quoted.
         printSingleFieldValue(keyField, entryKey, true);
-        generator.print(":" + blankOrSpace);
+        generator.print(nameSeparator);
         printSingleFieldValue(valueField, entryValue);
       }
       if (printedElement) {
@@ -1007,7 +1057,9 @@ public class JsonFormat {
         case INT64:
         case SINT64:
         case SFIXED64:
-          generator.print("\"" + ((Long) value).toString() + "\"");
+          generator.print("\"");
+          generator.print(((Long) value).toString());
+          generator.print("\"");
           break;
 
         case BOOL:
@@ -1079,11 +1131,13 @@ public class JsonFormat {
 
         case UINT64:
         case FIXED64:
-          generator.print("\"" + unsignedToString((Long) value) + "\"");
+          generator.print("\"");
+          generator.print(unsignedToString((Long) value));
+          generator.print("\"");
           break;
 
         case STRING:
-          generator.print(gson.toJson(value));
+          printString((String) value);
           break;
 
         case BYTES:
@@ -1107,7 +1161,9 @@ public class JsonFormat {
             if (printingEnumsAsInts || ((EnumValueDescriptor) value).getIndex() == -1) {
               generator.print(String.valueOf(((EnumValueDescriptor) value).getNumber()));
             } else {
-              generator.print("\"" + ((EnumValueDescriptor) value).getName() + "\"");
+              generator.print("\"");
+              generator.print(((EnumValueDescriptor) value).getName());
+              generator.print("\"");
             }
           }
           break;
@@ -1118,6 +1174,41 @@ public class JsonFormat {
           break;
       }
     }
+
+    /**
+     * Prints a string as a JSON string literal. Runs of characters that need no escaping are
+     * printed as they are, so that the common case doesn't copy the string.
+     */
+    private void printString(String value) throws IOException {
+      generator.print("\"");
+      int start = 0;
+      int length = value.length();
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        String replacement;
+        if (c < 128) {
+          replacement = REPLACEMENT_CHARS[c];
+          if (replacement == null) {
+            continue;
+          }
+        } else if (c == '\u2028') {
+          replacement = "\\u2028";
+        } else if (c == '\u2029') {
+          replacement = "\\u2029";
+        } else {
+          continue;
+        }
+        if (start < i) {
+          generator.print(value.substring(start, i));
+        }
+        generator.print(replacement);
+        start = i + 1;
+      }
+      if (start < length) {
+        generator.print(value.substring(start, length));
+      }
+      generator.print("\"");
+    }
   }
 
   /** Convert an unsigned 32-bit integer to a string. */
@@ -1153,13 +1244,19 @@ public class JsonFormat {
     private final JsonParser jsonParser;
     private final boolean ignoringUnknownFields;
     private final int recursionLimit;
+    private final boolean usingStreamingReader;
     private int currentDepth;
 
-    ParserImpl(TypeRegistry registry, boolean ignoreUnknownFields, int recursionLimit) {
+    ParserImpl(
+        TypeRegistry registry,
+        boolean ignoreUnknownFields,
+        int recursionLimit,
+        boolean usingStreamingReader) {
       this.registry = registry;
       this.ignoringUnknownFields = ignoreUnknownFields;
       this.jsonParser = new JsonParser();
       this.recursionLimit = recursionLimit;
+      this.usingStreamingReader = usingStreamingReader;
       this.currentDepth = 0;
     }
 
@@ -1167,9 +1264,15 @@ public class JsonFormat {
       try {
         JsonReader reader = new JsonReader(json);
         reader.setLenient(false);
-        merge(jsonParser.parse(reader), builder);
+        merge(reader, builder);
       } catch (InvalidProtocolBufferException e) {
         throw e;
+      } catch (MalformedJsonException e) {
+        // Thrown by the streaming reader, when the input is not valid JSON.
+        throw new InvalidProtocolBufferException(e.getMessage());
+      } catch (EOFException e) {
+        // Thrown by the streaming reader, when the input ends in the middle of a value.
+        throw new InvalidProtocolBufferException(e.getMessage());
       } catch (JsonIOException e) {
         // Unwrap IOException.
         if (e.getCause() instanceof IOException) {
@@ -1177,6 +1280,9 @@ public class JsonFormat {
         } else {
           throw new InvalidProtocolBufferException(e.getMessage());
         }
+      } catch (IOException e) {
+        // Thrown by the input of the streaming reader.
+        throw e;
       } catch (Exception e) {
         // We convert all exceptions from JSON parsing to our own exceptions.
         throw new InvalidProtocolBufferException(e.getMessage());
@@ -1187,7 +1293,7 @@ public class JsonFormat {
       try {
         JsonReader reader = new JsonReader(new StringReader(json));
         reader.setLenient(false);
-        merge(jsonParser.parse(reader), builder);
+        merge(reader, builder);
       } catch (InvalidProtocolBufferException e) {
         throw e;
       } catch (Exception e) {
@@ -1196,6 +1302,17 @@ public class JsonFormat {
       }
     }
 
+    private void merge(JsonReader reader, Message.Builder builder) throws IOException {
+      if (usingStreamingReader) {
+        // JsonParser.parse(JsonReader) reads leniently, whatever the reader is set to. Do the same
+        // so that both modes accept the same inputs.
+        reader.setLenient(true);
+        mergeStreaming(reader, builder);
+      } else {
+        merge(jsonParser.parse(reader), builder);
+      }
+    }
+
     private interface WellKnownTypeParser {
       void merge(ParserImpl parser, JsonElement json, Message.Builder builder)
           throws InvalidProtocolBufferException;
@@ -1484,6 +1601,26 @@ public class JsonFormat {
 
     private void mergeField(FieldDescriptor field, JsonElement json, Message.Builder builder)
         throws InvalidProtocolBufferException {
+      checkFieldNotSet(field, builder);
+      if (field.isRepeated() && json instanceof JsonNull) {
+        // We allow "null" as value for all field types and treat it as if the
+        // field is not present.
+        return;
+      }
+      if (field.isMapField()) {
+        mergeMapField(field, json, builder);
+      } else if (field.isRepeated()) {
+        mergeRepeatedField(field, json, builder);
+      } else {
+        Object value = parseFieldValue(field, json, builder);
+        if (value != null) {
+          builder.setField(field, value);
+        }
+      }
+    }
+
+    private void checkFieldNotSet(FieldDescriptor field, Message.Builder builder)
+        throws InvalidProtocolBufferException {
       if (field.isRepeated()) {
         if (builder.getRepeatedFieldCount(field) > 0) {
           throw new InvalidProtocolBufferException(
@@ -1505,21 +1642,6 @@ public class JsonFormat {
                   + " belonging to the same oneof has already been set ");
         }
       }
-      if (field.isRepeated() && json instanceof JsonNull) {
-        // We allow "null" as value for all field types and treat it as if the
-        // field is not present.
-        return;
-      }
-      if (field.isMapField()) {
-        mergeMapField(field, json, builder);
-      } else if (field.isRepeated()) {
-        mergeRepeatedField(field, json, builder);
-      } else {
-        Object value = parseFieldValue(field, json, builder);
-        if (value != null) {
-          builder.setField(field, value);
-        }
-      }
     }
 
     private void mergeMapField(FieldDescriptor field, JsonElement json, Message.Builder builder)
@@ -1824,5 +1946,147 @@ public class JsonFormat {
           throw new InvalidProtocolBufferException("Invalid field type: " + field.getType());
       }
     }
+
+    // Streaming mode: the methods below mirror mergeMessage(), mergeField(), mergeMapField(),
+    // mergeRepeatedField() and parseFieldValue(), reading the values from a JsonReader. Scalar
+    // values are read as JsonPrimitives, so that they are parsed and validated by the same code as
+    // in the tree-based mode. A value of an unexpected type is read as a tree, to be reported the
+    // same way.
+
+    /**
+     * Merges the next JSON value into the builder. Values of well-known types are read as trees
+     * and merged by their WellKnownTypeParser.
+     */
+    private void mergeStreaming(JsonReader reader, Message.Builder builder) throws IOException {
+      Descriptor descriptor = builder.getDescriptorForType();
+      if (wellKnownTypeParsers.containsKey(descriptor.getFullName())) {
+        merge(jsonParser.parse(reader), builder);
+        return;
+      }
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        throw new InvalidProtocolBufferException(
+            "Expect message object but got: " + jsonParser.parse(reader));
+      }
+      Map<String, FieldDescriptor> fieldNameMap = getFieldNameMap(descriptor);
+      Set<String> names = new HashSet<String>();
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        FieldDescriptor field = fieldNameMap.get(name);
+        if (field == null) {
+          if (ignoringUnknownFields) {
+            reader.skipValue();
+            continue;
+          }
+          throw new InvalidProtocolBufferException(
+              "Cannot find field: " + name + " in message " + descriptor.getFullName());
+        }
+        if (!names.add(name)) {
+          // A JsonObject keeps the last value of a repeated name, do the same.
+          builder.clearField(field);
+        }
+        mergeFieldStreaming(field, reader, builder);
+      }
+      reader.endObject();
+    }
+
+    private void mergeFieldStreaming(
+        FieldDescriptor field, JsonReader reader, Message.Builder builder) throws IOException {
+      checkFieldNotSet(field, builder);
+      if (field.isRepeated() && reader.peek() == JsonToken.NULL) {
+        // We allow "null" as value for all field types and treat it as if the
+        // field is not present.
+        reader.nextNull();
+        return;
+      }
+      if (field.isMapField()) {
+        mergeMapFieldStreaming(field, reader, builder);
+      } else if (field.isRepeated()) {
+        mergeRepeatedFieldStreaming(field, reader, builder);
+      } else {
+        Object value = parseFieldValueStreaming(field, reader, builder);
+        if (value != null) {
+          builder.setField(field, value);
+        }
+      }
+    }
+
+    private void mergeMapFieldStreaming(
+        FieldDescriptor field, JsonReader reader, Message.Builder builder) throws IOException {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        throw new InvalidProtocolBufferException(
+            "Expect a map object but found: " + jsonParser.parse(reader));
+      }
+      Descriptor type = field.getMessageType();
+      FieldDescriptor keyField = type.findFieldByName("key");
+      FieldDescriptor valueField = type.findFieldByName("value");
+      if (keyField == null || valueField == null) {
+        throw new InvalidProtocolBufferException("Invalid map field: " + field.getFullName());
+      }
+      reader.beginObject();
+      while (reader.hasNext()) {
+        Message.Builder entryBuilder = builder.newBuilderForField(field);
+        Object key = parseFieldValue(keyField, new JsonPrimitive(reader.nextName()), entryBuilder);
+        Object value = parseFieldValueStreaming(valueField, reader, entryBuilder);
+        if (value == null) {
+          throw new InvalidProtocolBufferException("Map value cannot be null.");
+        }
+        entryBuilder.setField(keyField, key);
+        entryBuilder.setField(valueField, value);
+        builder.addRepeatedField(field, entryBuilder.build());
+      }
+      reader.endObject();
+    }
+
+    private void mergeRepeatedFieldStreaming(
+        FieldDescriptor field, JsonReader reader, Message.Builder builder) throws IOException {
+      if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+        throw new InvalidProtocolBufferException(
+            "Expect an array but found: " + jsonParser.parse(reader));
+      }
+      reader.beginArray();
+      while (reader.hasNext()) {
+        Object value = parseFieldValueStreaming(field, reader, builder);
+        if (value == null) {
+          throw new InvalidProtocolBufferException(
+              "Repeated field elements cannot be null in field: " + field.getFullName());
+        }
+        builder.addRepeatedField(field, value);
+      }
+      reader.endArray();
+    }
+
+    private Object parseFieldValueStreaming(
+        FieldDescriptor field, JsonReader reader, Message.Builder builder) throws IOException {
+      if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+          && reader.peek() != JsonToken.NULL) {
+        if (currentDepth >= recursionLimit) {
+          throw new InvalidProtocolBufferException("Hit recursion limit.");
+        }
+        ++currentDepth;
+        Message.Builder subBuilder = builder.newBuilderForField(field);
+        mergeStreaming(reader, subBuilder);
+        --currentDepth;
+        return subBuilder.build();
+      }
+      return parseFieldValue(field, readValue(reader), builder);
+    }
+
+    /** Reads the next JSON value, as JsonParser would. */
+    private JsonElement readValue(JsonReader reader) throws IOException {
+      switch (reader.peek()) {
+        case STRING:
+          return new JsonPrimitive(reader.nextString());
+        case NUMBER:
+          return new JsonPrimitive(new LazilyParsedNumber(reader.nextString()));
+        case BOOLEAN:
+          return new JsonPrimitive(reader.nextBoolean());
+        case NULL:
+          reader.nextNull();
+          return JsonNull.INSTANCE;
+        default:
+          return jsonParser.parse(reader);
+      }
+    }
   }
 }
@@ -30,6 +30,8 @@
 
 package com.google.protobuf.util;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.protobuf.Any;
 import com.google.protobuf.BoolValue;
 import com.google.protobuf.ByteString;
@@ -1589,4 +1591,181 @@ public class JsonFormatTest extends TestCase {
       // Expected.
     }
   }
+
+  public void testPrinterEscapesStringsAsGson() throws Exception {
+    String value = "\"\\/\b\f\n\r\t\u0000\u001f\u007f<>&='\u00e9\u2028\u2029\ud83d\ude00";
+    TestAllTypes message = TestAllTypes.newBuilder().setOptionalString(value).build();
+    Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    assertEquals(
+        "{\"optionalString\":" + gson.toJson(value) + "}", toCompactJsonString(message));
+    assertRoundTripEquals(message);
+  }
+
+  private void assertStreamingParserEquals(
+      JsonFormat.Parser parser, String json, Message defaultInstance) throws Exception {
+    Message.Builder builder = defaultInstance.newBuilderForType();
+    parser.merge(json, builder);
+    Message expected = builder.build();
+
+    builder = defaultInstance.newBuilderForType();
+    parser.usingStreamingReader().merge(json, builder);
+    assertEquals(expected, builder.build());
+
+    builder = defaultInstance.newBuilderForType();
+    parser.usingStreamingReader().merge(new StringReader(json), builder);
+    assertEquals(expected, builder.build());
+  }
+
+  private void assertStreamingParserRejects(String json, Message defaultInstance) {
+    try {
+      JsonFormat.parser().merge(json, defaultInstance.newBuilderForType());
+      fail("Exception is expected.");
+    } catch (InvalidProtocolBufferException e) {
+      // Expected.
+    }
+    try {
+      JsonFormat.parser()
+          .usingStreamingReader()
+          .merge(new StringReader(json), defaultInstance.newBuilderForType());
+      fail("Exception is expected.");
+    } catch (IOException e) {
+      assertTrue(e instanceof InvalidProtocolBufferException);
+    }
+  }
+
+  public void testStreamingParser() throws Exception {
+    JsonFormat.Parser parser = JsonFormat.parser();
+    TestAllTypes.Builder allTypes = TestAllTypes.newBuilder();
+    setAllFields(allTypes);
+    assertStreamingParserEquals(
+        parser, toJsonString(allTypes.build()), TestAllTypes.getDefaultInstance());
+    assertStreamingParserEquals(
+        parser, toCompactJsonString(allTypes.build()), TestAllTypes.getDefaultInstance());
+
+    TestMap.Builder mapBuilder = TestMap.newBuilder();
+    mapBuilder.putInt32ToInt32Map(1, 10);
+    mapBuilder.putBoolToInt32Map(false, 6);
+    mapBuilder.putStringToInt32Map("Hello", 10);
+    mapBuilder.putInt32ToEnumMap(1, NestedEnum.BAR);
+    mapBuilder.putInt32ToMessageMap(1, NestedMessage.newBuilder().setValue(1234).build());
+    assertStreamingParserEquals(
+        parser, toJsonString(mapBuilder.build()), TestMap.getDefaultInstance());
+
+    assertStreamingParserEquals(
+        parser,
+        "{\n"
+            + "  \"optionalInt32\": \"1234\",\n"
+            + "  \"optionalUint64\": 1.0e2,\n"
+            + "  \"optionalNestedMessage\": null,\n"
+            + "  \"repeatedInt32\": null,\n"
+            + "  optionalString: \"unquoted key\"\n"
+            + "}",
+        TestAllTypes.getDefaultInstance());
+    // The last value of a repeated name is kept, as in the tree-based mode.
+    assertStreamingParserEquals(
+        parser,
+        "{\"repeatedInt32\": [1, 2], \"repeatedInt32\": [3], \"optionalInt32\": 1,"
+            + " \"optionalInt32\": 2}",
+        TestAllTypes.getDefaultInstance());
+    assertStreamingParserEquals(
+        parser,
+        "{\"oneofInt32\": 1, \"oneofInt32\": 2}",
+        TestOneof.getDefaultInstance());
+    assertStreamingParserEquals(
+        parser.ignoringUnknownFields(),
+        "{\"unknown\": {\"a\": [1, {\"b\": null}]}, \"optionalInt32\": 1}",
+        TestAllTypes.getDefaultInstance());
+  }
+
+  public void testStreamingParserWellKnownTypes() throws Exception {
+    JsonFormat.TypeRegistry registry =
+        JsonFormat.TypeRegistry.newBuilder().add(TestAllTypes.getDescriptor()).build();
+    JsonFormat.Parser parser = JsonFormat.parser().usingTypeRegistry(registry);
+    JsonFormat.Printer printer = JsonFormat.printer().usingTypeRegistry(registry);
+
+    TestAny.Builder anyBuilder = TestAny.newBuilder();
+    anyBuilder.setAnyValue(Any.pack(TestAllTypes.newBuilder().setOptionalInt32(1234).build()));
+    anyBuilder.putAnyMap("int32_wrapper", Any.pack(Int32Value.newBuilder().setValue(123).build()));
+    anyBuilder.putAnyMap("timestamp", Any.pack(Timestamps.parse("1969-12-31T23:59:59Z")));
+    assertStreamingParserEquals(
+        parser, printer.print(anyBuilder.build()), TestAny.getDefaultInstance());
+
+    ListValue.Builder listBuilder = ListValue.newBuilder();
+    listBuilder.addValues(Value.newBuilder().setNumberValue(1.125).build());
+    listBuilder.addValues(Value.newBuilder().setNullValueValue(0).build());
+    TestStruct.Builder structBuilder = TestStruct.newBuilder();
+    structBuilder
+        .getStructValueBuilder()
+        .putFields("list_value", Value.newBuilder().setListValue(listBuilder.build()).build());
+    assertStreamingParserEquals(
+        parser, printer.print(structBuilder.build()), TestStruct.getDefaultInstance());
+
+    TestWrappers.Builder wrappersBuilder = TestWrappers.newBuilder();
+    wrappersBuilder.getInt32ValueBuilder().setValue(0);
+    wrappersBuilder.getStringValueBuilder().setValue("wrapped");
+    assertStreamingParserEquals(
+        parser, printer.print(wrappersBuilder.build()), TestWrappers.getDefaultInstance());
+  }
+
+  public void testStreamingParserRejects() throws Exception {
+    assertStreamingParserRejects("", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects("[]", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects("{\"optionalInt32\": 1", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects("{\"optionalInt32\": 1,}", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects("{ xxx - yyy }", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects("{\"unknownField\": 1}", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects(
+        "{\"optionalInt32\": 2147483648}", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects(
+        "{\"optionalNestedMessage\": 1}", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects(
+        "{\"repeatedInt32\": {\"a\": 1}}", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects(
+        "{\"repeatedInt32\": [1, null]}", TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects("{\"int32ToInt32Map\": [1]}", TestMap.getDefaultInstance());
+    assertStreamingParserRejects(
+        "{\"int32ToInt32Map\": {\"1\": null}}", TestMap.getDefaultInstance());
+    assertStreamingParserRejects(
+        "{\"optionalNestedMessage\": {}, \"optional_nested_message\": {}}",
+        TestAllTypes.getDefaultInstance());
+    assertStreamingParserRejects(
+        "{\"oneofInt32\": 1, \"oneofNullValue\": null}", TestOneof.getDefaultInstance());
+  }
+
+  public void testStreamingParserRecursionLimit() throws Exception {
+    String input =
+        "{\"nested\": {\"nested\": {\"nested\": {\"nested\": {\"value\": 1234}}}}}";
+    TestRecursive.Builder builder = TestRecursive.newBuilder();
+    JsonFormat.parser().usingStreamingReader().merge(input, builder);
+    assertEquals(1234, builder.getNested().getNested().getNested().getNested().getValue());
+
+    try {
+      JsonFormat.parser()
+          .usingStreamingReader()
+          .usingRecursionLimit(3)
+          .merge(input, TestRecursive.newBuilder());
+      fail("Exception is expected.");
+    } catch (InvalidProtocolBufferException e) {
+      // Expected.
+    }
+  }
+
+  public void testStreamingParserJsonException() throws Exception {
+    InputStream throwingInputStream =
+        new InputStream() {
+          public int read() throws IOException {
+            throw new IOException("12345");
+          }
+        };
+    InputStreamReader throwingReader = new InputStreamReader(throwingInputStream);
+    // The streaming reader forwards the IOException of the underlying reader as well.
+    try {
+      TestAllTypes.Builder builder = TestAllTypes.newBuilder();
+      JsonFormat.parser().usingStreamingReader().merge(throwingReader, builder);
+      fail("Exception is expected.");
+    } catch (IOException e) {
+      assertFalse(e instanceof InvalidProtocolBufferException);
+      assertEquals("12345", e.getMessage());
+    }
+  }
 }
@@ -4,17 +4,24 @@
 
 package org.chromium.ui.resources.async;
 
+import android.os.SystemClock;
 import android.util.SparseArray;
 
+import org.chromium.base.ThreadUtils;
 import org.chromium.base.TraceEvent;
-import org.chromium.base.task.AsyncTask;
+import org.chromium.base.VisibleForTesting;
+import org.chromium.base.metrics.RecordHistogram;
 import org.chromium.ui.resources.Resource;
 import org.chromium.ui.resources.ResourceLoader;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Handles loading Android resources from disk asynchronously and synchronously.
+ * Handles loading Android resources from disk asynchronously and synchronously.  Asynchronous
+ * loads are decoded a few at a time on background threads by a {@link ResourceDecodeExecutor}
+ * shared by all the loaders.
  */
 public class AsyncPreloadResourceLoader extends ResourceLoader {
     /**
@@ -32,8 +39,12 @@ public class AsyncPreloadResourceLoader extends ResourceLoader {
         Resource create(int resId);
     }
 
-    private final SparseArray<AsyncLoadTask> mOutstandingLoads = new SparseArray<AsyncLoadTask>();
+    private final SparseArray<DecodeTask> mOutstandingLoads = new SparseArray<DecodeTask>();
     private final ResourceCreator mCreator;
+    private final ResourceDecodeExecutor mExecutor;
+
+    /** When the current batch of preloads started, or 0 if no preload is outstanding. */
+    private long mPreloadBatchStartTimeMs;
 
     /**
      * Creates a {@link AsyncPreloadResourceLoader}.
@@ -45,8 +56,15 @@ public class AsyncPreloadResourceLoader extends ResourceLoader {
      */
     public AsyncPreloadResourceLoader(int resourceType, ResourceLoaderCallback callback,
             ResourceCreator creator) {
+        this(resourceType, callback, creator, ResourceDecodeExecutor.getInstance());
+    }
+
+    @VisibleForTesting
+    AsyncPreloadResourceLoader(int resourceType, ResourceLoaderCallback callback,
+            ResourceCreator creator, ResourceDecodeExecutor executor) {
         super(resourceType, callback);
         mCreator = creator;
+        mExecutor = executor;
     }
 
     /**
@@ -58,34 +76,37 @@ public class AsyncPreloadResourceLoader extends ResourceLoader {
      */
     @Override
     public void loadResource(int resId) {
-        AsyncLoadTask task = mOutstandingLoads.get(resId);
+        DecodeTask task = mOutstandingLoads.get(resId);
 
         if (task != null) {
-            if (!task.cancel(false)) {
-                try {
-                    registerResource(task.get(), resId);
-                } catch (InterruptedException e) {
-                    notifyLoadFinished(resId, null);
-                } catch (ExecutionException e) {
-                    notifyLoadFinished(resId, null);
-                }
+            // A queued decode is run right away on this thread rather than waiting for a decoder.
+            if (!mExecutor.remove(task)) {
+                registerResource(getResult(task), resId);
                 return;
             }
+            task.cancel(false);
         }
         registerResource(createResource(resId), resId);
     }
 
     /**
      * Loads a resource asynchronously.  The load will be queued if other resources are currently
-     * being loaded.  The {@link ResourceLoaderCallback} will be notified on completion.
+     * being loaded, and several resources are loaded in parallel.  Preloading a resource that is
+     * already queued moves it to the front of the queue.  The {@link ResourceLoaderCallback} will
+     * be notified on completion.
      * @param resId The Android resource id to load.
      */
     @Override
     public void preloadResource(int resId) {
-        if (mOutstandingLoads.get(resId) != null) return;
-        AsyncLoadTask task = new AsyncLoadTask(resId);
-        task.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        DecodeTask task = mOutstandingLoads.get(resId);
+        if (task != null) {
+            mExecutor.moveToFront(task);
+            return;
+        }
+        if (mOutstandingLoads.size() == 0) mPreloadBatchStartTimeMs = SystemClock.elapsedRealtime();
+        task = new DecodeTask(resId);
         mOutstandingLoads.put(resId, task);
+        mExecutor.execute(task);
     }
 
     private Resource createResource(int resId) {
@@ -101,26 +122,58 @@ public class AsyncPreloadResourceLoader extends ResourceLoader {
         notifyLoadFinished(resourceId, resource);
         if (resource != null) resource.getBitmap().recycle();
         mOutstandingLoads.remove(resourceId);
+        if (mOutstandingLoads.size() == 0 && mPreloadBatchStartTimeMs != 0) {
+            RecordHistogram.recordMediumTimesHistogram("Android.ResourceLoader.PreloadBatchTime",
+                    SystemClock.elapsedRealtime() - mPreloadBatchStartTimeMs,
+                    TimeUnit.MILLISECONDS);
+            mPreloadBatchStartTimeMs = 0;
+        }
+    }
+
+    private void onDecodeFinished(DecodeTask task) {
+        // If we've been removed from the list of outstanding load tasks, don't broadcast the
+        // callback.
+        if (mOutstandingLoads.get(task.mResourceId) != task || task.isCancelled()) return;
+
+        RecordHistogram.recordTimesHistogram("Android.ResourceLoader.PreloadQueueTime",
+                task.mStartTimeMs - task.mQueueTimeMs, TimeUnit.MILLISECONDS);
+        RecordHistogram.recordTimesHistogram("Android.ResourceLoader.PreloadDecodeTime",
+                task.mEndTimeMs - task.mStartTimeMs, TimeUnit.MILLISECONDS);
+        registerResource(getResult(task), task.mResourceId);
+    }
+
+    /** Waits for |task| to finish, and returns its resource or null if it failed. */
+    private static Resource getResult(DecodeTask task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
     }
 
-    private class AsyncLoadTask extends AsyncTask<Resource> {
+    private class DecodeTask extends FutureTask<Resource> {
         private final int mResourceId;
+        private final long mQueueTimeMs = SystemClock.elapsedRealtime();
+        private volatile long mStartTimeMs;
+        private volatile long mEndTimeMs;
 
-        public AsyncLoadTask(int resourceId) {
+        public DecodeTask(int resourceId) {
+            super(() -> createResource(resourceId));
             mResourceId = resourceId;
         }
 
         @Override
-        protected Resource doInBackground() {
-            return createResource(mResourceId);
+        public void run() {
+            mStartTimeMs = SystemClock.elapsedRealtime();
+            super.run();
         }
 
         @Override
-        protected void onPostExecute(Resource resource) {
-            // If we've been removed from the list of outstanding load tasks, don't broadcast the
-            // callback.
-            if (mOutstandingLoads.get(mResourceId) == null) return;
-            registerResource(resource, mResourceId);
+        protected void done() {
+            mEndTimeMs = SystemClock.elapsedRealtime();
+            ThreadUtils.postOnUiThread(() -> onDecodeFinished(this));
         }
     }
 }
@@ -0,0 +1,85 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.ui.resources.async;
+
+import org.chromium.base.VisibleForTesting;
+import org.chromium.base.task.AsyncTask;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs resource decodes on {@link AsyncTask#THREAD_POOL_EXECUTOR}, a few at a time so that the
+ * decodes queued at startup don't take over the whole pool. A queued decode can be moved to the
+ * front of the queue, or taken out of it to be run on the calling thread instead.
+ */
+class ResourceDecodeExecutor implements Executor {
+    /** The executor shared by all the {@link AsyncPreloadResourceLoader}s. */
+    private static final ResourceDecodeExecutor sInstance = new ResourceDecodeExecutor(
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)),
+            AsyncTask.THREAD_POOL_EXECUTOR);
+
+    private final int mMaxParallelDecodes;
+    private final Executor mExecutor;
+    private final ArrayDeque<Runnable> mQueue = new ArrayDeque<>();
+    private int mActiveCount;
+
+    static ResourceDecodeExecutor getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param maxParallelDecodes The maximum number of decodes running at the same time.
+     * @param executor           The {@link Executor} to run the decodes on.
+     */
+    @VisibleForTesting
+    ResourceDecodeExecutor(int maxParallelDecodes, Executor executor) {
+        mMaxParallelDecodes = maxParallelDecodes;
+        mExecutor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable decode) {
+        mQueue.offer(decode);
+        scheduleNext();
+    }
+
+    /**
+     * Moves |decode| to the front of the queue, so that it runs as soon as a decode finishes.
+     * @return Whether |decode| was still queued.
+     */
+    synchronized boolean moveToFront(Runnable decode) {
+        if (!mQueue.remove(decode)) return false;
+        mQueue.offerFirst(decode);
+        return true;
+    }
+
+    /**
+     * Removes |decode| from the queue. It won't be run by this executor.
+     * @return Whether |decode| was still queued.
+     */
+    synchronized boolean remove(Runnable decode) {
+        return mQueue.remove(decode);
+    }
+
+    private synchronized void scheduleNext() {
+        while (mActiveCount < mMaxParallelDecodes && !mQueue.isEmpty()) {
+            final Runnable decode = mQueue.poll();
+            mActiveCount++;
+            mExecutor.execute(() -> {
+                try {
+                    decode.run();
+                } finally {
+                    onDecodeFinished();
+                }
+            });
+        }
+    }
+
+    private synchronized void onDecodeFinished() {
+        mActiveCount--;
+        scheduleNext();
+    }
+}
@@ -0,0 +1,183 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.ui.resources.dynamics;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+import android.util.DisplayMetrics;
+
+import org.chromium.base.ContextUtils;
+import org.chromium.base.MemoryPressureLevel;
+import org.chromium.base.MemoryPressureListener;
+import org.chromium.base.ThreadUtils;
+import org.chromium.base.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small pool of ARGB_8888 {@link Bitmap}s, so that resources that change size often, like the
+ * captures of a {@link ViewResourceAdapter} during an animation, don't allocate a new bitmap and
+ * recycle the old one every time.
+ *
+ * On KitKat and above, a pooled bitmap is reconfigured to any size that fits in its allocation.
+ * Before that, only a bitmap of the exact size can be reused. Must be used on the UI thread.
+ *
+ * The shared pool holds at most two full-screen bitmaps, and is cleared under memory pressure and
+ * when the app goes to the background.
+ */
+class BitmapPool {
+    /** The number of full-screen bitmaps that fit in the shared pool. */
+    private static final int SCREEN_BITMAPS = 2;
+
+    /** The pool shared by all the {@link ViewResourceAdapter}s, created lazily. */
+    private static BitmapPool sInstance;
+
+    private final long mMaxBytes;
+    private final List<Bitmap> mBitmaps = new ArrayList<>();
+    private long mBytes;
+
+    static BitmapPool getInstance() {
+        ThreadUtils.assertOnUiThread();
+        if (sInstance == null) {
+            DisplayMetrics metrics =
+                    ContextUtils.getApplicationContext().getResources().getDisplayMetrics();
+            sInstance = new BitmapPool(
+                    (long) SCREEN_BITMAPS * metrics.widthPixels * metrics.heightPixels * 4);
+            sInstance.registerTrimCallbacks();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxBytes The maximum number of bytes held by the bitmaps in the pool.
+     */
+    @VisibleForTesting
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a transparent bitmap of the given size, reusing a pooled one if possible.
+     * @param width  The width of the bitmap.
+     * @param height The height of the bitmap.
+     */
+    Bitmap acquire(int width, int height) {
+        ThreadUtils.assertOnUiThread();
+        Bitmap bitmap = takeBitmap(width, height);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        bitmap.setHasAlpha(true);
+        return bitmap;
+    }
+
+    /**
+     * Gives |bitmap| back to the pool. It must not be used by the caller anymore. It is recycled
+     * if the pool is full.
+     */
+    void release(Bitmap bitmap) {
+        ThreadUtils.assertOnUiThread();
+        if (bitmap.isRecycled()) return;
+        long bytes = getAllocationByteCount(bitmap);
+        // Evict the oldest bitmaps to make room for the most recent one.
+        while (!mBitmaps.isEmpty() && mBytes + bytes > mMaxBytes) {
+            Bitmap evicted = mBitmaps.remove(0);
+            mBytes -= getAllocationByteCount(evicted);
+            evicted.recycle();
+        }
+        if (bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        mBitmaps.add(bitmap);
+        mBytes += bytes;
+    }
+
+    /** Recycles all the pooled bitmaps. */
+    void clear() {
+        ThreadUtils.assertOnUiThread();
+        for (Bitmap bitmap : mBitmaps) bitmap.recycle();
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Clears the pool when memory runs low, and when the UI is hidden. The memory pressure
+     * signals also cover the ones found by polling, which don't come with a trim level.
+     */
+    @VisibleForTesting
+    void registerTrimCallbacks() {
+        MemoryPressureListener.addCallback(pressure -> {
+            if (pressure != MemoryPressureLevel.NONE) clear();
+        });
+        ContextUtils.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                // TRIM_MEMORY_UI_HIDDEN and the background levels are all above RUNNING_LOW.
+                if (level >= TRIM_MEMORY_RUNNING_LOW) clear();
+            }
+
+            @Override
+            public void onLowMemory() {
+                clear();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration configuration) {}
+        });
+    }
+
+    @VisibleForTesting
+    int getPooledBitmapCount() {
+        return mBitmaps.size();
+    }
+
+    /** Removes and returns the smallest pooled bitmap that can hold the given size, if any. */
+    private Bitmap takeBitmap(int width, int height) {
+        boolean canReconfigure = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        long neededBytes = (long) width * height * 4;
+        int bestIndex = -1;
+        for (int i = 0; i < mBitmaps.size(); i++) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                bestIndex = i;
+                break;
+            }
+            if (!canReconfigure || getAllocationByteCount(bitmap) < neededBytes) continue;
+            if (bestIndex == -1
+                    || getAllocationByteCount(bitmap)
+                            < getAllocationByteCount(mBitmaps.get(bestIndex))) {
+                bestIndex = i;
+            }
+        }
+        if (bestIndex == -1) return null;
+
+        Bitmap bitmap = mBitmaps.remove(bestIndex);
+        mBytes -= getAllocationByteCount(bitmap);
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            reconfigure(bitmap, width, height);
+        }
+        return bitmap;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height) {
+        bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static long getAllocationByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+}
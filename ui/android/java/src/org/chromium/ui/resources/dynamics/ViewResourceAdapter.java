@@ -7,11 +7,13 @@ package org.chromium.ui.resources.dynamics;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.view.View;
 import android.view.View.OnLayoutChangeListener;
 
 import org.chromium.base.TraceEvent;
+import org.chromium.base.VisibleForTesting;
 import org.chromium.ui.resources.Resource;
 import org.chromium.ui.resources.ResourceFactory;
 import org.chromium.ui.resources.statics.NinePatchData;
@@ -21,20 +23,57 @@ import org.chromium.ui.resources.statics.NinePatchData;
  * this adapter {@link ViewResourceAdapter#invalidate(Rect)} must be called when parts of the
  * {@link View} are invalidated.  For {@link ViewGroup}s the easiest way to do this is to override
  * {@link View#invalidateChildInParent(int[], Rect)}.
+ *
+ * In tiled capture mode, the {@link View} is split into tiles of {@link #TILE_SIZE} pixels which
+ * each track their own dirty region, so that only the invalidated regions are cleared and redrawn,
+ * rather than the bounding box of all of them. This is meant for views which are invalidated in
+ * small, distant regions during animations.
  */
 public class ViewResourceAdapter implements DynamicResource, OnLayoutChangeListener {
+    @VisibleForTesting
+    static final int TILE_SIZE = 256;
+
+    /**
+     * The maximum number of separate passes to draw the dirty tiles in. Drawing walks the whole
+     * view hierarchy, so beyond this the bounding box of the dirty tiles is drawn in one pass.
+     */
+    @VisibleForTesting
+    static final int MAX_TILE_PASSES = 4;
+
     private final View mView;
     private final Rect mDirtyRect = new Rect();
+    private final boolean mUseTiledCapture;
 
     private Bitmap mBitmap;
     private Rect mBitmapSize = new Rect();
 
+    /** Dirty region of each tile of |mBitmap|, row by row, when using tiled capture. */
+    private Rect[] mDirtyTiles;
+    private int mTileColumns;
+    private int mTileRows;
+    private final Rect mTileRect = new Rect();
+    private final Rect mCaptureRect = new Rect();
+
+    /** Bytes of |mBitmap| redrawn by the last capture. */
+    private long mLastCapturedBytes;
+
     /**
      * Builds a {@link ViewResourceAdapter} instance around {@code view}.
      * @param view The {@link View} to expose as a {@link Resource}.
      */
     public ViewResourceAdapter(View view) {
+        this(view, false);
+    }
+
+    /**
+     * Builds a {@link ViewResourceAdapter} instance around {@code view}.
+     * @param view            The {@link View} to expose as a {@link Resource}.
+     * @param useTiledCapture Whether to only redraw the dirty tiles of the {@link View}. Dirty
+     *                        tiles are cleared before being redrawn.
+     */
+    public ViewResourceAdapter(View view, boolean useTiledCapture) {
         mView = view;
+        mUseTiledCapture = useTiledCapture;
         mView.addOnLayoutChangeListener(this);
     }
 
@@ -52,19 +91,34 @@ public class ViewResourceAdapter implements DynamicResource, OnLayoutChangeListe
         if (validateBitmap()) {
             Canvas canvas = new Canvas(mBitmap);
 
+            mCaptureRect.set(mDirtyRect);
             onCaptureStart(canvas, mDirtyRect.isEmpty() ? null : mDirtyRect);
 
-            if (!mDirtyRect.isEmpty()) canvas.clipRect(mDirtyRect);
-            capture(canvas);
+            if (mUseTiledCapture) {
+                // onCaptureStart() may have extended the dirty rect.
+                if (!mCaptureRect.equals(mDirtyRect)) markDirtyTiles(mDirtyRect);
+                mLastCapturedBytes = captureDirtyTiles(canvas);
+            } else {
+                if (!mDirtyRect.isEmpty()) canvas.clipRect(mDirtyRect);
+                capture(canvas);
+                mCaptureRect.set(mBitmapSize);
+                if (!mCaptureRect.intersect(mDirtyRect)) mCaptureRect.setEmpty();
+                mLastCapturedBytes = getByteCount(mCaptureRect);
+            }
 
             onCaptureEnd();
         } else {
             assert mBitmap.getWidth() == 1 && mBitmap.getHeight() == 1;
             mBitmap.setPixel(0, 0, Color.TRANSPARENT);
+            mLastCapturedBytes = getByteCount(mBitmapSize);
         }
 
         mDirtyRect.setEmpty();
-        TraceEvent.end("ViewResourceAdapter:getBitmap");
+        if (mDirtyTiles != null) {
+            for (Rect tile : mDirtyTiles) tile.setEmpty();
+        }
+        TraceEvent.end("ViewResourceAdapter:getBitmap",
+                TraceEvent.enabled() ? "captured_bytes=" + mLastCapturedBytes : null);
         return mBitmap;
     }
 
@@ -101,7 +155,10 @@ public class ViewResourceAdapter implements DynamicResource, OnLayoutChangeListe
         final int oldWidth = oldRight - oldLeft;
         final int oldHeight = oldBottom - oldTop;
 
-        if (width != oldWidth || height != oldHeight) mDirtyRect.set(0, 0, width, height);
+        if (width != oldWidth || height != oldHeight) {
+            mDirtyRect.set(0, 0, width, height);
+            if (mUseTiledCapture) markDirtyTiles(mDirtyRect);
+        }
     }
 
     /**
@@ -115,6 +172,7 @@ public class ViewResourceAdapter implements DynamicResource, OnLayoutChangeListe
         } else {
             mDirtyRect.union(dirtyRect);
         }
+        if (mUseTiledCapture) markDirtyTiles(dirtyRect == null ? mDirtyRect : dirtyRect);
     }
 
     /**
@@ -124,6 +182,14 @@ public class ViewResourceAdapter implements DynamicResource, OnLayoutChangeListe
         mBitmap = null;
     }
 
+    /**
+     * @return The number of bytes of the bitmap redrawn by the last capture.
+     */
+    @VisibleForTesting
+    long getLastCapturedBytes() {
+        return mLastCapturedBytes;
+    }
+
     /**
      * @return Dirty rect that will be drawn on capture.
      */
@@ -166,17 +232,105 @@ public class ViewResourceAdapter implements DynamicResource, OnLayoutChangeListe
         }
         if (mBitmap != null
                 && (mBitmap.getWidth() != viewWidth || mBitmap.getHeight() != viewHeight)) {
-            mBitmap.recycle();
+            // The bitmap is likely to be resized again, e.g. during an animation.
+            BitmapPool.getInstance().release(mBitmap);
             mBitmap = null;
         }
 
         if (mBitmap == null) {
-            mBitmap = Bitmap.createBitmap(viewWidth, viewHeight, Bitmap.Config.ARGB_8888);
-            mBitmap.setHasAlpha(true);
+            mBitmap = BitmapPool.getInstance().acquire(viewWidth, viewHeight);
             mDirtyRect.set(0, 0, viewWidth, viewHeight);
             mBitmapSize.set(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+            if (mUseTiledCapture) resetTiles();
         }
 
         return !isEmpty;
     }
+
+    /** Sizes the tile grid for |mBitmap|, with all the tiles dirty. */
+    private void resetTiles() {
+        mTileColumns = (mBitmap.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        mTileRows = (mBitmap.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+        if (mDirtyTiles == null || mDirtyTiles.length != mTileColumns * mTileRows) {
+            mDirtyTiles = new Rect[mTileColumns * mTileRows];
+            for (int i = 0; i < mDirtyTiles.length; i++) mDirtyTiles[i] = new Rect();
+        }
+        for (Rect tile : mDirtyTiles) tile.setEmpty();
+        markDirtyTiles(mBitmapSize);
+    }
+
+    private void markDirtyTiles(Rect rect) {
+        // Without a grid, the whole bitmap is going to be drawn anyway.
+        if (mDirtyTiles == null) return;
+        int left = Math.max(0, rect.left / TILE_SIZE);
+        int top = Math.max(0, rect.top / TILE_SIZE);
+        int right = Math.min(mTileColumns, (rect.right + TILE_SIZE - 1) / TILE_SIZE);
+        int bottom = Math.min(mTileRows, (rect.bottom + TILE_SIZE - 1) / TILE_SIZE);
+        for (int row = top; row < bottom; row++) {
+            for (int column = left; column < right; column++) {
+                mTileRect.set(column * TILE_SIZE, row * TILE_SIZE, (column + 1) * TILE_SIZE,
+                        (row + 1) * TILE_SIZE);
+                if (mTileRect.intersect(rect)) getDirtyTile(row, column).union(mTileRect);
+            }
+        }
+    }
+
+    private Rect getDirtyTile(int row, int column) {
+        return mDirtyTiles[row * mTileColumns + column];
+    }
+
+    /**
+     * Clears and redraws the dirty regions of the tiles, merging those of adjacent tiles in a row.
+     * @return The number of bytes redrawn.
+     */
+    private long captureDirtyTiles(Canvas canvas) {
+        int passCount = 0;
+        mCaptureRect.setEmpty();
+        for (int row = 0; row < mTileRows; row++) {
+            for (int column = 0; column < mTileColumns; column++) {
+                if (getDirtyTile(row, column).isEmpty()) continue;
+                if (column == 0 || getDirtyTile(row, column - 1).isEmpty()) passCount++;
+                mCaptureRect.union(getDirtyTile(row, column));
+            }
+        }
+        if (passCount == 0) return 0;
+        if (passCount > MAX_TILE_PASSES) return captureRect(canvas, mCaptureRect);
+
+        long capturedBytes = 0;
+        for (int row = 0; row < mTileRows; row++) {
+            int column = 0;
+            while (column < mTileColumns) {
+                if (getDirtyTile(row, column).isEmpty()) {
+                    column++;
+                    continue;
+                }
+                mCaptureRect.setEmpty();
+                while (column < mTileColumns && !getDirtyTile(row, column).isEmpty()) {
+                    mCaptureRect.union(getDirtyTile(row, column));
+                    column++;
+                }
+                capturedBytes += captureRect(canvas, mCaptureRect);
+            }
+        }
+        return capturedBytes;
+    }
+
+    /**
+     * Clears and redraws |rect|, clipped to the bitmap.
+     * @return The number of bytes redrawn.
+     */
+    private long captureRect(Canvas canvas, Rect rect) {
+        if (!rect.intersect(0, 0, mBitmap.getWidth(), mBitmap.getHeight())) return 0;
+        canvas.save();
+        canvas.clipRect(rect);
+        canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        capture(canvas);
+        canvas.restore();
+        return getByteCount(rect);
+    }
+
+    private static long getByteCount(Rect rect) {
+        // Captures are ARGB_8888.
+        return 4L * rect.width() * rect.height();
+    }
 }
@@ -0,0 +1,123 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.ui.resources.async;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import org.chromium.base.metrics.RecordHistogram;
+import org.chromium.base.test.BaseRobolectricTestRunner;
+import org.chromium.ui.resources.Resource;
+import org.chromium.ui.resources.ResourceLoader.ResourceLoaderCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/** Unit tests for {@link AsyncPreloadResourceLoader} and {@link ResourceDecodeExecutor}. */
+@RunWith(BaseRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AsyncPreloadResourceLoaderTest {
+    private static final int MAX_PARALLEL_DECODES = 2;
+
+    /** Decodes handed to the thread pool, run by the test. */
+    private final List<Runnable> mRunningDecodes = new ArrayList<>();
+    private final List<Integer> mCreatedIds = new ArrayList<>();
+    private final List<Integer> mLoadedIds = new ArrayList<>();
+
+    private AsyncPreloadResourceLoader mLoader;
+
+    @Before
+    public void setUp() {
+        RecordHistogram.setDisabledForTests(true);
+        // Keep the callbacks posted by the decodes until the test runs them.
+        ShadowLooper.pauseMainLooper();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mRunningDecodes.add(command);
+            }
+        };
+        ResourceLoaderCallback callback = new ResourceLoaderCallback() {
+            @Override
+            public void onResourceLoaded(int resType, int resId, Resource resource) {
+                mLoadedIds.add(resId);
+            }
+
+            @Override
+            public void onResourceUnregistered(int resType, int resId) {}
+        };
+        mLoader = new AsyncPreloadResourceLoader(0, callback, resId -> {
+            mCreatedIds.add(resId);
+            return null;
+        }, new ResourceDecodeExecutor(MAX_PARALLEL_DECODES, executor));
+    }
+
+    @After
+    public void tearDown() {
+        RecordHistogram.setDisabledForTests(false);
+    }
+
+    /** Runs the oldest running decode, and the callbacks it posted. */
+    private void runNextDecode() {
+        mRunningDecodes.remove(0).run();
+        ShadowLooper.runUiThreadTasks();
+    }
+
+    @Test
+    public void testDecodesInParallel() {
+        for (int i = 1; i <= 4; i++) mLoader.preloadResource(i);
+        assertEquals(MAX_PARALLEL_DECODES, mRunningDecodes.size());
+
+        runNextDecode();
+        assertEquals(Arrays.asList(1), mLoadedIds);
+        assertEquals(MAX_PARALLEL_DECODES, mRunningDecodes.size());
+
+        while (!mRunningDecodes.isEmpty()) runNextDecode();
+        assertEquals(Arrays.asList(1, 2, 3, 4), mLoadedIds);
+    }
+
+    @Test
+    public void testDuplicatePreloadMovesToFront() {
+        for (int i = 1; i <= 4; i++) mLoader.preloadResource(i);
+        mLoader.preloadResource(4);
+        mLoader.preloadResource(1);
+
+        while (!mRunningDecodes.isEmpty()) runNextDecode();
+        assertEquals(Arrays.asList(1, 2, 4, 3), mCreatedIds);
+        assertEquals(Arrays.asList(1, 2, 4, 3), mLoadedIds);
+    }
+
+    @Test
+    public void testLoadQueuedResource() {
+        for (int i = 1; i <= 3; i++) mLoader.preloadResource(i);
+
+        // The queued resource is created right away, and not a second time.
+        mLoader.loadResource(3);
+        assertEquals(Arrays.asList(3), mLoadedIds);
+        while (!mRunningDecodes.isEmpty()) runNextDecode();
+        assertEquals(Arrays.asList(3, 1, 2), mCreatedIds);
+        assertEquals(Arrays.asList(3, 1, 2), mLoadedIds);
+    }
+
+    @Test
+    public void testLoadRunningResource() {
+        mLoader.preloadResource(1);
+        mRunningDecodes.remove(0).run();
+
+        // The finished decode is used, and its posted callback is dropped.
+        mLoader.loadResource(1);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(Arrays.asList(1), mCreatedIds);
+        assertEquals(Arrays.asList(1), mLoadedIds);
+    }
+}
@@ -0,0 +1,158 @@
+// Copyright 2018 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.ui.resources.dynamics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import org.chromium.base.MemoryPressureLevel;
+import org.chromium.base.MemoryPressureListener;
+import org.chromium.base.test.BaseRobolectricTestRunner;
+
+/** Unit tests for {@link ViewResourceAdapter} and {@link BitmapPool}. */
+@RunWith(BaseRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ViewResourceAdapterTest {
+    private static final int WIDTH = 4 * ViewResourceAdapter.TILE_SIZE;
+    private static final int HEIGHT = ViewResourceAdapter.TILE_SIZE;
+
+    private static ViewResourceAdapter createAdapter(boolean useTiledCapture) {
+        View view = new View(RuntimeEnvironment.application);
+        ViewResourceAdapter adapter = new ViewResourceAdapter(view, useTiledCapture);
+        view.layout(0, 0, WIDTH, HEIGHT);
+        return adapter;
+    }
+
+    @Test
+    public void testFirstCaptureDrawsEverything() {
+        ViewResourceAdapter adapter = createAdapter(true);
+        assertTrue(adapter.isDirty());
+        adapter.getBitmap();
+        assertEquals(WIDTH * HEIGHT * 4, adapter.getLastCapturedBytes());
+        assertFalse(adapter.isDirty());
+    }
+
+    @Test
+    public void testTiledCaptureOnlyDrawsDirtyRegions() {
+        ViewResourceAdapter tiled = createAdapter(true);
+        ViewResourceAdapter untiled = createAdapter(false);
+        tiled.getBitmap();
+        untiled.getBitmap();
+
+        // Two small regions at both ends of the view.
+        for (ViewResourceAdapter adapter : new ViewResourceAdapter[] {tiled, untiled}) {
+            adapter.invalidate(new Rect(10, 10, 20, 20));
+            adapter.invalidate(new Rect(WIDTH - 20, 10, WIDTH - 10, 20));
+            adapter.getBitmap();
+        }
+        assertEquals(2 * 10 * 10 * 4, tiled.getLastCapturedBytes());
+        assertEquals((WIDTH - 20) * 10 * 4, untiled.getLastCapturedBytes());
+    }
+
+    @Test
+    public void testTiledCaptureMergesAdjacentTiles() {
+        ViewResourceAdapter adapter = createAdapter(true);
+        adapter.getBitmap();
+
+        // A region across the first two tiles is drawn in one pass.
+        int tile = ViewResourceAdapter.TILE_SIZE;
+        adapter.invalidate(new Rect(tile - 10, 0, tile + 10, 10));
+        adapter.getBitmap();
+        assertEquals(20 * 10 * 4, adapter.getLastCapturedBytes());
+    }
+
+    @Test
+    public void testTiledCaptureFallsBackToBoundingBox() {
+        View view = new View(RuntimeEnvironment.application);
+        ViewResourceAdapter adapter = new ViewResourceAdapter(view, true);
+        int tile = ViewResourceAdapter.TILE_SIZE;
+        int rows = ViewResourceAdapter.MAX_TILE_PASSES + 1;
+        view.layout(0, 0, tile, rows * tile);
+        adapter.getBitmap();
+
+        // One region per row is more passes than allowed.
+        for (int row = 0; row < rows; row++) {
+            adapter.invalidate(new Rect(0, row * tile, 10, row * tile + 10));
+        }
+        adapter.getBitmap();
+        assertEquals(10 * ((rows - 1) * tile + 10) * 4, adapter.getLastCapturedBytes());
+    }
+
+    @Test
+    public void testBitmapPoolReusesBitmaps() {
+        BitmapPool pool = new BitmapPool(100 * 100 * 4);
+        Bitmap bitmap = pool.acquire(100, 100);
+        pool.release(bitmap);
+        assertEquals(1, pool.getPooledBitmapCount());
+        assertSame(bitmap, pool.acquire(100, 100));
+        assertEquals(0, pool.getPooledBitmapCount());
+
+        // Bitmaps over the budget are recycled rather than pooled.
+        Bitmap large = pool.acquire(200, 200);
+        pool.release(large);
+        assertEquals(0, pool.getPooledBitmapCount());
+        assertTrue(large.isRecycled());
+    }
+
+    @Test
+    public void testBitmapPoolClearRecyclesBitmaps() {
+        BitmapPool pool = new BitmapPool(2 * 100 * 100 * 4);
+        Bitmap first = pool.acquire(100, 100);
+        Bitmap second = pool.acquire(100, 100);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(2, pool.getPooledBitmapCount());
+
+        pool.clear();
+        assertEquals(0, pool.getPooledBitmapCount());
+        assertTrue(first.isRecycled());
+        assertTrue(second.isRecycled());
+
+        // The pool is still usable after being cleared.
+        Bitmap bitmap = pool.acquire(100, 100);
+        assertFalse(bitmap.isRecycled());
+        pool.release(bitmap);
+        assertEquals(1, pool.getPooledBitmapCount());
+    }
+
+    @Test
+    public void testBitmapPoolTrimmedOnLowMemory() {
+        BitmapPool pool = new BitmapPool(100 * 100 * 4);
+        pool.registerTrimCallbacks();
+
+        // Moderate memory use while running doesn't trim the pool.
+        Bitmap bitmap = pool.acquire(100, 100);
+        pool.release(bitmap);
+        RuntimeEnvironment.application.onTrimMemory(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(1, pool.getPooledBitmapCount());
+
+        RuntimeEnvironment.application.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, pool.getPooledBitmapCount());
+        assertTrue(bitmap.isRecycled());
+
+        // Hiding the UI trims the pool.
+        pool.release(pool.acquire(100, 100));
+        RuntimeEnvironment.application.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, pool.getPooledBitmapCount());
+
+        // So does memory pressure.
+        pool.release(pool.acquire(100, 100));
+        MemoryPressureListener.notifyMemoryPressure(MemoryPressureLevel.MODERATE);
+        assertEquals(0, pool.getPooledBitmapCount());
+    }
+}